@@ -4,28 +4,37 @@ import android.graphics.Point;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.Display;
+import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.constraintlayout.widget.ConstraintLayout;
 
+import com.richie.multimedialearning.media.MediaClock;
 import com.richie.multimedialearning.media.decoder.AudioDecoder;
 import com.richie.multimedialearning.media.decoder.BaseDecoder;
 import com.richie.multimedialearning.media.decoder.DecoderStateListenerAdapter;
 import com.richie.multimedialearning.media.decoder.VideoDecoder;
+import com.richie.multimedialearning.media.extractor.SharedDemuxer;
 import com.richie.multimedialearning.utils.FileUtils;
 import com.richie.multimedialearning.utils.MediaUtils;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 public class SimplePlayerActivity extends AppCompatActivity {
     private static final String TAG = "SimplePlayerActivity";
+    private final ExecutorService mExecutorService = Executors.newCachedThreadPool();
+    // 以下字段在 this 的锁内访问
     private AudioDecoder mAudioDecoder;
     private VideoDecoder mVideoDecoder;
+    // 每次 Surface 创建和销毁加一，Surface 销毁之后才准备好的解码器直接放弃
+    private int mSurfaceGeneration;
     private SurfaceView mSurfaceView;
+    private String mFilePath;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -63,35 +72,23 @@ public class SimplePlayerActivity extends AppCompatActivity {
         mSurfaceView.setLayoutParams(layoutParams);
         Log.i(TAG, "initPlayer: video width " + mediaMetaData.width + ", height " + mediaMetaData.height + ", rotation " + mediaMetaData.rotation);
 
-        mAudioDecoder = new AudioDecoder(filePath);
-        mAudioDecoder.setStateListener(new DecoderStateListenerAdapter() {
-            @Override
-            public void decoderPrepare(BaseDecoder decoder) {
-                super.decoderPrepare(decoder);
-//                mAudioDecoder.goOn();
-                Log.i(TAG, "decoderPrepare: audio");
-            }
-        });
-
-        mVideoDecoder = new VideoDecoder(filePath, mSurfaceView);
-        mVideoDecoder.setStateListener(new DecoderStateListenerAdapter() {
-            @Override
-            public void decoderPrepare(BaseDecoder decoder) {
-                super.decoderPrepare(decoder);
-                Log.i(TAG, "decoderPrepare: video");
-            }
-        });
-
-        final ExecutorService executorService = Executors.newFixedThreadPool(2);
+        mFilePath = filePath;
         mSurfaceView.getHolder().addCallback(new SurfaceHolder.Callback() {
             @Override
             public void surfaceCreated(SurfaceHolder holder) {
                 Log.d(TAG, "surfaceCreated: ");
-                mVideoDecoder = new VideoDecoder(filePath, holder.getSurface());
-                executorService.execute(mAudioDecoder);
-                executorService.execute(mVideoDecoder);
-                mAudioDecoder.goOn();
-                mVideoDecoder.goOn();
+                final Surface surface = holder.getSurface();
+                final int generation;
+                synchronized (SimplePlayerActivity.this) {
+                    generation = ++mSurfaceGeneration;
+                }
+                // 解复用器的 setDataSource 要读文件，不能在主线程创建
+                mExecutorService.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        startPlayback(surface, generation);
+                    }
+                });
             }
 
             @Override
@@ -101,19 +98,79 @@ public class SimplePlayerActivity extends AppCompatActivity {
 
             @Override
             public void surfaceDestroyed(SurfaceHolder holder) {
+                Log.d(TAG, "surfaceDestroyed: ");
+                stopPlayback();
+            }
+        });
+    }
 
+    /**
+     * 每个 Surface 创建一套解复用器和解码器，解码器结束时会关闭解复用器的队列，不能复用
+     */
+    private void startPlayback(Surface surface, int generation) {
+        // 音视频共用一个解复用器，文件只读取一遍
+        SharedDemuxer demuxer = null;
+        try {
+            demuxer = new SharedDemuxer(mFilePath);
+        } catch (IOException e) {
+            Log.w(TAG, "startPlayback: ", e);
+        }
+        // 音频驱动的主时钟，视频按音频实际播放的位置渲染
+        MediaClock mediaClock = new MediaClock();
+        AudioDecoder audioDecoder = new AudioDecoder(mFilePath);
+        audioDecoder.setMediaClock(mediaClock);
+        audioDecoder.setSharedDemuxer(demuxer);
+        audioDecoder.setStateListener(new DecoderStateListenerAdapter() {
+            @Override
+            public void decoderPrepare(BaseDecoder decoder) {
+                super.decoderPrepare(decoder);
+                Log.i(TAG, "decoderPrepare: audio");
+            }
+        });
+        VideoDecoder videoDecoder = new VideoDecoder(mFilePath, surface);
+        videoDecoder.setMediaClock(mediaClock);
+        videoDecoder.setSharedDemuxer(demuxer);
+        videoDecoder.setStateListener(new DecoderStateListenerAdapter() {
+            @Override
+            public void decoderPrepare(BaseDecoder decoder) {
+                super.decoderPrepare(decoder);
+                Log.i(TAG, "decoderPrepare: video");
             }
         });
+        synchronized (this) {
+            if (generation != mSurfaceGeneration) {
+                // 准备期间 Surface 已经销毁
+                if (demuxer != null) {
+                    demuxer.release();
+                }
+                return;
+            }
+            mAudioDecoder = audioDecoder;
+            mVideoDecoder = videoDecoder;
+            // 在锁内启动，避免和 onDestroy 中关闭线程池交错
+            mExecutorService.execute(audioDecoder);
+            mExecutorService.execute(videoDecoder);
+        }
+        audioDecoder.goOn();
+        videoDecoder.goOn();
     }
 
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
+    private synchronized void stopPlayback() {
+        mSurfaceGeneration++;
         if (mAudioDecoder != null) {
             mAudioDecoder.stop();
+            mAudioDecoder = null;
         }
         if (mVideoDecoder != null) {
             mVideoDecoder.stop();
+            mVideoDecoder = null;
         }
     }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        stopPlayback();
+        mExecutorService.shutdown();
+    }
 }
\ No newline at end of file
@@ -95,7 +95,6 @@ public class AudioRecordActivity extends AppCompatActivity implements View.OnTou
             public void onStop() {
                 logger.debug("onStop");
                 mAudioRecorder.release();
-                mAudioRecorder.makePCMFileToWAVFile();
                 runOnUiThread(new Runnable() {
                     @Override
                     public void run() {
@@ -4,17 +4,12 @@ import android.content.Context;
 import android.media.AudioFormat;
 import android.media.AudioRecord;
 import android.media.MediaRecorder;
-import android.text.TextUtils;
 import android.util.Log;
 
 import com.richie.multimedialearning.utils.FileUtils;
-import com.richie.multimedialearning.utils.wav.PcmToWav;
+import com.richie.multimedialearning.utils.wav.WavWriter;
 
-import java.io.BufferedOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -41,8 +36,14 @@ public class AudioRecorder {
     private AudioRecord mAudioRecord;
     // 录音状态
     private volatile Status mStatus = Status.STATUS_NO_READY;
+    // 采样率
+    private int mSampleRate;
+    // 声道数
+    private int mNumChannels;
+    // 位深
+    private int mBitsPerSample;
     // 文件名
-    private String mPcmFileName;
+    private String mFileName;
     // 录音监听
     private RecordStreamListener mRecordStreamListener;
 
@@ -80,7 +81,10 @@ public class AudioRecorder {
         mAudioRecord = new AudioRecord(audioSource, sampleRateInHz, channelConfig, audioFormat, mBufferSizeInBytes);
         int state = mAudioRecord.getState();
         Log.i(TAG, "createAudio state: " + state + ", initialized: " + (state == AudioRecord.STATE_INITIALIZED));
-        mPcmFileName = fileName;
+        mSampleRate = sampleRateInHz;
+        mNumChannels = channelConfig == AudioFormat.CHANNEL_IN_STEREO ? 2 : 1;
+        mBitsPerSample = audioFormat == AudioFormat.ENCODING_PCM_8BIT ? 8 : 16;
+        mFileName = fileName;
         mStatus = Status.STATUS_READY;
     }
 
@@ -146,15 +150,11 @@ public class AudioRecorder {
     }
 
     /**
-     * 将音频信息写入文件
+     * 将音频信息直接写入 wav 文件
      */
     private void writeAudioDataToFile() throws IOException {
-        String pcmFilePath = FileUtils.getPcmFilePath(mContext, mPcmFileName);
-        File file = new File(pcmFilePath);
-        if (file.exists()) {
-            file.delete();
-        }
-        try (OutputStream bos = new BufferedOutputStream(new FileOutputStream(file))) {
+        String wavFilePath = FileUtils.getWavFilePath(mContext, mFileName);
+        try (WavWriter wavWriter = new WavWriter(wavFilePath, mNumChannels, mSampleRate, mBitsPerSample)) {
             int bufferSizeInBytes = mBufferSizeInBytes;
             byte[] audioData = new byte[bufferSizeInBytes];
             if (mRecordStreamListener != null) {
@@ -164,7 +164,7 @@ public class AudioRecorder {
                 int readSize = mAudioRecord.read(audioData, 0, bufferSizeInBytes);
                 if (readSize >= 0) {
                     try {
-                        bos.write(audioData, 0, readSize);
+                        wavWriter.write(audioData, 0, readSize);
                         if (mRecordStreamListener != null) {
                             mRecordStreamListener.onRecord(audioData, readSize);
                         }
@@ -175,7 +175,7 @@ public class AudioRecorder {
                     Log.w(TAG, "writeAudioDataToFile error code: " + readSize);
                 }
             }
-            bos.flush();
+            Log.i(TAG, "保存wav文件成功 " + wavFilePath + ", data size: " + wavWriter.getDataSize());
         } finally {
             mAudioRecord.stop();
             if (mRecordStreamListener != null) {
@@ -184,30 +184,6 @@ public class AudioRecorder {
         }
     }
 
-    /**
-     * 将单个pcm文件转化为wav文件
-     */
-    public void makePCMFileToWAVFile() {
-        if (TextUtils.isEmpty(mPcmFileName)) {
-            return;
-        }
-        final String pcmFileName = mPcmFileName;
-        mExecutorService.execute(new Runnable() {
-            @Override
-            public void run() {
-                String wavFilePath = FileUtils.getWavFilePath(mContext, pcmFileName);
-                boolean result = PcmToWav.makePcmFileToWavFile(FileUtils.getPcmFilePath(mContext, pcmFileName), wavFilePath, false);
-                if (result) {
-                    //操作成功
-                    Log.i(TAG, "保存wav文件成功 " + wavFilePath);
-                } else {
-                    //操作失败
-                    Log.e(TAG, "makePCMFileToWAVFile fail");
-                }
-            }
-        });
-    }
-
     public void setRecordStreamListener(RecordStreamListener recordStreamListener) {
         this.mRecordStreamListener = recordStreamListener;
     }
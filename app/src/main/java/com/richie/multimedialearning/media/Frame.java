@@ -1,19 +1,103 @@
 package com.richie.multimedialearning.media;
 
-import android.media.MediaCodec;
+import com.richie.multimedialearning.media.codec.ICodec;
 
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * 一帧的解码数据
+ * 一帧的解码数据，直接指向解码器的输出缓冲区，不复制
+ * <p>
+ * 帧来自 {@link FramePool}，使用引用计数管理。回调中拿到的帧在回调返回后就会被解码器释放，
+ * 需要在回调之外使用时先调用 {@link #retain()}，用完后调用 {@link #release()}。
+ * 最后一个引用释放时输出缓冲区才归还给解码器，长时间持有会让解码器没有可用的输出缓冲区。
  *
  * @author Richie on 2020.12.29
  */
-public class Frame {
-    public ByteBuffer mByteBuffer;
-    private MediaCodec.BufferInfo mBufferInfo;
+public final class Frame {
+    private final FramePool mPool;
+    private final ICodec.BufferInfo mBufferInfo = new ICodec.BufferInfo();
+    private final AtomicInteger mRefCount = new AtomicInteger();
+    private ByteBuffer mByteBuffer;
+    private int mBufferIndex;
+    private boolean mRendered;
+    private int mGeneration;
 
-    public void setBufferInfo(MediaCodec.BufferInfo bufferInfo) {
+    Frame(FramePool pool) {
+        mPool = pool;
+    }
+
+    void set(int bufferIndex, ByteBuffer byteBuffer, ICodec.BufferInfo bufferInfo, boolean rendered, int generation) {
+        mBufferIndex = bufferIndex;
+        mRendered = rendered;
+        mByteBuffer = byteBuffer;
         mBufferInfo.set(bufferInfo.offset, bufferInfo.size, bufferInfo.presentationTimeUs, bufferInfo.flags);
+        mGeneration = generation;
+        byteBuffer.limit(bufferInfo.offset + bufferInfo.size);
+        byteBuffer.position(bufferInfo.offset);
+        mRefCount.set(1);
+    }
+
+    void clear() {
+        mByteBuffer = null;
+    }
+
+    int getBufferIndex() {
+        return mBufferIndex;
+    }
+
+    boolean isRendered() {
+        return mRendered;
+    }
+
+    int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * 解码数据，position 到 limit 是有效数据。多个使用方共享同一个缓冲区，需要修改位置时先 duplicate
+     *
+     * @return
+     */
+    public ByteBuffer getByteBuffer() {
+        return mByteBuffer;
+    }
+
+    public ICodec.BufferInfo getBufferInfo() {
+        return mBufferInfo;
+    }
+
+    public long getPresentationTimeUs() {
+        return mBufferInfo.presentationTimeUs;
+    }
+
+    /**
+     * 增加一个引用
+     *
+     * @return
+     */
+    public Frame retain() {
+        while (true) {
+            int count = mRefCount.get();
+            if (count <= 0) {
+                throw new IllegalStateException("Frame has been released");
+            }
+            if (mRefCount.compareAndSet(count, count + 1)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * 释放一个引用，最后一个引用释放后帧回到缓冲池，不能再访问
+     */
+    public void release() {
+        int count = mRefCount.decrementAndGet();
+        if (count == 0) {
+            mPool.recycle(this);
+        } else if (count < 0) {
+            mRefCount.incrementAndGet();
+            throw new IllegalStateException("Frame has been released");
+        }
     }
 }
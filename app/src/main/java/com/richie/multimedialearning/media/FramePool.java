@@ -0,0 +1,102 @@
+package com.richie.multimedialearning.media;
+
+import com.richie.multimedialearning.media.codec.ICodec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 固定容量的帧缓冲池，帧对象循环使用，运行过程中不分配内存
+ * <p>
+ * 帧的最后一个引用释放时通过 Recycler 归还解码器的输出缓冲区。解码器 flush 或者释放之后调用
+ * {@link #invalidate()}，之前取出的帧再释放时不会归还已经失效的缓冲区。
+ */
+public final class FramePool {
+    private final Recycler mRecycler;
+    private final Frame[] mFreeFrames;
+    private int mFreeCount;
+    private int mGeneration;
+
+    /**
+     * @param capacity 同时被使用的帧的最大个数
+     * @param recycler 归还输出缓冲区
+     */
+    public FramePool(int capacity, Recycler recycler) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity: " + capacity);
+        }
+        mRecycler = recycler;
+        mFreeFrames = new Frame[capacity];
+        for (int i = 0; i < capacity; i++) {
+            mFreeFrames[i] = new Frame(this);
+        }
+        mFreeCount = capacity;
+    }
+
+    /**
+     * 获取一帧，引用计数为 1
+     *
+     * @param bufferIndex 输出缓冲区索引
+     * @param byteBuffer  输出缓冲区
+     * @param bufferInfo  输出信息
+     * @return 所有帧都在使用时返回 null
+     */
+    public Frame obtain(int bufferIndex, ByteBuffer byteBuffer, ICodec.BufferInfo bufferInfo) {
+        return obtain(bufferIndex, byteBuffer, bufferInfo, false);
+    }
+
+    /**
+     * 获取一帧，引用计数为 1
+     *
+     * @param bufferIndex 输出缓冲区索引
+     * @param byteBuffer  输出缓冲区
+     * @param bufferInfo  输出信息
+     * @param rendered    解码器是否已经处理了这一帧，归还时原样交给 Recycler
+     * @return 所有帧都在使用时返回 null
+     */
+    public synchronized Frame obtain(int bufferIndex, ByteBuffer byteBuffer, ICodec.BufferInfo bufferInfo,
+                                     boolean rendered) {
+        if (mFreeCount == 0) {
+            return null;
+        }
+        Frame frame = mFreeFrames[--mFreeCount];
+        mFreeFrames[mFreeCount] = null;
+        frame.set(bufferIndex, byteBuffer, bufferInfo, rendered, mGeneration);
+        return frame;
+    }
+
+    synchronized void recycle(Frame frame) {
+        if (frame.getGeneration() == mGeneration) {
+            mRecycler.recycle(frame.getBufferIndex(), frame.getBufferInfo(), frame.isRendered());
+        }
+        frame.clear();
+        mFreeFrames[mFreeCount++] = frame;
+    }
+
+    /**
+     * 使已经取出的帧对应的缓冲区失效，在解码器 flush、stop 之前调用
+     */
+    public synchronized void invalidate() {
+        mGeneration++;
+    }
+
+    /**
+     * @return 正在使用的帧的个数
+     */
+    public synchronized int getActiveCount() {
+        return mFreeFrames.length - mFreeCount;
+    }
+
+    /**
+     * 归还输出缓冲区
+     */
+    public interface Recycler {
+        /**
+         * 在缓冲池的锁内调用，可能在任意线程
+         *
+         * @param bufferIndex 输出缓冲区索引
+         * @param bufferInfo  输出信息
+         * @param rendered    获取帧时传入的值
+         */
+        void recycle(int bufferIndex, ICodec.BufferInfo bufferInfo, boolean rendered);
+    }
+}
@@ -0,0 +1,153 @@
+package com.richie.multimedialearning.media;
+
+import android.media.AudioTimestamp;
+import android.media.AudioTrack;
+
+/**
+ * 音视频共享的主时钟，单位微秒
+ * <p>
+ * 有音频时以 AudioTrack 实际播放的位置为准：优先使用 getTimestamp 并按系统时间外推，拿不到时使用播放头位置。
+ * 外推不会超过已经写入的数据，音频欠载时时钟停住而不是继续走。没有音频或者音频结束后使用墙上时钟，
+ * 每次读取音频时间时同步墙上时钟，切换时不会跳变。线程安全。
+ */
+public final class MediaClock {
+    // getTimestamp 有开销，两次查询之间用上次的结果外推
+    private static final long TIMESTAMP_QUERY_INTERVAL_NS = 10_000_000L;
+
+    private final AudioTimestamp mAudioTimestamp = new AudioTimestamp();
+    private AudioTrack mAudioTrack;
+    private int mSampleRate;
+    private long mTimestampQueryNanos;
+    private boolean mTimestampValid;
+    // 写入第 mAudioAnchorFrame 帧时对应的媒体时间，-1 表示还没有写入
+    private long mAudioAnchorUs = -1;
+    private long mAudioAnchorFrame;
+    private long mWrittenFrames;
+    // 墙上时钟：mAnchorNanos 时刻的媒体时间是 mAnchorUs
+    private long mAnchorUs;
+    private long mAnchorNanos;
+    private boolean mRunning;
+
+    /**
+     * 设置驱动时钟的音频，AudioTrack 重建或者 flush 之后需要重新设置
+     *
+     * @param audioTrack 为 null 时使用墙上时钟
+     * @param sampleRate 采样率
+     */
+    public synchronized void setAudioTrack(AudioTrack audioTrack, int sampleRate) {
+        setAudioTrack(audioTrack, sampleRate, 0);
+    }
+
+    /**
+     * 设置驱动时钟的音频，AudioTrack 中已经有其他数据
+     *
+     * @param audioTrack    为 null 时使用墙上时钟
+     * @param sampleRate    采样率
+     * @param writtenFrames 之前已经写入这个 AudioTrack 的帧数，播放列表接着上一个文件播放时不为 0
+     */
+    public synchronized void setAudioTrack(AudioTrack audioTrack, int sampleRate, long writtenFrames) {
+        // 切换之前先同步墙上时钟
+        long nowUs = getTimeUs();
+        mAnchorUs = nowUs;
+        mAnchorNanos = System.nanoTime();
+        mAudioTrack = audioTrack;
+        mSampleRate = sampleRate;
+        mAudioAnchorUs = -1;
+        mAudioAnchorFrame = writtenFrames;
+        mWrittenFrames = writtenFrames;
+        mTimestampValid = false;
+        mTimestampQueryNanos = 0;
+    }
+
+    /**
+     * 音频写入 AudioTrack 之后调用
+     *
+     * @param ptsUs  这段数据的时间戳
+     * @param frames 写入的帧数，每帧包含所有声道的一个采样
+     */
+    public synchronized void onAudioWritten(long ptsUs, int frames) {
+        if (mAudioTrack == null) {
+            return;
+        }
+        if (mAudioAnchorUs < 0) {
+            mAudioAnchorUs = ptsUs;
+            mAudioAnchorFrame = mWrittenFrames;
+        }
+        mWrittenFrames += frames;
+    }
+
+    /**
+     * @return 当前的媒体时间
+     */
+    public synchronized long getTimeUs() {
+        long now = System.nanoTime();
+        if (mAudioTrack != null && mAudioAnchorUs >= 0) {
+            long playedFrames = Math.min(getPlayedFrames(now), mWrittenFrames);
+            long timeUs = mAudioAnchorUs + (playedFrames - mAudioAnchorFrame) * 1_000_000L / mSampleRate;
+            mAnchorUs = timeUs;
+            mAnchorNanos = now;
+            return timeUs;
+        }
+        return mRunning ? mAnchorUs + (now - mAnchorNanos) / 1000 : mAnchorUs;
+    }
+
+    private long getPlayedFrames(long now) {
+        AudioTrack audioTrack = mAudioTrack;
+        if (now - mTimestampQueryNanos >= TIMESTAMP_QUERY_INTERVAL_NS) {
+            mTimestampQueryNanos = now;
+            mTimestampValid = audioTrack.getTimestamp(mAudioTimestamp);
+        }
+        if (mTimestampValid && audioTrack.getPlayState() == AudioTrack.PLAYSTATE_PLAYING) {
+            return mAudioTimestamp.framePosition + (now - mAudioTimestamp.nanoTime) * mSampleRate / 1_000_000_000L;
+        }
+        // 播放头位置是无符号的 32 位整数
+        return audioTrack.getPlaybackHeadPosition() & 0xFFFFFFFFL;
+    }
+
+    /**
+     * 媒体时间对应的系统时间，用于 releaseOutputBuffer 指定显示时间
+     *
+     * @param ptsUs 媒体时间
+     * @return System.nanoTime 的时间
+     */
+    public long getNanoTime(long ptsUs) {
+        return System.nanoTime() + (ptsUs - getTimeUs()) * 1000;
+    }
+
+    /**
+     * 墙上时钟开始走
+     */
+    public synchronized void start() {
+        if (!mRunning) {
+            mAnchorNanos = System.nanoTime();
+            mRunning = true;
+        }
+    }
+
+    /**
+     * 墙上时钟暂停，音频时钟随 AudioTrack 停止
+     */
+    public synchronized void pause() {
+        if (mRunning) {
+            mAnchorUs = getTimeUs();
+            mRunning = false;
+        }
+    }
+
+    /**
+     * 跳转后设置墙上时钟的时间，音频时钟在下一次写入时重新定位。
+     * 向前跳转时 AudioTrack 不 flush，新的数据从已经写入的位置之后开始播放
+     *
+     * @param timeUs
+     */
+    public synchronized void setTimeUs(long timeUs) {
+        mAnchorUs = timeUs;
+        mAnchorNanos = System.nanoTime();
+        mAudioAnchorUs = -1;
+        mAudioAnchorFrame = mWrittenFrames;
+    }
+
+    public synchronized boolean isRunning() {
+        return mRunning;
+    }
+}
@@ -0,0 +1,315 @@
+package com.richie.multimedialearning.media;
+
+import android.util.Log;
+import android.view.Surface;
+
+import com.richie.multimedialearning.media.decoder.AudioDecoder;
+import com.richie.multimedialearning.media.decoder.BaseDecoder;
+import com.richie.multimedialearning.media.decoder.DecoderStateListenerAdapter;
+import com.richie.multimedialearning.media.decoder.VideoDecoder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 无缝连续播放多个文件
+ * <p>
+ * 当前文件开始播放后，下一个文件的音视频解码器就在后台创建、解析和配置，停在第一帧之前。
+ * 当前音频输出最后一帧时，下一个音频解码器接着往同一个 AudioTrack 写数据，不重新创建；
+ * 当前视频解码器释放、断开 Surface 之后，下一个视频解码器切换到这个 Surface 继续渲染。
+ * 两条轨道都切换完成后再预加载再下一个文件。每个文件使用自己的 MediaClock。
+ * <p>
+ * 没有某条轨道或者打不开的文件，对应的解码器初始化失败后直接当作这条轨道已经播完，两条都失败时跳过这个文件。
+ */
+public final class PlaylistPlayer {
+    private static final String TAG = "PlaylistPlayer";
+
+    /**
+     * 播放列表的状态回调，在解码线程调用
+     */
+    public interface Listener {
+        /**
+         * 开始播放一个文件，两条轨道都已经切换过来
+         *
+         * @param index    文件在列表中的位置
+         * @param filePath 文件路径
+         */
+        void onItemStart(int index, String filePath);
+
+        /**
+         * 列表全部播放完
+         */
+        void onPlaylistEnd();
+    }
+
+    private final List<String> mFiles;
+    private final Surface mSurface;
+    // 每个文件两个解码线程，预加载时最多同时有四个
+    private final ExecutorService mExecutor = Executors.newCachedThreadPool();
+    private Listener mListener;
+    private Item mCurrent;
+    private Item mNext;
+    private boolean mPaused;
+    private boolean mReleased;
+
+    /**
+     * @param files   按顺序播放的文件
+     * @param surface 视频输出的 Surface，所有文件共用
+     */
+    public PlaylistPlayer(List<String> files, Surface surface) {
+        mFiles = new ArrayList<>(files);
+        mSurface = surface;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * 开始播放第一个文件，同时预加载第二个
+     */
+    public synchronized void start() {
+        if (mCurrent != null || mReleased || mFiles.isEmpty()) {
+            return;
+        }
+        mCurrent = prepareItem(0, null);
+        startAudio(mCurrent);
+        startVideo(mCurrent);
+        if (mListener != null) {
+            mListener.onItemStart(0, mCurrent.mFilePath);
+        }
+        preloadNext();
+    }
+
+    public synchronized void pause() {
+        mPaused = true;
+        pauseItem(mCurrent);
+        pauseItem(mNext);
+    }
+
+    public synchronized void resume() {
+        mPaused = false;
+        resumeItem(mCurrent);
+        resumeItem(mNext);
+    }
+
+    /**
+     * 停止播放并释放所有解码器，之后不能再使用
+     */
+    public synchronized void release() {
+        mReleased = true;
+        // 下一个音频解码器可能已经接过当前的 AudioTrack，先停当前的；没有开始写的 AudioTrack 会还给当前解码器释放
+        stopItem(mCurrent);
+        stopItem(mNext);
+        mCurrent = null;
+        mNext = null;
+        mExecutor.shutdown();
+    }
+
+    /**
+     * @return 当前播放的文件位置，没有开始或者已经结束时为 -1
+     */
+    public synchronized int getCurrentIndex() {
+        return mCurrent != null ? mCurrent.mIndex : -1;
+    }
+
+    private void preloadNext() {
+        int index = mCurrent.mIndex + 1;
+        if (index < mFiles.size()) {
+            mNext = prepareItem(index, mCurrent);
+        }
+    }
+
+    /**
+     * 创建解码器并开始初始化，初始化完成后停在第一帧之前
+     */
+    private Item prepareItem(int index, Item previous) {
+        Item item = new Item(index, mFiles.get(index));
+        MediaClock mediaClock = new MediaClock();
+        item.mAudio = new AudioDecoder(item.mFilePath);
+        // 预加载时样本表一次解析完，切换过来之后跳转也不需要再读文件
+        item.mAudio.setMediaClock(mediaClock).startPaused().useMp4Extractor();
+        if (previous != null) {
+            item.mAudio.continueFrom(previous.mAudio);
+        }
+        item.mVideo = new VideoDecoder(item.mFilePath);
+        item.mVideo.setMediaClock(mediaClock).startPaused().useMp4Extractor();
+        ItemStateListener listener = new ItemStateListener(item);
+        item.mAudio.setStateListener(listener);
+        item.mVideo.setStateListener(listener);
+        mExecutor.execute(item.mAudio);
+        mExecutor.execute(item.mVideo);
+        Log.d(TAG, "prepareItem: " + index + ", " + item.mFilePath);
+        return item;
+    }
+
+    private synchronized void onDecoderFinish(Item item, BaseDecoder decoder) {
+        if (item != mCurrent || mReleased) {
+            return;
+        }
+        if (decoder == item.mAudio) {
+            // 下一个音频解码器接着写同一个 AudioTrack，当前解码器释放时不会释放它
+            if (mNext != null) {
+                startAudio(mNext);
+            }
+            item.mAudioDone = true;
+            item.mAudio.stop();
+        } else if (decoder == item.mVideo) {
+            // 释放之后才断开 Surface，在 decoderDestroy 里切换
+            item.mVideo.stop();
+        }
+    }
+
+    private synchronized void onDecoderDestroy(Item item, BaseDecoder decoder) {
+        if (mReleased) {
+            return;
+        }
+        if (item == mNext) {
+            // 预加载时初始化失败，这条轨道当作已经播完，切换时跳过
+            if (decoder == item.mAudio) {
+                item.mAudioDone = true;
+            } else if (decoder == item.mVideo) {
+                item.mVideoDone = true;
+            }
+            return;
+        }
+        if (item != mCurrent) {
+            return;
+        }
+        if (decoder == item.mVideo) {
+            if (mNext != null) {
+                startVideo(mNext);
+            }
+            item.mVideoDone = true;
+        } else if (decoder == item.mAudio && !item.mAudioDone) {
+            // 没有音频轨道或者出错停止，没有输出最后一帧。下一个文件的音频等切换时再开始，不和当前视频重叠
+            item.mAudioDone = true;
+        }
+        if (item.mAudioDone && item.mVideoDone) {
+            advance();
+        }
+    }
+
+    /**
+     * 两条轨道都已经切换，下一个文件成为当前文件
+     */
+    private void advance() {
+        mCurrent = mNext;
+        mNext = null;
+        while (mCurrent != null && mCurrent.mAudioDone && mCurrent.mVideoDone) {
+            Log.w(TAG, "advance: skip " + mCurrent.mIndex + ", " + mCurrent.mFilePath);
+            int index = mCurrent.mIndex + 1;
+            mCurrent = index < mFiles.size() ? prepareItem(index, mCurrent) : null;
+        }
+        if (mCurrent == null) {
+            Log.i(TAG, "advance: playlist end");
+            mExecutor.shutdown();
+            if (mListener != null) {
+                mListener.onPlaylistEnd();
+            }
+            return;
+        }
+        Log.i(TAG, "advance: play " + mCurrent.mIndex + ", " + mCurrent.mFilePath);
+        // 上一个文件缺少的轨道没有切换过来，现在开始
+        startAudio(mCurrent);
+        startVideo(mCurrent);
+        if (mListener != null) {
+            mListener.onItemStart(mCurrent.mIndex, mCurrent.mFilePath);
+        }
+        preloadNext();
+    }
+
+    private void startAudio(Item item) {
+        if (item.mAudioStarted || item.mAudioDone) {
+            return;
+        }
+        item.mAudioStarted = true;
+        if (!mPaused) {
+            item.mAudio.goOn();
+        }
+    }
+
+    private void startVideo(Item item) {
+        if (item.mVideoStarted || item.mVideoDone) {
+            return;
+        }
+        item.mVideo.setSurface(mSurface);
+        item.mVideoStarted = true;
+        if (!mPaused) {
+            item.mVideo.goOn();
+        }
+    }
+
+    private static void pauseItem(Item item) {
+        if (item == null) {
+            return;
+        }
+        if (item.mAudioStarted && !item.mAudioDone) {
+            item.mAudio.pause();
+        }
+        if (item.mVideoStarted && !item.mVideoDone) {
+            item.mVideo.pause();
+        }
+    }
+
+    private static void resumeItem(Item item) {
+        if (item == null) {
+            return;
+        }
+        if (item.mAudioStarted && !item.mAudioDone) {
+            item.mAudio.goOn();
+        }
+        if (item.mVideoStarted && !item.mVideoDone) {
+            item.mVideo.goOn();
+        }
+    }
+
+    private static void stopItem(Item item) {
+        if (item != null) {
+            item.mAudio.stop();
+            item.mVideo.stop();
+        }
+    }
+
+    private final class ItemStateListener extends DecoderStateListenerAdapter {
+        private final Item mItem;
+
+        ItemStateListener(Item item) {
+            mItem = item;
+        }
+
+        @Override
+        public void decoderFinish(BaseDecoder decoder) {
+            onDecoderFinish(mItem, decoder);
+        }
+
+        @Override
+        public void decoderDestroy(BaseDecoder decoder) {
+            onDecoderDestroy(mItem, decoder);
+        }
+
+        @Override
+        public void decoderError(BaseDecoder decoder, String message) {
+            Log.e(TAG, "decoderError: " + mItem.mFilePath + ", " + message);
+            decoder.stop();
+        }
+    }
+
+    private static final class Item {
+        final int mIndex;
+        final String mFilePath;
+        AudioDecoder mAudio;
+        VideoDecoder mVideo;
+        boolean mAudioStarted;
+        boolean mVideoStarted;
+        boolean mAudioDone;
+        boolean mVideoDone;
+
+        Item(int index, String filePath) {
+            mIndex = index;
+            mFilePath = filePath;
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.richie.multimedialearning.media.audio;
+
+import android.media.AudioFormat;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 解码器输出到 AudioTrack 之间的适配，处理声道布局和采样格式的转换
+ * <p>
+ * 支持 16 位整型和浮点的输入输出，5.1 下混为立体声，单声道和立体声互转。
+ * 输入输出格式一致时为直通模式，调用方应当直接把解码器的 ByteBuffer 写给 AudioTrack，不需要任何拷贝。
+ */
+public final class AudioOutputAdapter {
+    private static final float MINUS_3DB = 0.70710677f;
+    private static final float SHORT_SCALE = 1.0f / 32768;
+
+    private final int mInChannels;
+    private final int mInEncoding;
+    private final int mOutChannels;
+    private final int mOutEncoding;
+    // 混音矩阵，第 o 个输出声道的第 i 个输入声道系数位于 o * inChannels + i
+    private final float[] mMatrix;
+    private final boolean mPassThrough;
+
+    /**
+     * @param inChannels  解码器输出的声道数
+     * @param inEncoding  解码器输出的编码，AudioFormat.ENCODING_PCM_16BIT 或 ENCODING_PCM_FLOAT
+     * @param outChannels AudioTrack 的声道数，1 或 2
+     * @param outEncoding AudioTrack 的编码，AudioFormat.ENCODING_PCM_16BIT 或 ENCODING_PCM_FLOAT
+     */
+    public AudioOutputAdapter(int inChannels, int inEncoding, int outChannels, int outEncoding) {
+        if (inChannels <= 0 || outChannels <= 0 || outChannels > 2
+                || !isSupportedEncoding(inEncoding) || !isSupportedEncoding(outEncoding)) {
+            throw new IllegalArgumentException("Unsupported conversion, in: " + inChannels + "/" + inEncoding
+                    + ", out: " + outChannels + "/" + outEncoding);
+        }
+        mInChannels = inChannels;
+        mInEncoding = inEncoding;
+        mOutChannels = outChannels;
+        mOutEncoding = outEncoding;
+        mPassThrough = inChannels == outChannels && inEncoding == outEncoding;
+        mMatrix = createMatrix(inChannels, outChannels);
+    }
+
+    public static boolean isSupportedEncoding(int encoding) {
+        return encoding == AudioFormat.ENCODING_PCM_16BIT || encoding == AudioFormat.ENCODING_PCM_FLOAT;
+    }
+
+    /**
+     * @param channels 声道数
+     * @return AudioTrack 能直接播放的声道数
+     */
+    public static int getOutputChannels(int channels) {
+        return channels == 1 ? 1 : 2;
+    }
+
+    private static float[] createMatrix(int in, int out) {
+        float[] matrix = new float[in * out];
+        if (in == out) {
+            for (int c = 0; c < in; c++) {
+                matrix[c * in + c] = 1f;
+            }
+        } else if (out == 1) {
+            // 下混为单声道，取平均值
+            for (int c = 0; c < in; c++) {
+                matrix[c] = 1f / in;
+            }
+        } else if (in == 1) {
+            // 单声道复制到两个声道
+            matrix[0] = 1f;
+            matrix[1] = 1f;
+        } else if (in == 6) {
+            // 5.1 声道顺序 L R C LFE Ls Rs，ITU-R BS.775 下混，丢弃 LFE，归一化防止溢出
+            float norm = 1f / (1f + MINUS_3DB + MINUS_3DB);
+            matrix[0] = norm;
+            matrix[2] = MINUS_3DB * norm;
+            matrix[4] = MINUS_3DB * norm;
+            matrix[in + 1] = norm;
+            matrix[in + 2] = MINUS_3DB * norm;
+            matrix[in + 5] = MINUS_3DB * norm;
+        } else {
+            // 其他布局，偶数声道进左声道，奇数声道进右声道
+            int left = (in + 1) / 2;
+            int right = in / 2;
+            for (int c = 0; c < in; c++) {
+                if ((c & 1) == 0) {
+                    matrix[c] = 1f / left;
+                } else {
+                    matrix[in + c] = 1f / right;
+                }
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * @return 输入输出格式一致，不需要转换
+     */
+    public boolean isPassThrough() {
+        return mPassThrough;
+    }
+
+    public int getInChannels() {
+        return mInChannels;
+    }
+
+    public int getInEncoding() {
+        return mInEncoding;
+    }
+
+    public int getOutChannels() {
+        return mOutChannels;
+    }
+
+    public int getOutEncoding() {
+        return mOutEncoding;
+    }
+
+    /**
+     * @param inBytes 输入字节数
+     * @return 输出的采样点数（所有声道）
+     */
+    public int getOutputSamples(int inBytes) {
+        int bytesPerSample = mInEncoding == AudioFormat.ENCODING_PCM_FLOAT ? 4 : 2;
+        return inBytes / (bytesPerSample * mInChannels) * mOutChannels;
+    }
+
+    /**
+     * 转换为 16 位整型，输出编码必须为 ENCODING_PCM_16BIT
+     *
+     * @param src    解码器输出，从 position 开始读取，不改变 position
+     * @param size   输入字节数
+     * @param dst    输出数组，长度不小于 getOutputSamples(size)
+     * @return 输出的采样点数
+     */
+    public int convert(ByteBuffer src, int size, short[] dst) {
+        if (mOutEncoding != AudioFormat.ENCODING_PCM_16BIT) {
+            throw new IllegalStateException("Output encoding is not 16 bit");
+        }
+        return process(src, size, dst, null);
+    }
+
+    /**
+     * 转换为浮点，输出编码必须为 ENCODING_PCM_FLOAT
+     *
+     * @param src    解码器输出，从 position 开始读取，不改变 position
+     * @param size   输入字节数
+     * @param dst    输出数组，长度不小于 getOutputSamples(size)
+     * @return 输出的采样点数
+     */
+    public int convert(ByteBuffer src, int size, float[] dst) {
+        if (mOutEncoding != AudioFormat.ENCODING_PCM_FLOAT) {
+            throw new IllegalStateException("Output encoding is not float");
+        }
+        return process(src, size, null, dst);
+    }
+
+    private int process(ByteBuffer src, int size, short[] dstShort, float[] dstFloat) {
+        ByteOrder order = src.order();
+        src.order(ByteOrder.LITTLE_ENDIAN);
+        int in = mInChannels;
+        int out = mOutChannels;
+        boolean floatInput = mInEncoding == AudioFormat.ENCODING_PCM_FLOAT;
+        int bytesPerSample = floatInput ? 4 : 2;
+        int frames = size / (bytesPerSample * in);
+        float[] matrix = mMatrix;
+        int p = src.position();
+        int d = 0;
+        for (int f = 0; f < frames; f++, p += bytesPerSample * in) {
+            for (int o = 0; o < out; o++) {
+                float sum = 0;
+                int m = o * in;
+                for (int c = 0; c < in; c++) {
+                    float coefficient = matrix[m + c];
+                    if (coefficient != 0) {
+                        float sample = floatInput ? src.getFloat(p + c * 4) : src.getShort(p + c * 2) * SHORT_SCALE;
+                        sum += sample * coefficient;
+                    }
+                }
+                if (dstFloat != null) {
+                    dstFloat[d++] = sum;
+                } else {
+                    float value = sum * 32768f;
+                    dstShort[d++] = value >= 32767f ? Short.MAX_VALUE
+                            : value <= -32768f ? Short.MIN_VALUE : (short) Math.round(value);
+                }
+            }
+        }
+        src.order(order);
+        return d;
+    }
+
+}
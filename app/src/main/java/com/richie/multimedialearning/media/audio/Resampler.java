@@ -0,0 +1,309 @@
+package com.richie.multimedialearning.media.audio;
+
+import java.util.Arrays;
+
+/**
+ * 流式多相重采样，纯 Java 实现
+ * <p>
+ * 输入输出采样率之比化简为 L/M，使用 Kaiser 窗 sinc 低通滤波器拆分出的 L 组多相系数。
+ * 滤波器状态在多次调用之间保留，可以按任意大小的块连续处理。构造之后处理过程中不再分配内存。
+ * 数据为交错排列的多声道 short 或 float。非线程安全。
+ */
+public final class Resampler {
+    // 化简后的插值因子上限，超过时滤波器系数表过大
+    private static final int MAX_INTERPOLATION = 4096;
+
+    private final int mChannels;
+    private final int mInterpolation;
+    private final int mDecimation;
+    private final int mTaps;
+    private final float[] mCoefficients;
+    // 每个声道的待处理输入，前 mTaps - 1 个是历史数据
+    private final float[][] mChannelBuffers;
+    private final int mMaxInputFrames;
+    private int mBufferedFrames;
+    // reset 之后的输入输出帧数，flush 时计算还差多少输出
+    private long mInputFrames;
+    private long mOutputFrames;
+    // 下一个输出对应的窗口起点和相位
+    private int mPosition;
+    private int mPhase;
+
+    /**
+     * @param inSampleRate   输入采样率
+     * @param outSampleRate  输出采样率
+     * @param channels       声道数
+     * @param quality        质量
+     * @param maxInputFrames 单次处理的最大输入帧数
+     */
+    public Resampler(int inSampleRate, int outSampleRate, int channels, Quality quality, int maxInputFrames) {
+        if (inSampleRate <= 0 || outSampleRate <= 0 || channels <= 0 || maxInputFrames <= 0) {
+            throw new IllegalArgumentException("inSampleRate: " + inSampleRate + ", outSampleRate: " + outSampleRate
+                    + ", channels: " + channels + ", maxInputFrames: " + maxInputFrames);
+        }
+        int gcd = gcd(inSampleRate, outSampleRate);
+        mInterpolation = outSampleRate / gcd;
+        mDecimation = inSampleRate / gcd;
+        if (mInterpolation > MAX_INTERPOLATION) {
+            throw new IllegalArgumentException("Unsupported ratio " + inSampleRate + " -> " + outSampleRate);
+        }
+        mChannels = channels;
+        // 降采样时截止频率变低，抽头数按比例增加才能保持过渡带宽度
+        int stretch = (mDecimation + mInterpolation - 1) / mInterpolation;
+        mTaps = quality.taps * Math.max(1, stretch);
+        mMaxInputFrames = maxInputFrames;
+        mCoefficients = createCoefficients(mInterpolation, mDecimation, mTaps, quality.rolloff, quality.kaiserBeta);
+        mChannelBuffers = new float[channels][mTaps + maxInputFrames];
+        reset();
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    /**
+     * 系数按相位排列，相位 p 的第 j 个系数位于 p * taps + j
+     */
+    private static float[] createCoefficients(int interpolation, int decimation, int taps, double rolloff, double beta) {
+        // 截止频率，单位为输入采样率，降采样时跟随输出采样率
+        double cutoff = 0.5 * Math.min(1.0, (double) interpolation / decimation) * rolloff;
+        int half = taps / 2;
+        double i0Beta = besselI0(beta);
+        float[] coefficients = new float[interpolation * taps];
+        for (int p = 0; p < interpolation; p++) {
+            double frac = (double) p / interpolation;
+            double sum = 0;
+            for (int j = 0; j < taps; j++) {
+                double distance = frac + half - 1 - j;
+                double x = 2 * cutoff * distance;
+                double sinc = x == 0 ? 1.0 : Math.sin(Math.PI * x) / (Math.PI * x);
+                double r = distance / half;
+                double window = Math.abs(r) >= 1 ? 0 : besselI0(beta * Math.sqrt(1 - r * r)) / i0Beta;
+                double value = 2 * cutoff * sinc * window;
+                coefficients[p * taps + j] = (float) value;
+                sum += value;
+            }
+            // 每个相位单独归一化，保证直流增益为 1
+            if (sum != 0) {
+                for (int j = 0; j < taps; j++) {
+                    coefficients[p * taps + j] /= sum;
+                }
+            }
+        }
+        return coefficients;
+    }
+
+    private static double besselI0(double x) {
+        double sum = 1;
+        double term = 1;
+        double halfX = x / 2;
+        for (int k = 1; k < 50; k++) {
+            term *= (halfX / k) * (halfX / k);
+            sum += term;
+            if (term < sum * 1e-12) {
+                break;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * 清空滤波器状态
+     */
+    public void reset() {
+        for (float[] buffer : mChannelBuffers) {
+            Arrays.fill(buffer, 0f);
+        }
+        // 预先填充 taps / 2 - 1 个静音作为历史，第一个输出与第一个输入对齐
+        mBufferedFrames = mTaps / 2 - 1;
+        mPosition = 0;
+        mPhase = 0;
+        mInputFrames = 0;
+        mOutputFrames = 0;
+    }
+
+    /**
+     * @param inFrames 输入帧数
+     * @return 处理这些输入最多产生的输出帧数
+     */
+    public int getMaxOutputFrames(int inFrames) {
+        return (int) (((long) inFrames + mTaps) * mInterpolation / mDecimation) + 1;
+    }
+
+    /**
+     * 重采样 float 数据
+     *
+     * @param in          交错排列的输入
+     * @param inOffset    输入偏移，单位采样点
+     * @param inFrames    输入帧数，不超过 maxInputFrames
+     * @param out         交错排列的输出
+     * @param outOffset   输出偏移，单位采样点
+     * @param outCapacity 输出可用帧数，不小于 getMaxOutputFrames(inFrames)
+     * @return 输出帧数
+     */
+    public int process(float[] in, int inOffset, int inFrames, float[] out, int outOffset, int outCapacity) {
+        checkArgs(inFrames, outCapacity);
+        int channels = mChannels;
+        for (int c = 0; c < channels; c++) {
+            float[] buffer = mChannelBuffers[c];
+            for (int i = 0, s = inOffset + c, d = mBufferedFrames; i < inFrames; i++, s += channels, d++) {
+                buffer[d] = in[s];
+            }
+        }
+        mBufferedFrames += inFrames;
+        mInputFrames += inFrames;
+        return produce(out, null, outOffset, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 重采样 16 位 PCM 数据
+     *
+     * @param in          交错排列的输入
+     * @param inOffset    输入偏移，单位采样点
+     * @param inFrames    输入帧数，不超过 maxInputFrames
+     * @param out         交错排列的输出
+     * @param outOffset   输出偏移，单位采样点
+     * @param outCapacity 输出可用帧数，不小于 getMaxOutputFrames(inFrames)
+     * @return 输出帧数
+     */
+    public int process(short[] in, int inOffset, int inFrames, short[] out, int outOffset, int outCapacity) {
+        checkArgs(inFrames, outCapacity);
+        int channels = mChannels;
+        for (int c = 0; c < channels; c++) {
+            float[] buffer = mChannelBuffers[c];
+            for (int i = 0, s = inOffset + c, d = mBufferedFrames; i < inFrames; i++, s += channels, d++) {
+                buffer[d] = in[s];
+            }
+        }
+        mBufferedFrames += inFrames;
+        mInputFrames += inFrames;
+        return produce(null, out, outOffset, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 输入结束，用静音推出滤波器中剩余的输出，然后清空状态
+     * <p>
+     * 滤波器延迟半个窗口，最后一段输入对应的输出要等后续数据，流结束时不调用会丢掉尾部。
+     *
+     * @param out         交错排列的输出
+     * @param outOffset   输出偏移，单位采样点
+     * @param outCapacity 输出可用帧数，不小于 getMaxOutputFrames(0)
+     * @return 输出帧数
+     */
+    public int flush(float[] out, int outOffset, int outCapacity) {
+        return drain(out, null, outOffset, outCapacity);
+    }
+
+    /**
+     * 输入结束，用静音推出滤波器中剩余的输出，然后清空状态
+     *
+     * @param out         交错排列的输出
+     * @param outOffset   输出偏移，单位采样点
+     * @param outCapacity 输出可用帧数，不小于 getMaxOutputFrames(0)
+     * @return 输出帧数
+     */
+    public int flush(short[] out, int outOffset, int outCapacity) {
+        return drain(null, out, outOffset, outCapacity);
+    }
+
+    private int drain(float[] outFloat, short[] outShort, int outOffset, int outCapacity) {
+        checkArgs(0, outCapacity);
+        // 第一个输出与第一个输入对齐，输入结束前一共有 ceil(inputFrames * L / M) 个输出
+        long expected = (mInputFrames * mInterpolation + mDecimation - 1) / mDecimation;
+        int pending = (int) (expected - mOutputFrames);
+        int produced = 0;
+        while (produced < pending) {
+            int zeros = Math.min(mTaps, mChannelBuffers[0].length - mBufferedFrames);
+            for (float[] buffer : mChannelBuffers) {
+                Arrays.fill(buffer, mBufferedFrames, mBufferedFrames + zeros, 0f);
+            }
+            mBufferedFrames += zeros;
+            produced += produce(outFloat, outShort, outOffset + produced * mChannels, pending - produced);
+        }
+        reset();
+        return produced;
+    }
+
+    private void checkArgs(int inFrames, int outCapacity) {
+        if (inFrames < 0 || inFrames > mMaxInputFrames) {
+            throw new IllegalArgumentException("inFrames: " + inFrames + ", maxInputFrames: " + mMaxInputFrames);
+        }
+        if (outCapacity < getMaxOutputFrames(inFrames)) {
+            throw new IllegalArgumentException("outCapacity: " + outCapacity + " < " + getMaxOutputFrames(inFrames));
+        }
+    }
+
+    private int produce(float[] outFloat, short[] outShort, int outOffset, int maxFrames) {
+        int channels = mChannels;
+        int taps = mTaps;
+        float[] coefficients = mCoefficients;
+        int position = mPosition;
+        int phase = mPhase;
+        int produced = 0;
+        int d = outOffset;
+        while (produced < maxFrames && position + taps <= mBufferedFrames) {
+            int coefficientOffset = phase * taps;
+            for (int c = 0; c < channels; c++) {
+                float[] buffer = mChannelBuffers[c];
+                float sum = 0;
+                for (int j = 0; j < taps; j++) {
+                    sum += buffer[position + j] * coefficients[coefficientOffset + j];
+                }
+                if (outFloat != null) {
+                    outFloat[d + c] = sum;
+                } else {
+                    outShort[d + c] = sum >= 32767f ? Short.MAX_VALUE
+                            : sum <= -32768f ? Short.MIN_VALUE : (short) Math.round(sum);
+                }
+            }
+            d += channels;
+            produced++;
+            phase += mDecimation;
+            while (phase >= mInterpolation) {
+                phase -= mInterpolation;
+                position++;
+            }
+        }
+        // 把尚未用完的输入移到缓冲区开头，降采样倍数很大时窗口起点可能已经越过已有数据
+        int shift = Math.min(position, mBufferedFrames);
+        int remaining = mBufferedFrames - shift;
+        if (remaining > 0 && shift > 0) {
+            for (float[] buffer : mChannelBuffers) {
+                System.arraycopy(buffer, shift, buffer, 0, remaining);
+            }
+        }
+        mBufferedFrames = remaining;
+        mPosition = position - shift;
+        mPhase = phase;
+        mOutputFrames += produced;
+        return produced;
+    }
+
+    public int getChannels() {
+        return mChannels;
+    }
+
+    /**
+     * 质量预设，抽头越多过渡带越窄，计算量越大
+     */
+    public enum Quality {
+        LOW(8, 0.85, 5.0),
+        MEDIUM(16, 0.9, 7.0),
+        HIGH(32, 0.945, 9.0);
+
+        final int taps;
+        final double rolloff;
+        final double kaiserBeta;
+
+        Quality(int taps, double rolloff, double kaiserBeta) {
+            this.taps = taps;
+            this.rolloff = rolloff;
+            this.kaiserBeta = kaiserBeta;
+        }
+    }
+}
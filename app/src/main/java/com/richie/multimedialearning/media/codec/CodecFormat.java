@@ -0,0 +1,89 @@
+package com.richie.multimedialearning.media.codec;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 编解码器的格式信息，键和 MediaFormat 一致，只依赖 Java 标准库
+ */
+public final class CodecFormat {
+    public static final String KEY_MIME = "mime";
+    public static final String KEY_DURATION = "durationUs";
+    public static final String KEY_SAMPLE_RATE = "sample-rate";
+    public static final String KEY_CHANNEL_COUNT = "channel-count";
+    public static final String KEY_CHANNEL_MASK = "channel-mask";
+    public static final String KEY_PCM_ENCODING = "pcm-encoding";
+    public static final String KEY_WIDTH = "width";
+    public static final String KEY_HEIGHT = "height";
+    public static final String KEY_STRIDE = "stride";
+    public static final String KEY_SLICE_HEIGHT = "slice-height";
+    public static final String KEY_COLOR_FORMAT = "color-format";
+    public static final String KEY_ROTATION = "rotation-degrees";
+
+    private final Map<String, Object> mValues = new HashMap<>();
+
+    public static CodecFormat createAudioFormat(String mime, int sampleRate, int channelCount) {
+        CodecFormat format = new CodecFormat();
+        format.setString(KEY_MIME, mime);
+        format.setInteger(KEY_SAMPLE_RATE, sampleRate);
+        format.setInteger(KEY_CHANNEL_COUNT, channelCount);
+        return format;
+    }
+
+    public static CodecFormat createVideoFormat(String mime, int width, int height) {
+        CodecFormat format = new CodecFormat();
+        format.setString(KEY_MIME, mime);
+        format.setInteger(KEY_WIDTH, width);
+        format.setInteger(KEY_HEIGHT, height);
+        return format;
+    }
+
+    public boolean containsKey(String name) {
+        return mValues.containsKey(name);
+    }
+
+    /**
+     * @throws NullPointerException 不存在这个键
+     */
+    public int getInteger(String name) {
+        return (Integer) mValues.get(name);
+    }
+
+    public int getInteger(String name, int defaultValue) {
+        Object value = mValues.get(name);
+        return value instanceof Integer ? (Integer) value : defaultValue;
+    }
+
+    /**
+     * @throws NullPointerException 不存在这个键
+     */
+    public long getLong(String name) {
+        return (Long) mValues.get(name);
+    }
+
+    public long getLong(String name, long defaultValue) {
+        Object value = mValues.get(name);
+        return value instanceof Long ? (Long) value : defaultValue;
+    }
+
+    public String getString(String name) {
+        return (String) mValues.get(name);
+    }
+
+    public void setInteger(String name, int value) {
+        mValues.put(name, value);
+    }
+
+    public void setLong(String name, long value) {
+        mValues.put(name, value);
+    }
+
+    public void setString(String name, String value) {
+        mValues.put(name, value);
+    }
+
+    @Override
+    public String toString() {
+        return "CodecFormat" + mValues;
+    }
+}
@@ -0,0 +1,321 @@
+package com.richie.multimedialearning.media.codec;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * 解码器实例池，连续播放多个短视频时复用 MediaCodec，省去每次创建的时间
+ * <p>
+ * 归还的解码器 flush 之后保持配置好的状态，格式和输出目标都相同时直接复用；
+ * MIME 相同但配置不同时 stop 之后重新 configure；都没有时才创建新的实例。
+ * 实例总数（借出的和空闲的）不超过上限，空闲超时的实例在下一次借出或者归还时释放，也可以调用 {@link #evictIdle()}。
+ * 只用于同步模式，异步模式的回调需要在 configure 之前设置，不能复用。
+ */
+public final class CodecPool {
+    private static final String TAG = "CodecPool";
+    public static final int DEFAULT_MAX_INSTANCES = 4;
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 30_000;
+
+    /**
+     * 解码器的来源
+     */
+    public enum Source {
+        // 新创建，需要配置
+        CREATE,
+        // 复用 MIME 相同的实例，已经 stop，需要重新配置
+        RECONFIGURE,
+        // 复用配置相同的实例，已经 flush，可以直接提交数据
+        FLUSH
+    }
+
+    private final int mMaxInstances;
+    private final long mIdleTimeoutNs;
+    // 空闲的实例，按归还时间排列，最早归还的在前面
+    private final List<Entry> mIdle = new ArrayList<>();
+    private int mInstanceCount;
+    private long mCreateCount;
+    private long mReuseCount;
+
+    public CodecPool() {
+        this(DEFAULT_MAX_INSTANCES, DEFAULT_IDLE_TIMEOUT_MS);
+    }
+
+    /**
+     * @param maxInstances  同时存在的实例个数上限，硬件解码器的数量是有限的
+     * @param idleTimeoutMs 空闲超过这个时间的实例被释放
+     */
+    public CodecPool(int maxInstances, long idleTimeoutMs) {
+        if (maxInstances <= 0) {
+            throw new IllegalArgumentException("maxInstances must be positive: " + maxInstances);
+        }
+        mMaxInstances = maxInstances;
+        mIdleTimeoutNs = idleTimeoutMs * 1_000_000;
+    }
+
+    /**
+     * 借出一个解码器
+     *
+     * @param format       输入格式
+     * @param outputTarget 输出目标，一般是 Surface，还不知道或者不输出到 Surface 时为 null
+     * @return 来源是 {@link Source#FLUSH} 时已经配置并且 start，否则需要调用者配置
+     * @throws IOException 创建失败或者实例个数已经达到上限
+     */
+    public synchronized Lease acquire(MediaFormat format, Object outputTarget) throws IOException {
+        long start = System.nanoTime();
+        evictExpired(start);
+        String mime = format.getString(MediaFormat.KEY_MIME);
+        Entry reuse = null;
+        if (isValidTarget(outputTarget)) {
+            for (Entry entry : mIdle) {
+                if (entry.mConfigured && entry.mTarget == outputTarget && isSameConfig(entry.mFormat, format)) {
+                    reuse = entry;
+                    break;
+                }
+            }
+        }
+        Source source = Source.FLUSH;
+        if (reuse == null) {
+            source = Source.RECONFIGURE;
+            for (Entry entry : mIdle) {
+                if (mime.equals(entry.mMime)) {
+                    reuse = entry;
+                    break;
+                }
+            }
+        }
+        if (reuse != null) {
+            mIdle.remove(reuse);
+        }
+        // 同一个 Surface 只能连接一个解码器，先断开空闲实例上的连接
+        if (outputTarget != null) {
+            for (Entry entry : mIdle) {
+                if (entry.mConfigured && entry.mTarget == outputTarget) {
+                    stopQuietly(entry);
+                }
+            }
+        }
+        MediaCodec mediaCodec;
+        if (reuse != null) {
+            if (source == Source.RECONFIGURE && reuse.mConfigured) {
+                stopQuietly(reuse);
+            }
+            mediaCodec = reuse.mCodec;
+            mReuseCount++;
+        } else {
+            source = Source.CREATE;
+            if (mInstanceCount >= mMaxInstances && !mIdle.isEmpty()) {
+                releaseEntry(mIdle.remove(0));
+            }
+            if (mInstanceCount >= mMaxInstances) {
+                throw new IOException("Codec limit reached: " + mMaxInstances);
+            }
+            mediaCodec = MediaCodec.createDecoderByType(mime);
+            mInstanceCount++;
+            mCreateCount++;
+        }
+        Lease lease = new Lease(mediaCodec, mime, format, source, System.nanoTime() - start);
+        Log.d(TAG, "acquire: " + mime + " by " + source + " in " + lease.mAcquireTimeNs / 1000 + "us, instances "
+                + mInstanceCount + ", idle " + mIdle.size());
+        return lease;
+    }
+
+    /**
+     * 归还解码器，flush 之后保留配置等待复用，出错时直接释放
+     *
+     * @param lease        借出的解码器
+     * @param outputTarget 配置时使用的输出目标，没有配置到 Surface 时为 null
+     */
+    public synchronized void release(Lease lease, Object outputTarget) {
+        if (lease.mReleased) {
+            return;
+        }
+        lease.mReleased = true;
+        Entry entry = new Entry(lease.mCodec, lease.mMime, lease.mFormat);
+        try {
+            lease.mCodec.flush();
+            entry.mConfigured = true;
+            entry.mTarget = outputTarget;
+        } catch (IllegalStateException e) {
+            // 没有配置成功或者已经出错，尝试回到未配置的状态
+            try {
+                lease.mCodec.stop();
+            } catch (IllegalStateException e1) {
+                Log.w(TAG, "release: ", e1);
+                releaseEntry(entry);
+                return;
+            }
+        }
+        entry.mIdleSinceNs = System.nanoTime();
+        mIdle.add(entry);
+        evictExpired(entry.mIdleSinceNs);
+    }
+
+    /**
+     * 释放空闲超时的实例
+     */
+    public synchronized void evictIdle() {
+        evictExpired(System.nanoTime());
+    }
+
+    /**
+     * 释放所有空闲的实例，借出的实例归还时仍然会进入池中
+     */
+    public synchronized void clear() {
+        for (Entry entry : mIdle) {
+            releaseEntry(entry);
+        }
+        mIdle.clear();
+    }
+
+    public synchronized int getInstanceCount() {
+        return mInstanceCount;
+    }
+
+    public synchronized int getIdleCount() {
+        return mIdle.size();
+    }
+
+    public synchronized long getCreateCount() {
+        return mCreateCount;
+    }
+
+    public synchronized long getReuseCount() {
+        return mReuseCount;
+    }
+
+    private void evictExpired(long nowNs) {
+        Iterator<Entry> iterator = mIdle.iterator();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (nowNs - entry.mIdleSinceNs >= mIdleTimeoutNs) {
+                iterator.remove();
+                releaseEntry(entry);
+            }
+        }
+    }
+
+    private void releaseEntry(Entry entry) {
+        try {
+            entry.mCodec.release();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "releaseEntry: ", e);
+        }
+        mInstanceCount--;
+        Log.d(TAG, "releaseEntry: " + entry.mMime + ", instances " + mInstanceCount);
+    }
+
+    private static void stopQuietly(Entry entry) {
+        try {
+            entry.mCodec.stop();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "stopQuietly: ", e);
+        }
+        entry.mConfigured = false;
+        entry.mTarget = null;
+    }
+
+    /**
+     * 不输出到 Surface 的解码器也可以直接复用，Surface 已经销毁时不能复用
+     */
+    private static boolean isValidTarget(Object target) {
+        return !(target instanceof Surface) || ((Surface) target).isValid();
+    }
+
+    /**
+     * 解码器配置相关的参数是否一致，一致时 flush 之后可以直接解码新的流
+     */
+    private static boolean isSameConfig(MediaFormat a, MediaFormat b) {
+        return isSameValue(a, b, MediaFormat.KEY_MIME)
+                && isSameValue(a, b, MediaFormat.KEY_WIDTH)
+                && isSameValue(a, b, MediaFormat.KEY_HEIGHT)
+                && isSameValue(a, b, MediaFormat.KEY_SAMPLE_RATE)
+                && isSameValue(a, b, MediaFormat.KEY_CHANNEL_COUNT)
+                && isSameValue(a, b, "csd-0")
+                && isSameValue(a, b, "csd-1");
+    }
+
+    private static boolean isSameValue(MediaFormat a, MediaFormat b, String key) {
+        boolean hasA = a.containsKey(key);
+        if (hasA != b.containsKey(key)) {
+            return false;
+        }
+        if (!hasA) {
+            return true;
+        }
+        if (key.startsWith("csd-")) {
+            ByteBuffer bufferA = a.getByteBuffer(key);
+            ByteBuffer bufferB = b.getByteBuffer(key);
+            return bufferA == null ? bufferB == null : bufferB != null
+                    && bufferA.duplicate().rewind().equals(bufferB.duplicate().rewind());
+        }
+        if (MediaFormat.KEY_MIME.equals(key)) {
+            return a.getString(key).equals(b.getString(key));
+        }
+        return a.getInteger(key) == b.getInteger(key);
+    }
+
+    /**
+     * 借出的解码器
+     */
+    public static final class Lease {
+        private final MediaCodec mCodec;
+        private final String mMime;
+        private final MediaFormat mFormat;
+        private final Source mSource;
+        private final long mAcquireTimeNs;
+        private boolean mReleased;
+
+        Lease(MediaCodec codec, String mime, MediaFormat format, Source source, long acquireTimeNs) {
+            mCodec = codec;
+            mMime = mime;
+            mFormat = format;
+            mSource = source;
+            mAcquireTimeNs = acquireTimeNs;
+        }
+
+        public MediaCodec getCodec() {
+            return mCodec;
+        }
+
+        public Source getSource() {
+            return mSource;
+        }
+
+        /**
+         * @return 是否已经配置并且 start，为 true 时不能再 configure 和 start
+         */
+        public boolean isConfigured() {
+            return mSource == Source.FLUSH;
+        }
+
+        /**
+         * @return 借出的耗时，新创建时包含 MediaCodec 的创建时间
+         */
+        public long getAcquireTimeNs() {
+            return mAcquireTimeNs;
+        }
+    }
+
+    private static final class Entry {
+        final MediaCodec mCodec;
+        final String mMime;
+        final MediaFormat mFormat;
+        boolean mConfigured;
+        Object mTarget;
+        long mIdleSinceNs;
+
+        Entry(MediaCodec codec, String mime, MediaFormat format) {
+            mCodec = codec;
+            mMime = mime;
+            mFormat = format;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.richie.multimedialearning.media.codec;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 同步模式下的编解码循环：从 Source 读取输入，把输出交给 Sink，直到输出 EOS
+ * <p>
+ * 只依赖 ICodec，可以配合 SoftwareCodec 在普通 JVM 上运行。循环内不分配内存。
+ * 编解码器需要调用方 start，结束后也由调用方 stop 和 release。
+ */
+public final class CodecPump {
+    private final ICodec mCodec;
+    private final long mTimeoutUs;
+    private final ICodec.BufferInfo mInputInfo = new ICodec.BufferInfo();
+    private final ICodec.BufferInfo mOutputInfo = new ICodec.BufferInfo();
+    private long mInputCount;
+    private long mOutputCount;
+    private long mOutputBytes;
+
+    /**
+     * @param codec     已经 start 的编解码器
+     * @param timeoutUs 每次获取缓冲区的超时时间
+     */
+    public CodecPump(ICodec codec, long timeoutUs) {
+        mCodec = codec;
+        mTimeoutUs = timeoutUs;
+    }
+
+    /**
+     * 运行到输出 EOS 为止，忽略 BUFFER_FLAG_CODEC_CONFIG 的输出，配置信息可以从输出格式中获取
+     *
+     * @param source 输入
+     * @param sink   输出
+     * @throws IOException Source 或 Sink 抛出的异常
+     */
+    public void run(Source source, Sink sink) throws IOException {
+        ICodec codec = mCodec;
+        ICodec.BufferInfo inputInfo = mInputInfo;
+        ICodec.BufferInfo outputInfo = mOutputInfo;
+        boolean sawInputEOS = false;
+        boolean sawOutputEOS = false;
+        while (!sawOutputEOS) {
+            if (!sawInputEOS) {
+                int inputBufIndex = codec.dequeueInputBuffer(mTimeoutUs);
+                if (inputBufIndex >= 0) {
+                    ByteBuffer inputBuffer = codec.getInputBuffer(inputBufIndex);
+                    inputBuffer.clear();
+                    inputInfo.set(0, 0, 0, 0);
+                    int sampleSize = source.read(inputBuffer, inputInfo);
+                    if (sampleSize < 0) {
+                        codec.queueInputBuffer(inputBufIndex, 0, 0, 0, ICodec.BUFFER_FLAG_END_OF_STREAM);
+                        sawInputEOS = true;
+                    } else {
+                        codec.queueInputBuffer(inputBufIndex, 0, sampleSize, inputInfo.presentationTimeUs, inputInfo.flags);
+                        mInputCount++;
+                    }
+                }
+            }
+
+            int outputBufIndex = codec.dequeueOutputBuffer(outputInfo, mTimeoutUs);
+            if (outputBufIndex >= 0) {
+                if ((outputInfo.flags & ICodec.BUFFER_FLAG_CODEC_CONFIG) == 0 && outputInfo.size > 0) {
+                    ByteBuffer outputBuffer = codec.getOutputBuffer(outputBufIndex);
+                    outputBuffer.limit(outputInfo.offset + outputInfo.size);
+                    outputBuffer.position(outputInfo.offset);
+                    sink.write(outputBuffer, outputInfo);
+                    mOutputCount++;
+                    mOutputBytes += outputInfo.size;
+                }
+                codec.releaseOutputBuffer(outputBufIndex, false);
+                if ((outputInfo.flags & ICodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    sawOutputEOS = true;
+                }
+            } else if (outputBufIndex == ICodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                sink.onOutputFormatChanged(codec.getOutputFormat());
+            }
+        }
+    }
+
+    /**
+     * @return 提交的输入个数，不含 EOS
+     */
+    public long getInputCount() {
+        return mInputCount;
+    }
+
+    /**
+     * @return 交给 Sink 的输出个数
+     */
+    public long getOutputCount() {
+        return mOutputCount;
+    }
+
+    /**
+     * @return 交给 Sink 的输出字节数
+     */
+    public long getOutputBytes() {
+        return mOutputBytes;
+    }
+
+    /**
+     * 输入数据
+     */
+    public interface Source {
+        /**
+         * 读取一个输入单元到缓冲区
+         *
+         * @param buffer 编解码器的输入缓冲区，已经 clear
+         * @param info   填写 presentationTimeUs 和 flags
+         * @return 读取的长度，没有更多数据时返回 -1
+         * @throws IOException
+         */
+        int read(ByteBuffer buffer, ICodec.BufferInfo info) throws IOException;
+    }
+
+    /**
+     * 输出数据
+     */
+    public interface Sink {
+        /**
+         * 输出格式变化
+         *
+         * @param format
+         */
+        void onOutputFormatChanged(CodecFormat format);
+
+        /**
+         * 处理一个输出，返回后缓冲区会被归还给编解码器
+         *
+         * @param buffer position 到 limit 为有效数据
+         * @param info
+         * @throws IOException
+         */
+        void write(ByteBuffer buffer, ICodec.BufferInfo info) throws IOException;
+    }
+}
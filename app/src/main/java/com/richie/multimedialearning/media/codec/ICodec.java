@@ -0,0 +1,179 @@
+package com.richie.multimedialearning.media.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 编解码器接口，只包含缓冲区索引的生命周期、输出格式变化和 EOS
+ * <p>
+ * 接口只依赖 Java 标准库，常量取值和 MediaCodec 一致。设备上用 MediaCodecWrapper，
+ * 普通 JVM 上用 SoftwareCodec 代替，这样缓冲区处理和调度逻辑可以脱离设备测试。
+ * 创建和配置由各实现自己负责，拿到的实例已经配置完成。
+ */
+public interface ICodec {
+    int INFO_TRY_AGAIN_LATER = -1;
+    int INFO_OUTPUT_FORMAT_CHANGED = -2;
+    int INFO_OUTPUT_BUFFERS_CHANGED = -3;
+
+    int BUFFER_FLAG_KEY_FRAME = 1;
+    int BUFFER_FLAG_CODEC_CONFIG = 2;
+    int BUFFER_FLAG_END_OF_STREAM = 4;
+
+    /**
+     * 开始编解码
+     */
+    void start();
+
+    /**
+     * 停止编解码，之后可以重新 start
+     */
+    void stop();
+
+    /**
+     * 丢弃所有输入输出缓冲区，用于跳转
+     */
+    void flush();
+
+    /**
+     * 释放资源
+     */
+    void release();
+
+    /**
+     * 获取可用的输入缓冲区
+     *
+     * @param timeoutUs 超时时间，小于 0 时一直等待
+     * @return 缓冲区索引，没有可用的缓冲区时返回 INFO_TRY_AGAIN_LATER
+     */
+    int dequeueInputBuffer(long timeoutUs);
+
+    /**
+     * @param index 输入缓冲区索引
+     * @return 已经 clear 的输入缓冲区
+     */
+    ByteBuffer getInputBuffer(int index);
+
+    /**
+     * 提交输入缓冲区
+     *
+     * @param index              缓冲区索引
+     * @param offset             数据偏移
+     * @param size               数据长度
+     * @param presentationTimeUs 时间戳，单位微秒
+     * @param flags              BUFFER_FLAG_*
+     */
+    void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags);
+
+    /**
+     * 获取输出缓冲区
+     *
+     * @param info      输出缓冲区的信息
+     * @param timeoutUs 超时时间，小于 0 时一直等待
+     * @return 缓冲区索引，或者 INFO_TRY_AGAIN_LATER、INFO_OUTPUT_FORMAT_CHANGED、INFO_OUTPUT_BUFFERS_CHANGED
+     */
+    int dequeueOutputBuffer(BufferInfo info, long timeoutUs);
+
+    /**
+     * @param index 输出缓冲区索引
+     * @return 输出缓冲区，数据范围由 BufferInfo 描述
+     */
+    ByteBuffer getOutputBuffer(int index);
+
+    /**
+     * 归还输出缓冲区
+     *
+     * @param index  缓冲区索引
+     * @param render 是否渲染到 Surface
+     */
+    void releaseOutputBuffer(int index, boolean render);
+
+    /**
+     * 归还输出缓冲区，并在指定的时间渲染到 Surface
+     *
+     * @param index             缓冲区索引
+     * @param renderTimestampNs 显示时间，System.nanoTime 的时间基准
+     */
+    void releaseOutputBuffer(int index, long renderTimestampNs);
+
+    /**
+     * @return 当前的输出格式
+     */
+    CodecFormat getOutputFormat();
+
+    /**
+     * @return 编解码器名称
+     */
+    String getName();
+
+    /**
+     * 切换为异步模式，必须在 start 之前调用。之后由编解码器主动回调，不能再调用 dequeueInputBuffer 和 dequeueOutputBuffer
+     *
+     * @param callback 回调，在实现指定的专用线程上调用
+     * @throws IllegalStateException 不支持异步模式
+     */
+    void setCallback(Callback callback);
+
+    /**
+     * 异步模式的回调，和 MediaCodec.Callback 对应
+     */
+    interface Callback {
+        /**
+         * 输入缓冲区可用，调用方填充数据后 queueInputBuffer
+         *
+         * @param codec
+         * @param index 输入缓冲区索引
+         */
+        void onInputBufferAvailable(ICodec codec, int index);
+
+        /**
+         * 输出缓冲区可用，调用方处理后 releaseOutputBuffer
+         *
+         * @param codec
+         * @param index 输出缓冲区索引
+         * @param info  只在回调期间有效，需要保留时复制一份
+         */
+        void onOutputBufferAvailable(ICodec codec, int index, BufferInfo info);
+
+        /**
+         * 输出格式变化
+         *
+         * @param codec
+         * @param format
+         */
+        void onOutputFormatChanged(ICodec codec, CodecFormat format);
+
+        /**
+         * 编解码出错
+         *
+         * @param codec
+         * @param e
+         */
+        void onError(ICodec codec, Exception e);
+    }
+
+    /**
+     * 缓冲区信息，和 MediaCodec.BufferInfo 对应
+     */
+    final class BufferInfo {
+        public int offset;
+        public int size;
+        public long presentationTimeUs;
+        public int flags;
+
+        public void set(int newOffset, int newSize, long newTimeUs, int newFlags) {
+            offset = newOffset;
+            size = newSize;
+            presentationTimeUs = newTimeUs;
+            flags = newFlags;
+        }
+
+        @Override
+        public String toString() {
+            return "BufferInfo{" +
+                    "offset=" + offset +
+                    ", size=" + size +
+                    ", presentationTimeUs=" + presentationTimeUs +
+                    ", flags=" + flags +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package com.richie.multimedialearning.media.codec;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.os.Build;
+import android.os.Handler;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 基于 MediaCodec 的实现，使用 API 21 的按索引获取缓冲区接口
+ * <p>
+ * MediaCodec 要求在 configure 之前设置回调，所以异步模式需要在创建时传入回调线程的 Handler，
+ * 由内部的转发回调在 start 之后把事件交给 setCallback 设置的回调。指定 Handler 的回调需要 API 23。
+ */
+public final class MediaCodecWrapper implements ICodec {
+    private static final String TAG = "MediaCodecWrapper";
+    private static final String[] INTEGER_KEYS = {CodecFormat.KEY_SAMPLE_RATE, CodecFormat.KEY_CHANNEL_COUNT,
+            CodecFormat.KEY_CHANNEL_MASK, CodecFormat.KEY_PCM_ENCODING, CodecFormat.KEY_WIDTH, CodecFormat.KEY_HEIGHT,
+            CodecFormat.KEY_STRIDE, CodecFormat.KEY_SLICE_HEIGHT, CodecFormat.KEY_COLOR_FORMAT, CodecFormat.KEY_ROTATION};
+
+    private final MediaCodec mMediaCodec;
+    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
+    private final boolean mCallbackSupported;
+    private volatile Callback mCallback;
+
+    /**
+     * 同步模式
+     *
+     * @param mediaCodec 已经配置好的 MediaCodec
+     */
+    public MediaCodecWrapper(MediaCodec mediaCodec) {
+        mMediaCodec = mediaCodec;
+        mCallbackSupported = false;
+    }
+
+    /**
+     * 支持异步模式，必须在 MediaCodec configure 之前创建
+     *
+     * @param mediaCodec      还没有配置的 MediaCodec
+     * @param callbackHandler 回调线程的 Handler，为 null 或者系统低于 API 23 时只能使用同步模式
+     */
+    public MediaCodecWrapper(MediaCodec mediaCodec, Handler callbackHandler) {
+        mMediaCodec = mediaCodec;
+        mCallbackSupported = callbackHandler != null && isCallbackModeSupported();
+        if (mCallbackSupported) {
+            mediaCodec.setCallback(new ForwardingCallback(), callbackHandler);
+        }
+    }
+
+    /**
+     * @return 系统是否支持在指定的 Handler 上回调
+     */
+    public static boolean isCallbackModeSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+    }
+
+    /**
+     * 创建并配置解码器，不输出到 Surface
+     *
+     * @param format 输入格式
+     * @return
+     * @throws IOException
+     */
+    public static MediaCodecWrapper createDecoder(MediaFormat format) throws IOException {
+        MediaCodec mediaCodec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+        mediaCodec.configure(format, null, null, 0);
+        return new MediaCodecWrapper(mediaCodec);
+    }
+
+    /**
+     * 创建并配置编码器
+     *
+     * @param format 输出格式
+     * @return
+     * @throws IOException
+     */
+    public static MediaCodecWrapper createEncoder(MediaFormat format) throws IOException {
+        MediaCodec mediaCodec = MediaCodec.createEncoderByType(format.getString(MediaFormat.KEY_MIME));
+        mediaCodec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+        return new MediaCodecWrapper(mediaCodec);
+    }
+
+    /**
+     * 复制常用的键，API 29 之前 MediaFormat 不能遍历所有的键
+     *
+     * @param mediaFormat
+     * @return
+     */
+    public static CodecFormat toCodecFormat(MediaFormat mediaFormat) {
+        CodecFormat format = new CodecFormat();
+        if (mediaFormat.containsKey(MediaFormat.KEY_MIME)) {
+            format.setString(CodecFormat.KEY_MIME, mediaFormat.getString(MediaFormat.KEY_MIME));
+        }
+        if (mediaFormat.containsKey(MediaFormat.KEY_DURATION)) {
+            format.setLong(CodecFormat.KEY_DURATION, mediaFormat.getLong(MediaFormat.KEY_DURATION));
+        }
+        for (String key : INTEGER_KEYS) {
+            if (mediaFormat.containsKey(key)) {
+                try {
+                    format.setInteger(key, mediaFormat.getInteger(key));
+                } catch (ClassCastException e) {
+                    Log.w(TAG, "toCodecFormat: " + key + " is not integer");
+                }
+            }
+        }
+        return format;
+    }
+
+    /**
+     * @return 被包装的 MediaCodec，用于 Surface 相关的操作
+     */
+    public MediaCodec getMediaCodec() {
+        return mMediaCodec;
+    }
+
+    @Override
+    public void start() {
+        mMediaCodec.start();
+    }
+
+    @Override
+    public void stop() {
+        mMediaCodec.stop();
+    }
+
+    @Override
+    public void flush() {
+        mMediaCodec.flush();
+    }
+
+    @Override
+    public void release() {
+        mMediaCodec.release();
+    }
+
+    @Override
+    public int dequeueInputBuffer(long timeoutUs) {
+        return mMediaCodec.dequeueInputBuffer(timeoutUs);
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        return mMediaCodec.getInputBuffer(index);
+    }
+
+    @Override
+    public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+        mMediaCodec.queueInputBuffer(index, offset, size, presentationTimeUs, flags);
+    }
+
+    @Override
+    public int dequeueOutputBuffer(BufferInfo info, long timeoutUs) {
+        MediaCodec.BufferInfo bufferInfo = mBufferInfo;
+        int index = mMediaCodec.dequeueOutputBuffer(bufferInfo, timeoutUs);
+        if (index >= 0) {
+            info.set(bufferInfo.offset, bufferInfo.size, bufferInfo.presentationTimeUs, bufferInfo.flags);
+        }
+        return index;
+    }
+
+    @Override
+    public ByteBuffer getOutputBuffer(int index) {
+        return mMediaCodec.getOutputBuffer(index);
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index, boolean render) {
+        mMediaCodec.releaseOutputBuffer(index, render);
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index, long renderTimestampNs) {
+        mMediaCodec.releaseOutputBuffer(index, renderTimestampNs);
+    }
+
+    @Override
+    public CodecFormat getOutputFormat() {
+        return toCodecFormat(mMediaCodec.getOutputFormat());
+    }
+
+    @Override
+    public String getName() {
+        return mMediaCodec.getName();
+    }
+
+    @Override
+    public void setCallback(Callback callback) {
+        if (!mCallbackSupported) {
+            throw new IllegalStateException("Callback mode is not enabled for " + mMediaCodec.getName());
+        }
+        mCallback = callback;
+    }
+
+    /**
+     * 设置在 configure 之前，start 之后才会有事件
+     */
+    private final class ForwardingCallback extends MediaCodec.Callback {
+        // 回调都在同一个线程，输出信息可以复用
+        private final BufferInfo mOutputInfo = new BufferInfo();
+
+        @Override
+        public void onInputBufferAvailable(MediaCodec codec, int index) {
+            Callback callback = mCallback;
+            if (callback != null) {
+                callback.onInputBufferAvailable(MediaCodecWrapper.this, index);
+            }
+        }
+
+        @Override
+        public void onOutputBufferAvailable(MediaCodec codec, int index, MediaCodec.BufferInfo info) {
+            Callback callback = mCallback;
+            if (callback != null) {
+                mOutputInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+                callback.onOutputBufferAvailable(MediaCodecWrapper.this, index, mOutputInfo);
+            }
+        }
+
+        @Override
+        public void onError(MediaCodec codec, MediaCodec.CodecException e) {
+            Callback callback = mCallback;
+            if (callback != null) {
+                callback.onError(MediaCodecWrapper.this, e);
+            }
+        }
+
+        @Override
+        public void onOutputFormatChanged(MediaCodec codec, MediaFormat format) {
+            Callback callback = mCallback;
+            if (callback != null) {
+                callback.onOutputFormatChanged(MediaCodecWrapper.this, toCodecFormat(format));
+            }
+        }
+    }
+}
@@ -0,0 +1,488 @@
+package com.richie.multimedialearning.media.codec;
+
+import java.nio.ByteBuffer;
+
+/**
+ * 纯 Java 的确定性编解码器，用于在普通 JVM 上测试和压测缓冲区处理、调度逻辑
+ * <p>
+ * 行为和 MediaCodec 的同步模式一致：有限个输入输出缓冲区，第一个输出之前先返回 INFO_OUTPUT_FORMAT_CHANGED，
+ * EOS 随最后一个输出返回。输入在 queueInputBuffer 时由 Processor 同步处理，没有空闲的输出缓冲区时排队等待，
+ * delayFrames 模拟硬件编解码器的延迟，在收到 EOS 之前最后 delayFrames 个输出不可取。
+ * 异步模式下由一个专用线程按顺序回调。运行过程中不分配内存，线程安全。
+ */
+public final class SoftwareCodec implements ICodec {
+    /**
+     * 直通，输出和输入完全相同
+     */
+    public static final Processor PASS_THROUGH = new Processor() {
+        @Override
+        public int process(ByteBuffer input, ByteBuffer output, BufferInfo info) {
+            int size = input.remaining();
+            output.put(input);
+            return size;
+        }
+    };
+
+    private static final int EVENT_INPUT = 1;
+    private static final int EVENT_OUTPUT = 2;
+    private static final int EVENT_FORMAT = 3;
+
+    private final String mName;
+    private final CodecFormat mOutputFormat;
+    private final Processor mProcessor;
+    private final int mDelayFrames;
+    private final ByteBuffer[] mInputBuffers;
+    private final ByteBuffer[] mOutputBuffers;
+    // 输出缓冲区的信息
+    private final BufferInfo[] mOutputInfos;
+    // 已提交未处理的输入的信息
+    private final BufferInfo[] mInputInfos;
+    private final IndexQueue mFreeInputs;
+    private final IndexQueue mPendingInputs;
+    private final IndexQueue mFreeOutputs;
+    private final IndexQueue mReadyOutputs;
+    // 被调用方持有的输入缓冲区
+    private final boolean[] mDequeuedInputs;
+    private final boolean[] mDequeuedOutputs;
+    private boolean mStarted;
+    private boolean mFormatReported;
+    private boolean mInputEos;
+    private boolean mReleased;
+    // 异步模式的回调和待分发的事件，事件编码为 类型 << 16 | 缓冲区索引
+    private Callback mCallback;
+    private IndexQueue mEvents;
+
+    /**
+     * @param name             名称
+     * @param outputFormat     输出格式
+     * @param bufferCount      输入和输出缓冲区的个数
+     * @param inputBufferSize  输入缓冲区的大小
+     * @param outputBufferSize 输出缓冲区的大小
+     * @param delayFrames      延迟的帧数
+     * @param processor        处理输入的逻辑
+     */
+    public SoftwareCodec(String name, CodecFormat outputFormat, int bufferCount, int inputBufferSize,
+                         int outputBufferSize, int delayFrames, Processor processor) {
+        if (bufferCount <= 0 || inputBufferSize <= 0 || outputBufferSize <= 0 || delayFrames < 0
+                || delayFrames >= bufferCount) {
+            throw new IllegalArgumentException("bufferCount: " + bufferCount + ", inputBufferSize: " + inputBufferSize
+                    + ", outputBufferSize: " + outputBufferSize + ", delayFrames: " + delayFrames);
+        }
+        mName = name;
+        mOutputFormat = outputFormat;
+        mProcessor = processor;
+        mDelayFrames = delayFrames;
+        mInputBuffers = new ByteBuffer[bufferCount];
+        mOutputBuffers = new ByteBuffer[bufferCount];
+        mInputInfos = new BufferInfo[bufferCount];
+        mOutputInfos = new BufferInfo[bufferCount];
+        for (int i = 0; i < bufferCount; i++) {
+            mInputBuffers[i] = ByteBuffer.allocateDirect(inputBufferSize);
+            mOutputBuffers[i] = ByteBuffer.allocateDirect(outputBufferSize);
+            mInputInfos[i] = new BufferInfo();
+            mOutputInfos[i] = new BufferInfo();
+        }
+        mFreeInputs = new IndexQueue(bufferCount);
+        mPendingInputs = new IndexQueue(bufferCount);
+        mFreeOutputs = new IndexQueue(bufferCount);
+        mReadyOutputs = new IndexQueue(bufferCount);
+        mDequeuedInputs = new boolean[bufferCount];
+        mDequeuedOutputs = new boolean[bufferCount];
+    }
+
+    /**
+     * 直通的编解码器
+     *
+     * @param outputFormat 输出格式
+     * @param bufferCount  缓冲区个数
+     * @param bufferSize   缓冲区大小
+     * @return
+     */
+    public static SoftwareCodec createPassThrough(CodecFormat outputFormat, int bufferCount, int bufferSize) {
+        return new SoftwareCodec("software.passthrough", outputFormat, bufferCount, bufferSize, bufferSize, 0, PASS_THROUGH);
+    }
+
+    /**
+     * 每个输入产生固定大小输出的编解码器，内容由时间戳决定，可以用来模拟解码
+     *
+     * @param outputFormat     输出格式
+     * @param bufferCount      缓冲区个数
+     * @param inputBufferSize  输入缓冲区大小
+     * @param outputSize       每个输出的大小
+     * @param delayFrames      延迟的帧数
+     * @return
+     */
+    public static SoftwareCodec createSynthetic(CodecFormat outputFormat, int bufferCount, int inputBufferSize,
+                                                final int outputSize, int delayFrames) {
+        return new SoftwareCodec("software.synthetic", outputFormat, bufferCount, inputBufferSize, outputSize,
+                delayFrames, new Processor() {
+            @Override
+            public int process(ByteBuffer input, ByteBuffer output, BufferInfo info) {
+                if (input.remaining() == 0) {
+                    return 0;
+                }
+                int seed = (int) (info.presentationTimeUs ^ (info.presentationTimeUs >>> 32));
+                for (int i = 0; i < outputSize; i++) {
+                    output.put((byte) (seed + i));
+                }
+                return outputSize;
+            }
+        });
+    }
+
+    @Override
+    public synchronized void start() {
+        if (mStarted || mReleased) {
+            return;
+        }
+        // 异步模式 flush 之后重新 start 时，已经报告的输出格式不再重复报告
+        resetBuffers();
+        mStarted = true;
+        dispatchCallbacks();
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void stop() {
+        mStarted = false;
+        mFormatReported = false;
+        resetBuffers();
+        notifyAll();
+    }
+
+    /**
+     * 异步模式下和 MediaCodec 一样，flush 之后需要重新 start
+     */
+    @Override
+    public synchronized void flush() {
+        checkStarted();
+        resetBuffers();
+        if (mCallback != null) {
+            mStarted = false;
+        }
+        notifyAll();
+    }
+
+    @Override
+    public synchronized void release() {
+        stop();
+        mReleased = true;
+    }
+
+    @Override
+    public synchronized void setCallback(Callback callback) {
+        if (mStarted) {
+            throw new IllegalStateException("setCallback must be called before start");
+        }
+        if (mCallback == null && callback != null) {
+            mEvents = new IndexQueue(mInputBuffers.length * 2 + 1);
+            Thread dispatcher = new Thread(new Dispatcher(), mName.concat(" callback"));
+            dispatcher.setDaemon(true);
+            dispatcher.start();
+        }
+        mCallback = callback;
+    }
+
+    private void resetBuffers() {
+        mFreeInputs.clear();
+        mPendingInputs.clear();
+        mFreeOutputs.clear();
+        mReadyOutputs.clear();
+        for (int i = 0; i < mInputBuffers.length; i++) {
+            mFreeInputs.add(i);
+            mFreeOutputs.add(i);
+            mDequeuedInputs[i] = false;
+            mDequeuedOutputs[i] = false;
+        }
+        mInputEos = false;
+        if (mEvents != null) {
+            mEvents.clear();
+        }
+    }
+
+    /**
+     * 异步模式下把空闲的输入和可取的输出交给回调，在锁内调用
+     */
+    private void dispatchCallbacks() {
+        if (mCallback == null || !mStarted) {
+            return;
+        }
+        while (!mFreeInputs.isEmpty() && !mInputEos) {
+            int index = mFreeInputs.poll();
+            mDequeuedInputs[index] = true;
+            mInputBuffers[index].clear();
+            mEvents.add(EVENT_INPUT << 16 | index);
+        }
+        while (hasOutput()) {
+            if (!mFormatReported) {
+                mFormatReported = true;
+                mEvents.add(EVENT_FORMAT << 16);
+            }
+            int index = mReadyOutputs.poll();
+            mDequeuedOutputs[index] = true;
+            mEvents.add(EVENT_OUTPUT << 16 | index);
+        }
+        notifyAll();
+    }
+
+    @Override
+    public synchronized int dequeueInputBuffer(long timeoutUs) {
+        checkStarted();
+        checkSyncMode();
+        if (mInputEos || !awaitFor(mFreeInputs, timeoutUs)) {
+            return INFO_TRY_AGAIN_LATER;
+        }
+        int index = mFreeInputs.poll();
+        mDequeuedInputs[index] = true;
+        mInputBuffers[index].clear();
+        return index;
+    }
+
+    @Override
+    public synchronized ByteBuffer getInputBuffer(int index) {
+        checkIndex(index, mDequeuedInputs);
+        return mInputBuffers[index];
+    }
+
+    @Override
+    public synchronized void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+        checkStarted();
+        checkIndex(index, mDequeuedInputs);
+        if (offset < 0 || size < 0 || offset + size > mInputBuffers[index].capacity()) {
+            throw new IllegalArgumentException("offset: " + offset + ", size: " + size);
+        }
+        mDequeuedInputs[index] = false;
+        mInputInfos[index].set(offset, size, presentationTimeUs, flags);
+        mPendingInputs.add(index);
+        if ((flags & BUFFER_FLAG_END_OF_STREAM) != 0) {
+            mInputEos = true;
+        }
+        processPendingInputs();
+        dispatchCallbacks();
+        notifyAll();
+    }
+
+    private void processPendingInputs() {
+        while (!mPendingInputs.isEmpty() && !mFreeOutputs.isEmpty()) {
+            int inIndex = mPendingInputs.poll();
+            int outIndex = mFreeOutputs.poll();
+            BufferInfo inInfo = mInputInfos[inIndex];
+            ByteBuffer input = mInputBuffers[inIndex];
+            input.limit(inInfo.offset + inInfo.size);
+            input.position(inInfo.offset);
+            ByteBuffer output = mOutputBuffers[outIndex];
+            output.clear();
+            BufferInfo outInfo = mOutputInfos[outIndex];
+            outInfo.set(0, 0, inInfo.presentationTimeUs, inInfo.flags);
+            outInfo.size = mProcessor.process(input, output, outInfo);
+            mReadyOutputs.add(outIndex);
+            mFreeInputs.add(inIndex);
+        }
+    }
+
+    @Override
+    public synchronized int dequeueOutputBuffer(BufferInfo info, long timeoutUs) {
+        checkStarted();
+        checkSyncMode();
+        long deadline = timeoutUs < 0 ? Long.MAX_VALUE : System.nanoTime() + timeoutUs * 1000;
+        while (mStarted && !hasOutput()) {
+            long waitNanos = deadline - System.nanoTime();
+            if (waitNanos <= 0) {
+                return INFO_TRY_AGAIN_LATER;
+            }
+            waitNanos(waitNanos);
+        }
+        if (!mStarted) {
+            return INFO_TRY_AGAIN_LATER;
+        }
+        if (!mFormatReported) {
+            mFormatReported = true;
+            return INFO_OUTPUT_FORMAT_CHANGED;
+        }
+        int index = mReadyOutputs.poll();
+        mDequeuedOutputs[index] = true;
+        BufferInfo outInfo = mOutputInfos[index];
+        info.set(outInfo.offset, outInfo.size, outInfo.presentationTimeUs, outInfo.flags);
+        return index;
+    }
+
+    private boolean hasOutput() {
+        return mReadyOutputs.size() > (mInputEos ? 0 : mDelayFrames);
+    }
+
+    @Override
+    public synchronized ByteBuffer getOutputBuffer(int index) {
+        checkIndex(index, mDequeuedOutputs);
+        ByteBuffer output = mOutputBuffers[index];
+        BufferInfo outInfo = mOutputInfos[index];
+        output.limit(outInfo.offset + outInfo.size);
+        output.position(outInfo.offset);
+        return output;
+    }
+
+    @Override
+    public synchronized void releaseOutputBuffer(int index, boolean render) {
+        checkStarted();
+        checkIndex(index, mDequeuedOutputs);
+        mDequeuedOutputs[index] = false;
+        mFreeOutputs.add(index);
+        processPendingInputs();
+        dispatchCallbacks();
+        notifyAll();
+    }
+
+    /**
+     * 没有 Surface，和立即渲染相同
+     */
+    @Override
+    public void releaseOutputBuffer(int index, long renderTimestampNs) {
+        releaseOutputBuffer(index, true);
+    }
+
+    @Override
+    public CodecFormat getOutputFormat() {
+        return mOutputFormat;
+    }
+
+    @Override
+    public String getName() {
+        return mName;
+    }
+
+    private boolean awaitFor(IndexQueue queue, long timeoutUs) {
+        long deadline = timeoutUs < 0 ? Long.MAX_VALUE : System.nanoTime() + timeoutUs * 1000;
+        while (mStarted && queue.isEmpty()) {
+            long waitNanos = deadline - System.nanoTime();
+            if (waitNanos <= 0) {
+                return false;
+            }
+            waitNanos(waitNanos);
+        }
+        return mStarted;
+    }
+
+    private void waitNanos(long nanos) {
+        try {
+            long millis = nanos / 1_000_000;
+            wait(millis, (int) (nanos - millis * 1_000_000));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void checkSyncMode() {
+        if (mCallback != null) {
+            throw new IllegalStateException(mName + " is in callback mode");
+        }
+    }
+
+    private void checkStarted() {
+        if (!mStarted) {
+            throw new IllegalStateException(mName + " is not started");
+        }
+    }
+
+    private static void checkIndex(int index, boolean[] dequeued) {
+        if (index < 0 || index >= dequeued.length || !dequeued[index]) {
+            throw new IllegalStateException("Buffer " + index + " is not dequeued");
+        }
+    }
+
+    /**
+     * 异步模式的分发线程，在锁外调用回调，回调里可以直接 queueInputBuffer 和 releaseOutputBuffer
+     */
+    private final class Dispatcher implements Runnable {
+        private final BufferInfo mInfo = new BufferInfo();
+
+        @Override
+        public void run() {
+            while (true) {
+                int event;
+                Callback callback;
+                synchronized (SoftwareCodec.this) {
+                    while (!mReleased && (mEvents.isEmpty() || !mStarted)) {
+                        try {
+                            SoftwareCodec.this.wait();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                    if (mReleased) {
+                        return;
+                    }
+                    event = mEvents.poll();
+                    callback = mCallback;
+                    if (event >> 16 == EVENT_OUTPUT) {
+                        BufferInfo outInfo = mOutputInfos[event & 0xFFFF];
+                        mInfo.set(outInfo.offset, outInfo.size, outInfo.presentationTimeUs, outInfo.flags);
+                    }
+                }
+                int index = event & 0xFFFF;
+                switch (event >> 16) {
+                    case EVENT_INPUT:
+                        callback.onInputBufferAvailable(SoftwareCodec.this, index);
+                        break;
+                    case EVENT_OUTPUT:
+                        callback.onOutputBufferAvailable(SoftwareCodec.this, index, mInfo);
+                        break;
+                    case EVENT_FORMAT:
+                        callback.onOutputFormatChanged(SoftwareCodec.this, mOutputFormat);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * 处理一个输入
+     */
+    public interface Processor {
+        /**
+         * @param input  输入数据，position 到 limit
+         * @param output 输出缓冲区，已经 clear
+         * @param info   输出信息，可以修改时间戳和标记
+         * @return 输出的长度
+         */
+        int process(ByteBuffer input, ByteBuffer output, BufferInfo info);
+    }
+
+    /**
+     * 不装箱的缓冲区索引队列
+     */
+    private static final class IndexQueue {
+        private final int[] mItems;
+        private int mHead;
+        private int mSize;
+
+        IndexQueue(int capacity) {
+            mItems = new int[capacity];
+        }
+
+        void add(int index) {
+            mItems[(mHead + mSize) % mItems.length] = index;
+            mSize++;
+        }
+
+        int poll() {
+            int index = mItems[mHead];
+            mHead = (mHead + 1) % mItems.length;
+            mSize--;
+            return index;
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        boolean isEmpty() {
+            return mSize == 0;
+        }
+
+        void clear() {
+            mHead = 0;
+            mSize = 0;
+        }
+    }
+}
@@ -7,8 +7,13 @@ import android.media.MediaCodec;
 import android.media.MediaFormat;
 import android.util.Log;
 
+import com.richie.multimedialearning.media.MediaClock;
+import com.richie.multimedialearning.media.audio.AudioOutputAdapter;
+import com.richie.multimedialearning.media.codec.CodecFormat;
+import com.richie.multimedialearning.media.codec.ICodec;
 import com.richie.multimedialearning.media.extractor.AudioExtractor;
 import com.richie.multimedialearning.media.extractor.IExtractor;
+import com.richie.multimedialearning.media.extractor.SharedDemuxer;
 
 import java.nio.ByteBuffer;
 
@@ -19,11 +24,25 @@ import java.nio.ByteBuffer;
  */
 public class AudioDecoder extends BaseDecoder {
     private static final String TAG = "AudioDecoder";
+    // 等待上一个解码器创建 AudioTrack 的最长时间，超时后自己创建
+    private static final long TRACK_WAIT_TIMEOUT_MS = 2000;
     private int mSampleRate = -1;
     private int mChannels = -1;
     private int mEncodingPcmBit = AudioFormat.ENCODING_PCM_16BIT;
     private AudioTrack mAudioTrack;
+    // 解码器输出到 AudioTrack 的格式转换，格式一致时直接写解码器的 ByteBuffer
+    private AudioOutputAdapter mOutputAdapter;
     private short[] mAudioOutTempBuf;
+    private float[] mAudioOutFloatBuf;
+    // AudioTrack 的创建、转交和释放在 mTrackLock 内进行
+    private final Object mTrackLock = new Object();
+    private boolean mOwnsAudioTrack = true;
+    private boolean mTrackReleased;
+    // 写入当前 AudioTrack 的帧数，转交给下一个解码器时用来定位主时钟
+    private volatile long mTrackWrittenFrames;
+    // 播放列表中的上一个解码器，格式一致时沿用它的 AudioTrack
+    private AudioDecoder mPreviousDecoder;
+    private boolean mAttachClockOnRender;
 
     public AudioDecoder(String filePath) {
         super(filePath);
@@ -36,7 +55,12 @@ public class AudioDecoder extends BaseDecoder {
 
     @Override
     protected IExtractor initExtractor(String filePath) {
-        return new AudioExtractor(filePath);
+        SharedDemuxer demuxer = getSharedDemuxer();
+        if (demuxer != null) {
+            return demuxer.getAudioExtractor();
+        }
+        IExtractor extractor = createMp4Extractor(filePath, false);
+        return extractor != null ? extractor : new AudioExtractor(filePath);
     }
 
     @Override
@@ -64,29 +88,266 @@ public class AudioDecoder extends BaseDecoder {
     @Override
     protected boolean initRender() {
         Log.d(TAG, "initRender: ");
-        int channel = mChannels == 1 ? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO;
-        int minBufferSize = AudioTrack.getMinBufferSize(mSampleRate, channel, mEncodingPcmBit);
-        mAudioOutTempBuf = new short[minBufferSize / 2];
-        mAudioTrack = new AudioTrack(AudioManager.STREAM_MUSIC, mSampleRate, channel, mEncodingPcmBit, minBufferSize, AudioTrack.MODE_STREAM);
-        mAudioTrack.play();
+        int inEncoding = AudioOutputAdapter.isSupportedEncoding(mEncodingPcmBit) ? mEncodingPcmBit : AudioFormat.ENCODING_PCM_16BIT;
+        int outChannels = AudioOutputAdapter.getOutputChannels(mChannels);
+        AudioTrack previousTrack = null;
+        if (mPreviousDecoder != null) {
+            previousTrack = mPreviousDecoder.takeAudioTrack(mSampleRate, outChannels, inEncoding);
+            Log.i(TAG, "initRender: reuse previous AudioTrack " + (previousTrack != null));
+        }
+        if (previousTrack != null) {
+            synchronized (mTrackLock) {
+                mAudioTrack = previousTrack;
+            }
+            // 上一个文件的数据还在播放，开始写入时才能确定时钟的起点
+            mAttachClockOnRender = true;
+        } else {
+            mPreviousDecoder = null;
+            createAudioTrack(mSampleRate, outChannels, inEncoding);
+        }
+        // 两种情况下 AudioTrack 的格式都是 outChannels 和 inEncoding，适配器只创建一次
+        mOutputAdapter = new AudioOutputAdapter(mChannels, inEncoding, outChannels, inEncoding);
         return true;
     }
 
+    /**
+     * 创建新的 AudioTrack，调用方随后按新的输出格式更新 mOutputAdapter
+     */
+    private void createAudioTrack(int sampleRate, int channels, int encoding) {
+        int channel = channels == 1 ? AudioFormat.CHANNEL_OUT_MONO : AudioFormat.CHANNEL_OUT_STEREO;
+        int minBufferSize = AudioTrack.getMinBufferSize(sampleRate, channel, encoding);
+        AudioTrack returnTrack = null;
+        AudioDecoder previous = mPreviousDecoder;
+        mPreviousDecoder = null;
+        synchronized (mTrackLock) {
+            if (mAudioTrack != null) {
+                if (!mOwnsAudioTrack) {
+                    // 已经转交给下一个解码器，由它写入和释放
+                    Log.i(TAG, "createAudioTrack: keep handed over AudioTrack for next decoder");
+                } else if (previous != null) {
+                    // 从上一个解码器接过来还没有开始写，上一个解码器可能还在写，还给它
+                    returnTrack = mAudioTrack;
+                } else {
+                    mAudioTrack.stop();
+                    mAudioTrack.release();
+                }
+            }
+            mAudioTrack = new AudioTrack(AudioManager.STREAM_MUSIC, sampleRate, channel, encoding, minBufferSize, AudioTrack.MODE_STREAM);
+            mAudioTrack.play();
+            mOwnsAudioTrack = true;
+            mTrackWrittenFrames = 0;
+            mAttachClockOnRender = false;
+            mTrackLock.notifyAll();
+        }
+        if (returnTrack != null) {
+            giveBackAudioTrack(previous, returnTrack);
+        }
+        mSampleRate = sampleRate;
+        MediaClock clock = getMediaClock();
+        if (clock != null) {
+            clock.setAudioTrack(mAudioTrack, sampleRate);
+        }
+    }
+
+    @Override
+    protected boolean isClockMaster() {
+        return getMediaClock() != null;
+    }
+
+    @Override
+    protected void onOutputFormatChanged(CodecFormat outputFormat) {
+        Log.i(TAG, "onOutputFormatChanged: " + outputFormat);
+        try {
+            int channels = outputFormat.getInteger(CodecFormat.KEY_CHANNEL_COUNT);
+            int sampleRate = outputFormat.getInteger(CodecFormat.KEY_SAMPLE_RATE);
+            int encoding = outputFormat.getInteger(CodecFormat.KEY_PCM_ENCODING, AudioFormat.ENCODING_PCM_16BIT);
+            if (!AudioOutputAdapter.isSupportedEncoding(encoding)) {
+                Log.w(TAG, "onOutputFormatChanged: unsupported encoding " + encoding);
+                return;
+            }
+            int outChannels = mOutputAdapter.getOutChannels();
+            int outEncoding = mOutputAdapter.getOutEncoding();
+            if (sampleRate != mSampleRate) {
+                // 采样率变化只能重建 AudioTrack，重建时直接使用解码器的格式
+                outChannels = AudioOutputAdapter.getOutputChannels(channels);
+                outEncoding = encoding;
+                createAudioTrack(sampleRate, outChannels, outEncoding);
+            }
+            mChannels = channels;
+            mEncodingPcmBit = encoding;
+            mOutputAdapter = new AudioOutputAdapter(channels, encoding, outChannels, outEncoding);
+        } catch (Exception e) {
+            Log.w(TAG, "onOutputFormatChanged: ", e);
+        }
+    }
+
     @Override
-    protected boolean render(ByteBuffer outputBuffer, MediaCodec.BufferInfo bufferInfo) {
-        int length = bufferInfo.size / 2;
-        if (mAudioOutTempBuf.length < length) {
-            mAudioOutTempBuf = new short[length];
-        }
-        outputBuffer.position(0);
-        outputBuffer.asShortBuffer().get(mAudioOutTempBuf, 0, length);
-        mAudioTrack.write(mAudioOutTempBuf, 0, length);
+    protected boolean render(ByteBuffer outputBuffer, ICodec.BufferInfo bufferInfo) {
+        MediaClock clock = getMediaClock();
+        if (clock != null && (bufferInfo.flags & ICodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+            // 音频结束后时钟改用墙上时钟，视频可以继续播放
+            clock.setAudioTrack(null, 0);
+        }
+        if (bufferInfo.size <= 0) {
+            return true;
+        }
+        if (mAttachClockOnRender) {
+            attachPreviousTrack(clock);
+        }
+        outputBuffer.position(bufferInfo.offset);
+        outputBuffer.limit(bufferInfo.offset + bufferInfo.size);
+        AudioOutputAdapter adapter = mOutputAdapter;
+        int length = adapter.getOutputSamples(bufferInfo.size);
+        if (adapter.isPassThrough()) {
+            mAudioTrack.write(outputBuffer, bufferInfo.size, AudioTrack.WRITE_BLOCKING);
+            onAudioWritten(clock, bufferInfo.presentationTimeUs, length / adapter.getOutChannels());
+            return true;
+        }
+        if (adapter.getOutEncoding() == AudioFormat.ENCODING_PCM_FLOAT) {
+            if (mAudioOutFloatBuf == null || mAudioOutFloatBuf.length < length) {
+                mAudioOutFloatBuf = new float[length];
+            }
+            length = adapter.convert(outputBuffer, bufferInfo.size, mAudioOutFloatBuf);
+            mAudioTrack.write(mAudioOutFloatBuf, 0, length, AudioTrack.WRITE_BLOCKING);
+        } else {
+            if (mAudioOutTempBuf == null || mAudioOutTempBuf.length < length) {
+                mAudioOutTempBuf = new short[length];
+            }
+            length = adapter.convert(outputBuffer, bufferInfo.size, mAudioOutTempBuf);
+            mAudioTrack.write(mAudioOutTempBuf, 0, length);
+        }
+        onAudioWritten(clock, bufferInfo.presentationTimeUs, length / adapter.getOutChannels());
         return true;
     }
 
+    private void onAudioWritten(MediaClock clock, long ptsUs, int frames) {
+        mTrackWrittenFrames += frames;
+        if (clock != null) {
+            clock.onAudioWritten(ptsUs, frames);
+        }
+    }
+
+    /**
+     * 开始写入上一个解码器转交的 AudioTrack，上一个文件已经写完，时钟从它写入的位置开始计算
+     */
+    private void attachPreviousTrack(MediaClock clock) {
+        mAttachClockOnRender = false;
+        AudioDecoder previous = mPreviousDecoder;
+        mPreviousDecoder = null;
+        if (previous != null) {
+            mTrackWrittenFrames = previous.mTrackWrittenFrames;
+        }
+        if (clock != null) {
+            clock.setAudioTrack(mAudioTrack, mSampleRate, mTrackWrittenFrames);
+        }
+    }
+
+    /**
+     * 接着播放列表中的上一个解码器播放，格式一致时直接沿用它的 AudioTrack，不重新创建，需要在 run 之前调用
+     * <p>
+     * 这个解码器应该用 {@link #startPaused()} 预加载，在上一个解码器写完最后一帧之后再 goOn，
+     * 两个文件的数据在同一个 AudioTrack 中首尾相接，没有间隙。转交之后 AudioTrack 由这个解码器释放。
+     *
+     * @param previousDecoder 上一个解码器
+     * @return
+     */
+    public AudioDecoder continueFrom(AudioDecoder previousDecoder) {
+        mPreviousDecoder = previousDecoder;
+        return this;
+    }
+
+    /**
+     * 把 AudioTrack 转交给下一个解码器，还没有创建时等待初始化
+     *
+     * @return 格式不一致或者已经释放时返回 null
+     */
+    private AudioTrack takeAudioTrack(int sampleRate, int channels, int encoding) {
+        long deadline = System.currentTimeMillis() + TRACK_WAIT_TIMEOUT_MS;
+        synchronized (mTrackLock) {
+            long waitMs;
+            while (mAudioTrack == null && !mTrackReleased && (waitMs = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    mTrackLock.wait(waitMs);
+                } catch (InterruptedException e) {
+                    Log.w(TAG, "takeAudioTrack: ", e);
+                    return null;
+                }
+            }
+            AudioTrack audioTrack = mAudioTrack;
+            if (audioTrack == null || mTrackReleased || !mOwnsAudioTrack
+                    || audioTrack.getSampleRate() != sampleRate || audioTrack.getChannelCount() != channels
+                    || audioTrack.getAudioFormat() != encoding) {
+                return null;
+            }
+            mOwnsAudioTrack = false;
+            return audioTrack;
+        }
+    }
+
+    /**
+     * 上一个解码器还没有结束时把 AudioTrack 还给它，由它释放，已经结束时直接释放
+     */
+    private static void giveBackAudioTrack(AudioDecoder previous, AudioTrack audioTrack) {
+        synchronized (previous.mTrackLock) {
+            if (!previous.mTrackReleased && previous.mAudioTrack == audioTrack) {
+                previous.mOwnsAudioTrack = true;
+                Log.i(TAG, "giveBackAudioTrack: return AudioTrack to previous decoder");
+                return;
+            }
+        }
+        audioTrack.stop();
+        audioTrack.release();
+    }
+
+    /**
+     * 只 flush 自己独占的 AudioTrack。已经转交给下一个解码器，或者接过来时上一个解码器可能还在写，
+     * flush 会丢掉别人的数据，这时只重新定位时钟，新的数据接在已经写入的数据之后播放
+     */
+    @Override
+    protected void onFlush() {
+        boolean flushTrack;
+        synchronized (mTrackLock) {
+            flushTrack = mOwnsAudioTrack && mPreviousDecoder == null;
+            if (flushTrack) {
+                mAudioTrack.pause();
+                mAudioTrack.flush();
+                mAudioTrack.play();
+                mTrackWrittenFrames = 0;
+            }
+        }
+        MediaClock clock = getMediaClock();
+        if (flushTrack) {
+            mAttachClockOnRender = false;
+            if (clock != null) {
+                // flush 之后播放位置归零，时钟重新定位
+                clock.setAudioTrack(mAudioTrack, mSampleRate);
+            }
+        } else if (!mAttachClockOnRender && clock != null) {
+            // 还没有开始写入接过来的 AudioTrack 时，第一次写入会定位时钟
+            clock.setAudioTrack(mAudioTrack, mSampleRate, mTrackWrittenFrames);
+        }
+    }
+
     @Override
     protected void doneDecode() {
-        mAudioTrack.stop();
-        mAudioTrack.release();
+        AudioTrack returnTrack = null;
+        AudioDecoder previous = mPreviousDecoder;
+        mPreviousDecoder = null;
+        synchronized (mTrackLock) {
+            mTrackReleased = true;
+            mTrackLock.notifyAll();
+            if (mAudioTrack != null && mOwnsAudioTrack) {
+                if (previous != null) {
+                    // 接过来的 AudioTrack 还没有开始写，上一个解码器可能还在写
+                    returnTrack = mAudioTrack;
+                } else {
+                    mAudioTrack.stop();
+                    mAudioTrack.release();
+                }
+            }
+        }
+        if (returnTrack != null) {
+            giveBackAudioTrack(previous, returnTrack);
+        }
     }
 }
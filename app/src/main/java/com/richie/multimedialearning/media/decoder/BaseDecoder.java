@@ -2,14 +2,31 @@ package com.richie.multimedialearning.media.decoder;
 
 import android.media.MediaCodec;
 import android.media.MediaFormat;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.os.SystemClock;
 import android.util.Log;
 
+import com.richie.multimedialearning.media.Frame;
+import com.richie.multimedialearning.media.FramePool;
 import com.richie.multimedialearning.media.IDecoderProgressListener;
+import com.richie.multimedialearning.media.MediaClock;
+import com.richie.multimedialearning.media.codec.CodecFormat;
+import com.richie.multimedialearning.media.codec.CodecPool;
+import com.richie.multimedialearning.media.codec.ICodec;
+import com.richie.multimedialearning.media.codec.MediaCodecWrapper;
 import com.richie.multimedialearning.media.extractor.IExtractor;
+import com.richie.multimedialearning.media.extractor.Mp4Extractor;
+import com.richie.multimedialearning.media.extractor.PrefetchExtractor;
+import com.richie.multimedialearning.media.extractor.SharedDemuxer;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
 
 /**
  * 基础解码器
@@ -19,27 +36,72 @@ import java.nio.ByteBuffer;
 public abstract class BaseDecoder implements IDecoder {
     private static final String TAG = "BaseDecoder";
     public static final int TIMEOUT_US = 1000;
+    // 使用主时钟时提前交给解码器按时间渲染
+    private static final long CLOCK_RENDER_LEAD_US = 20_000;
+    // 等待显示时间时每次最多睡眠的时间，暂停和时钟变化可以及时响应
+    private static final long MAX_SLEEP_MS = 20;
 
     private final Object mLock = new Object();
     private volatile boolean mIsRunning = true;
+    // 解码器是否已经配置好，稍后配置时在 mLock 内访问
     private boolean mReadyForDecode = false;
 
-    private MediaCodec mMediaCodec;
+    private ICodec mCodec;
     private IExtractor mExtractor;
-    private ByteBuffer[] mInputBuffers;
-    private ByteBuffer[] mOutputBuffers;
-    private final MediaCodec.BufferInfo mBufferInfo = new MediaCodec.BufferInfo();
-    private DecodeState mState = DecodeState.STOP;
+    private final ICodec.BufferInfo mBufferInfo = new ICodec.BufferInfo();
+    private volatile DecodeState mState = DecodeState.STOP;
     protected IDecodeStateListener mStateListener;
     private boolean mIsEos = false;
     protected int mVideoWidth;
     protected int mVideoHeight;
     private long mDuration;
+    // 播放范围，单位毫秒，mEndPos 为 0 时初始化为时长
     private long mStartPos;
     private long mEndPos;
+    // 播放范围的结束时间，单位微秒，-1 表示播放到文件末尾
+    private long mRangeEndUs = -1;
+    private volatile boolean mLooping;
     private long mStartTimeForSync = -1;
+    // 等待解码线程处理的跳转目标，单位微秒，-1 表示没有
+    private volatile long mPendingSeekUs = -1;
+    private volatile boolean mPlayAfterSeek;
+    // 正在跳转的目标，目标之前的帧只解码不渲染，只在解码线程访问
+    private long mSeekTargetUs = -1;
+    // 最后提交给解码器的帧时间
+    private long mLastQueuedUs = -1;
+    // 帧回调的缓冲池，没有开启时为 null
+    private FramePool mFramePool;
+    // 音视频共享的主时钟，为 null 时各自按墙上时钟同步
+    private MediaClock mMediaClock;
+    // 音视频共享的解复用器，为 null 时各自打开文件
+    private SharedDemuxer mSharedDemuxer;
+    // 预读队列的深度，0 表示在解码线程直接读取
+    private int mPrefetchDepth;
+    // 用 Mp4Extractor 代替 MediaExtractor 读取 MP4
+    private boolean mUseMp4Extractor;
+    // 解码器实例池，为 null 时每次创建新的解码器
+    private CodecPool mCodecPool;
+    private CodecPool.Lease mCodecLease;
     private boolean mSyncRender = true;
+    // 初始化之后保持暂停，用于预加载
+    private boolean mStartPaused = false;
     private final String mFilePath;
+    // 异步回调模式，回调和按显示时间释放输出都在 mCallbackThread 上执行
+    private boolean mCallbackMode = false;
+    private HandlerThread mCallbackThread;
+    private Handler mCallbackHandler;
+    // 回调模式下暂时不能处理的缓冲区，在 mCallbackLock 内访问
+    private final Object mCallbackLock = new Object();
+    private final ArrayDeque<Integer> mPendingInputs = new ArrayDeque<>();
+    private final ArrayDeque<Integer> mPendingOutputs = new ArrayDeque<>();
+    private ICodec.BufferInfo[] mOutputInfos = new ICodec.BufferInfo[0];
+    private boolean mPauseNotified = false;
+    private final Runnable mDrainRunnable = new Runnable() {
+        @Override
+        public void run() {
+            drainPendingBuffers();
+        }
+    };
 
     protected BaseDecoder(String filePath) {
         mFilePath = filePath;
@@ -54,67 +116,125 @@ public abstract class BaseDecoder implements IDecoder {
             mStateListener.decoderPrepare(this);
         }
         if (!init()) {
+            // 初始化失败也要走完结束流程，监听者才知道这个解码器已经结束
+            Log.w(TAG, "run: init failed " + getClass().getSimpleName() + ", " + mFilePath);
+            mIsRunning = false;
+            quitCallbackThread();
+            doneDecode();
+            release();
             return;
         }
-        Log.i(TAG, "run: start decode " + getClass().getSimpleName() + ", state " + mState);
+        if (mStartPaused && mState == DecodeState.START) {
+            // 预加载时不解码第一帧，等 goOn
+            mState = DecodeState.PAUSE;
+        }
+        if (mStateListener != null) {
+            mStateListener.decoderReady(this);
+        }
+        Log.i(TAG, "run: start decode " + getClass().getSimpleName() + ", state " + mState
+                + ", callbackMode " + mCallbackMode);
         try {
-            while (mIsRunning) {
-                if (mState != DecodeState.START && mState != DecodeState.DECODING && mState != DecodeState.SEEKING) {
-                    Log.i(TAG, "run: wait decode " + getClass().getSimpleName() + ", state " + mState);
-                    waitDecode();
-                    // 同步时间
-                    mStartTimeForSync = System.currentTimeMillis() - getCurrTimeStamp();
-                }
+            if (mCallbackMode) {
+                decodeByCallback();
+            } else {
+                decodeByPolling();
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "run: ", e);
+        } finally {
+            quitCallbackThread();
+            doneDecode();
+            release();
+        }
+    }
 
-                if (!mIsRunning || mState == DecodeState.STOP) {
-                    mIsRunning = false;
-                    break;
-                }
+    private void decodeByPolling() {
+        while (mIsRunning) {
+            if (!isActive(mState)) {
+                Log.i(TAG, "run: wait decode " + getClass().getSimpleName() + ", state " + mState);
+                waitDecode();
+                // 同步时间
+                mStartTimeForSync = System.currentTimeMillis() - getCurrTimeStamp();
+            }
 
-                if (mStartTimeForSync == -1) {
-                    mStartTimeForSync = System.currentTimeMillis();
-                }
+            if (!mIsRunning || mState == DecodeState.STOP) {
+                mIsRunning = false;
+                break;
+            }
 
-                if (!mIsEos) {
-                    mIsEos = pushBufferToDecoder();
-                }
+            if (mStartTimeForSync == -1) {
+                mStartTimeForSync = System.currentTimeMillis();
+            }
 
-                int index = pullBufferFromDecoder();
-                if (index >= 0) {
-                    if (mSyncRender && mState == DecodeState.DECODING) {
-                        sleepRender();
-                    }
-                    boolean rendered = false;
-                    if (mSyncRender) {
-                        rendered = render(mOutputBuffers[index], mBufferInfo);
-                    }
-//                    if (mDecodeStateListener != null) {
-//                        Frame frame = new Frame();
-//                        frame.mByteBuffer = mOutputBuffers[index];
-//                        frame.setBufferInfo(mBufferInfo);
-//                        mDecodeStateListener.decoderOneFrame(this, frame);
-//                    }
-                    mMediaCodec.releaseOutputBuffer(index, !rendered);
-                    if (mState == DecodeState.START) {
-                        mState = DecodeState.PAUSE;
-                    }
+            if (mPendingSeekUs >= 0) {
+                performSeek();
+            }
+
+            if (!mIsEos) {
+                mIsEos = pushBufferToDecoder();
+            }
+
+            int index = pullBufferFromDecoder();
+            if (index >= 0) {
+                if ((mSeekTargetUs >= 0 && dropBeforeSeekTarget(mBufferInfo)) || isAfterRangeEnd(mBufferInfo)) {
+                    mCodec.releaseOutputBuffer(index, false);
+                    continue;
                 }
-                if (mBufferInfo.flags == MediaCodec.BUFFER_FLAG_END_OF_STREAM) {
-                    Log.i(TAG, "run: decode finish " + getClass().getSimpleName());
-                    mState = DecodeState.FINISH;
-                    if (mStateListener != null) {
-                        mStateListener.decoderFinish(this);
-                    }
+                if (mSyncRender && mState == DecodeState.DECODING) {
+                    sleepRender();
+                }
+                renderAndRelease(index, mBufferInfo);
+                if (mState == DecodeState.START) {
+                    mState = DecodeState.PAUSE;
+                }
+                if ((mBufferInfo.flags & ICodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    onOutputEos();
                 }
             }
-        } catch (Exception e) {
-            Log.w(TAG, "run: ", e);
-        } finally {
-            doneDecode();
-            release();
         }
     }
 
+    /**
+     * 输出了最后一帧，循环播放时回到开始位置，否则结束
+     */
+    private void onOutputEos() {
+        if (mLooping && mIsRunning && mState != DecodeState.STOP) {
+            Log.d(TAG, "onOutputEos: loop " + getClass().getSimpleName() + " from " + mStartPos);
+            mPlayAfterSeek = true;
+            mPendingSeekUs = mStartPos * 1000;
+            Handler callbackHandler = mCallbackHandler;
+            if (mCallbackMode && callbackHandler != null) {
+                callbackHandler.post(mDrainRunnable);
+            }
+            return;
+        }
+        Log.i(TAG, "onOutputEos: decode finish " + getClass().getSimpleName());
+        mState = DecodeState.FINISH;
+        if (mStateListener != null) {
+            mStateListener.decoderFinish(this);
+        }
+    }
+
+    /**
+     * 结束位置之后的帧不渲染，输入在结束位置截断，带 B 帧时解码器仍可能输出几帧
+     */
+    private boolean isAfterRangeEnd(ICodec.BufferInfo info) {
+        return mRangeEndUs >= 0 && info.presentationTimeUs >= mRangeEndUs
+                && (info.flags & ICodec.BUFFER_FLAG_END_OF_STREAM) == 0;
+    }
+
+    /**
+     * 回调模式下解码线程只等待停止，不轮询
+     */
+    private void decodeByCallback() throws InterruptedException {
+        synchronized (mLock) {
+            while (mIsRunning && mState != DecodeState.STOP) {
+                mLock.wait();
+            }
+        }
+        mIsRunning = false;
+    }
+
     private boolean init() {
         Log.d(TAG, "init: ");
         if (mFilePath.isEmpty() || !new File(mFilePath).exists()) {
@@ -128,6 +248,10 @@ public abstract class BaseDecoder implements IDecoder {
             Log.w(TAG, "init: 无法解析文件");
             return false;
         }
+        if (mPrefetchDepth > 0 && mSharedDemuxer == null) {
+            // 共享解复用器已经有自己的读取线程，不需要再预读
+            mExtractor = new PrefetchExtractor(mExtractor, mPrefetchDepth);
+        }
         if (!initParams()) {
             return false;
         }
@@ -145,9 +269,16 @@ public abstract class BaseDecoder implements IDecoder {
         try {
             MediaFormat format = mExtractor.getFormat();
             mDuration = format.getLong(MediaFormat.KEY_DURATION) / 1000;
-            if (mEndPos == 0) {
+            if (mEndPos <= 0 || mEndPos > mDuration) {
                 mEndPos = mDuration;
             }
+            mStartPos = Math.min(mStartPos, mEndPos);
+            mRangeEndUs = mEndPos < mDuration ? mEndPos * 1000 : -1;
+            if (mStartPos > 0) {
+                // 从开始位置之前的关键帧解码，开始位置之前的帧只解码不渲染
+                mExtractor.setStartPosition(mStartPos * 1000);
+                mSeekTargetUs = mStartPos * 1000;
+            }
             initSpecParams(format);
             return true;
         } catch (Exception e) {
@@ -159,15 +290,28 @@ public abstract class BaseDecoder implements IDecoder {
     private boolean initCodec() {
         Log.d(TAG, "initCodec: " + getClass().getSimpleName());
         try {
-            MediaFormat format = mExtractor.getFormat();
-            String mime = format.getString(MediaFormat.KEY_MIME);
-            mMediaCodec = MediaCodec.createDecoderByType(mime);
-            if (!configCodec(mMediaCodec, format)) {
-                waitDecode();
+            if (mCallbackMode) {
+                mCallbackThread = new HandlerThread(getClass().getSimpleName().concat(" callback"),
+                        Process.THREAD_PRIORITY_AUDIO);
+                mCallbackThread.start();
+                mCallbackHandler = new Handler(mCallbackThread.getLooper());
+            }
+            long start = System.nanoTime();
+            mCodec = createCodec(mExtractor.getFormat());
+            if (mCallbackMode) {
+                try {
+                    mCodec.setCallback(new CodecCallback());
+                } catch (IllegalStateException e) {
+                    Log.w(TAG, "initCodec: callback mode unsupported, fall back to polling", e);
+                    mCallbackMode = false;
+                    quitCallbackThread();
+                }
+            }
+            if (mCodecLease == null || !mCodecLease.isConfigured()) {
+                mCodec.start();
             }
-            mMediaCodec.start();
-            mInputBuffers = mMediaCodec.getInputBuffers();
-            mOutputBuffers = mMediaCodec.getOutputBuffers();
+            Log.d(TAG, "initCodec: " + getClass().getSimpleName() + " ready in " + (System.nanoTime() - start) / 1000
+                    + "us" + (mCodecLease != null ? ", " + mCodecLease.getSource() : ""));
             return true;
         } catch (Exception e) {
             Log.w(TAG, "initCodec: ", e);
@@ -176,48 +320,255 @@ public abstract class BaseDecoder implements IDecoder {
     }
 
     private boolean pushBufferToDecoder() {
-        int index = mMediaCodec.dequeueInputBuffer(TIMEOUT_US);
+        int index = mCodec.dequeueInputBuffer(TIMEOUT_US);
         if (!mIsRunning) {
             return false;
         }
-        boolean isEos = false;
-        if (index >= 0) {
-            ByteBuffer inputBuffer = mInputBuffers[index];
-            int sampleSize = mExtractor.readBuffer(inputBuffer);
-            if (sampleSize < 0) {
-                mMediaCodec.queueInputBuffer(index, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
-                isEos = true;
-            } else {
-                mMediaCodec.queueInputBuffer(index, 0, sampleSize, mExtractor.getSampleTimeStamp(), 0);
+        return index >= 0 && queueInput(index);
+    }
+
+    /**
+     * 读取一帧数据提交给解码器
+     *
+     * @param index 输入缓冲区索引
+     * @return 是否提交了 EOS
+     */
+    private boolean queueInput(int index) {
+        ByteBuffer inputBuffer = mCodec.getInputBuffer(index);
+        int sampleSize = mExtractor.readBuffer(inputBuffer);
+        if (sampleSize < 0 || (mRangeEndUs >= 0 && mExtractor.getSampleTimeStamp() >= mRangeEndUs)) {
+            // 到达文件末尾或者结束位置，结束位置之后的帧不提交
+            mCodec.queueInputBuffer(index, 0, 0, 0, ICodec.BUFFER_FLAG_END_OF_STREAM);
+            return true;
+        } else {
+            mLastQueuedUs = mExtractor.getSampleTimeStamp();
+            mCodec.queueInputBuffer(index, 0, sampleSize, mLastQueuedUs, 0);
+            return false;
+        }
+    }
+
+    /**
+     * 处理跳转请求，在解码线程（回调模式下是回调线程）执行
+     * <p>
+     * 目标之前的关键帧已经提交给解码器、并且目标在当前输出之后时继续往后解码即可；
+     * 否则提取器跳到目标之前的关键帧，清空解码器，再解码到目标。
+     */
+    private void performSeek() {
+        long targetUs = mPendingSeekUs;
+        mPendingSeekUs = -1;
+        long syncUs = mExtractor.getSyncTime(targetUs);
+        boolean forward = !mIsEos && mLastQueuedUs >= 0 && syncUs <= mLastQueuedUs
+                && targetUs > mBufferInfo.presentationTimeUs;
+        if (!forward) {
+            long sampleUs = mExtractor.seek(targetUs);
+            invalidateFrames();
+            mCodec.flush();
+            if (mCallbackMode) {
+                // 异步模式 flush 之后缓冲区全部失效，需要重新 start
+                synchronized (mCallbackLock) {
+                    mPendingInputs.clear();
+                    mPendingOutputs.clear();
+                }
+                mCodec.start();
+            }
+            mIsEos = false;
+            mLastQueuedUs = -1;
+            onFlush();
+            Log.d(TAG, "performSeek: " + getClass().getSimpleName() + " target " + targetUs + ", keyframe " + sampleUs);
+        }
+        mSeekTargetUs = targetUs;
+    }
+
+    /**
+     * 丢弃跳转目标之前的帧，到达目标后重置同步时钟并切换到跳转后的状态
+     *
+     * @param info 输出帧
+     * @return 是否丢弃
+     */
+    private boolean dropBeforeSeekTarget(ICodec.BufferInfo info) {
+        if (info.presentationTimeUs < mSeekTargetUs && (info.flags & ICodec.BUFFER_FLAG_END_OF_STREAM) == 0) {
+            return true;
+        }
+        mSeekTargetUs = -1;
+        mStartTimeForSync = System.currentTimeMillis() - info.presentationTimeUs / 1000;
+        if (mMediaClock != null) {
+            mMediaClock.setTimeUs(info.presentationTimeUs);
+        }
+        if (mPendingSeekUs < 0 && mState == DecodeState.SEEKING) {
+            mState = mPlayAfterSeek ? DecodeState.DECODING : DecodeState.PAUSE;
+        }
+        return false;
+    }
+
+    /**
+     * 回调模式下处理积压的缓冲区，只在回调线程执行
+     * <p>
+     * 输入在解码状态下立即填充；输出按显示时间释放，没有到时间就延迟重试，不阻塞回调线程。
+     */
+    private void drainPendingBuffers() {
+        if (!mIsRunning) {
+            return;
+        }
+        if (mPendingSeekUs >= 0) {
+            performSeek();
+        }
+        DecodeState state = mState;
+        boolean active = state == DecodeState.START || state == DecodeState.DECODING || state == DecodeState.SEEKING;
+        synchronized (mCallbackLock) {
+            while (active && !mIsEos && !mPendingInputs.isEmpty()) {
+                mIsEos = queueInput(mPendingInputs.pollFirst());
+            }
+        }
+        while (mIsRunning) {
+            int index;
+            synchronized (mCallbackLock) {
+                if (mPendingOutputs.isEmpty()) {
+                    break;
+                }
+                index = mPendingOutputs.peekFirst();
             }
+            ICodec.BufferInfo info = mOutputInfos[index];
+            boolean seekTarget = mSeekTargetUs >= 0;
+            if ((seekTarget && dropBeforeSeekTarget(info)) || isAfterRangeEnd(info)) {
+                synchronized (mCallbackLock) {
+                    mPendingOutputs.pollFirst();
+                }
+                mCodec.releaseOutputBuffer(index, false);
+                continue;
+            }
+            state = mState;
+            // 跳转的目标帧不管状态都立即渲染
+            if (!seekTarget && state == DecodeState.PAUSE) {
+                // 暂停时保留缓冲区，恢复时再渲染
+                if (!mPauseNotified) {
+                    mPauseNotified = true;
+                    if (mStateListener != null) {
+                        mStateListener.decoderPause(this);
+                    }
+                }
+                return;
+            }
+            if (mStartTimeForSync == -1) {
+                mStartTimeForSync = System.currentTimeMillis();
+            }
+            if (!seekTarget && mSyncRender && state == DecodeState.DECODING) {
+                long delay = getRenderDelayMs(info.presentationTimeUs);
+                if (delay > 0) {
+                    mCallbackHandler.removeCallbacks(mDrainRunnable);
+                    mCallbackHandler.postDelayed(mDrainRunnable, delay);
+                    return;
+                }
+            }
+            synchronized (mCallbackLock) {
+                mPendingOutputs.pollFirst();
+            }
+            mBufferInfo.set(info.offset, info.size, info.presentationTimeUs, info.flags);
+            renderAndRelease(index, info);
+            if (mState == DecodeState.START) {
+                mState = DecodeState.PAUSE;
+            }
+            if ((info.flags & ICodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                onOutputEos();
+            }
+        }
+    }
+
+    private void invalidateFrames() {
+        if (mFramePool != null) {
+            mFramePool.invalidate();
+        }
+    }
+
+    private void quitCallbackThread() {
+        HandlerThread thread = mCallbackThread;
+        if (thread == null) {
+            return;
+        }
+        thread.quitSafely();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Log.w(TAG, "quitCallbackThread: ", e);
+        }
+        mCallbackThread = null;
+        mCallbackHandler = null;
+        synchronized (mCallbackLock) {
+            mPendingInputs.clear();
+            mPendingOutputs.clear();
         }
-        return isEos;
     }
 
     private int pullBufferFromDecoder() {
-        int index = mMediaCodec.dequeueOutputBuffer(mBufferInfo, TIMEOUT_US);
+        int index = mCodec.dequeueOutputBuffer(mBufferInfo, TIMEOUT_US);
         if (!mIsRunning) {
             return -1;
         }
         switch (index) {
-            case MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED: {
-                mOutputBuffers = mMediaCodec.getOutputBuffers();
+            case ICodec.INFO_OUTPUT_FORMAT_CHANGED: {
+                onOutputFormatChanged(mCodec.getOutputFormat());
             }
             break;
-            case MediaCodec.INFO_OUTPUT_FORMAT_CHANGED:
-            case MediaCodec.INFO_TRY_AGAIN_LATER:
+            case ICodec.INFO_OUTPUT_BUFFERS_CHANGED:
+            case ICodec.INFO_TRY_AGAIN_LATER:
             default:
                 break;
         }
         return index;
     }
 
+    /**
+     * 渲染输出并归还缓冲区
+     * <p>
+     * 开启了帧回调时，输出缓冲区包装成帧交给监听者，所有引用都释放之后才归还给解码器。
+     * 输出到 Surface 时没有可读的缓冲区，不回调。
+     */
+    private void renderAndRelease(int index, ICodec.BufferInfo info) {
+        FramePool framePool = mFramePool;
+        ByteBuffer outputBuffer = null;
+        if (mSyncRender || framePool != null) {
+            outputBuffer = mCodec.getOutputBuffer(index);
+        }
+        boolean rendered = false;
+        if (mSyncRender) {
+            rendered = render(outputBuffer, info);
+        }
+        Frame frame = null;
+        if (framePool != null && outputBuffer != null && info.size > 0 && mStateListener != null) {
+            frame = framePool.obtain(index, outputBuffer, info, rendered);
+        }
+        if (frame != null) {
+            mStateListener.decoderOneFrame(this, frame);
+            frame.release();
+        } else {
+            releaseOutputBuffer(mCodec, index, info, rendered);
+        }
+    }
+
     private void sleepRender() {
-        long passTime = System.currentTimeMillis() - mStartTimeForSync;
-        long currTime = getCurrTimeStamp();
-        if (currTime > passTime) {
-            SystemClock.sleep(currTime - passTime);
+        long delay;
+        while ((delay = getRenderDelayMs(mBufferInfo.presentationTimeUs)) > 0
+                && mIsRunning && mState == DecodeState.DECODING) {
+            SystemClock.sleep(Math.min(delay, MAX_SLEEP_MS));
+        }
+    }
+
+    /**
+     * 距离开始渲染还有多久
+     * <p>
+     * 使用主时钟时提前 CLOCK_RENDER_LEAD_US 开始，由解码器按显示时间渲染；驱动主时钟的解码器不等待。
+     *
+     * @param ptsUs 帧时间
+     * @return 毫秒，不需要等待时小于等于 0
+     */
+    private long getRenderDelayMs(long ptsUs) {
+        MediaClock clock = mMediaClock;
+        if (clock == null) {
+            return ptsUs / 1000 - (System.currentTimeMillis() - mStartTimeForSync);
+        }
+        if (isClockMaster()) {
+            return 0;
         }
+        return (ptsUs - clock.getTimeUs() - CLOCK_RENDER_LEAD_US) / 1000;
     }
 
     private void release() {
@@ -225,9 +576,17 @@ public abstract class BaseDecoder implements IDecoder {
         mState = DecodeState.STOP;
         mIsEos = false;
         try {
-            mExtractor.stop();
-            mMediaCodec.stop();
-            mMediaCodec.release();
+            if (mExtractor != null) {
+                mExtractor.stop();
+            }
+            invalidateFrames();
+            if (mCodecLease != null) {
+                mCodecPool.release(mCodecLease, getOutputTarget());
+                mCodecLease = null;
+            } else if (mCodec != null) {
+                mCodec.stop();
+                mCodec.release();
+            }
         } catch (Exception e) {
             Log.w(TAG, "release: ", e);
         }
@@ -236,6 +595,9 @@ public abstract class BaseDecoder implements IDecoder {
         }
     }
 
+    /**
+     * 等到可以继续解码或者停止，状态在等待之前已经改变时不等待
+     */
     private void waitDecode() {
         if (mState == DecodeState.PAUSE) {
             if (mStateListener != null) {
@@ -244,17 +606,41 @@ public abstract class BaseDecoder implements IDecoder {
         }
         synchronized (mLock) {
             try {
-                mLock.wait();
+                while (mIsRunning && !isActive(mState)) {
+                    mLock.wait();
+                }
             } catch (InterruptedException e) {
                 Log.w(TAG, "waitDecode: ", e);
             }
         }
     }
 
+    private static boolean isActive(DecodeState state) {
+        return state == DecodeState.START || state == DecodeState.DECODING || state == DecodeState.SEEKING;
+    }
+
+    /**
+     * configCodec 返回 false 之后，子类在其他线程配置好解码器时调用
+     */
+    protected void notifyCodecConfigured() {
+        synchronized (mLock) {
+            mReadyForDecode = true;
+            mLock.notifyAll();
+        }
+    }
+
     protected void notifyDecode() {
         synchronized (mLock) {
             mLock.notifyAll();
         }
+        Handler callbackHandler = mCallbackHandler;
+        if (mCallbackMode && callbackHandler != null && mState == DecodeState.DECODING) {
+            // 同步时间，然后继续处理暂停期间积压的缓冲区
+            mPauseNotified = false;
+            mStartTimeForSync = System.currentTimeMillis() - getCurrTimeStamp();
+            callbackHandler.removeCallbacks(mDrainRunnable);
+            callbackHandler.post(mDrainRunnable);
+        }
         if (mState == DecodeState.DECODING) {
             if (mStateListener != null) {
                 mStateListener.decoderRunning(this);
@@ -265,22 +651,55 @@ public abstract class BaseDecoder implements IDecoder {
     @Override
     public void pause() {
         mState = DecodeState.PAUSE;
+        if (mMediaClock != null) {
+            mMediaClock.pause();
+        }
     }
 
     @Override
     public void goOn() {
         mState = DecodeState.DECODING;
+        if (mMediaClock != null) {
+            mMediaClock.start();
+        }
         notifyDecode();
     }
 
     @Override
     public long seekTo(long pos) {
-        return 0;
+        return requestSeek(pos, false);
     }
 
     @Override
     public long seekAndPlay(long pos) {
-        return 0;
+        return requestSeek(pos, true);
+    }
+
+    /**
+     * 请求跳转，由解码线程执行，连续请求时只处理最后一个
+     *
+     * @param pos  目标位置，单位毫秒，限制在播放范围内
+     * @param play 跳转后是否继续播放
+     * @return 跳转的目标位置，第一帧不早于这个时间
+     */
+    private long requestSeek(long pos, boolean play) {
+        if (mState == DecodeState.STOP || !mIsRunning) {
+            return -1;
+        }
+        long target = Math.max(pos, mStartPos);
+        if (mEndPos > 0) {
+            target = Math.min(target, mEndPos);
+        }
+        mPlayAfterSeek = play;
+        mPendingSeekUs = target * 1000;
+        mState = DecodeState.SEEKING;
+        notifyDecode();
+        Handler callbackHandler = mCallbackHandler;
+        if (mCallbackMode && callbackHandler != null) {
+            callbackHandler.removeCallbacks(mDrainRunnable);
+            callbackHandler.post(mDrainRunnable);
+        }
+        return target;
     }
 
     @Override
@@ -361,6 +780,172 @@ public abstract class BaseDecoder implements IDecoder {
         return this;
     }
 
+    /**
+     * 只播放指定范围，需要在 run 之前调用
+     * <p>
+     * 从开始位置之前的关键帧开始解码，开始位置之前的帧不渲染；到达结束位置时给解码器提交 EOS。
+     *
+     * @param startPos 开始位置，单位毫秒
+     * @param endPos   结束位置，单位毫秒，小于等于 0 表示播放到文件末尾
+     * @return
+     */
+    public BaseDecoder setPlayRange(long startPos, long endPos) {
+        mStartPos = Math.max(startPos, 0);
+        mEndPos = Math.max(endPos, 0);
+        return this;
+    }
+
+    /**
+     * 循环播放，播放到结束位置后回到开始位置，不回调 decoderFinish
+     *
+     * @param looping
+     * @return
+     */
+    public BaseDecoder setLooping(boolean looping) {
+        mLooping = looping;
+        return this;
+    }
+
+    /**
+     * 使用共享的主时钟同步，音频解码器驱动时钟，视频解码器按时钟渲染，需要在 run 之前调用
+     *
+     * @param mediaClock
+     * @return
+     */
+    public BaseDecoder setMediaClock(MediaClock mediaClock) {
+        mMediaClock = mediaClock;
+        return this;
+    }
+
+    protected MediaClock getMediaClock() {
+        return mMediaClock;
+    }
+
+    /**
+     * 和其他解码器共享一个解复用器，文件只读取一遍，需要在 run 之前调用
+     *
+     * @param sharedDemuxer
+     * @return
+     */
+    public BaseDecoder setSharedDemuxer(SharedDemuxer sharedDemuxer) {
+        mSharedDemuxer = sharedDemuxer;
+        return this;
+    }
+
+    protected SharedDemuxer getSharedDemuxer() {
+        return mSharedDemuxer;
+    }
+
+    /**
+     * 开启预读，独立的线程提前读取压缩样本，存储读取慢时不阻塞解码线程，需要在 run 之前调用
+     *
+     * @param depth 预读的样本个数，小于等于 0 时关闭
+     * @return
+     */
+    public BaseDecoder enablePrefetch(int depth) {
+        mPrefetchDepth = Math.max(depth, 0);
+        return this;
+    }
+
+    /**
+     * 用 {@link Mp4Extractor} 读取 MP4 文件，打开时一次解析完样本表，跳转不需要再读文件，需要在 run 之前调用
+     * <p>
+     * 不支持分片 MP4 和编辑列表，文件无法解析时自动退回 MediaExtractor。和共享解复用器一起使用时不生效。
+     *
+     * @return
+     */
+    public BaseDecoder useMp4Extractor() {
+        mUseMp4Extractor = true;
+        return this;
+    }
+
+    /**
+     * 子类在 initExtractor 中调用，开启了 {@link #useMp4Extractor()} 时创建 Mp4Extractor
+     *
+     * @param filePath 文件路径
+     * @param video    读取视频轨道还是音频轨道
+     * @return 没有开启或者无法解析时返回 null
+     */
+    protected IExtractor createMp4Extractor(String filePath, boolean video) {
+        if (!mUseMp4Extractor) {
+            return null;
+        }
+        try {
+            return new Mp4Extractor(filePath, video);
+        } catch (IOException e) {
+            Log.w(TAG, "createMp4Extractor: fall back to MediaExtractor", e);
+            return null;
+        }
+    }
+
+    /**
+     * @return 预读队列为空、解码线程需要等待读取的次数，没有开启预读时返回 -1
+     */
+    public long getPrefetchUnderrunCount() {
+        IExtractor extractor = mExtractor;
+        if (extractor instanceof PrefetchExtractor) {
+            return ((PrefetchExtractor) extractor).getUnderrunCount();
+        }
+        return -1;
+    }
+
+    /**
+     * 初始化完成后保持暂停，连第一帧也不解码，调用 goOn 之后才开始，需要在 run 之前调用
+     * <p>
+     * 用于提前准备播放列表中的下一项：打开文件、创建解码器都在后台完成，轮到它时立即开始。
+     * 初始化完成时回调 {@link IDecodeStateListener#decoderReady}。
+     *
+     * @return
+     */
+    public BaseDecoder startPaused() {
+        mStartPaused = true;
+        return this;
+    }
+
+    /**
+     * 从实例池借用解码器，结束时归还，需要在 run 之前调用
+     * <p>
+     * 只在同步模式下生效，和 {@link #useCallbackMode()} 一起使用时仍然每次创建新的解码器。
+     *
+     * @param codecPool
+     * @return
+     */
+    public BaseDecoder setCodecPool(CodecPool codecPool) {
+        mCodecPool = codecPool;
+        return this;
+    }
+
+    /**
+     * 开启帧回调，每个解码出的帧通过 {@link IDecodeStateListener#decoderOneFrame} 交给监听者，需要在 run 之前调用
+     *
+     * 帧的最后一个引用释放时通过 {@link #releaseOutputBuffer(ICodec, int, ICodec.BufferInfo, boolean)} 归还缓冲区。
+     *
+     * @param maxFrames 同时被持有的帧的最大个数，超过时不再回调，直接归还缓冲区
+     * @return
+     */
+    public BaseDecoder enableFrameDelivery(int maxFrames) {
+        mFramePool = new FramePool(maxFrames, new FramePool.Recycler() {
+            @Override
+            public void recycle(int bufferIndex, ICodec.BufferInfo bufferInfo, boolean rendered) {
+                // 和没有帧回调时一样交给子类，视频按主时钟渲染或者丢帧
+                releaseOutputBuffer(mCodec, bufferIndex, bufferInfo, rendered);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * 使用 MediaCodec 的异步回调模式，需要在 run 之前调用
+     * <p>
+     * 输入输出都在独立的回调线程处理，解码线程只等待停止。系统低于 API 23 时自动退回轮询模式。
+     *
+     * @return
+     */
+    public BaseDecoder useCallbackMode() {
+        mCallbackMode = true;
+        return this;
+    }
+
     /**
      * 检测子类参数
      *
@@ -383,12 +968,54 @@ public abstract class BaseDecoder implements IDecoder {
      */
     protected abstract void initSpecParams(MediaFormat mediaFormat);
 
+    /**
+     * 创建并配置解码器，默认使用 MediaCodec，子类可以替换为其他实现
+     *
+     * @param mediaFormat
+     * @return 已经配置好的解码器
+     * @throws IOException
+     */
+    protected ICodec createCodec(MediaFormat mediaFormat) throws IOException {
+        MediaCodec mediaCodec;
+        Object outputTarget = getOutputTarget();
+        // 输出目标还不知道时实例池无法匹配，也不能断开其他实例上的连接，不借用
+        if (mCodecPool != null && mCallbackHandler == null && (outputTarget != null || !needsOutputTarget())) {
+            mCodecLease = mCodecPool.acquire(mediaFormat, outputTarget);
+            mediaCodec = mCodecLease.getCodec();
+            if (mCodecLease.isConfigured()) {
+                onCodecReused(mediaCodec, mediaFormat);
+                return new MediaCodecWrapper(mediaCodec);
+            }
+        } else {
+            mediaCodec = MediaCodec.createDecoderByType(mediaFormat.getString(MediaFormat.KEY_MIME));
+        }
+        // 回调需要在 configure 之前设置
+        MediaCodecWrapper codec = new MediaCodecWrapper(mediaCodec, mCallbackHandler);
+        if (!configCodec(mediaCodec, mediaFormat)) {
+            // 等子类稍后配置，通知可能在等待之前就已经到达
+            synchronized (mLock) {
+                try {
+                    while (mIsRunning && !mReadyForDecode) {
+                        mLock.wait();
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting codec configured");
+                }
+                if (!mReadyForDecode) {
+                    throw new IOException("Stopped before codec configured");
+                }
+            }
+        }
+        return codec;
+    }
+
     /**
      * 配置解码器
      *
      * @param mediaCodec
      * @param mediaFormat
-     * @return
+     * @return 返回 false 表示稍后在其他线程配置，配置好时调用 {@link #notifyCodecConfigured()}
      */
     protected abstract boolean configCodec(MediaCodec mediaCodec, MediaFormat mediaFormat);
 
@@ -406,11 +1033,116 @@ public abstract class BaseDecoder implements IDecoder {
      * @param bufferInfo
      * @return
      */
-    protected abstract boolean render(ByteBuffer outputBuffer, MediaCodec.BufferInfo bufferInfo);
+    protected abstract boolean render(ByteBuffer outputBuffer, ICodec.BufferInfo bufferInfo);
+
+    /**
+     * 解码器输出格式变化，默认不处理
+     *
+     * @param outputFormat
+     */
+    protected void onOutputFormatChanged(CodecFormat outputFormat) {
+    }
+
+    /**
+     * 解码器的输出目标，实例池据此判断配置好的解码器能否直接复用，默认不输出到 Surface
+     *
+     * @return
+     */
+    protected Object getOutputTarget() {
+        return null;
+    }
+
+    /**
+     * 是否必须有输出目标才能配置，为 true 时 {@link #getOutputTarget()} 返回 null 就不从实例池借用，默认不需要
+     *
+     * @return
+     */
+    protected boolean needsOutputTarget() {
+        return false;
+    }
+
+    /**
+     * 从实例池借到已经配置好的解码器，不会调用 configCodec，子类在这里恢复配置时设置的状态，默认不处理
+     *
+     * @param mediaCodec  已经配置在 {@link #getOutputTarget()} 上并且 start 的解码器
+     * @param mediaFormat
+     */
+    protected void onCodecReused(MediaCodec mediaCodec, MediaFormat mediaFormat) {
+    }
+
+    /**
+     * 是否由这个解码器驱动主时钟，驱动方按自己的节奏输出，不等待时钟
+     *
+     * @return
+     */
+    protected boolean isClockMaster() {
+        return false;
+    }
+
+    /**
+     * 归还输出缓冲区，子类可以按主时钟指定显示时间或者丢帧
+     *
+     * @param codec    解码器
+     * @param index    缓冲区索引
+     * @param info     输出信息
+     * @param rendered render 是否已经处理了这一帧
+     */
+    protected void releaseOutputBuffer(ICodec codec, int index, ICodec.BufferInfo info, boolean rendered) {
+        codec.releaseOutputBuffer(index, !rendered);
+    }
+
+    /**
+     * 跳转时解码器被清空，子类丢弃渲染器中还没有播放的数据，默认不处理
+     */
+    protected void onFlush() {
+    }
 
     /**
      * 解码结束
      */
     protected abstract void doneDecode();
 
+    /**
+     * 异步模式的回调，都在 mCallbackThread 上执行
+     */
+    private final class CodecCallback implements ICodec.Callback {
+
+        @Override
+        public void onInputBufferAvailable(ICodec codec, int index) {
+            synchronized (mCallbackLock) {
+                mPendingInputs.addLast(index);
+            }
+            drainPendingBuffers();
+        }
+
+        @Override
+        public void onOutputBufferAvailable(ICodec codec, int index, ICodec.BufferInfo info) {
+            synchronized (mCallbackLock) {
+                if (index >= mOutputInfos.length) {
+                    int oldLength = mOutputInfos.length;
+                    mOutputInfos = Arrays.copyOf(mOutputInfos, Math.max(index + 1, oldLength * 2));
+                    for (int i = oldLength; i < mOutputInfos.length; i++) {
+                        mOutputInfos[i] = new ICodec.BufferInfo();
+                    }
+                }
+                mOutputInfos[index].set(info.offset, info.size, info.presentationTimeUs, info.flags);
+                mPendingOutputs.addLast(index);
+            }
+            drainPendingBuffers();
+        }
+
+        @Override
+        public void onOutputFormatChanged(ICodec codec, CodecFormat format) {
+            BaseDecoder.this.onOutputFormatChanged(format);
+        }
+
+        @Override
+        public void onError(ICodec codec, Exception e) {
+            Log.e(TAG, "onError: " + BaseDecoder.this.getClass().getSimpleName(), e);
+            if (mStateListener != null) {
+                mStateListener.decoderError(BaseDecoder.this, e.getMessage());
+            }
+            BaseDecoder.this.stop();
+        }
+    }
 }
@@ -0,0 +1,36 @@
+package com.richie.multimedialearning.media.decoder;
+
+/**
+ * 视频晚于主时钟时的丢帧策略
+ */
+public final class FrameDropPolicy {
+    /**
+     * 从不丢帧
+     */
+    public static final FrameDropPolicy NEVER = new FrameDropPolicy(Long.MAX_VALUE, 0);
+    /**
+     * 晚于 40 毫秒时丢弃，连续丢弃 5 帧之后至少显示一帧，避免画面长时间不动
+     */
+    public static final FrameDropPolicy DEFAULT = new FrameDropPolicy(40_000, 5);
+
+    private final long mMaxLateUs;
+    private final int mMaxConsecutiveDrops;
+
+    /**
+     * @param maxLateUs           允许的最大延迟，超过时丢弃
+     * @param maxConsecutiveDrops 最多连续丢弃的帧数
+     */
+    public FrameDropPolicy(long maxLateUs, int maxConsecutiveDrops) {
+        mMaxLateUs = maxLateUs;
+        mMaxConsecutiveDrops = maxConsecutiveDrops;
+    }
+
+    /**
+     * @param lateUs           帧晚于主时钟的时间，提前时为负数
+     * @param consecutiveDrops 已经连续丢弃的帧数
+     * @return 是否丢弃
+     */
+    public boolean shouldDrop(long lateUs, int consecutiveDrops) {
+        return lateUs > mMaxLateUs && consecutiveDrops < mMaxConsecutiveDrops;
+    }
+}
@@ -16,6 +16,13 @@ public interface IDecodeStateListener {
 
     void decoderPause(BaseDecoder decoder);
 
+    /**
+     * 解码出一帧，需要开启 {@link BaseDecoder#enableFrameDelivery(int)}。回调返回后帧会被释放，
+     * 需要继续使用时调用 {@link Frame#retain()}
+     *
+     * @param decoder
+     * @param frame
+     */
     void decoderOneFrame(BaseDecoder decoder, Frame frame);
 
     void decoderFinish(BaseDecoder decoder);
@@ -1,13 +1,18 @@
 package com.richie.multimedialearning.media.decoder;
 
+import android.graphics.SurfaceTexture;
 import android.media.MediaCodec;
 import android.media.MediaFormat;
+import android.os.Build;
 import android.util.Log;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
+import com.richie.multimedialearning.media.MediaClock;
+import com.richie.multimedialearning.media.codec.ICodec;
 import com.richie.multimedialearning.media.extractor.IExtractor;
+import com.richie.multimedialearning.media.extractor.SharedDemuxer;
 import com.richie.multimedialearning.media.extractor.VideoExtractor;
 
 import java.nio.ByteBuffer;
@@ -21,6 +26,16 @@ public class VideoDecoder extends BaseDecoder {
     private static final String TAG = "VideoDecoder";
     private Surface mSurface;
     private SurfaceView mSurfaceView;
+    private FrameDropPolicy mDropPolicy = FrameDropPolicy.DEFAULT;
+    private int mConsecutiveDrops;
+    private long mDroppedFrames;
+    // Surface 由 setSurface 稍后提供，在 mSurfaceLock 内访问下面的字段
+    private final Object mSurfaceLock = new Object();
+    private boolean mDeferredSurface;
+    private MediaCodec mMediaCodec;
+    private MediaFormat mPendingFormat;
+    private SurfaceTexture mPlaceholderTexture;
+    private Surface mPlaceholderSurface;
 
     public VideoDecoder(String filePath, SurfaceView surfaceView) {
         super(filePath);
@@ -32,9 +47,19 @@ public class VideoDecoder extends BaseDecoder {
         mSurface = surface;
     }
 
+    /**
+     * Surface 稍后通过 {@link #setSurface(Surface)} 提供，用于预加载，Surface 还在被其他解码器使用
+     *
+     * @param filePath
+     */
+    public VideoDecoder(String filePath) {
+        super(filePath);
+        mDeferredSurface = true;
+    }
+
     @Override
     protected boolean check() {
-        if (mSurface == null && mSurfaceView == null) {
+        if (mSurface == null && mSurfaceView == null && !mDeferredSurface) {
             Log.w(TAG, "Surface 和 SurfaceView 都为 null");
             if (mStateListener != null) {
                 mStateListener.decoderError(this, "显示器为空");
@@ -46,7 +71,12 @@ public class VideoDecoder extends BaseDecoder {
 
     @Override
     protected IExtractor initExtractor(String filePath) {
-        return new VideoExtractor(filePath);
+        SharedDemuxer demuxer = getSharedDemuxer();
+        if (demuxer != null) {
+            return demuxer.getVideoExtractor();
+        }
+        IExtractor extractor = createMp4Extractor(filePath, true);
+        return extractor != null ? extractor : new VideoExtractor(filePath);
     }
 
     @Override
@@ -57,9 +87,14 @@ public class VideoDecoder extends BaseDecoder {
     @Override
     protected boolean configCodec(final MediaCodec mediaCodec, final MediaFormat mediaFormat) {
         Log.d(TAG, "configCodec: ");
+        synchronized (mSurfaceLock) {
+            if (mSurface == null && mDeferredSurface) {
+                return configDeferred(mediaCodec, mediaFormat);
+            }
+        }
         if (mSurface != null) {
             mediaCodec.configure(mediaFormat, mSurface, null, 0);
-            notifyDecode();
+            notifyCodecConfigured();
         } else if (mSurfaceView.getHolder().getSurface() != null) {
             mSurface = mSurfaceView.getHolder().getSurface();
             configCodec(mediaCodec, mediaFormat);
@@ -87,18 +122,141 @@ public class VideoDecoder extends BaseDecoder {
         return true;
     }
 
+    /**
+     * 还没有 Surface 时，API 23 以上先配置到占位的 Surface，之后用 setOutputSurface 切换，不需要重新配置；
+     * 更低的版本只能等到有 Surface 时再配置。在 mSurfaceLock 内调用
+     */
+    private boolean configDeferred(MediaCodec mediaCodec, MediaFormat mediaFormat) {
+        mMediaCodec = mediaCodec;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            mPlaceholderTexture = new SurfaceTexture(0);
+            mPlaceholderSurface = new Surface(mPlaceholderTexture);
+            mediaCodec.configure(mediaFormat, mPlaceholderSurface, null, 0);
+            return true;
+        }
+        mPendingFormat = mediaFormat;
+        return false;
+    }
+
+    /**
+     * 提供输出的 Surface，解码器已经用占位的 Surface 配置好时直接切换
+     * <p>
+     * Surface 同时只能连接一个解码器，上一个解码器释放之后才能调用。
+     *
+     * @param surface
+     */
+    public void setSurface(Surface surface) {
+        synchronized (mSurfaceLock) {
+            mSurface = surface;
+            if (mPlaceholderSurface != null) {
+                mMediaCodec.setOutputSurface(surface);
+                releasePlaceholder();
+            } else if (mPendingFormat != null) {
+                MediaFormat format = mPendingFormat;
+                mPendingFormat = null;
+                configCodec(mMediaCodec, format);
+            }
+        }
+    }
+
+    private void releasePlaceholder() {
+        if (mPlaceholderSurface != null) {
+            mPlaceholderSurface.release();
+            mPlaceholderTexture.release();
+            mPlaceholderSurface = null;
+            mPlaceholderTexture = null;
+        }
+    }
+
+    /**
+     * SurfaceView 的 Surface 已经创建时直接使用，借用解码器之前就能确定输出目标
+     */
+    @Override
+    protected Object getOutputTarget() {
+        if (mSurface == null && mSurfaceView != null) {
+            Surface surface = mSurfaceView.getHolder().getSurface();
+            if (surface != null && surface.isValid()) {
+                mSurface = surface;
+            }
+        }
+        return mSurface;
+    }
+
+    @Override
+    protected boolean needsOutputTarget() {
+        return true;
+    }
+
+    /**
+     * 实例池按 Surface 匹配，复用的解码器已经连接在 mSurface 上，只需要恢复 configCodec 中的记录
+     */
+    @Override
+    protected void onCodecReused(MediaCodec mediaCodec, MediaFormat mediaFormat) {
+        Log.d(TAG, "onCodecReused: ");
+        synchronized (mSurfaceLock) {
+            mMediaCodec = mediaCodec;
+            mPendingFormat = null;
+            releasePlaceholder();
+        }
+        mConsecutiveDrops = 0;
+    }
+
     @Override
     protected boolean initRender() {
         return true;
     }
 
     @Override
-    protected boolean render(ByteBuffer outputBuffer, MediaCodec.BufferInfo bufferInfo) {
+    protected boolean render(ByteBuffer outputBuffer, ICodec.BufferInfo bufferInfo) {
         return false;
     }
 
     @Override
     protected void doneDecode() {
+        synchronized (mSurfaceLock) {
+            releasePlaceholder();
+            mMediaCodec = null;
+            mPendingFormat = null;
+        }
+    }
+
+    /**
+     * 使用主时钟时按帧时间交给解码器渲染，太晚的帧按策略丢弃
+     */
+    @Override
+    protected void releaseOutputBuffer(ICodec codec, int index, ICodec.BufferInfo info, boolean rendered) {
+        MediaClock clock = getMediaClock();
+        if (clock == null || rendered || !isDecoding()) {
+            super.releaseOutputBuffer(codec, index, info, rendered);
+            return;
+        }
+        long lateUs = clock.getTimeUs() - info.presentationTimeUs;
+        if (mDropPolicy.shouldDrop(lateUs, mConsecutiveDrops)) {
+            codec.releaseOutputBuffer(index, false);
+            mConsecutiveDrops++;
+            mDroppedFrames++;
+            Log.v(TAG, "releaseOutputBuffer: drop frame " + info.presentationTimeUs + ", late " + lateUs + "us");
+            return;
+        }
+        mConsecutiveDrops = 0;
+        codec.releaseOutputBuffer(index, clock.getNanoTime(info.presentationTimeUs));
+    }
+
+    /**
+     * 设置丢帧策略，只在使用主时钟时生效
+     *
+     * @param dropPolicy
+     * @return
+     */
+    public VideoDecoder setDropPolicy(FrameDropPolicy dropPolicy) {
+        mDropPolicy = dropPolicy;
+        return this;
+    }
 
+    /**
+     * @return 因为太晚而丢弃的帧数
+     */
+    public long getDroppedFrames() {
+        return mDroppedFrames;
     }
 }
@@ -46,9 +46,17 @@ public interface IExtractor {
     long seek(long position);
 
     /**
-     * 设置起始位置
+     * 获取不晚于指定位置的最后一个关键帧的时间，不改变读取位置
      *
      * @param position
+     * @return
+     */
+    long getSyncTime(long position);
+
+    /**
+     * 设置起始位置，从这个位置之前的关键帧开始读取
+     *
+     * @param position 单位微秒
      */
     void setStartPosition(long position);
 
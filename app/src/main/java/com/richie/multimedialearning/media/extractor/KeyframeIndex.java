@@ -0,0 +1,104 @@
+package com.richie.multimedialearning.media.extractor;
+
+import android.media.MediaExtractor;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 轨道的关键帧时间索引，用来精确跳转
+ * <p>
+ * 扫描一遍轨道的样本元数据，记录所有同步帧的时间戳。按文件路径、大小、修改时间和轨道缓存，
+ * 同一个文件反复跳转时只需要二分查找。
+ */
+final class KeyframeIndex {
+    private static final String TAG = "KeyframeIndex";
+    private static final int MAX_CACHE_SIZE = 8;
+    private static final Map<String, KeyframeIndex> sCache = new LinkedHashMap<String, KeyframeIndex>(MAX_CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, KeyframeIndex> eldest) {
+            return size() > MAX_CACHE_SIZE;
+        }
+    };
+
+    private final long[] mSyncTimes;
+    private final int mCount;
+
+    private KeyframeIndex(long[] syncTimes, int count) {
+        mSyncTimes = syncTimes;
+        mCount = count;
+    }
+
+    /**
+     * 获取缓存的索引，没有时用单独的提取器扫描轨道建立索引，不影响正在读取的提取器
+     *
+     * @param filePath 文件路径
+     * @param track    轨道
+     * @return
+     * @throws IOException
+     */
+    static KeyframeIndex obtain(String filePath, int track) throws IOException {
+        File file = new File(filePath);
+        String key = filePath + '#' + track + '#' + file.length() + '#' + file.lastModified();
+        synchronized (sCache) {
+            KeyframeIndex index = sCache.get(key);
+            if (index != null) {
+                return index;
+            }
+        }
+        KeyframeIndex index;
+        MediaExtractor extractor = new MediaExtractor();
+        try {
+            extractor.setDataSource(filePath);
+            extractor.selectTrack(track);
+            index = build(extractor);
+        } finally {
+            extractor.release();
+        }
+        synchronized (sCache) {
+            sCache.put(key, index);
+        }
+        return index;
+    }
+
+    private static KeyframeIndex build(MediaExtractor extractor) {
+        long start = System.currentTimeMillis();
+        long[] syncTimes = new long[64];
+        int count = 0;
+        long sampleTime;
+        while ((sampleTime = extractor.getSampleTime()) >= 0) {
+            if ((extractor.getSampleFlags() & MediaExtractor.SAMPLE_FLAG_SYNC) != 0) {
+                if (count == syncTimes.length) {
+                    syncTimes = Arrays.copyOf(syncTimes, count * 2);
+                }
+                syncTimes[count++] = sampleTime;
+            }
+            if (!extractor.advance()) {
+                break;
+            }
+        }
+        // 同步帧的时间戳一般是递增的，个别封装不保证
+        Arrays.sort(syncTimes, 0, count);
+        Log.d(TAG, "build: " + count + " keyframes in " + (System.currentTimeMillis() - start) + "ms");
+        return new KeyframeIndex(syncTimes, count);
+    }
+
+    /**
+     * @param timeUs 目标时间
+     * @return 不晚于目标时间的最后一个关键帧的时间，目标在第一个关键帧之前时返回第一个关键帧
+     */
+    long getSyncTime(long timeUs) {
+        if (mCount == 0) {
+            return 0;
+        }
+        int i = Arrays.binarySearch(mSyncTimes, 0, mCount, timeUs);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        return mSyncTimes[Math.max(i, 0)];
+    }
+}
@@ -14,14 +14,19 @@ import java.nio.ByteBuffer;
  */
 class MMExtractor {
     private static final String TAG = "MMExtractor";
+    private final String mFilePath;
     private MediaExtractor mMediaExtractor;
+    private KeyframeIndex mKeyframeIndex;
+    private boolean mTrackSelected;
     private int mAudioTrack = -1;
     private int mVideoTrack = -1;
     private long mSampleTime;
     private int mSampleFlags;
-    private long mStartPosition;
+    // 第一次读取时跳转到的位置，-1 表示从头读取或者已经跳转
+    private long mStartPosition = -1;
 
     MMExtractor(String filePath) {
+        mFilePath = filePath;
         mMediaExtractor = new MediaExtractor();
         try {
             mMediaExtractor.setDataSource(filePath);
@@ -75,6 +80,9 @@ class MMExtractor {
     int readBuffer(ByteBuffer buffer) {
         buffer.clear();
         selectSourceTrack();
+        if (mStartPosition > 0) {
+            seek(mStartPosition);
+        }
         int sampleSize = mMediaExtractor.readSampleData(buffer, 0);
         if (sampleSize < 0) {
             return -1;
@@ -86,16 +94,41 @@ class MMExtractor {
     }
 
     /**
-     * 跳转指定位置，并返回帧时间戳
+     * 跳转到指定位置之前的关键帧，并返回帧时间戳
      *
      * @param pos
      * @return
      */
     long seek(long pos) {
-        mMediaExtractor.seekTo(pos, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        selectSourceTrack();
+        mStartPosition = -1;
+        long syncTime = getSyncTime(pos);
+        mMediaExtractor.seekTo(syncTime, syncTime == pos ? MediaExtractor.SEEK_TO_PREVIOUS_SYNC
+                : MediaExtractor.SEEK_TO_CLOSEST_SYNC);
         return mMediaExtractor.getSampleTime();
     }
 
+    /**
+     * 指定位置之前的关键帧时间，视频轨道使用缓存的关键帧索引，音频的每一帧都是关键帧
+     *
+     * @param pos
+     * @return
+     */
+    long getSyncTime(long pos) {
+        if (mVideoTrack < 0) {
+            return pos;
+        }
+        if (mKeyframeIndex == null) {
+            try {
+                mKeyframeIndex = KeyframeIndex.obtain(mFilePath, mVideoTrack);
+            } catch (IOException e) {
+                Log.w(TAG, "getSyncTime: ", e);
+                return pos;
+            }
+        }
+        return mKeyframeIndex.getSyncTime(pos);
+    }
+
     /**
      * 停止读取数据
      */
@@ -124,7 +157,14 @@ class MMExtractor {
         return mSampleFlags;
     }
 
+    /**
+     * 只需要选择一次，不用每次读取时都选择
+     */
     private void selectSourceTrack() {
+        if (mTrackSelected) {
+            return;
+        }
+        mTrackSelected = true;
         if (mVideoTrack >= 0) {
             mMediaExtractor.selectTrack(mVideoTrack);
         } else if (mAudioTrack >= 0) {
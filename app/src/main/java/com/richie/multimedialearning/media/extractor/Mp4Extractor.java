@@ -0,0 +1,141 @@
+package com.richie.multimedialearning.media.extractor;
+
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import com.richie.multimedialearning.utils.mp4.Mp4File;
+import com.richie.multimedialearning.utils.mp4.Mp4SampleTable;
+import com.richie.multimedialearning.utils.mp4.Mp4Track;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 基于 {@link Mp4File} 的数据提取器，只支持 MP4，不经过 MediaExtractor
+ * <p>
+ * 样本表在打开时一次解析完，跳转只是二分查找关键帧，读取直接从映射内存复制到解码器的输入缓冲区。
+ * H.264/H.265 样本的长度前缀会替换为起始码。
+ */
+public class Mp4Extractor implements IExtractor {
+    private static final String TAG = "Mp4Extractor";
+    private static final String KEY_CSD_0 = "csd-0";
+    private static final String KEY_CSD_1 = "csd-1";
+    private final Mp4File mMp4File;
+    private final Mp4Track mTrack;
+    private final Mp4SampleTable mSampleTable;
+    private MediaFormat mFormat;
+    private int mSampleIndex;
+    private long mSampleTime;
+    private int mSampleFlags;
+
+    /**
+     * @param filePath 文件路径
+     * @param video    读取视频轨道还是音频轨道
+     * @throws IOException 文件无法解析或者没有对应的轨道
+     */
+    public Mp4Extractor(String filePath, boolean video) throws IOException {
+        mMp4File = Mp4File.open(new File(filePath));
+        mTrack = video ? mMp4File.getVideoTrack() : mMp4File.getAudioTrack();
+        if (mTrack == null) {
+            mMp4File.close();
+            throw new IOException("No " + (video ? "video" : "audio") + " track in " + filePath);
+        }
+        mSampleTable = mTrack.getSampleTable();
+        Log.d(TAG, "Mp4Extractor: " + mTrack + ", parse time " + mMp4File.getParseTimeNs() / 1000 + "us");
+    }
+
+    @Override
+    public MediaFormat getFormat() {
+        if (mFormat != null) {
+            return mFormat;
+        }
+        MediaFormat format;
+        if (mTrack.isVideo()) {
+            format = MediaFormat.createVideoFormat(mTrack.getMime(), mTrack.getWidth(), mTrack.getHeight());
+            if (mTrack.getRotation() != 0) {
+                format.setInteger(MediaFormat.KEY_ROTATION, mTrack.getRotation());
+            }
+        } else {
+            format = MediaFormat.createAudioFormat(mTrack.getMime(), mTrack.getSampleRate(), mTrack.getChannelCount());
+        }
+        if (mTrack.getCsd0() != null) {
+            format.setByteBuffer(KEY_CSD_0, ByteBuffer.wrap(mTrack.getCsd0()));
+        }
+        if (mTrack.getCsd1() != null) {
+            format.setByteBuffer(KEY_CSD_1, ByteBuffer.wrap(mTrack.getCsd1()));
+        }
+        format.setLong(MediaFormat.KEY_DURATION, mTrack.getDurationUs());
+        int maxInputSize = mSampleTable.getMaxSampleSize();
+        if (mTrack.getNalLengthSize() > 0) {
+            // 长度前缀短于 4 字节时替换为起始码会变长
+            maxInputSize = maxInputSize * 4 / mTrack.getNalLengthSize();
+        }
+        format.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, maxInputSize);
+        mFormat = format;
+        return format;
+    }
+
+    @Override
+    public int readBuffer(ByteBuffer buffer) {
+        buffer.clear();
+        if (mSampleIndex >= mSampleTable.getSampleCount()) {
+            return -1;
+        }
+        int index = mSampleIndex;
+        int size;
+        try {
+            size = mMp4File.readSample(mTrack, index, buffer, true);
+        } catch (IOException e) {
+            Log.e(TAG, "readBuffer: ", e);
+            return -1;
+        }
+        mSampleTime = mSampleTable.getTimeUs(index);
+        mSampleFlags = mSampleTable.isSync(index) ? MediaExtractor.SAMPLE_FLAG_SYNC : 0;
+        mSampleIndex++;
+        return size;
+    }
+
+    @Override
+    public long getSampleTimeStamp() {
+        return mSampleTime;
+    }
+
+    @Override
+    public int getSampleFlags() {
+        return mSampleFlags;
+    }
+
+    @Override
+    public long seek(long position) {
+        int index = mSampleTable.getSyncSampleIndex(position);
+        if (index < 0) {
+            return -1;
+        }
+        mSampleIndex = index;
+        return mSampleTable.getTimeUs(index);
+    }
+
+    @Override
+    public long getSyncTime(long position) {
+        int index = mSampleTable.getSyncSampleIndex(position);
+        return index < 0 ? position : mSampleTable.getTimeUs(index);
+    }
+
+    @Override
+    public void setStartPosition(long position) {
+        if (position > 0) {
+            seek(position);
+        }
+    }
+
+    @Override
+    public void stop() {
+        try {
+            mMp4File.close();
+        } catch (IOException e) {
+            Log.w(TAG, "stop: ", e);
+        }
+    }
+}
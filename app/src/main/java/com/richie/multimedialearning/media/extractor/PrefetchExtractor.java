@@ -0,0 +1,267 @@
+package com.richie.multimedialearning.media.extractor;
+
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * 预读的提取器：读取线程提前把压缩样本读到一个有界的环形队列，解码线程只从队列复制到解码器的输入缓冲区
+ * <p>
+ * 存储读取慢的时候不会阻塞解码线程取输出。队列中的缓冲区是循环使用的直接内存，深度决定最多预读多少帧。
+ * 被包装的提取器只在读取线程访问，跳转时等当前的读取结束，在调用线程跳转并清空队列。
+ * 队列为空时读取需要等待，记为一次欠载。
+ */
+public final class PrefetchExtractor implements IExtractor {
+    private static final String TAG = "PrefetchExtractor";
+    public static final int DEFAULT_DEPTH = 8;
+    private static final int DEFAULT_SAMPLE_SIZE = 256 * 1024;
+
+    private final IExtractor mSource;
+    private final MediaFormat mFormat;
+    private final Object mLock = new Object();
+    private final Sample[] mRing;
+    // 队列头部的位置和已经读好的样本个数，在 mLock 内访问
+    private int mHead;
+    private int mCount;
+    private int mSampleSize;
+    private boolean mReading;
+    private boolean mEos;
+    private boolean mStopped;
+    private Thread mThread;
+    private long mSampleTime;
+    private int mSampleFlags;
+    private volatile long mReadCount;
+    private volatile long mUnderrunCount;
+    private volatile long mUnderrunTimeNs;
+
+    /**
+     * @param source 被包装的提取器，之后不能再直接访问
+     * @param depth  队列深度
+     */
+    public PrefetchExtractor(IExtractor source, int depth) {
+        if (depth <= 0) {
+            throw new IllegalArgumentException("depth must be positive: " + depth);
+        }
+        mSource = source;
+        mFormat = source.getFormat();
+        mRing = new Sample[depth];
+        for (int i = 0; i < depth; i++) {
+            mRing[i] = new Sample();
+        }
+        mSampleSize = mFormat != null && mFormat.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)
+                ? mFormat.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE) : DEFAULT_SAMPLE_SIZE;
+    }
+
+    @Override
+    public MediaFormat getFormat() {
+        return mFormat;
+    }
+
+    @Override
+    public int readBuffer(ByteBuffer buffer) {
+        buffer.clear();
+        synchronized (mLock) {
+            startIfNeeded();
+            if (mCount == 0 && !mEos && !mStopped) {
+                mUnderrunCount++;
+                long start = System.nanoTime();
+                while (mCount == 0 && !mEos && !mStopped) {
+                    try {
+                        mLock.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return -1;
+                    }
+                }
+                mUnderrunTimeNs += System.nanoTime() - start;
+            }
+            if (mCount == 0) {
+                return -1;
+            }
+            Sample sample = mRing[mHead];
+            ByteBuffer data = sample.mData;
+            data.limit(sample.mSize);
+            data.position(0);
+            buffer.put(data);
+            mSampleTime = sample.mTimeUs;
+            mSampleFlags = sample.mFlags;
+            mHead = (mHead + 1) % mRing.length;
+            mCount--;
+            mReadCount++;
+            mLock.notifyAll();
+            return sample.mSize;
+        }
+    }
+
+    @Override
+    public long getSampleTimeStamp() {
+        return mSampleTime;
+    }
+
+    @Override
+    public int getSampleFlags() {
+        return mSampleFlags;
+    }
+
+    @Override
+    public long seek(long position) {
+        synchronized (mLock) {
+            awaitIdle();
+            long sampleTime = mSource.seek(position);
+            mLock.notifyAll();
+            return sampleTime;
+        }
+    }
+
+    /**
+     * 只查询关键帧索引，不改变读取位置，不需要等读取线程
+     */
+    @Override
+    public long getSyncTime(long position) {
+        return mSource.getSyncTime(position);
+    }
+
+    @Override
+    public void setStartPosition(long position) {
+        synchronized (mLock) {
+            awaitIdle();
+            mSource.setStartPosition(position);
+            mLock.notifyAll();
+        }
+    }
+
+    /**
+     * 等当前的读取结束并清空队列，在锁内调用
+     */
+    private void awaitIdle() {
+        while (mReading) {
+            try {
+                mLock.wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        mHead = 0;
+        mCount = 0;
+        mEos = false;
+    }
+
+    @Override
+    public void stop() {
+        Thread thread;
+        synchronized (mLock) {
+            mStopped = true;
+            thread = mThread;
+            mLock.notifyAll();
+        }
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Log.w(TAG, "stop: ", e);
+            }
+        }
+        mSource.stop();
+        Log.d(TAG, "stop: read " + mReadCount + ", underrun " + mUnderrunCount
+                + ", underrun time " + mUnderrunTimeNs / 1000 + "us");
+    }
+
+    /**
+     * @return 交给解码器的样本数
+     */
+    public long getReadCount() {
+        return mReadCount;
+    }
+
+    /**
+     * @return 读取时队列为空、需要等待的次数，不含文件末尾
+     */
+    public long getUnderrunCount() {
+        return mUnderrunCount;
+    }
+
+    /**
+     * @return 欠载时等待的总时间
+     */
+    public long getUnderrunTimeNs() {
+        return mUnderrunTimeNs;
+    }
+
+    /**
+     * @return 队列中已经读好的样本数
+     */
+    public int getBufferedCount() {
+        synchronized (mLock) {
+            return mCount;
+        }
+    }
+
+    private void startIfNeeded() {
+        if (mThread == null && !mStopped) {
+            mThread = new Thread(new ReadRunnable(), TAG);
+            mThread.start();
+        }
+    }
+
+    private final class ReadRunnable implements Runnable {
+        @Override
+        public void run() {
+            while (true) {
+                Sample sample;
+                synchronized (mLock) {
+                    while (!mStopped && (mCount == mRing.length || mEos)) {
+                        try {
+                            mLock.wait();
+                        } catch (InterruptedException e) {
+                            Log.w(TAG, "run: ", e);
+                            return;
+                        }
+                    }
+                    if (mStopped) {
+                        return;
+                    }
+                    sample = mRing[(mHead + mCount) % mRing.length];
+                    mReading = true;
+                }
+                readSample(sample);
+                synchronized (mLock) {
+                    mReading = false;
+                    if (sample.mSize < 0) {
+                        mEos = true;
+                    } else {
+                        mCount++;
+                    }
+                    mLock.notifyAll();
+                }
+            }
+        }
+
+        private void readSample(Sample sample) {
+            if (sample.mData == null || sample.mData.capacity() < mSampleSize) {
+                sample.mData = ByteBuffer.allocateDirect(mSampleSize);
+            }
+            while (true) {
+                try {
+                    sample.mSize = mSource.readBuffer(sample.mData);
+                    break;
+                } catch (IllegalArgumentException | BufferOverflowException e) {
+                    // 缓冲区不够大，之后都使用更大的缓冲区，提取器没有前进，可以重新读取
+                    mSampleSize = sample.mData.capacity() * 2;
+                    sample.mData = ByteBuffer.allocateDirect(mSampleSize);
+                }
+            }
+            sample.mTimeUs = mSource.getSampleTimeStamp();
+            sample.mFlags = mSource.getSampleFlags();
+        }
+    }
+
+    private static final class Sample {
+        ByteBuffer mData;
+        int mSize;
+        long mTimeUs;
+        int mFlags;
+    }
+}
@@ -0,0 +1,459 @@
+package com.richie.multimedialearning.media.extractor;
+
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.util.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * 共享的解复用器：只打开一次文件，同时选择音频和视频轨道，按文件顺序读取样本，分发到每条轨道的有界队列
+ * <p>
+ * 音频和视频解码器分别通过 {@link #getAudioExtractor()}、{@link #getVideoExtractor()} 读取。
+ * 读取线程在第一次读取时启动，某条轨道的队列满了之后等待，所以两条轨道都需要被消费，不用的轨道要调用 stop。
+ * 另一条轨道的队列已经空了时，满的队列临时超出容量继续读取，交错很粗或者没有交错的文件不会互相卡住，
+ * 代价是两条轨道在文件中相距多远，就要多缓存多少样本，多出来的样本归还时直接丢弃。
+ * 读取线程的文件 I/O 都在锁外进行。
+ * 跳转是全局的，两个解码器应该跳转到同一位置，后到的一方目标相同并且还没有读取新数据时不会重复跳转。
+ * 样本缓冲区循环使用，运行过程中不分配内存。
+ */
+public final class SharedDemuxer {
+    private static final String TAG = "SharedDemuxer";
+    private static final int AUDIO_QUEUE_CAPACITY = 64;
+    private static final int VIDEO_QUEUE_CAPACITY = 16;
+    private static final int DEFAULT_AUDIO_SAMPLE_SIZE = 16 * 1024;
+    private static final int DEFAULT_VIDEO_SAMPLE_SIZE = 512 * 1024;
+
+    private final String mFilePath;
+    private final MediaExtractor mMediaExtractor;
+    private final TrackQueue mAudioQueue;
+    private final TrackQueue mVideoQueue;
+    private TrackExtractor mAudioExtractor;
+    private TrackExtractor mVideoExtractor;
+    private Thread mThread;
+    private boolean mReleased;
+    // 每次跳转加一，读取线程据此丢弃跳转之前读出的样本
+    private int mGeneration;
+    private long mPendingSeekUs = -1;
+    private long mLastSeekUs = -1;
+
+    /**
+     * @param filePath 文件路径
+     * @throws IOException 文件无法解析
+     */
+    public SharedDemuxer(String filePath) throws IOException {
+        mFilePath = filePath;
+        mMediaExtractor = new MediaExtractor();
+        TrackQueue audioQueue = null;
+        TrackQueue videoQueue = null;
+        try {
+            mMediaExtractor.setDataSource(filePath);
+            for (int i = 0, trackCount = mMediaExtractor.getTrackCount(); i < trackCount; i++) {
+                MediaFormat format = mMediaExtractor.getTrackFormat(i);
+                String mime = format.getString(MediaFormat.KEY_MIME);
+                if (audioQueue == null && mime.startsWith("audio/")) {
+                    audioQueue = new TrackQueue(i, format, AUDIO_QUEUE_CAPACITY, DEFAULT_AUDIO_SAMPLE_SIZE);
+                    mMediaExtractor.selectTrack(i);
+                } else if (videoQueue == null && mime.startsWith("video/")) {
+                    videoQueue = new TrackQueue(i, format, VIDEO_QUEUE_CAPACITY, DEFAULT_VIDEO_SAMPLE_SIZE);
+                    mMediaExtractor.selectTrack(i);
+                }
+            }
+        } catch (IOException e) {
+            mMediaExtractor.release();
+            throw e;
+        }
+        mAudioQueue = audioQueue;
+        mVideoQueue = videoQueue;
+    }
+
+    /**
+     * @return 音频轨道的提取器，没有音频时返回 null
+     */
+    public synchronized IExtractor getAudioExtractor() {
+        if (mAudioExtractor == null && mAudioQueue != null) {
+            mAudioExtractor = new TrackExtractor(mAudioQueue);
+        }
+        return mAudioExtractor;
+    }
+
+    /**
+     * @return 视频轨道的提取器，没有视频时返回 null
+     */
+    public synchronized IExtractor getVideoExtractor() {
+        if (mVideoExtractor == null && mVideoQueue != null) {
+            mVideoExtractor = new TrackExtractor(mVideoQueue);
+        }
+        return mVideoExtractor;
+    }
+
+    /**
+     * 关闭两条轨道并释放，解码器还没有开始就放弃时调用；已经交给解码器的轨道由解码器结束时关闭
+     */
+    public synchronized void release() {
+        if (mAudioQueue != null) {
+            close(mAudioQueue);
+        }
+        if (mVideoQueue != null) {
+            close(mVideoQueue);
+        }
+    }
+
+    private void startIfNeeded() {
+        if (mThread == null && !mReleased) {
+            mThread = new Thread(new DemuxRunnable(), TAG);
+            mThread.start();
+        }
+    }
+
+    private TrackQueue getQueue(int track) {
+        if (mAudioQueue != null && mAudioQueue.mTrack == track) {
+            return mAudioQueue;
+        }
+        if (mVideoQueue != null && mVideoQueue.mTrack == track) {
+            return mVideoQueue;
+        }
+        return null;
+    }
+
+    private synchronized Sample take(TrackQueue queue) {
+        startIfNeeded();
+        while (queue.mReady.isEmpty() && !queue.mEos && !queue.mClosed && !mReleased) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        Sample sample = queue.mReady.poll();
+        if (sample != null) {
+            queue.mConsumedSinceSeek++;
+        }
+        return sample;
+    }
+
+    private synchronized void recycle(TrackQueue queue, Sample sample) {
+        freeSample(queue, sample);
+        notifyAll();
+    }
+
+    /**
+     * 归还样本，超出容量临时分配的直接丢弃，在锁内调用
+     */
+    private static void freeSample(TrackQueue queue, Sample sample) {
+        if (queue.mAllocated > queue.mCapacity) {
+            queue.mAllocated--;
+        } else {
+            queue.mFree.add(sample);
+        }
+    }
+
+    /**
+     * 另一条轨道的队列已经空了，还在等待数据，在锁内调用
+     */
+    private boolean isOtherStarving(TrackQueue queue) {
+        TrackQueue other = queue == mAudioQueue ? mVideoQueue : mAudioQueue;
+        return other != null && !other.mClosed && !other.mEos && other.mReady.isEmpty();
+    }
+
+    private synchronized void seek(TrackQueue queue, long positionUs) {
+        if (positionUs == mLastSeekUs && queue.mGeneration != mGeneration && queue.mConsumedSinceSeek == 0) {
+            // 另一条轨道已经跳转到同一位置，这条轨道的队列里已经是新位置的数据
+            queue.mGeneration = mGeneration;
+            return;
+        }
+        mGeneration++;
+        mPendingSeekUs = positionUs;
+        mLastSeekUs = positionUs;
+        clearQueue(mAudioQueue);
+        clearQueue(mVideoQueue);
+        queue.mGeneration = mGeneration;
+        startIfNeeded();
+        notifyAll();
+    }
+
+    private static void clearQueue(TrackQueue queue) {
+        if (queue == null) {
+            return;
+        }
+        releaseReady(queue);
+        queue.mEos = false;
+        queue.mConsumedSinceSeek = 0;
+    }
+
+    private static void releaseReady(TrackQueue queue) {
+        Sample sample;
+        while ((sample = queue.mReady.poll()) != null) {
+            freeSample(queue, sample);
+        }
+    }
+
+    private synchronized void close(TrackQueue queue) {
+        queue.mClosed = true;
+        releaseReady(queue);
+        boolean audioClosed = mAudioQueue == null || mAudioQueue.mClosed;
+        boolean videoClosed = mVideoQueue == null || mVideoQueue.mClosed;
+        if (audioClosed && videoClosed && !mReleased) {
+            mReleased = true;
+            if (mThread == null) {
+                mMediaExtractor.release();
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * 读取线程，MediaExtractor 只在这个线程访问，跳转、读取和前进都在锁外执行
+     */
+    private final class DemuxRunnable implements Runnable {
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    long seekUs;
+                    int generation;
+                    synchronized (SharedDemuxer.this) {
+                        if (mReleased) {
+                            return;
+                        }
+                        seekUs = mPendingSeekUs;
+                        mPendingSeekUs = -1;
+                        generation = mGeneration;
+                    }
+                    if (seekUs >= 0) {
+                        mMediaExtractor.seekTo(seekUs, MediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+                    }
+                    int track = mMediaExtractor.getSampleTrackIndex();
+                    TrackQueue queue;
+                    Sample sample;
+                    synchronized (SharedDemuxer.this) {
+                        if (track < 0) {
+                            awaitSeekAfterEos(generation);
+                            continue;
+                        }
+                        queue = getQueue(track);
+                        sample = null;
+                        if (queue != null && !queue.mClosed) {
+                            sample = obtainSample(queue, generation);
+                            if (sample == null) {
+                                // 跳转、关闭或者释放，重新开始
+                                continue;
+                            }
+                        }
+                    }
+                    if (sample == null) {
+                        // 没有选择或者已经停止的轨道
+                        mMediaExtractor.advance();
+                        continue;
+                    }
+                    readSample(queue, sample);
+                    synchronized (SharedDemuxer.this) {
+                        if (generation == mGeneration && !queue.mClosed) {
+                            queue.mReady.add(sample);
+                        } else {
+                            freeSample(queue, sample);
+                        }
+                        SharedDemuxer.this.notifyAll();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Log.w(TAG, "run: ", e);
+            } finally {
+                mMediaExtractor.release();
+                Log.d(TAG, "run: released " + mFilePath);
+            }
+        }
+
+        /**
+         * 文件读完，标记所有队列结束，等到下一次跳转或者释放，在锁内调用
+         */
+        private void awaitSeekAfterEos(int generation) throws InterruptedException {
+            if (generation == mGeneration) {
+                markEos(mAudioQueue);
+                markEos(mVideoQueue);
+                SharedDemuxer.this.notifyAll();
+            }
+            while (!mReleased && generation == mGeneration) {
+                SharedDemuxer.this.wait();
+            }
+        }
+
+        /**
+         * 等到轨道有空闲的缓冲区，另一条轨道缺数据时不等待，临时超出容量，在锁内调用
+         *
+         * @return 等待期间跳转、关闭或者释放时返回 null
+         */
+        private Sample obtainSample(TrackQueue queue, int generation) throws InterruptedException {
+            while (!mReleased && !queue.mClosed && generation == mGeneration) {
+                Sample sample = queue.mFree.poll();
+                if (sample != null) {
+                    return sample;
+                }
+                if (isOtherStarving(queue)) {
+                    queue.mAllocated++;
+                    return new Sample();
+                }
+                SharedDemuxer.this.wait();
+            }
+            return null;
+        }
+
+        private void markEos(TrackQueue queue) {
+            if (queue != null) {
+                queue.mEos = true;
+            }
+        }
+
+        private void readSample(TrackQueue queue, Sample sample) {
+            if (sample.mData == null) {
+                sample.mData = ByteBuffer.allocateDirect(queue.mSampleSize);
+            }
+            while (true) {
+                sample.mData.clear();
+                try {
+                    sample.mSize = mMediaExtractor.readSampleData(sample.mData, 0);
+                    break;
+                } catch (IllegalArgumentException e) {
+                    // 缓冲区不够大，之后这条轨道都使用更大的缓冲区
+                    queue.mSampleSize = sample.mData.capacity() * 2;
+                    sample.mData = ByteBuffer.allocateDirect(queue.mSampleSize);
+                }
+            }
+            sample.mTimeUs = mMediaExtractor.getSampleTime();
+            sample.mFlags = mMediaExtractor.getSampleFlags();
+            mMediaExtractor.advance();
+        }
+    }
+
+    /**
+     * 一条轨道的样本队列，在 SharedDemuxer 的锁内访问
+     */
+    private static final class TrackQueue {
+        final int mTrack;
+        final MediaFormat mFormat;
+        final ArrayDeque<Sample> mFree;
+        final ArrayDeque<Sample> mReady;
+        final int mCapacity;
+        // 已经创建的样本个数，另一条轨道缺数据时可能超过容量
+        int mAllocated;
+        int mSampleSize;
+        boolean mEos;
+        boolean mClosed;
+        int mGeneration;
+        int mConsumedSinceSeek;
+
+        TrackQueue(int track, MediaFormat format, int capacity, int defaultSampleSize) {
+            mTrack = track;
+            mFormat = format;
+            mCapacity = capacity;
+            mAllocated = capacity;
+            mFree = new ArrayDeque<>(capacity);
+            mReady = new ArrayDeque<>(capacity);
+            for (int i = 0; i < capacity; i++) {
+                mFree.add(new Sample());
+            }
+            mSampleSize = format.containsKey(MediaFormat.KEY_MAX_INPUT_SIZE)
+                    ? format.getInteger(MediaFormat.KEY_MAX_INPUT_SIZE) : defaultSampleSize;
+        }
+    }
+
+    private static final class Sample {
+        ByteBuffer mData;
+        int mSize;
+        long mTimeUs;
+        int mFlags;
+    }
+
+    /**
+     * 从一条轨道的队列读取的提取器
+     */
+    private final class TrackExtractor implements IExtractor {
+        private final TrackQueue mQueue;
+        private KeyframeIndex mKeyframeIndex;
+        private long mSampleTime;
+        private int mSampleFlags;
+
+        TrackExtractor(TrackQueue queue) {
+            mQueue = queue;
+        }
+
+        @Override
+        public MediaFormat getFormat() {
+            return mQueue.mFormat;
+        }
+
+        @Override
+        public int readBuffer(ByteBuffer buffer) {
+            buffer.clear();
+            Sample sample = take(mQueue);
+            if (sample == null) {
+                return -1;
+            }
+            // 出错时也要归还，否则队列的样本会耗尽，读取线程永远等待
+            try {
+                if (buffer.remaining() < sample.mSize) {
+                    throw new IllegalArgumentException("Buffer too small, remaining " + buffer.remaining()
+                            + ", sample size " + sample.mSize);
+                }
+                ByteBuffer data = sample.mData;
+                data.limit(sample.mSize);
+                data.position(0);
+                buffer.put(data);
+                mSampleTime = sample.mTimeUs;
+                mSampleFlags = sample.mFlags;
+                return sample.mSize;
+            } finally {
+                recycle(mQueue, sample);
+            }
+        }
+
+        @Override
+        public long getSampleTimeStamp() {
+            return mSampleTime;
+        }
+
+        @Override
+        public int getSampleFlags() {
+            return mSampleFlags;
+        }
+
+        @Override
+        public long seek(long position) {
+            long syncTime = getSyncTime(position);
+            SharedDemuxer.this.seek(mQueue, position);
+            return syncTime;
+        }
+
+        @Override
+        public long getSyncTime(long position) {
+            if (mQueue != mVideoQueue) {
+                return position;
+            }
+            if (mKeyframeIndex == null) {
+                try {
+                    mKeyframeIndex = KeyframeIndex.obtain(mFilePath, mQueue.mTrack);
+                } catch (IOException e) {
+                    Log.w(TAG, "getSyncTime: ", e);
+                    return position;
+                }
+            }
+            return mKeyframeIndex.getSyncTime(position);
+        }
+
+        @Override
+        public void setStartPosition(long position) {
+            if (position > 0) {
+                // 两条轨道设置相同的起始位置时只跳转一次
+                SharedDemuxer.this.seek(mQueue, position);
+            }
+        }
+
+        @Override
+        public void stop() {
+            close(mQueue);
+        }
+    }
+}
@@ -42,6 +42,11 @@ public class VideoExtractor implements IExtractor {
         return mMMExtractor.seek(position);
     }
 
+    @Override
+    public long getSyncTime(long position) {
+        return mMMExtractor.getSyncTime(position);
+    }
+
     @Override
     public void setStartPosition(long position) {
         mMMExtractor.setStartPosition(position);
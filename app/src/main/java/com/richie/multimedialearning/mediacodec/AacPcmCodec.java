@@ -1,18 +1,22 @@
 package com.richie.multimedialearning.mediacodec;
 
-import android.media.MediaCodec;
 import android.media.MediaCodecInfo;
 import android.media.MediaExtractor;
 import android.media.MediaFormat;
 import android.util.Log;
 
+import com.richie.multimedialearning.media.codec.CodecFormat;
+import com.richie.multimedialearning.media.codec.CodecPump;
+import com.richie.multimedialearning.media.codec.ICodec;
+import com.richie.multimedialearning.media.codec.MediaCodecWrapper;
+import com.richie.multimedialearning.utils.aac.AdtsHeader;
+
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * @author Richie on 2019.04.03
@@ -20,7 +24,10 @@ import java.nio.ByteBuffer;
 public final class AacPcmCodec {
     private static final String TAG = "AacPcmCodec";
     private final static String AUDIO_MIME = "audio/mp4a-latm";
-    private final static long AUDIO_BYTES_PER_SAMPLE = 44100 * 1 * 16 / 8;
+    private final static int SAMPLE_RATE = 44100;
+    private final static int CHANNEL_COUNT = 1;
+    private final static long AUDIO_BYTES_PER_SAMPLE = SAMPLE_RATE * CHANNEL_COUNT * 16 / 8;
+    private final static long TIMEOUT_US = 10_000;
 
     /**
      * AAC 格式解码成 PCM 数据
@@ -30,7 +37,7 @@ public final class AacPcmCodec {
      * @throws IOException
      */
     public static void decodeAacToPcm(File aacFile, File pcmFile) throws IOException {
-        MediaExtractor extractor = new MediaExtractor();
+        final MediaExtractor extractor = new MediaExtractor();
         extractor.setDataSource(aacFile.getAbsolutePath());
         MediaFormat mediaFormat = null;
         for (int i = 0, count = extractor.getTrackCount(); i < count; i++) {
@@ -48,66 +55,23 @@ public final class AacPcmCodec {
             return;
         }
 
-        String mime = mediaFormat.getString(MediaFormat.KEY_MIME);
-        Log.i(TAG, "decodeAacToPcm: mimeType: " + mime);
-        MediaCodec codec = MediaCodec.createDecoderByType(mime);
-        codec.configure(mediaFormat, null, null, 0);
+        Log.i(TAG, "decodeAacToPcm: mimeType: " + mediaFormat.getString(MediaFormat.KEY_MIME));
+        ICodec codec = MediaCodecWrapper.createDecoder(mediaFormat);
         codec.start();
-        ByteBuffer[] inputBuffers = codec.getInputBuffers();
-        ByteBuffer[] outputBuffers = codec.getOutputBuffers();
-        MediaCodec.BufferInfo outBufferInfo = new MediaCodec.BufferInfo();
-        final long timeoutUs = 10_000;
-        boolean sawInputEOS = false;
-        boolean sawOutputEOS = false;
-        byte[] outputBytes = null;
-        try (OutputStream fosAudio = new FileOutputStream(pcmFile)) {
-            while (!sawOutputEOS) {
-                if (!sawInputEOS) {
-                    int inputBufIndex = codec.dequeueInputBuffer(timeoutUs);
-                    if (inputBufIndex >= 0) {
-                        ByteBuffer inputBuffer = inputBuffers[inputBufIndex];
-                        int sampleSize = extractor.readSampleData(inputBuffer, 0);
-                        if (sampleSize < 0) {
-                            Log.i(TAG, "saw input EOS.");
-                            sawInputEOS = true;
-                            codec.queueInputBuffer(inputBufIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
-                        } else {
-                            codec.queueInputBuffer(inputBufIndex, 0, sampleSize, extractor.getSampleTime(), 0);
-                            extractor.advance();
-                        }
-                    }
-                }
-
-                int outputBufIndex = codec.dequeueOutputBuffer(outBufferInfo, timeoutUs);
-                if (outputBufIndex >= 0) {
-                    // Simply ignore codec config buffers.
-                    if ((outBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-                        Log.i(TAG, "audio encoder: codec config buffer");
-                        codec.releaseOutputBuffer(outputBufIndex, false);
-                        continue;
-                    }
-                    if (outBufferInfo.size > 0) {
-                        ByteBuffer outputBuffer = outputBuffers[outputBufIndex];
-                        outputBuffer.position(outBufferInfo.offset);
-                        outputBuffer.limit(outBufferInfo.offset + outBufferInfo.size);
-                        if (outputBytes == null || outputBytes.length < outBufferInfo.size) {
-                            outputBytes = new byte[outBufferInfo.size];
-                        }
-                        outputBuffer.get(outputBytes);
-                        fosAudio.write(outputBytes);
-                    }
-                    codec.releaseOutputBuffer(outputBufIndex, false);
-                    if ((outBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-                        Log.i(TAG, "saw output EOS.");
-                        sawOutputEOS = true;
+        try (FileOutputStream fosAudio = new FileOutputStream(pcmFile)) {
+            decode(codec, new CodecPump.Source() {
+                @Override
+                public int read(ByteBuffer buffer, ICodec.BufferInfo info) {
+                    int sampleSize = extractor.readSampleData(buffer, 0);
+                    if (sampleSize < 0) {
+                        Log.i(TAG, "saw input EOS.");
+                        return -1;
                     }
-                } else if (outputBufIndex == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
-                    outputBuffers = codec.getOutputBuffers();
-                    Log.i(TAG, "output buffers have changed.");
-                } else if (outputBufIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                    Log.i(TAG, "output format has changed to " + codec.getOutputFormat());
+                    info.presentationTimeUs = extractor.getSampleTime();
+                    extractor.advance();
+                    return sampleSize;
                 }
-            }
+            }, fosAudio.getChannel());
         } finally {
             Log.i(TAG, "decodeAacToPcm finish " + pcmFile.getAbsolutePath());
             codec.stop();
@@ -116,6 +80,31 @@ public final class AacPcmCodec {
         }
     }
 
+    /**
+     * 解码到 PCM 文件，直接从解码器的缓冲区写入文件，不经过 Java 数组
+     *
+     * @param codec      已经 start 的解码器
+     * @param source     压缩数据
+     * @param pcmChannel 输出文件
+     * @throws IOException
+     */
+    static void decode(ICodec codec, CodecPump.Source source, final FileChannel pcmChannel) throws IOException {
+        new CodecPump(codec, TIMEOUT_US).run(source, new CodecPump.Sink() {
+            @Override
+            public void onOutputFormatChanged(CodecFormat format) {
+                Log.i(TAG, "output format has changed to " + format);
+            }
+
+            @Override
+            public void write(ByteBuffer buffer, ICodec.BufferInfo info) throws IOException {
+                while (buffer.hasRemaining()) {
+                    pcmChannel.write(buffer);
+                }
+            }
+        });
+        Log.i(TAG, "saw output EOS.");
+    }
+
     /**
      * PCM 数据编码为 AAC 格式
      *
@@ -124,120 +113,78 @@ public final class AacPcmCodec {
      * @throws IOException
      */
     public static void encodePcmToAac(File inPcmFile, File outAacFile) throws IOException {
-        MediaCodec audioEncoder = createAudioEncoder();
-        try (InputStream fisAudio = new FileInputStream(inPcmFile);
-             OutputStream fosAudio = new FileOutputStream(outAacFile)) {
+        ICodec audioEncoder = createAudioEncoder();
+        try (FileInputStream fisAudio = new FileInputStream(inPcmFile);
+             FileOutputStream fosAudio = new FileOutputStream(outAacFile)) {
             audioEncoder.start();
-            boolean sawInputEOS = false;
-            boolean sawOutputEOS = false;
-            long presentationTimeUs = 0;
-            byte[] inputBytes = null;
-            int sumReadInputSize = 0;
-            long outputPresentationTimeUs = 0;
-            final int timeoutUs = 10_000;
-            MediaCodec.BufferInfo outBufferInfo = new MediaCodec.BufferInfo();
-            ByteBuffer[] inputBuffers = audioEncoder.getInputBuffers();
-            ByteBuffer[] outputBuffers = audioEncoder.getOutputBuffers();
-            while (!sawOutputEOS) {
-                if (!sawInputEOS) {
-                    int inputBufIndex = audioEncoder.dequeueInputBuffer(timeoutUs);
-                    if (inputBufIndex >= 0) {
-                        ByteBuffer inputBuffer = inputBuffers[inputBufIndex];
-                        inputBuffer.clear();
-                        int bufferSize = inputBuffer.remaining();
-                        if (inputBytes == null) {
-                            inputBytes = new byte[bufferSize];
-                        }
-                        int readInputSize = fisAudio.read(inputBytes);
-                        if (readInputSize < 0) {
-                            audioEncoder.queueInputBuffer(inputBufIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
-                            sawInputEOS = true;
-                            Log.i(TAG, "saw input EOS.");
-                        } else {
-                            inputBuffer.put(inputBytes, 0, readInputSize);
-                            sumReadInputSize += readInputSize;
-                            audioEncoder.queueInputBuffer(inputBufIndex, 0, readInputSize, presentationTimeUs, 0);
-                            presentationTimeUs = (long) (1_000_000 * ((float) sumReadInputSize / AUDIO_BYTES_PER_SAMPLE));
-                        }
-                    }
-                }
-
-                int outputBufIndex = audioEncoder.dequeueOutputBuffer(outBufferInfo, timeoutUs);
-                if (outputBufIndex >= 0) {
-                    // Simply ignore codec config buffers.
-                    if ((outBufferInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
-                        Log.i(TAG, "audio encoder: codec config buffer");
-                        audioEncoder.releaseOutputBuffer(outputBufIndex, false);
-                        continue;
-                    }
-                    if (outBufferInfo.size > 0) {
-                        ByteBuffer outBuffer = outputBuffers[outputBufIndex];
-                        outBuffer.position(outBufferInfo.offset);
-                        outBuffer.limit(outBufferInfo.offset + outBufferInfo.size);
-                        if (outputPresentationTimeUs <= outBufferInfo.presentationTimeUs) {
-                            outputPresentationTimeUs = outBufferInfo.presentationTimeUs;
-                            int outBufSize = outBufferInfo.size;
-                            int outPacketSize = outBufSize + 7;
-                            outBuffer.position(outBufferInfo.offset);
-                            outBuffer.limit(outBufferInfo.offset + outBufSize);
-                            byte[] outData = new byte[outPacketSize];
-                            addADTStoPacket(outData, outPacketSize);
-                            outBuffer.get(outData, 7, outBufSize);
-                            fosAudio.write(outData, 0, outData.length);
-                        }
-                    }
-                    audioEncoder.releaseOutputBuffer(outputBufIndex, false);
-                    if ((outBufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
-                        sawOutputEOS = true;
-                        Log.i(TAG, "saw output EOS.");
-                    }
-                } else if (outputBufIndex == MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED) {
-                    outputBuffers = audioEncoder.getOutputBuffers();
-                    Log.i(TAG, "output buffers have changed.");
-                } else if (outputBufIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
-                    Log.i(TAG, "output format has changed to " + audioEncoder.getOutputFormat());
-                }
-            }
+            encode(audioEncoder, fisAudio.getChannel(), fosAudio.getChannel());
         } finally {
             Log.i(TAG, "encodePcmToAac: finish " + outAacFile.getAbsolutePath());
             audioEncoder.release();
         }
     }
 
-    private static MediaCodec createAudioEncoder() throws IOException {
-        MediaCodec codec = MediaCodec.createEncoderByType(AUDIO_MIME);
+    /**
+     * 编码为 ADTS 格式的 AAC 数据
+     * <p>
+     * PCM 数据直接读入编码器的缓冲区，ADTS 头和编码器输出一起聚集写入，头部缓冲区循环使用。
+     *
+     * @param encoder    已经 start 的编码器
+     * @param pcmChannel 输入文件
+     * @param aacChannel 输出文件
+     * @throws IOException
+     */
+    static void encode(ICodec encoder, final FileChannel pcmChannel, final FileChannel aacChannel) throws IOException {
+        final AdtsHeader adtsHeader = new AdtsHeader(AdtsHeader.PROFILE_AAC_LC, SAMPLE_RATE, CHANNEL_COUNT);
+        final ByteBuffer adtsBuffer = ByteBuffer.allocate(AdtsHeader.HEADER_SIZE);
+        final ByteBuffer[] packet = new ByteBuffer[]{adtsBuffer, null};
+        new CodecPump(encoder, TIMEOUT_US).run(new CodecPump.Source() {
+            private long mSumReadInputSize;
+
+            @Override
+            public int read(ByteBuffer buffer, ICodec.BufferInfo info) throws IOException {
+                int readInputSize = pcmChannel.read(buffer);
+                if (readInputSize < 0) {
+                    Log.i(TAG, "saw input EOS.");
+                    return -1;
+                }
+                info.presentationTimeUs = 1_000_000 * mSumReadInputSize / AUDIO_BYTES_PER_SAMPLE;
+                mSumReadInputSize += readInputSize;
+                return readInputSize;
+            }
+        }, new CodecPump.Sink() {
+            private long mOutputPresentationTimeUs;
+
+            @Override
+            public void onOutputFormatChanged(CodecFormat format) {
+                Log.i(TAG, "output format has changed to " + format);
+            }
+
+            @Override
+            public void write(ByteBuffer buffer, ICodec.BufferInfo info) throws IOException {
+                if (mOutputPresentationTimeUs > info.presentationTimeUs) {
+                    return;
+                }
+                mOutputPresentationTimeUs = info.presentationTimeUs;
+                adtsHeader.write(adtsBuffer, 0, info.size);
+                adtsBuffer.clear();
+                packet[1] = buffer;
+                while (buffer.hasRemaining()) {
+                    aacChannel.write(packet);
+                }
+                packet[1] = null;
+            }
+        });
+        Log.i(TAG, "saw output EOS.");
+    }
+
+    private static ICodec createAudioEncoder() throws IOException {
         MediaFormat format = new MediaFormat();
         format.setString(MediaFormat.KEY_MIME, AUDIO_MIME);
         format.setInteger(MediaFormat.KEY_BIT_RATE, 64000);
-        format.setInteger(MediaFormat.KEY_CHANNEL_COUNT, 1);
-        format.setInteger(MediaFormat.KEY_SAMPLE_RATE, 44100);
+        format.setInteger(MediaFormat.KEY_CHANNEL_COUNT, CHANNEL_COUNT);
+        format.setInteger(MediaFormat.KEY_SAMPLE_RATE, SAMPLE_RATE);
         format.setInteger(MediaFormat.KEY_AAC_PROFILE, MediaCodecInfo.CodecProfileLevel.AACObjectLC);
-        codec.configure(format, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
-        return codec;
-    }
-
-    /**
-     * Add ADTS header at the beginning of each and every AAC packet.
-     * This is needed as MediaCodec encoder generates a packet of raw
-     * AAC data.
-     * <p>
-     * Note the packetLen must count in the ADTS header itself.
-     * <p>
-     * see https://blog.csdn.net/bsplover/article/details/7426476,
-     * Sample rate and channel count are variables.
-     **/
-    private static void addADTStoPacket(byte[] packet, int packetLen) {
-        int profile = 2;  //AAC LC
-        //39=MediaCodecInfo.CodecProfileLevel.AACObjectELD;
-        int freqIdx = 4;  //44.1KHz
-        int chanCfg = 1;  //CPE
-        // fill in ADTS data
-        packet[0] = (byte) 0xFF;
-        packet[1] = (byte) 0xF9;
-        packet[2] = (byte) (((profile - 1) << 6) + (freqIdx << 2) + (chanCfg >> 2));
-        packet[3] = (byte) (((chanCfg & 3) << 6) + (packetLen >> 11));
-        packet[4] = (byte) ((packetLen & 0x7FF) >> 3);
-        packet[5] = (byte) (((packetLen & 7) << 5) + 0x1F);
-        packet[6] = (byte) 0xFC;
+        return MediaCodecWrapper.createEncoder(format);
     }
 }
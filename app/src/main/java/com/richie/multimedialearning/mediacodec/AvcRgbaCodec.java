@@ -1,13 +1,11 @@
 package com.richie.multimedialearning.mediacodec;
 
-import android.graphics.Bitmap;
-import android.graphics.Matrix;
 import android.graphics.SurfaceTexture;
 import android.media.MediaCodec;
 import android.media.MediaExtractor;
 import android.media.MediaFormat;
 import android.opengl.GLES11Ext;
-import android.opengl.GLES20;
+import android.opengl.Matrix;
 import android.os.Build;
 import android.os.Handler;
 import android.os.HandlerThread;
@@ -15,31 +13,42 @@ import android.os.Process;
 import android.util.Log;
 import android.view.Surface;
 
+import com.richie.multimedialearning.utils.gles.AsyncPixelReader;
 import com.richie.multimedialearning.utils.gles.EglCore;
 import com.richie.multimedialearning.utils.gles.GlUtil;
 import com.richie.multimedialearning.utils.gles.OffscreenSurface;
 import com.richie.multimedialearning.utils.gles.program.TextureProgram;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 /**
  * mp4 视频解码，保存 RGBA 图片
+ * <p>
+ * 解码、绘制、读取和保存流水线进行：GL 线程锁定纹理后解码线程就可以渲染下一帧，
+ * 读取由 {@link AsyncPixelReader} 异步完成，由 {@link ImageSink} 的工作线程编码保存。只有要保存的帧才渲染到 Surface。
  *
  * @author Richie on 2020.08.22
  */
 public class AvcRgbaCodec implements SurfaceTexture.OnFrameAvailableListener {
     private static final String TAG = "AvcRgbaCodec";
     private static final boolean VERBOSE = false;
+    private static final int DEFAULT_SAVE_INTERVAL = 100;
+    // 渲染目标和 RGBA 缓冲区的个数
+    private static final int READ_DEPTH = 3;
+    private static final int READ_BUFFER_COUNT = 4;
+    private static final int SINK_WORKER_COUNT = 2;
+    private static final long EGL_TIMEOUT_MS = 1000;
+    // GL 线程可能在等保存线程归还缓冲区，超时要容得下几张图片的编码
+    private static final long FRAME_LATCH_TIMEOUT_MS = 5000;
     private EglCore mEglCore;
     private OffscreenSurface mOffscreenSurface;
-    private ByteBuffer mByteBuffer;
+    private AsyncPixelReader mPixelReader;
     private int mWidth;
     private int mHeight;
     private SurfaceTexture mSurfaceTexture;
@@ -47,12 +56,44 @@ public class AvcRgbaCodec implements SurfaceTexture.OnFrameAvailableListener {
     private int mTexId;
     private TextureProgram mTextureProgram;
     private final float[] mTransformMatrix = new float[16];
+    private final float[] mFlipMatrix = new float[16];
+    private int mSaveInterval = DEFAULT_SAVE_INTERVAL;
+    private ImageSink.Format mImageFormat = ImageSink.Format.PNG;
+    private int mImageQuality = 100;
     private int mFrames;
-    private File mDestDir;
-    private final Object mLock = new Object();
+    // 渲染到 Surface、应该保存的帧数
+    private int mRenderedFrames;
+    // 正在渲染的帧的序号，渲染前由解码线程设置
+    private volatile int mRenderingFrame;
+    // GL 线程锁定纹理之后释放，解码线程才能渲染下一帧，否则 SurfaceTexture 会丢帧。
+    // 保存太慢时 GL 线程等待读取器的缓冲区，解码线程也跟着等待，不会丢帧
+    private final Semaphore mFrameLatched = new Semaphore(0);
+
+    /**
+     * 每隔多少帧保存一张，默认 100，为 1 时导出所有帧
+     *
+     * @param saveInterval
+     * @return
+     */
+    public AvcRgbaCodec setSaveInterval(int saveInterval) {
+        mSaveInterval = Math.max(1, saveInterval);
+        return this;
+    }
+
+    /**
+     * 保存的图片格式，默认 PNG
+     *
+     * @param format
+     * @param quality 压缩质量 0~100，PNG 忽略
+     * @return
+     */
+    public AvcRgbaCodec setImageFormat(ImageSink.Format format, int quality) {
+        mImageFormat = format;
+        mImageQuality = quality;
+        return this;
+    }
 
     public void decode(final File src, final File destDir) throws IOException {
-        mDestDir = destDir;
         MediaExtractor extractor = new MediaExtractor();
         extractor.setDataSource(src.getAbsolutePath());
         MediaFormat mediaFormat = null;
@@ -87,11 +128,29 @@ public class AvcRgbaCodec implements SurfaceTexture.OnFrameAvailableListener {
                 countDownLatch.countDown();
             }
         });
+        boolean eglReady = false;
         try {
-            countDownLatch.await(1000, TimeUnit.MILLISECONDS);
+            eglReady = countDownLatch.await(EGL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
         } catch (InterruptedException e) {
-            // ignored
+            Thread.currentThread().interrupt();
+        }
+        if (!eglReady) {
+            // 创建完成后再释放，之后退出
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    releaseEgl();
+                }
+            });
+            handler.getLooper().quitSafely();
+            extractor.release();
+            throw new IOException("Create egl timed out");
         }
+        ImageSink imageSink = new ImageSink(mPixelReader, destDir, mImageFormat, mImageQuality, SINK_WORKER_COUNT);
+        imageSink.start();
+        long startTime = System.nanoTime();
+        mFrames = 0;
+        mRenderedFrames = 0;
 
         MediaCodec codec = MediaCodec.createDecoderByType(mime);
         codec.configure(mediaFormat, mSurface, null, 0);
@@ -144,19 +203,37 @@ public class AvcRgbaCodec implements SurfaceTexture.OnFrameAvailableListener {
                         Log.i(TAG, "saw output EOS");
                         sawOutputEOS = true;
                     }
-                    boolean doRender = outBufferInfo.size != 0;
+                    boolean doRender = outBufferInfo.size != 0 && ++mFrames % mSaveInterval == 0;
+                    if (doRender) {
+                        mRenderingFrame = mFrames;
+                        mRenderedFrames++;
+                    }
                     codec.releaseOutputBuffer(outBufIndex, doRender);
-
-                    synchronized (mLock) {
-                        mLock.notify();
-                        if (!sawOutputEOS) {
-                            lockWait(mLock);
-                        }
+                    if (doRender) {
+                        awaitFrameLatched();
                     }
                 }
             }
         } finally {
-            Log.i(TAG, "decode finish " + destDir.getAbsolutePath());
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    mPixelReader.finish();
+                }
+            });
+            int savedFrames = imageSink.awaitFinish();
+            if (savedFrames != mRenderedFrames) {
+                Log.e(TAG, "decode: lost frames, rendered " + mRenderedFrames + ", saved " + savedFrames
+                        + ", read errors " + mPixelReader.getErrorCount() + ", save failures "
+                        + imageSink.getFailedCount());
+            }
+            long elapsedMs = Math.max(1, (System.nanoTime() - startTime) / 1_000_000);
+            Log.i(TAG, "decode finish " + destDir.getAbsolutePath() + ", decoded " + mFrames + " frames, saved "
+                    + savedFrames + " in " + elapsedMs + "ms, " + mFrames * 1000 / elapsedMs + " fps, read "
+                    + (mPixelReader.isUsingPbo() ? "by pbo" : "directly") + ", fence wait "
+                    + mPixelReader.getFenceWaitNs() / 1_000_000 + "ms, buffer wait "
+                    + mPixelReader.getBufferWaitNs() / 1_000_000 + "ms, read errors "
+                    + mPixelReader.getErrorCount() + ", encode time " + imageSink.getEncodeTimeNs() / 1_000_000 + "ms");
             handler.post(new Runnable() {
                 @Override
                 public void run() {
@@ -174,11 +251,14 @@ public class AvcRgbaCodec implements SurfaceTexture.OnFrameAvailableListener {
         Log.d(TAG, "create egl. width " + width + ", height " + height);
         mWidth = width;
         mHeight = height;
-        ByteBuffer byteBuffer = ByteBuffer.allocateDirect(width * height * 4);
-        byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-        EglCore eglCore = new EglCore();
-        OffscreenSurface offscreenSurface = new OffscreenSurface(eglCore, width, height);
+        EglCore eglCore = new EglCore(null, EglCore.FLAG_TRY_GLES3);
+        // 绘制到读取器的 FBO，pbuffer 只用来绑定上下文
+        OffscreenSurface offscreenSurface = new OffscreenSurface(eglCore, 1, 1);
         offscreenSurface.makeCurrent();
+        mPixelReader = new AsyncPixelReader(width, height, READ_DEPTH, READ_BUFFER_COUNT, eglCore.getGlVersion() >= 3);
+        // 上下翻转，glReadPixels 从底部开始读，读出来正好是正的
+        Matrix.setIdentityM(mFlipMatrix, 0);
+        Matrix.scaleM(mFlipMatrix, 0, 1f, -1f, 1f);
         int texId = GlUtil.createTextureObject(GLES11Ext.GL_TEXTURE_EXTERNAL_OES);
         mTextureProgram = TextureProgram.createTextureOES();
         SurfaceTexture surfaceTexture = new SurfaceTexture(texId);
@@ -192,17 +272,20 @@ public class AvcRgbaCodec implements SurfaceTexture.OnFrameAvailableListener {
         mOffscreenSurface = offscreenSurface;
         mSurfaceTexture = surfaceTexture;
         mTexId = texId;
-        mByteBuffer = byteBuffer;
     }
 
     private void releaseEgl() {
         Log.d(TAG, "release egl");
+        if (mEglCore == null) {
+            return;
+        }
         if (mTexId > 0) {
             GlUtil.deleteTextures(new int[]{mTexId});
             mTexId = -1;
         }
         mTextureProgram.release();
         mTextureProgram = null;
+        mPixelReader.release();
         mSurface.release();
         mSurface = null;
         mSurfaceTexture.setOnFrameAvailableListener(null);
@@ -216,50 +299,33 @@ public class AvcRgbaCodec implements SurfaceTexture.OnFrameAvailableListener {
 
     @Override
     public void onFrameAvailable(SurfaceTexture surfaceTexture) {
-        mFrames++;
+        int frame = mRenderingFrame;
         if (VERBOSE) {
-            Log.v(TAG, "onFrameAvailable: " + mFrames);
-        }
-        synchronized (mLock) {
-            mLock.notify();
-            surfaceTexture.updateTexImage();
-            surfaceTexture.getTransformMatrix(mTransformMatrix);
-            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
-            mTextureProgram.drawFrame(mTexId, mTransformMatrix, GlUtil.IDENTITY_MATRIX);
-            // 保存第 ? 帧图像
-            if (mFrames % 100 == 0) {
-                ByteBuffer byteBuffer = mByteBuffer;
-                byteBuffer.clear();
-                GLES20.glReadPixels(0, 0, mWidth, mHeight, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, byteBuffer);
-                String filePath = new File(mDestDir, mFrames + ".png").getAbsolutePath();
-                saveFrame(filePath);
-            }
-            lockWait(mLock);
+            Log.v(TAG, "onFrameAvailable: " + frame);
         }
+        surfaceTexture.updateTexImage();
+        surfaceTexture.getTransformMatrix(mTransformMatrix);
+        mFrameLatched.release();
+        mPixelReader.beginFrame();
+        mTextureProgram.drawFrame(mTexId, mTransformMatrix, mFlipMatrix);
+        mPixelReader.endFrame(frame);
+        mPixelReader.poll();
     }
 
-    private void lockWait(Object lock) {
+    /**
+     * 等 GL 线程锁定刚渲染的帧，保存跟不上时在这里等。GL 线程出错或者帧丢失时超时退出，不会一直卡住
+     */
+    private void awaitFrameLatched() throws IOException {
+        boolean latched;
         try {
-            lock.wait();
+            latched = mFrameLatched.tryAcquire(FRAME_LATCH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
         } catch (InterruptedException e) {
-            // ignored
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting frame " + mRenderingFrame);
         }
-    }
-
-    private void saveFrame(String filePath) {
-        try (OutputStream fos = new FileOutputStream(filePath)) {
-            Matrix matrix = new Matrix();
-            matrix.preScale(1f, -1f);
-            Bitmap bmp = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
-            mByteBuffer.rewind();
-            bmp.copyPixelsFromBuffer(mByteBuffer);
-            Bitmap scaled = Bitmap.createBitmap(bmp, 0, 0, bmp.getWidth(), bmp.getHeight(), matrix, false);
-            bmp.recycle();
-            scaled.compress(Bitmap.CompressFormat.PNG, 100, fos);
-        } catch (IOException e) {
-            Log.e(TAG, "saveFrame: ", e);
+        if (!latched) {
+            throw new IOException("Wait frame " + mRenderingFrame + " timed out");
         }
-        Log.d(TAG, "Saved " + mWidth + "x" + mHeight + " frame as " + filePath);
     }
 
 }
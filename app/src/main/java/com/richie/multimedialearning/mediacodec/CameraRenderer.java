@@ -14,6 +14,7 @@ import android.util.Log;
 import android.widget.Toast;
 
 import com.richie.multimedialearning.opengl.CameraHolder;
+import com.richie.multimedialearning.opengl.GlBitmapReader;
 import com.richie.multimedialearning.opengl.GLESUtils;
 import com.richie.multimedialearning.utils.BitmapUtils;
 import com.richie.multimedialearning.utils.FileUtils;
@@ -44,6 +45,7 @@ public class CameraRenderer implements GLSurfaceView.Renderer {
     private Activity mActivity;
     private GLSurfaceView mGlSurfaceView;
     private TextureProgram mTextureProgram;
+    private GlBitmapReader mBitmapReader;
     private volatile boolean mCallTakePhoto;
     private volatile CameraSurfaceCodec mCameraSurfaceCodec;
 
@@ -59,6 +61,7 @@ public class CameraRenderer implements GLSurfaceView.Renderer {
         GlUtil.logVersionInfo();
         GLES20.glClearColor(1.0f, 1.0f, 1.0f, 1.0f);
         mTextureProgram = TextureProgram.createTextureOES();
+        mBitmapReader = new GlBitmapReader(GLESUtils.getSupportGLVersion(mActivity) >= 3);
         mTextureId = GLESUtils.createTextureObject(GLES11Ext.GL_TEXTURE_EXTERNAL_OES);
         mSurfaceTexture = new SurfaceTexture(mTextureId);
         mCameraHolder.setPreviewTexture(mSurfaceTexture);
@@ -80,6 +83,7 @@ public class CameraRenderer implements GLSurfaceView.Renderer {
         mSurfaceTexture.getTransformMatrix(mTexMatrix);
         mTextureProgram.drawFrame(mTextureId, mTexMatrix, mMvpMatrix);
         takePhoto();
+        mBitmapReader.poll();
         recordVideo();
         LimitFpsUtil.limitFrameRate(30);
     }
@@ -102,6 +106,7 @@ public class CameraRenderer implements GLSurfaceView.Renderer {
             @Override
             public void run() {
                 mTextureProgram.release();
+                mBitmapReader.release();
                 countDownLatch.countDown();
             }
         });
@@ -170,7 +175,7 @@ public class CameraRenderer implements GLSurfaceView.Renderer {
     private void takePhoto() {
         if (mCallTakePhoto) {
             mCallTakePhoto = false;
-            GLESUtils.glReadBitmap(mTextureId, mTexMatrix, GLESUtils.IDENTITY_MATRIX, mCameraHolder.getPreviewHeight(),
+            mBitmapReader.read(mTextureId, mTexMatrix, GLESUtils.IDENTITY_MATRIX, mCameraHolder.getPreviewHeight(),
                     mCameraHolder.getPreviewWidth(), mTextureProgram, new GLESUtils.OnReadBitmapListener() {
                         @Override
                         public void onReadBitmap(Bitmap bitmap) {
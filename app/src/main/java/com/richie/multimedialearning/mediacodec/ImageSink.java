@@ -0,0 +1,219 @@
+package com.richie.multimedialearning.mediacodec;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import com.richie.multimedialearning.utils.gles.AsyncPixelReader;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 图片保存阶段，几个工作线程从 {@link AsyncPixelReader} 取出读好的帧编码成图片文件
+ * <p>
+ * 帧在绘制时已经翻转，不需要再处理。Bitmap 在工作线程之间复用，尺寸变小时用 reconfigure 复用原来的内存。
+ * 像素复制到 Bitmap 之后就归还读取器的缓冲区；工作线程都在编码时没有人取帧，
+ * 读取器的缓冲区用完后 GL 线程和解码线程会等待，编码慢只会让解码变慢，不会丢帧。
+ */
+public final class ImageSink {
+    private static final String TAG = "ImageSink";
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 图片格式
+     */
+    public enum Format {
+        PNG(Bitmap.CompressFormat.PNG, ".png"),
+        JPEG(Bitmap.CompressFormat.JPEG, ".jpg"),
+        WEBP(Bitmap.CompressFormat.WEBP, ".webp");
+
+        private final Bitmap.CompressFormat mCompressFormat;
+        private final String mExtension;
+
+        Format(Bitmap.CompressFormat compressFormat, String extension) {
+            mCompressFormat = compressFormat;
+            mExtension = extension;
+        }
+    }
+
+    private final AsyncPixelReader mReader;
+    private final File mDestDir;
+    private final Format mFormat;
+    private final int mQuality;
+    private final Thread[] mWorkers;
+    // 空闲的 Bitmap，个数不超过工作线程数
+    private final ArrayDeque<Bitmap> mBitmapPool = new ArrayDeque<>();
+    private final AtomicInteger mSavedCount = new AtomicInteger();
+    private final AtomicInteger mFailedCount = new AtomicInteger();
+    private final AtomicLong mEncodeTimeNs = new AtomicLong();
+    private int mCreatedBitmaps;
+
+    /**
+     * @param reader      帧的来源
+     * @param destDir     保存的目录，文件名是帧的标记
+     * @param format      图片格式
+     * @param quality     压缩质量 0~100，PNG 忽略
+     * @param workerCount 工作线程数
+     */
+    public ImageSink(AsyncPixelReader reader, File destDir, Format format, int quality, int workerCount) {
+        mReader = reader;
+        mDestDir = destDir;
+        mFormat = format;
+        mQuality = quality;
+        mWorkers = new Thread[workerCount];
+    }
+
+    /**
+     * 启动工作线程，读取器结束后自动退出
+     */
+    public void start() {
+        for (int i = 0; i < mWorkers.length; i++) {
+            mWorkers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    drain();
+                }
+            }, "image_sink_" + i);
+            mWorkers[i].start();
+        }
+    }
+
+    /**
+     * 等所有帧保存完
+     *
+     * @return 保存的图片数
+     */
+    public int awaitFinish() {
+        for (Thread worker : mWorkers) {
+            if (worker == null) {
+                continue;
+            }
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Log.w(TAG, "awaitFinish: ", e);
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        synchronized (mBitmapPool) {
+            for (Bitmap bitmap : mBitmapPool) {
+                bitmap.recycle();
+            }
+            mBitmapPool.clear();
+            Log.d(TAG, "awaitFinish: saved " + mSavedCount.get() + ", failed " + mFailedCount.get() + ", encode time "
+                    + mEncodeTimeNs.get() / 1_000_000 + "ms, created bitmaps " + mCreatedBitmaps);
+        }
+        return mSavedCount.get();
+    }
+
+    public int getSavedCount() {
+        return mSavedCount.get();
+    }
+
+    /**
+     * @return 编码或者写文件失败的图片数
+     */
+    public int getFailedCount() {
+        return mFailedCount.get();
+    }
+
+    /**
+     * @return 所有工作线程编码和写文件的总时间
+     */
+    public long getEncodeTimeNs() {
+        return mEncodeTimeNs.get();
+    }
+
+    private void drain() {
+        while (true) {
+            AsyncPixelReader.Frame frame;
+            try {
+                frame = mReader.take();
+            } catch (InterruptedException e) {
+                Log.w(TAG, "drain: ", e);
+                return;
+            }
+            if (frame == null) {
+                return;
+            }
+            Bitmap bitmap = null;
+            boolean frameRecycled = false;
+            try {
+                bitmap = obtainBitmap(frame.getWidth(), frame.getHeight());
+                ByteBuffer data = frame.getData();
+                data.rewind();
+                bitmap.copyPixelsFromBuffer(data);
+                // 像素已经复制出来，缓冲区可以先归还
+                mReader.recycle(frame);
+                frameRecycled = true;
+                save(bitmap, new File(mDestDir, frame.getTag() + mFormat.mExtension));
+            } catch (RuntimeException e) {
+                // 一帧出错不能让工作线程退出，否则缓冲区没人归还，GL 线程和解码线程会一直等待
+                mFailedCount.incrementAndGet();
+                Log.e(TAG, "drain: frame " + frame.getTag(), e);
+            } finally {
+                if (!frameRecycled) {
+                    mReader.recycle(frame);
+                }
+                if (bitmap != null) {
+                    recycleBitmap(bitmap);
+                }
+            }
+        }
+    }
+
+    private void save(Bitmap bitmap, File file) {
+        long start = System.nanoTime();
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(file), OUTPUT_BUFFER_SIZE)) {
+            if (bitmap.compress(mFormat.mCompressFormat, mQuality, os)) {
+                mSavedCount.incrementAndGet();
+            } else {
+                mFailedCount.incrementAndGet();
+                Log.e(TAG, "save: compress failed " + file.getName());
+            }
+        } catch (IOException e) {
+            mFailedCount.incrementAndGet();
+            Log.e(TAG, "save: " + file.getName(), e);
+        }
+        mEncodeTimeNs.addAndGet(System.nanoTime() - start);
+    }
+
+    private Bitmap obtainBitmap(int width, int height) {
+        Bitmap bitmap;
+        synchronized (mBitmapPool) {
+            bitmap = mBitmapPool.poll();
+        }
+        if (bitmap != null) {
+            if (bitmap.getWidth() == width && bitmap.getHeight() == height) {
+                return bitmap;
+            }
+            if (bitmap.getAllocationByteCount() >= width * height * 4) {
+                bitmap.reconfigure(width, height, Bitmap.Config.ARGB_8888);
+                return bitmap;
+            }
+            bitmap.recycle();
+        }
+        synchronized (mBitmapPool) {
+            mCreatedBitmaps++;
+        }
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    private void recycleBitmap(Bitmap bitmap) {
+        synchronized (mBitmapPool) {
+            if (mBitmapPool.size() < mWorkers.length) {
+                mBitmapPool.offer(bitmap);
+                return;
+            }
+        }
+        bitmap.recycle();
+    }
+}
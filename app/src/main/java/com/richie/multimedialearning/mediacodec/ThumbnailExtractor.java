@@ -0,0 +1,377 @@
+package com.richie.multimedialearning.mediacodec;
+
+import android.graphics.Bitmap;
+import android.graphics.SurfaceTexture;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.opengl.Matrix;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+import android.view.Surface;
+
+import com.richie.multimedialearning.utils.gles.EglCore;
+import com.richie.multimedialearning.utils.gles.GlUtil;
+import com.richie.multimedialearning.utils.gles.OffscreenSurface;
+import com.richie.multimedialearning.utils.gles.program.TextureProgram;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * 视频缩略图提取，只解码需要的帧
+ * <p>
+ * 每个目标时间跳到关键帧，默认只解码这一个关键帧；精确模式从前一个关键帧解码到目标时间，
+ * 中间的帧不渲染。解码输出到 SurfaceTexture，用 GL 缩小绘制到离屏 Surface 再读取，
+ * 读取的数据量只有缩略图大小。不处理视频的旋转角度。
+ * <p>
+ * 在调用线程创建 EGL 环境，不能在主线程调用。
+ */
+public class ThumbnailExtractor implements SurfaceTexture.OnFrameAvailableListener {
+    private static final String TAG = "ThumbnailExtractor";
+    private static final long TIMEOUT_US = 10_000;
+    private static final long FRAME_TIMEOUT_MS = 500;
+    // 连续这么多次取不到输出就放弃当前目标
+    private static final int MAX_OUTPUT_TRIES = 200;
+
+    /**
+     * 缩略图回调，在调用 extract 的线程调用
+     */
+    public interface Callback {
+        /**
+         * @param index  目标时间在数组中的位置
+         * @param timeUs 实际解码的帧的时间
+         * @param bitmap 缩略图，由调用者负责回收
+         */
+        void onThumbnail(int index, long timeUs, Bitmap bitmap);
+    }
+
+    private final File mSrc;
+    private final int mMaxSize;
+    private boolean mExact;
+    private final Object mFrameLock = new Object();
+    private boolean mFrameAvailable;
+    private EglCore mEglCore;
+    private OffscreenSurface mOffscreenSurface;
+    private TextureProgram mTextureProgram;
+    private SurfaceTexture mSurfaceTexture;
+    private Surface mSurface;
+    private int mTexId;
+    private final float[] mTransformMatrix = new float[16];
+    private final float[] mFlipMatrix = new float[16];
+    private ByteBuffer mPixelBuffer;
+    private int mThumbWidth;
+    private int mThumbHeight;
+    private int mDecodedFrames;
+
+    /**
+     * @param src     视频文件
+     * @param maxSize 缩略图长边的最大像素数，视频更小时不放大
+     */
+    public ThumbnailExtractor(File src, int maxSize) {
+        mSrc = src;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * 精确模式，解码到不早于目标时间的第一帧，否则只解码离目标最近的关键帧
+     *
+     * @param exact
+     * @return
+     */
+    public ThumbnailExtractor setExact(boolean exact) {
+        mExact = exact;
+        return this;
+    }
+
+    /**
+     * 均匀分布的时间，取每一段的中间，避开开头的黑帧
+     *
+     * @param durationUs 视频时长
+     * @param count      个数
+     * @return
+     */
+    public static long[] evenlySpacedTimes(long durationUs, int count) {
+        long[] times = new long[count];
+        for (int i = 0; i < count; i++) {
+            times[i] = (2 * i + 1) * durationUs / (2L * count);
+        }
+        return times;
+    }
+
+    /**
+     * 提取均匀分布的缩略图
+     *
+     * @param count    个数
+     * @param callback
+     * @throws IOException
+     */
+    public void extract(int count, Callback callback) throws IOException {
+        extract(null, count, callback);
+    }
+
+    /**
+     * 提取指定时间的缩略图，按时间顺序解码和回调，每个目标最多回调一次
+     *
+     * @param timesUs  目标时间
+     * @param callback
+     * @throws IOException
+     */
+    public void extract(long[] timesUs, Callback callback) throws IOException {
+        extract(timesUs, timesUs.length, callback);
+    }
+
+    private void extract(long[] timesUs, int count, Callback callback) throws IOException {
+        long start = System.nanoTime();
+        mDecodedFrames = 0;
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        HandlerThread handlerThread = null;
+        try {
+            extractor.setDataSource(mSrc.getAbsolutePath());
+            MediaFormat mediaFormat = selectVideoTrack(extractor);
+            if (mediaFormat == null) {
+                Log.e(TAG, "Invalid file with video track.");
+                return;
+            }
+            if (timesUs == null) {
+                long durationUs = mediaFormat.containsKey(MediaFormat.KEY_DURATION)
+                        ? mediaFormat.getLong(MediaFormat.KEY_DURATION) : 0;
+                timesUs = evenlySpacedTimes(durationUs, count);
+            }
+            int width = mediaFormat.getInteger(MediaFormat.KEY_WIDTH);
+            int height = mediaFormat.getInteger(MediaFormat.KEY_HEIGHT);
+            handlerThread = new HandlerThread("thumbnail_frame");
+            handlerThread.start();
+            createEgl(width, height, new Handler(handlerThread.getLooper()));
+
+            codec = MediaCodec.createDecoderByType(mediaFormat.getString(MediaFormat.KEY_MIME));
+            codec.configure(mediaFormat, mSurface, null, 0);
+            codec.start();
+            extractTargets(extractor, codec, timesUs, callback);
+        } finally {
+            if (codec != null) {
+                codec.stop();
+                codec.release();
+            }
+            if (mEglCore != null) {
+                releaseEgl();
+            }
+            if (handlerThread != null) {
+                handlerThread.quitSafely();
+            }
+            extractor.release();
+            Log.i(TAG, "extract: " + count + " thumbnails of " + mSrc.getName() + ", decoded " + mDecodedFrames
+                    + " frames in " + (System.nanoTime() - start) / 1_000_000 + "ms, exact " + mExact);
+        }
+    }
+
+    private static MediaFormat selectVideoTrack(MediaExtractor extractor) {
+        for (int i = 0, count = extractor.getTrackCount(); i < count; i++) {
+            MediaFormat format = extractor.getTrackFormat(i);
+            String mime = format.getString(MediaFormat.KEY_MIME);
+            if (mime.startsWith("video/")) {
+                extractor.selectTrack(i);
+                return format;
+            }
+        }
+        return null;
+    }
+
+    private void extractTargets(MediaExtractor extractor, MediaCodec codec, final long[] timesUs, Callback callback) {
+        // 按时间排序，跳转总是向前，落在同一个关键帧的目标只解码一次
+        Integer[] order = new Integer[timesUs.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(timesUs[a], timesUs[b]);
+            }
+        });
+        MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        // 上一帧的像素留在 mPixelBuffer 里，同一个关键帧的目标直接用它创建新的 Bitmap，不碰交给调用者的 Bitmap
+        long lastFrameTimeUs = -1;
+        boolean fed = false;
+        for (int index : order) {
+            long targetUs = Math.max(timesUs[index], 0);
+            extractor.seekTo(targetUs, mExact ? MediaExtractor.SEEK_TO_PREVIOUS_SYNC : MediaExtractor.SEEK_TO_CLOSEST_SYNC);
+            long syncTimeUs = extractor.getSampleTime();
+            if (syncTimeUs < 0) {
+                Log.w(TAG, "extractTargets: no sample at " + targetUs);
+                continue;
+            }
+            if (!mExact) {
+                targetUs = syncTimeUs;
+            }
+            if (!mExact && lastFrameTimeUs >= 0 && syncTimeUs == lastFrameTimeUs) {
+                callback.onThumbnail(index, lastFrameTimeUs, createBitmap());
+                continue;
+            }
+            if (fed) {
+                codec.flush();
+            }
+            fed = true;
+            lastFrameTimeUs = -1;
+            if (!decodeFrame(extractor, codec, info, targetUs)) {
+                Log.w(TAG, "extractTargets: no frame at " + targetUs);
+                continue;
+            }
+            if (renderFrame()) {
+                lastFrameTimeUs = info.presentationTimeUs;
+                callback.onThumbnail(index, lastFrameTimeUs, createBitmap());
+            }
+        }
+    }
+
+    /**
+     * 从当前位置解码到不早于目标时间的第一帧，只渲染这一帧。只要关键帧时送入一帧就结束输入，解码器会立即输出
+     *
+     * @return 是否渲染了一帧
+     */
+    private boolean decodeFrame(MediaExtractor extractor, MediaCodec codec, MediaCodec.BufferInfo info, long targetUs) {
+        boolean inputDone = false;
+        int queued = 0;
+        int tries = 0;
+        while (tries++ < MAX_OUTPUT_TRIES) {
+            if (!inputDone) {
+                int inIndex = codec.dequeueInputBuffer(TIMEOUT_US);
+                if (inIndex >= 0) {
+                    ByteBuffer inputBuffer = codec.getInputBuffer(inIndex);
+                    int size = extractor.readSampleData(inputBuffer, 0);
+                    if (size < 0 || (!mExact && queued > 0)) {
+                        codec.queueInputBuffer(inIndex, 0, 0, 0L, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                        inputDone = true;
+                    } else {
+                        codec.queueInputBuffer(inIndex, 0, size, extractor.getSampleTime(), 0);
+                        extractor.advance();
+                        queued++;
+                    }
+                }
+            }
+            int outIndex = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+            if (outIndex >= 0) {
+                tries = 0;
+                mDecodedFrames++;
+                boolean render = info.size > 0 && info.presentationTimeUs >= targetUs;
+                if (render) {
+                    // 上一次等待超时后才到达的帧不能算作这一帧
+                    synchronized (mFrameLock) {
+                        mFrameAvailable = false;
+                    }
+                }
+                codec.releaseOutputBuffer(outIndex, render);
+                if (render) {
+                    return true;
+                }
+                if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    return false;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void createEgl(int width, int height, Handler handler) {
+        float scale = Math.min(1f, (float) mMaxSize / Math.max(width, height));
+        // 宽高取偶数
+        mThumbWidth = Math.max(2, Math.round(width * scale) & ~1);
+        mThumbHeight = Math.max(2, Math.round(height * scale) & ~1);
+        Log.d(TAG, "create egl. video " + width + "x" + height + ", thumbnail " + mThumbWidth + "x" + mThumbHeight);
+        mPixelBuffer = ByteBuffer.allocateDirect(mThumbWidth * mThumbHeight * 4);
+        mPixelBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        mEglCore = new EglCore();
+        mOffscreenSurface = new OffscreenSurface(mEglCore, mThumbWidth, mThumbHeight);
+        mOffscreenSurface.makeCurrent();
+        mTexId = GlUtil.createTextureObject(GLES11Ext.GL_TEXTURE_EXTERNAL_OES);
+        mTextureProgram = TextureProgram.createTextureOES();
+        mSurfaceTexture = new SurfaceTexture(mTexId);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            mSurfaceTexture.setOnFrameAvailableListener(this, handler);
+        } else {
+            mSurfaceTexture.setOnFrameAvailableListener(this);
+        }
+        mSurface = new Surface(mSurfaceTexture);
+        // 上下翻转，glReadPixels 从底部开始读，读出来正好是正的
+        Matrix.setIdentityM(mFlipMatrix, 0);
+        Matrix.scaleM(mFlipMatrix, 0, 1f, -1f, 1f);
+    }
+
+    private void releaseEgl() {
+        Log.d(TAG, "release egl");
+        GlUtil.deleteTextures(new int[]{mTexId});
+        mTextureProgram.release();
+        mTextureProgram = null;
+        mSurface.release();
+        mSurface = null;
+        mSurfaceTexture.setOnFrameAvailableListener(null);
+        mSurfaceTexture.release();
+        mSurfaceTexture = null;
+        mOffscreenSurface.release();
+        mOffscreenSurface = null;
+        mEglCore.release();
+        mEglCore = null;
+    }
+
+    /**
+     * 等解码的帧到达 SurfaceTexture，缩小绘制并读取到 mPixelBuffer
+     *
+     * @return 是否读取成功，超时返回 false
+     */
+    private boolean renderFrame() {
+        synchronized (mFrameLock) {
+            long deadline = System.currentTimeMillis() + FRAME_TIMEOUT_MS;
+            while (!mFrameAvailable) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    Log.w(TAG, "renderFrame: frame wait timed out");
+                    return false;
+                }
+                try {
+                    mFrameLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            mFrameAvailable = false;
+        }
+        mSurfaceTexture.updateTexImage();
+        mSurfaceTexture.getTransformMatrix(mTransformMatrix);
+        GLES20.glViewport(0, 0, mThumbWidth, mThumbHeight);
+        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
+        mTextureProgram.drawFrame(mTexId, mTransformMatrix, mFlipMatrix);
+        ByteBuffer pixelBuffer = mPixelBuffer;
+        pixelBuffer.clear();
+        GLES20.glReadPixels(0, 0, mThumbWidth, mThumbHeight, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, pixelBuffer);
+        return true;
+    }
+
+    /**
+     * 用最近一次读取的像素创建 Bitmap，每次都是新的，由调用者负责回收
+     */
+    private Bitmap createBitmap() {
+        ByteBuffer pixelBuffer = mPixelBuffer;
+        pixelBuffer.rewind();
+        Bitmap bitmap = Bitmap.createBitmap(mThumbWidth, mThumbHeight, Bitmap.Config.ARGB_8888);
+        bitmap.copyPixelsFromBuffer(pixelBuffer);
+        return bitmap;
+    }
+
+    @Override
+    public void onFrameAvailable(SurfaceTexture surfaceTexture) {
+        synchronized (mFrameLock) {
+            mFrameAvailable = true;
+            mFrameLock.notifyAll();
+        }
+    }
+}
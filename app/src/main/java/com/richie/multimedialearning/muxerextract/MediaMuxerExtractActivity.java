@@ -14,6 +14,7 @@ import com.richie.easylog.ILogger;
 import com.richie.easylog.LoggerFactory;
 import com.richie.multimedialearning.R;
 import com.richie.multimedialearning.utils.FileUtils;
+import com.richie.multimedialearning.utils.mp4.Mp4Utils;
 
 import java.io.File;
 import java.io.IOException;
@@ -29,6 +30,8 @@ public class MediaMuxerExtractActivity extends AppCompatActivity implements View
     public static final String ASSETS_DIR = "assets/";
     public static final String OUTPUT_VIDEO = ASSETS_DIR + "output_video.mp4";
     public static final String OUTPUT_AUDIO = ASSETS_DIR + "output_audio.mp3";
+    public static final String OUTPUT_AAC = ASSETS_DIR + "output_audio.aac";
+    public static final String OUTPUT_H264 = ASSETS_DIR + "output_video.h264";
     private static final String VIDEO_SOURCE = ASSETS_DIR + "sample.mp4";
     private final ILogger logger = LoggerFactory.getLogger(MediaMuxerExtractActivity.class);
 
@@ -39,6 +42,8 @@ public class MediaMuxerExtractActivity extends AppCompatActivity implements View
         findViewById(R.id.btn_extract_video).setOnClickListener(this);
         findViewById(R.id.btn_extract_audio).setOnClickListener(this);
         findViewById(R.id.btn_mix_media).setOnClickListener(this);
+        findViewById(R.id.btn_extract_aac).setOnClickListener(this);
+        findViewById(R.id.btn_extract_h264).setOnClickListener(this);
     }
 
     @Override
@@ -53,6 +58,12 @@ public class MediaMuxerExtractActivity extends AppCompatActivity implements View
             case R.id.btn_mix_media:
                 mixVideo();
                 break;
+            case R.id.btn_extract_aac:
+                extractAacStream();
+                break;
+            case R.id.btn_extract_h264:
+                extractH264Stream();
+                break;
             default:
         }
     }
@@ -358,4 +369,36 @@ public class MediaMuxerExtractActivity extends AppCompatActivity implements View
         }
     }
 
+    // 直接解析 MP4 分离音频轨，不经过 MediaExtractor，输出带 ADTS 头的 output_audio.aac，可以直接播放
+    private void extractAacStream() {
+        logger.info("extractAacStream() start");
+        File fileDir = FileUtils.getFileDir(this);
+        File outFile = new File(fileDir, OUTPUT_AAC);
+        try {
+            long start = System.nanoTime();
+            int frames = Mp4Utils.extractAac(new File(fileDir, VIDEO_SOURCE), outFile);
+            logger.info("extract aac finish, path:{}, frames:{}, cost:{}ms", outFile.getAbsolutePath(), frames,
+                    (System.nanoTime() - start) / 1_000_000);
+            Toast.makeText(this, "分离 AAC 完成", Toast.LENGTH_SHORT).show();
+        } catch (IOException e) {
+            logger.error(e);
+        }
+    }
+
+    // 直接解析 MP4 分离视频轨，不经过 MediaExtractor，输出以参数集开头的 Annex B 裸流 output_video.h264
+    private void extractH264Stream() {
+        logger.info("extractH264Stream() start");
+        File fileDir = FileUtils.getFileDir(this);
+        File outFile = new File(fileDir, OUTPUT_H264);
+        try {
+            long start = System.nanoTime();
+            int frames = Mp4Utils.extractAnnexB(new File(fileDir, VIDEO_SOURCE), outFile);
+            logger.info("extract h264 finish, path:{}, frames:{}, cost:{}ms", outFile.getAbsolutePath(), frames,
+                    (System.nanoTime() - start) / 1_000_000);
+            Toast.makeText(this, "分离 H.264 完成", Toast.LENGTH_SHORT).show();
+        } catch (IOException e) {
+            logger.error(e);
+        }
+    }
+
 }
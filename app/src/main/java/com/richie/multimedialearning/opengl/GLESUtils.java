@@ -16,7 +16,6 @@ import com.richie.multimedialearning.utils.gles.program.TextureProgram;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
-import java.nio.IntBuffer;
 
 import javax.microedition.khronos.opengles.GL10;
 
@@ -303,6 +302,8 @@ public final class GLESUtils {
 
     /**
      * glReadPixels, using FBO, the output is bitmap.
+     * <p>
+     * Creates and deletes the FBO on every call, use {@link GlBitmapReader} for continuous reading.
      *
      * @param textureId      texture ID
      * @param texMatrix      texture matrix, primarily intended for use with SurfaceTexture.
@@ -326,31 +327,22 @@ public final class GLESUtils {
         int[] originalViewport = new int[4];
         GLES20.glGetIntegerv(GLES20.GL_VIEWPORT, originalViewport, 0);
         GLES20.glViewport(0, 0, texWidth, texHeight);
-        textureProgram.drawFrame(textureId, texMatrix, mvpMatrix);
-
-        final int textureSize = texWidth * texHeight;
-        final IntBuffer pixelBuffer = IntBuffer.allocate(textureSize);
+        // flip vertically while drawing, the pixels read back are top-down RGBA, the memory layout of ARGB_8888 bitmap
+        float[] flipMvp = new float[16];
+        Matrix.setIdentityM(flipMvp, 0);
+        Matrix.scaleM(flipMvp, 0, 1f, -1f, 1f);
+        Matrix.multiplyMM(flipMvp, 0, flipMvp.clone(), 0, mvpMatrix, 0);
+        textureProgram.drawFrame(textureId, texMatrix, flipMvp);
+
+        final ByteBuffer pixelBuffer = ByteBuffer.allocateDirect(texWidth * texHeight * 4).order(ByteOrder.LITTLE_ENDIAN);
         GLES20.glReadPixels(0, 0, texWidth, texHeight, GL10.GL_RGBA, GL10.GL_UNSIGNED_BYTE, pixelBuffer);
-        GLES20.glFinish();
 
         AsyncTask.execute(new Runnable() {
             @Override
             public void run() {
-                int[] bitmapSource = new int[textureSize];
-                int offset1, offset2;
-                int[] data = pixelBuffer.array();
-                for (int i = 0; i < texHeight; i++) {
-                    offset1 = i * texWidth;
-                    offset2 = (texHeight - i - 1) * texWidth;
-                    for (int j = 0; j < texWidth; j++) {
-                        int texturePixel = data[offset1 + j];
-                        int blue = (texturePixel >> 16) & 0x000000ff;
-                        int red = (texturePixel << 16) & 0x00ff0000;
-                        int pixel = (texturePixel & 0xff00ff00) | red | blue | 0xff000000;
-                        bitmapSource[offset2 + j] = pixel;
-                    }
-                }
-                Bitmap bitmap = Bitmap.createBitmap(bitmapSource, texWidth, texHeight, Bitmap.Config.ARGB_8888);
+                Bitmap bitmap = Bitmap.createBitmap(texWidth, texHeight, Bitmap.Config.ARGB_8888);
+                pixelBuffer.rewind();
+                bitmap.copyPixelsFromBuffer(pixelBuffer);
                 if (listener != null) {
                     listener.onReadBitmap(bitmap);
                 }
@@ -0,0 +1,150 @@
+package com.richie.multimedialearning.opengl;
+
+import android.graphics.Bitmap;
+import android.opengl.Matrix;
+import android.util.Log;
+
+import com.richie.multimedialearning.utils.gles.AsyncPixelReader;
+import com.richie.multimedialearning.utils.gles.program.TextureProgram;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 连续读取纹理为 Bitmap，用于连拍
+ * <p>
+ * 每种尺寸保留一组 FBO 和像素缓冲区（{@link AsyncPixelReader}），不再每次创建和删除。
+ * 绘制时上下翻转，读出来的 RGBA 正好是 Bitmap 的内存格式，直接复制到 Bitmap，不需要在 CPU 上逐像素转换。
+ * GLES3 上读取是异步的，需要每帧调用 {@link #poll()} 交付完成的读取。Bitmap 在每种尺寸自己的线程创建和回调。
+ * <p>
+ * 除了回调，所有方法都在 GL 线程调用。
+ */
+public final class GlBitmapReader {
+    private static final String TAG = "GlBitmapReader";
+    // 保留的尺寸个数，超过时释放最久没有使用的
+    private static final int MAX_TARGETS = 2;
+    private static final int READ_DEPTH = 2;
+    private static final int READ_BUFFER_COUNT = 3;
+    private static final float[] FLIP_MATRIX = new float[16];
+
+    static {
+        Matrix.setIdentityM(FLIP_MATRIX, 0);
+        Matrix.scaleM(FLIP_MATRIX, 0, 1f, -1f, 1f);
+    }
+
+    private final boolean mGles3;
+    private final Map<Long, AsyncPixelReader> mReaders = new LinkedHashMap<>(MAX_TARGETS, 0.75f, true);
+    private final Map<Long, GLESUtils.OnReadBitmapListener> mListeners = new ConcurrentHashMap<>();
+    private final float[] mMvpMatrix = new float[16];
+    private long mNextTag;
+
+    /**
+     * @param gles3 当前上下文是否是 GLES3，是的话用 PBO 异步读取
+     */
+    public GlBitmapReader(boolean gles3) {
+        mGles3 = gles3;
+    }
+
+    /**
+     * 绘制纹理并开始读取，读完后在后台线程回调
+     *
+     * @param textureId      texture ID
+     * @param texMatrix      texture matrix
+     * @param mvpMatrix      MVP matrix, usually identity matrix
+     * @param width          width of bitmap
+     * @param height         height of bitmap
+     * @param textureProgram texture oes or 2d texture
+     * @param listener       callback when bitmap is available
+     */
+    public void read(int textureId, float[] texMatrix, float[] mvpMatrix, int width, int height,
+                     TextureProgram textureProgram, GLESUtils.OnReadBitmapListener listener) {
+        AsyncPixelReader reader = obtainReader(width, height);
+        long tag = mNextTag++;
+        mListeners.put(tag, listener);
+        Matrix.multiplyMM(mMvpMatrix, 0, FLIP_MATRIX, 0, mvpMatrix, 0);
+        reader.beginFrame();
+        textureProgram.drawFrame(textureId, texMatrix, mMvpMatrix);
+        reader.endFrame(tag);
+        reader.poll();
+    }
+
+    /**
+     * 交付 GPU 已经完成的读取，每帧调用
+     */
+    public void poll() {
+        for (AsyncPixelReader reader : mReaders.values()) {
+            reader.poll();
+        }
+    }
+
+    /**
+     * 完成所有读取并释放 GL 资源
+     */
+    public void release() {
+        for (AsyncPixelReader reader : mReaders.values()) {
+            finishReader(reader);
+        }
+        mReaders.clear();
+    }
+
+    private AsyncPixelReader obtainReader(int width, int height) {
+        long key = (long) width << 32 | height;
+        AsyncPixelReader reader = mReaders.get(key);
+        if (reader != null) {
+            return reader;
+        }
+        if (mReaders.size() >= MAX_TARGETS) {
+            Iterator<AsyncPixelReader> iterator = mReaders.values().iterator();
+            finishReader(iterator.next());
+            iterator.remove();
+        }
+        reader = new AsyncPixelReader(width, height, READ_DEPTH, READ_BUFFER_COUNT, mGles3);
+        mReaders.put(key, reader);
+        new Thread(new DeliverRunnable(reader), TAG + "_" + width + "x" + height).start();
+        return reader;
+    }
+
+    /**
+     * 交付剩下的帧，回调线程取完之后自己退出
+     */
+    private static void finishReader(AsyncPixelReader reader) {
+        reader.finish();
+        reader.release();
+    }
+
+    private final class DeliverRunnable implements Runnable {
+        private final AsyncPixelReader mReader;
+
+        DeliverRunnable(AsyncPixelReader reader) {
+            mReader = reader;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                AsyncPixelReader.Frame frame;
+                try {
+                    frame = mReader.take();
+                } catch (InterruptedException e) {
+                    Log.w(TAG, "run: ", e);
+                    return;
+                }
+                if (frame == null) {
+                    return;
+                }
+                Bitmap bitmap = Bitmap.createBitmap(frame.getWidth(), frame.getHeight(), Bitmap.Config.ARGB_8888);
+                ByteBuffer data = frame.getData();
+                data.rewind();
+                bitmap.copyPixelsFromBuffer(data);
+                mReader.recycle(frame);
+                GLESUtils.OnReadBitmapListener listener = mListeners.remove(frame.getTag());
+                if (listener != null) {
+                    listener.onReadBitmap(bitmap);
+                }
+            }
+        }
+    }
+}
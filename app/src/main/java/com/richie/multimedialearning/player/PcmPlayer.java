@@ -8,6 +8,9 @@ import android.os.HandlerThread;
 import android.os.Process;
 import android.util.Log;
 
+import com.richie.multimedialearning.media.audio.Resampler;
+import com.richie.multimedialearning.utils.ConvertUtils;
+
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -39,10 +42,21 @@ public class PcmPlayer extends BaseMediaPlayer {
     private float mAudioVolume = 1.0f;
     // 缓冲区字节大小
     private int mBufferSizeInBytes;
+    // 数据采样率与设备输出采样率不同时，先重采样到设备采样率，避免系统混音器再做一次
+    private Resampler mResampler;
+    private short[] mResampleInBuf;
+    private short[] mResampleOutBuf;
 
     public PcmPlayer() {
+        this(AUDIO_SAMPLE_RATE);
+    }
+
+    /**
+     * @param sampleRate 数据的采样率，单声道 16 位
+     */
+    public PcmPlayer(int sampleRate) {
         AudioParam audioParam = new AudioParam();
-        audioParam.mFrequency = AUDIO_SAMPLE_RATE;
+        audioParam.mFrequency = sampleRate;
         audioParam.mChannel = AUDIO_CHANNEL;
         audioParam.mSampleBit = AUDIO_ENCODING;
         mAudioParam = audioParam;
@@ -53,11 +67,26 @@ public class PcmPlayer extends BaseMediaPlayer {
         if (mAudioTrack != null) {
             mAudioTrack.release();
         }
+        int outSampleRate = AudioTrack.getNativeOutputSampleRate(AudioManager.STREAM_MUSIC);
+        if (outSampleRate <= 0) {
+            outSampleRate = mAudioParam.mFrequency;
+        }
         mBufferSizeInBytes = AudioTrack.getMinBufferSize(mAudioParam.mFrequency,
                 mAudioParam.mChannel, mAudioParam.mSampleBit);
-        Log.i(TAG, "prepareAsync: bufferSize:" + mBufferSizeInBytes);
-        mAudioTrack = new AudioTrack(AudioManager.STREAM_MUSIC, mAudioParam.mFrequency,
-                mAudioParam.mChannel, mAudioParam.mSampleBit, mBufferSizeInBytes, AudioTrack.MODE_STREAM);
+        int trackBufferSize = AudioTrack.getMinBufferSize(outSampleRate,
+                mAudioParam.mChannel, mAudioParam.mSampleBit);
+        Log.i(TAG, "prepareAsync: bufferSize:" + mBufferSizeInBytes + ", sampleRate:" + mAudioParam.mFrequency
+                + ", outSampleRate:" + outSampleRate);
+        if (outSampleRate != mAudioParam.mFrequency) {
+            int maxInputFrames = mBufferSizeInBytes / 2;
+            mResampler = new Resampler(mAudioParam.mFrequency, outSampleRate, 1, Resampler.Quality.MEDIUM, maxInputFrames);
+            mResampleInBuf = new short[maxInputFrames];
+            mResampleOutBuf = new short[mResampler.getMaxOutputFrames(maxInputFrames)];
+        } else {
+            mResampler = null;
+        }
+        mAudioTrack = new AudioTrack(AudioManager.STREAM_MUSIC, outSampleRate,
+                mAudioParam.mChannel, mAudioParam.mSampleBit, trackBufferSize, AudioTrack.MODE_STREAM);
         setVolume(mAudioVolume);
 
         if (AudioTrack.STATE_INITIALIZED != mAudioTrack.getState()) {
@@ -133,6 +162,7 @@ public class PcmPlayer extends BaseMediaPlayer {
             public void run() {
                 int length = data.length;
                 if (length == 0) {
+                    drainResampler();
                     mIsPlaying = false;
                     mPlayState = STATE_COMPLETED;
                     notifyOnCompletion();
@@ -143,15 +173,19 @@ public class PcmPlayer extends BaseMediaPlayer {
                     mPlayState = STATE_STARTED;
                     mIsPlaying = true;
                     try {
-                        int segment;
-                        if (length % mBufferSizeInBytes == 0) {
-                            segment = length / mBufferSizeInBytes;
+                        if (mResampler != null) {
+                            writeResampled(data);
                         } else {
-                            segment = length / mBufferSizeInBytes + 1;
-                        }
-                        for (int i = 0; i < segment; i++) {
-                            mAudioTrack.write(data, i * mBufferSizeInBytes,
-                                    i == segment - 1 ? length % mBufferSizeInBytes : mBufferSizeInBytes);
+                            int segment;
+                            if (length % mBufferSizeInBytes == 0) {
+                                segment = length / mBufferSizeInBytes;
+                            } else {
+                                segment = length / mBufferSizeInBytes + 1;
+                            }
+                            for (int i = 0; i < segment; i++) {
+                                mAudioTrack.write(data, i * mBufferSizeInBytes,
+                                        i == segment - 1 ? length % mBufferSizeInBytes : mBufferSizeInBytes);
+                            }
                         }
                         mDataQueue.remove(data);
                         mPlayOffset.set(mPlayOffset.get() + length);
@@ -165,6 +199,33 @@ public class PcmPlayer extends BaseMediaPlayer {
         });
     }
 
+    private void writeResampled(byte[] data) {
+        int totalFrames = data.length / 2;
+        int maxInputFrames = mResampleInBuf.length;
+        for (int frame = 0; frame < totalFrames; frame += maxInputFrames) {
+            int frames = Math.min(maxInputFrames, totalFrames - frame);
+            ConvertUtils.pcm16ToShorts(data, frame * 2, mResampleInBuf, 0, frames);
+            int outFrames = mResampler.process(mResampleInBuf, 0, frames, mResampleOutBuf, 0, mResampleOutBuf.length);
+            mAudioTrack.write(mResampleOutBuf, 0, outFrames);
+        }
+    }
+
+    /**
+     * 数据结束，写入重采样滤波器中剩余的尾部
+     */
+    private void drainResampler() {
+        if (mResampler == null || mAudioTrack == null) {
+            return;
+        }
+        try {
+            int outFrames = mResampler.flush(mResampleOutBuf, 0, mResampleOutBuf.length);
+            mAudioTrack.write(mResampleOutBuf, 0, outFrames);
+        } catch (Exception e) {
+            Log.e(TAG, "drainResampler: ", e);
+            notifyOnError(WRITE_ERROR, "write error");
+        }
+    }
+
     @Override
     public void start() {
         playQueue();
@@ -174,6 +235,16 @@ public class PcmPlayer extends BaseMediaPlayer {
     public void stop() {
         if (mPlayerHandler != null) {
             mPlayerHandler.removeCallbacksAndMessages(null);
+            // 重采样器只在播放线程使用，排在正在执行的写入之后清空
+            final Resampler resampler = mResampler;
+            if (resampler != null) {
+                mPlayerHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        resampler.reset();
+                    }
+                });
+            }
         }
         reset();
         if (mAudioTrack != null) {
@@ -7,22 +7,384 @@ import java.nio.ByteOrder;
 
 /**
  * @author Richie on 2018.11.26
+ * <p>
+ * PCM 批量转换方法都复用调用方的数组或 ByteBuffer，不分配内存。主循环按 4 个采样点展开，便于 JIT 向量化。
+ * 字节数组中的 PCM 数据均为小端序。
  */
 public class ConvertUtils {
+    private static final float SHORT_SCALE = 1.0f / 32768;
+    private static final float INT24_SCALE = 1.0f / 8388608;
 
     private ConvertUtils() {
     }
 
     public static int fromByteArrayToInt(byte[] bytes) {
-        return ByteBuffer.wrap(bytes)
-                .order(ByteOrder.LITTLE_ENDIAN)
-                .getInt();
+        return (bytes[0] & 0xFF) | (bytes[1] & 0xFF) << 8 | (bytes[2] & 0xFF) << 16 | bytes[3] << 24;
     }
 
     public static short fromByteArrayToShort(byte[] bytes) {
-        return ByteBuffer.wrap(bytes)
-                .order(ByteOrder.LITTLE_ENDIAN)
-                .getShort();
+        return (short) ((bytes[0] & 0xFF) | bytes[1] << 8);
+    }
+
+    /**
+     * 16 位 PCM 字节数组转为 short 数组
+     *
+     * @param src       字节数组
+     * @param srcOffset 字节偏移
+     * @param dst       目标数组
+     * @param dstOffset 目标偏移
+     * @param count     采样点数
+     */
+    public static void pcm16ToShorts(byte[] src, int srcOffset, short[] dst, int dstOffset, int count) {
+        int i = 0;
+        int s = srcOffset;
+        int d = dstOffset;
+        for (int end = count & ~3; i < end; i += 4, s += 8, d += 4) {
+            dst[d] = (short) ((src[s] & 0xFF) | src[s + 1] << 8);
+            dst[d + 1] = (short) ((src[s + 2] & 0xFF) | src[s + 3] << 8);
+            dst[d + 2] = (short) ((src[s + 4] & 0xFF) | src[s + 5] << 8);
+            dst[d + 3] = (short) ((src[s + 6] & 0xFF) | src[s + 7] << 8);
+        }
+        for (; i < count; i++, s += 2, d++) {
+            dst[d] = (short) ((src[s] & 0xFF) | src[s + 1] << 8);
+        }
+    }
+
+    /**
+     * short 数组转为 16 位 PCM 字节数组
+     *
+     * @param src       源数组
+     * @param srcOffset 源偏移
+     * @param dst       目标字节数组
+     * @param dstOffset 字节偏移
+     * @param count     采样点数
+     */
+    public static void shortsToPcm16(short[] src, int srcOffset, byte[] dst, int dstOffset, int count) {
+        int i = 0;
+        int s = srcOffset;
+        int d = dstOffset;
+        for (int end = count & ~3; i < end; i += 4, s += 4, d += 8) {
+            short v0 = src[s];
+            short v1 = src[s + 1];
+            short v2 = src[s + 2];
+            short v3 = src[s + 3];
+            dst[d] = (byte) v0;
+            dst[d + 1] = (byte) (v0 >> 8);
+            dst[d + 2] = (byte) v1;
+            dst[d + 3] = (byte) (v1 >> 8);
+            dst[d + 4] = (byte) v2;
+            dst[d + 5] = (byte) (v2 >> 8);
+            dst[d + 6] = (byte) v3;
+            dst[d + 7] = (byte) (v3 >> 8);
+        }
+        for (; i < count; i++, s++, d += 2) {
+            short v = src[s];
+            dst[d] = (byte) v;
+            dst[d + 1] = (byte) (v >> 8);
+        }
+    }
+
+    /**
+     * 从 ByteBuffer 的 position 开始读取 16 位 PCM 数据，读取后 position 前移
+     *
+     * @param src       小端序的 PCM 数据，字节序临时设置，读完后恢复
+     * @param dst       目标数组
+     * @param dstOffset 目标偏移
+     * @param count     采样点数
+     */
+    public static void pcm16ToShorts(ByteBuffer src, short[] dst, int dstOffset, int count) {
+        ByteOrder order = src.order();
+        src.order(ByteOrder.LITTLE_ENDIAN);
+        int p = src.position();
+        int i = 0;
+        int d = dstOffset;
+        for (int end = count & ~3; i < end; i += 4, p += 8, d += 4) {
+            dst[d] = src.getShort(p);
+            dst[d + 1] = src.getShort(p + 2);
+            dst[d + 2] = src.getShort(p + 4);
+            dst[d + 3] = src.getShort(p + 6);
+        }
+        for (; i < count; i++, p += 2, d++) {
+            dst[d] = src.getShort(p);
+        }
+        src.position(p);
+        src.order(order);
+    }
+
+    /**
+     * short 数组转为 [-1, 1) 的 float 数组
+     *
+     * @param src       源数组
+     * @param srcOffset 源偏移
+     * @param dst       目标数组
+     * @param dstOffset 目标偏移
+     * @param count     采样点数
+     */
+    public static void shortsToFloats(short[] src, int srcOffset, float[] dst, int dstOffset, int count) {
+        int i = 0;
+        int s = srcOffset;
+        int d = dstOffset;
+        for (int end = count & ~3; i < end; i += 4, s += 4, d += 4) {
+            dst[d] = src[s] * SHORT_SCALE;
+            dst[d + 1] = src[s + 1] * SHORT_SCALE;
+            dst[d + 2] = src[s + 2] * SHORT_SCALE;
+            dst[d + 3] = src[s + 3] * SHORT_SCALE;
+        }
+        for (; i < count; i++, s++, d++) {
+            dst[d] = src[s] * SHORT_SCALE;
+        }
+    }
+
+    /**
+     * float 数组转为 short 数组，超出 [-1, 1] 的值会被截断
+     *
+     * @param src       源数组
+     * @param srcOffset 源偏移
+     * @param dst       目标数组
+     * @param dstOffset 目标偏移
+     * @param count     采样点数
+     * @param dither    抖动，为 null 时直接四舍五入
+     */
+    public static void floatsToShorts(float[] src, int srcOffset, short[] dst, int dstOffset, int count, Dither dither) {
+        int i = 0;
+        int s = srcOffset;
+        int d = dstOffset;
+        if (dither == null) {
+            for (int end = count & ~3; i < end; i += 4, s += 4, d += 4) {
+                dst[d] = floatToShort(src[s] * 32768f);
+                dst[d + 1] = floatToShort(src[s + 1] * 32768f);
+                dst[d + 2] = floatToShort(src[s + 2] * 32768f);
+                dst[d + 3] = floatToShort(src[s + 3] * 32768f);
+            }
+            for (; i < count; i++, s++, d++) {
+                dst[d] = floatToShort(src[s] * 32768f);
+            }
+        } else {
+            for (int end = count & ~3; i < end; i += 4, s += 4, d += 4) {
+                dst[d] = floatToShort(src[s] * 32768f + dither.next());
+                dst[d + 1] = floatToShort(src[s + 1] * 32768f + dither.next());
+                dst[d + 2] = floatToShort(src[s + 2] * 32768f + dither.next());
+                dst[d + 3] = floatToShort(src[s + 3] * 32768f + dither.next());
+            }
+            for (; i < count; i++, s++, d++) {
+                dst[d] = floatToShort(src[s] * 32768f + dither.next());
+            }
+        }
+    }
+
+    /**
+     * 16 位 PCM 字节数组转为 [-1, 1) 的 float 数组
+     *
+     * @param src       字节数组
+     * @param srcOffset 字节偏移
+     * @param dst       目标数组
+     * @param dstOffset 目标偏移
+     * @param count     采样点数
+     */
+    public static void pcm16ToFloats(byte[] src, int srcOffset, float[] dst, int dstOffset, int count) {
+        int i = 0;
+        int s = srcOffset;
+        int d = dstOffset;
+        for (int end = count & ~3; i < end; i += 4, s += 8, d += 4) {
+            dst[d] = (short) ((src[s] & 0xFF) | src[s + 1] << 8) * SHORT_SCALE;
+            dst[d + 1] = (short) ((src[s + 2] & 0xFF) | src[s + 3] << 8) * SHORT_SCALE;
+            dst[d + 2] = (short) ((src[s + 4] & 0xFF) | src[s + 5] << 8) * SHORT_SCALE;
+            dst[d + 3] = (short) ((src[s + 6] & 0xFF) | src[s + 7] << 8) * SHORT_SCALE;
+        }
+        for (; i < count; i++, s += 2, d++) {
+            dst[d] = (short) ((src[s] & 0xFF) | src[s + 1] << 8) * SHORT_SCALE;
+        }
+    }
+
+    /**
+     * float 数组转为 16 位 PCM 字节数组，超出 [-1, 1] 的值会被截断
+     *
+     * @param src       源数组
+     * @param srcOffset 源偏移
+     * @param dst       目标字节数组
+     * @param dstOffset 字节偏移
+     * @param count     采样点数
+     * @param dither    抖动，为 null 时直接四舍五入
+     */
+    public static void floatsToPcm16(float[] src, int srcOffset, byte[] dst, int dstOffset, int count, Dither dither) {
+        int i = 0;
+        int s = srcOffset;
+        int d = dstOffset;
+        if (dither == null) {
+            for (int end = count & ~3; i < end; i += 4, s += 4, d += 8) {
+                short v0 = floatToShort(src[s] * 32768f);
+                short v1 = floatToShort(src[s + 1] * 32768f);
+                short v2 = floatToShort(src[s + 2] * 32768f);
+                short v3 = floatToShort(src[s + 3] * 32768f);
+                dst[d] = (byte) v0;
+                dst[d + 1] = (byte) (v0 >> 8);
+                dst[d + 2] = (byte) v1;
+                dst[d + 3] = (byte) (v1 >> 8);
+                dst[d + 4] = (byte) v2;
+                dst[d + 5] = (byte) (v2 >> 8);
+                dst[d + 6] = (byte) v3;
+                dst[d + 7] = (byte) (v3 >> 8);
+            }
+            for (; i < count; i++, s++, d += 2) {
+                short v = floatToShort(src[s] * 32768f);
+                dst[d] = (byte) v;
+                dst[d + 1] = (byte) (v >> 8);
+            }
+        } else {
+            for (int end = count & ~3; i < end; i += 4, s += 4, d += 8) {
+                short v0 = floatToShort(src[s] * 32768f + dither.next());
+                short v1 = floatToShort(src[s + 1] * 32768f + dither.next());
+                short v2 = floatToShort(src[s + 2] * 32768f + dither.next());
+                short v3 = floatToShort(src[s + 3] * 32768f + dither.next());
+                dst[d] = (byte) v0;
+                dst[d + 1] = (byte) (v0 >> 8);
+                dst[d + 2] = (byte) v1;
+                dst[d + 3] = (byte) (v1 >> 8);
+                dst[d + 4] = (byte) v2;
+                dst[d + 5] = (byte) (v2 >> 8);
+                dst[d + 6] = (byte) v3;
+                dst[d + 7] = (byte) (v3 >> 8);
+            }
+            for (; i < count; i++, s++, d += 2) {
+                short v = floatToShort(src[s] * 32768f + dither.next());
+                dst[d] = (byte) v;
+                dst[d + 1] = (byte) (v >> 8);
+            }
+        }
+    }
+
+    /**
+     * 24 位紧凑排列的 PCM 字节数组转为 int 数组，结果范围为 [-2^23, 2^23)
+     *
+     * @param src       字节数组
+     * @param srcOffset 字节偏移
+     * @param dst       目标数组
+     * @param dstOffset 目标偏移
+     * @param count     采样点数
+     */
+    public static void pcm24ToInts(byte[] src, int srcOffset, int[] dst, int dstOffset, int count) {
+        int i = 0;
+        int s = srcOffset;
+        int d = dstOffset;
+        for (int end = count & ~3; i < end; i += 4, s += 12, d += 4) {
+            dst[d] = (src[s] & 0xFF) | (src[s + 1] & 0xFF) << 8 | src[s + 2] << 16;
+            dst[d + 1] = (src[s + 3] & 0xFF) | (src[s + 4] & 0xFF) << 8 | src[s + 5] << 16;
+            dst[d + 2] = (src[s + 6] & 0xFF) | (src[s + 7] & 0xFF) << 8 | src[s + 8] << 16;
+            dst[d + 3] = (src[s + 9] & 0xFF) | (src[s + 10] & 0xFF) << 8 | src[s + 11] << 16;
+        }
+        for (; i < count; i++, s += 3, d++) {
+            dst[d] = (src[s] & 0xFF) | (src[s + 1] & 0xFF) << 8 | src[s + 2] << 16;
+        }
+    }
+
+    /**
+     * int 数组转为 24 位紧凑排列的 PCM 字节数组，超出 24 位范围的值会被截断
+     *
+     * @param src       源数组，范围为 [-2^23, 2^23)
+     * @param srcOffset 源偏移
+     * @param dst       目标字节数组
+     * @param dstOffset 字节偏移
+     * @param count     采样点数
+     */
+    public static void intsToPcm24(int[] src, int srcOffset, byte[] dst, int dstOffset, int count) {
+        int i = 0;
+        int s = srcOffset;
+        int d = dstOffset;
+        for (int end = count & ~3; i < end; i += 4, s += 4, d += 12) {
+            int v0 = clampInt24(src[s]);
+            int v1 = clampInt24(src[s + 1]);
+            int v2 = clampInt24(src[s + 2]);
+            int v3 = clampInt24(src[s + 3]);
+            putInt24(dst, d, v0);
+            putInt24(dst, d + 3, v1);
+            putInt24(dst, d + 6, v2);
+            putInt24(dst, d + 9, v3);
+        }
+        for (; i < count; i++, s++, d += 3) {
+            putInt24(dst, d, clampInt24(src[s]));
+        }
+    }
+
+    /**
+     * 24 位紧凑排列的 PCM 字节数组转为 [-1, 1) 的 float 数组
+     *
+     * @param src       字节数组
+     * @param srcOffset 字节偏移
+     * @param dst       目标数组
+     * @param dstOffset 目标偏移
+     * @param count     采样点数
+     */
+    public static void pcm24ToFloats(byte[] src, int srcOffset, float[] dst, int dstOffset, int count) {
+        int i = 0;
+        int s = srcOffset;
+        int d = dstOffset;
+        for (int end = count & ~3; i < end; i += 4, s += 12, d += 4) {
+            dst[d] = ((src[s] & 0xFF) | (src[s + 1] & 0xFF) << 8 | src[s + 2] << 16) * INT24_SCALE;
+            dst[d + 1] = ((src[s + 3] & 0xFF) | (src[s + 4] & 0xFF) << 8 | src[s + 5] << 16) * INT24_SCALE;
+            dst[d + 2] = ((src[s + 6] & 0xFF) | (src[s + 7] & 0xFF) << 8 | src[s + 8] << 16) * INT24_SCALE;
+            dst[d + 3] = ((src[s + 9] & 0xFF) | (src[s + 10] & 0xFF) << 8 | src[s + 11] << 16) * INT24_SCALE;
+        }
+        for (; i < count; i++, s += 3, d++) {
+            dst[d] = ((src[s] & 0xFF) | (src[s + 1] & 0xFF) << 8 | src[s + 2] << 16) * INT24_SCALE;
+        }
+    }
+
+    /**
+     * float 数组转为 24 位紧凑排列的 PCM 字节数组，超出 [-1, 1] 的值会被截断
+     *
+     * @param src       源数组
+     * @param srcOffset 源偏移
+     * @param dst       目标字节数组
+     * @param dstOffset 字节偏移
+     * @param count     采样点数
+     */
+    public static void floatsToPcm24(float[] src, int srcOffset, byte[] dst, int dstOffset, int count) {
+        int i = 0;
+        int s = srcOffset;
+        int d = dstOffset;
+        for (int end = count & ~3; i < end; i += 4, s += 4, d += 12) {
+            int v0 = floatToInt24(src[s] * 8388608f);
+            int v1 = floatToInt24(src[s + 1] * 8388608f);
+            int v2 = floatToInt24(src[s + 2] * 8388608f);
+            int v3 = floatToInt24(src[s + 3] * 8388608f);
+            putInt24(dst, d, v0);
+            putInt24(dst, d + 3, v1);
+            putInt24(dst, d + 6, v2);
+            putInt24(dst, d + 9, v3);
+        }
+        for (; i < count; i++, s++, d += 3) {
+            putInt24(dst, d, floatToInt24(src[s] * 8388608f));
+        }
+    }
+
+    private static int clampInt24(int value) {
+        return Math.max(-8388608, Math.min(8388607, value));
+    }
+
+    private static int floatToInt24(float value) {
+        if (value >= 8388607f) {
+            return 8388607;
+        }
+        if (value <= -8388608f) {
+            return -8388608;
+        }
+        return Math.round(value);
+    }
+
+    private static void putInt24(byte[] dst, int offset, int value) {
+        dst[offset] = (byte) value;
+        dst[offset + 1] = (byte) (value >> 8);
+        dst[offset + 2] = (byte) (value >> 16);
+    }
+
+    private static short floatToShort(float value) {
+        if (value >= 32767f) {
+            return Short.MAX_VALUE;
+        }
+        if (value <= -32768f) {
+            return Short.MIN_VALUE;
+        }
+        return (short) Math.round(value);
     }
 
     public static int byteArrayToInt(byte[] bytes) {
@@ -61,4 +423,34 @@ public class ConvertUtils {
         }
         return ret;
     }
+
+    /**
+     * 三角概率分布（TPDF）抖动，幅度为正负 1 LSB，使用 xorshift 随机数，不分配内存。
+     * 非线程安全，每个音频流使用一个实例
+     */
+    public static final class Dither {
+        private static final float SCALE = 1.0f / (1 << 24);
+        private int mSeed;
+
+        public Dither() {
+            this(0x2545F491);
+        }
+
+        public Dither(int seed) {
+            mSeed = seed != 0 ? seed : 0x2545F491;
+        }
+
+        float next() {
+            return nextUniform() - nextUniform();
+        }
+
+        private float nextUniform() {
+            int x = mSeed;
+            x ^= x << 13;
+            x ^= x >>> 17;
+            x ^= x << 5;
+            mSeed = x;
+            return (x >>> 8) * SCALE;
+        }
+    }
 }
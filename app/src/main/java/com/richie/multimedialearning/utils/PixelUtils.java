@@ -0,0 +1,397 @@
+package com.richie.multimedialearning.utils;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * 像素批量处理：通道重排、翻转、旋转和预乘，纯 Java 实现
+ * <p>
+ * 像素按 int 存储，一个 int 一个像素。glReadPixels 读到小端序缓冲区的 RGBA 字节按 int 读出是 0xAABBGGRR，
+ * Bitmap.getPixels 的颜色值是 0xAARRGGBB，两者只差红蓝通道的位置。预乘相关的方法要求 alpha 在最高字节。
+ * <p>
+ * 所有方法都直接读写调用方的数组，不分配像素缓冲区，但每次调用会创建一个处理对象，
+ * 并行时还会创建拆分的任务对象，个数和段数成正比，与像素数无关。像素数超过阈值时按行（或按段）拆分到
+ * ForkJoinPool 并行处理，每一段互不重叠，结果和单线程完全一样。
+ */
+public final class PixelUtils {
+    /**
+     * 默认的并行阈值，大约 512x512
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 1 << 18;
+    // 并行时每一段的最少像素数，太小的话调度开销比计算还大
+    private static final int MIN_CHUNK_PIXELS = 1 << 15;
+    // 旋转时按块复制，读写都在缓存内
+    private static final int TILE = 32;
+    private static volatile int sParallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    // ForkJoinPool.commonPool() 从 API 24 才有，自己创建一个，第一次并行时才创建
+    private static volatile ForkJoinPool sPool;
+
+    private PixelUtils() {
+    }
+
+    /**
+     * 像素数达到阈值才并行处理，设为 Integer.MAX_VALUE 时总是单线程
+     *
+     * @param pixels
+     */
+    public static void setParallelThreshold(int pixels) {
+        sParallelThreshold = pixels;
+    }
+
+    /**
+     * 交换红蓝通道：RGBA 和 BGRA 字节互转，也就是 0xAABBGGRR 和 Bitmap 颜色值 0xAARRGGBB 互转
+     *
+     * @param src       源数组
+     * @param srcOffset 源偏移
+     * @param dst       目标数组，可以和源数组相同
+     * @param dstOffset 目标偏移
+     * @param count     像素数
+     */
+    public static void swapRedBlue(final int[] src, final int srcOffset, final int[] dst, final int dstOffset, int count) {
+        forRange(count, 1, new RangeKernel() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    int p = src[srcOffset + i];
+                    dst[dstOffset + i] = (p & 0xFF00FF00) | (p >>> 16 & 0xFF) | (p & 0xFF) << 16;
+                }
+            }
+        });
+    }
+
+    /**
+     * glReadPixels 读出的 RGBA 转为 Bitmap 的颜色值
+     *
+     * @see #swapRedBlue(int[], int, int[], int, int)
+     */
+    public static void rgbaToColor(int[] src, int srcOffset, int[] dst, int dstOffset, int count) {
+        swapRedBlue(src, srcOffset, dst, dstOffset, count);
+    }
+
+    /**
+     * RGBA 字节转为 ARGB 字节，按小端序的 int 就是循环左移 8 位
+     *
+     * @param src       源数组
+     * @param srcOffset 源偏移
+     * @param dst       目标数组，可以和源数组相同
+     * @param dstOffset 目标偏移
+     * @param count     像素数
+     */
+    public static void rgbaToArgb(final int[] src, final int srcOffset, final int[] dst, final int dstOffset, int count) {
+        forRange(count, 1, new RangeKernel() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    dst[dstOffset + i] = Integer.rotateLeft(src[srcOffset + i], 8);
+                }
+            }
+        });
+    }
+
+    /**
+     * ARGB 字节转为 RGBA 字节
+     *
+     * @see #rgbaToArgb(int[], int, int[], int, int)
+     */
+    public static void argbToRgba(final int[] src, final int srcOffset, final int[] dst, final int dstOffset, int count) {
+        forRange(count, 1, new RangeKernel() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    dst[dstOffset + i] = Integer.rotateRight(src[srcOffset + i], 8);
+                }
+            }
+        });
+    }
+
+    /**
+     * 原地上下翻转
+     *
+     * @param pixels 像素，行与行之间没有间隔
+     * @param width  宽
+     * @param height 高
+     */
+    public static void flipVertical(final int[] pixels, final int width, final int height) {
+        forRange(height / 2, width, new RangeKernel() {
+            @Override
+            public void run(int from, int to) {
+                for (int y = from; y < to; y++) {
+                    int top = y * width;
+                    int bottom = (height - 1 - y) * width;
+                    for (int x = 0; x < width; x++) {
+                        int p = pixels[top + x];
+                        pixels[top + x] = pixels[bottom + x];
+                        pixels[bottom + x] = p;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 上下翻转到另一个数组
+     *
+     * @param src    源像素
+     * @param dst    目标，不能和源数组相同
+     * @param width  宽
+     * @param height 高
+     */
+    public static void flipVertical(final int[] src, final int[] dst, final int width, final int height) {
+        forRange(height, width, new RangeKernel() {
+            @Override
+            public void run(int from, int to) {
+                for (int y = from; y < to; y++) {
+                    System.arraycopy(src, y * width, dst, (height - 1 - y) * width, width);
+                }
+            }
+        });
+    }
+
+    /**
+     * 原地左右翻转
+     *
+     * @param pixels 像素
+     * @param width  宽
+     * @param height 高
+     */
+    public static void flipHorizontal(final int[] pixels, final int width, int height) {
+        forRange(height, width, new RangeKernel() {
+            @Override
+            public void run(int from, int to) {
+                for (int y = from; y < to; y++) {
+                    int left = y * width;
+                    int right = left + width - 1;
+                    while (left < right) {
+                        int p = pixels[left];
+                        pixels[left++] = pixels[right];
+                        pixels[right--] = p;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 左右翻转到另一个数组
+     *
+     * @param src    源像素
+     * @param dst    目标，不能和源数组相同
+     * @param width  宽
+     * @param height 高
+     */
+    public static void flipHorizontal(final int[] src, final int[] dst, final int width, int height) {
+        forRange(height, width, new RangeKernel() {
+            @Override
+            public void run(int from, int to) {
+                for (int y = from; y < to; y++) {
+                    int s = y * width;
+                    int d = s + width - 1;
+                    for (int x = 0; x < width; x++) {
+                        dst[d - x] = src[s + x];
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 原地旋转 180°，等于上下翻转加左右翻转
+     *
+     * @param pixels 像素
+     * @param width  宽
+     * @param height 高
+     */
+    public static void rotate180(final int[] pixels, int width, int height) {
+        final int count = width * height;
+        forRange(count / 2, 1, new RangeKernel() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    int j = count - 1 - i;
+                    int p = pixels[i];
+                    pixels[i] = pixels[j];
+                    pixels[j] = p;
+                }
+            }
+        });
+    }
+
+    /**
+     * 旋转 90° 到另一个数组，目标的宽高和源相反。按块复制，避免跨行读取时缓存失效
+     *
+     * @param src       源像素
+     * @param dst       目标，宽为 height，高为 width，不能和源数组相同
+     * @param width     源宽
+     * @param height    源高
+     * @param clockwise 是否顺时针
+     */
+    public static void rotate90(final int[] src, final int[] dst, final int width, final int height,
+                                final boolean clockwise) {
+        // 目标的第 y 行第 x 列，顺时针来自源的第 height-1-x 行第 y 列，逆时针来自第 x 行第 width-1-y 列
+        final int dstWidth = height;
+        forRange(width, dstWidth, new RangeKernel() {
+            @Override
+            public void run(int from, int to) {
+                for (int ty = from; ty < to; ty += TILE) {
+                    int yEnd = Math.min(ty + TILE, to);
+                    for (int tx = 0; tx < dstWidth; tx += TILE) {
+                        int xEnd = Math.min(tx + TILE, dstWidth);
+                        for (int y = ty; y < yEnd; y++) {
+                            int d = y * dstWidth;
+                            if (clockwise) {
+                                for (int x = tx; x < xEnd; x++) {
+                                    dst[d + x] = src[(height - 1 - x) * width + y];
+                                }
+                            } else {
+                                int column = width - 1 - y;
+                                for (int x = tx; x < xEnd; x++) {
+                                    dst[d + x] = src[x * width + column];
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 预乘 alpha，alpha 在最高字节，其余三个通道乘以 alpha/255 并四舍五入
+     *
+     * @param src       源数组
+     * @param srcOffset 源偏移
+     * @param dst       目标数组，可以和源数组相同
+     * @param dstOffset 目标偏移
+     * @param count     像素数
+     */
+    public static void premultiply(final int[] src, final int srcOffset, final int[] dst, final int dstOffset, int count) {
+        forRange(count, 1, new RangeKernel() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    int p = src[srcOffset + i];
+                    int a = p >>> 24;
+                    if (a == 0xFF) {
+                        dst[dstOffset + i] = p;
+                    } else if (a == 0) {
+                        dst[dstOffset + i] = 0;
+                    } else {
+                        dst[dstOffset + i] = a << 24 | mulDiv255(p >>> 16 & 0xFF, a) << 16
+                                | mulDiv255(p >>> 8 & 0xFF, a) << 8 | mulDiv255(p & 0xFF, a);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 取消预乘，alpha 在最高字节，alpha 为 0 的像素变成全 0
+     *
+     * @param src       源数组
+     * @param srcOffset 源偏移
+     * @param dst       目标数组，可以和源数组相同
+     * @param dstOffset 目标偏移
+     * @param count     像素数
+     */
+    public static void unpremultiply(final int[] src, final int srcOffset, final int[] dst, final int dstOffset, int count) {
+        forRange(count, 1, new RangeKernel() {
+            @Override
+            public void run(int from, int to) {
+                for (int i = from; i < to; i++) {
+                    int p = src[srcOffset + i];
+                    int a = p >>> 24;
+                    if (a == 0xFF) {
+                        dst[dstOffset + i] = p;
+                    } else if (a == 0) {
+                        dst[dstOffset + i] = 0;
+                    } else {
+                        int half = a >> 1;
+                        int c0 = Math.min(255, ((p >>> 16 & 0xFF) * 255 + half) / a);
+                        int c1 = Math.min(255, ((p >>> 8 & 0xFF) * 255 + half) / a);
+                        int c2 = Math.min(255, ((p & 0xFF) * 255 + half) / a);
+                        dst[dstOffset + i] = a << 24 | c0 << 16 | c1 << 8 | c2;
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * c * a / 255 四舍五入，不用除法
+     */
+    private static int mulDiv255(int c, int a) {
+        int t = c * a + 128;
+        return (t + (t >> 8)) >> 8;
+    }
+
+    /**
+     * 处理 [0, count) 的一段，单位是像素或者行
+     */
+    private interface RangeKernel {
+        void run(int from, int to);
+    }
+
+    /**
+     * 总像素数达到阈值时拆分到 ForkJoinPool 并行执行，否则在当前线程执行
+     *
+     * @param count         单位个数
+     * @param pixelsPerUnit 每个单位的像素数，按像素处理时为 1，按行处理时为宽
+     * @param kernel
+     */
+    private static void forRange(int count, int pixelsPerUnit, RangeKernel kernel) {
+        if (count <= 0) {
+            return;
+        }
+        long pixels = (long) count * pixelsPerUnit;
+        if (pixels < sParallelThreshold) {
+            kernel.run(0, count);
+            return;
+        }
+        ForkJoinPool pool = getPool();
+        if (pool.getParallelism() <= 1) {
+            kernel.run(0, count);
+            return;
+        }
+        int grain = Math.max(1, MIN_CHUNK_PIXELS / Math.max(1, pixelsPerUnit));
+        pool.invoke(new RangeAction(kernel, 0, count, grain));
+    }
+
+    private static ForkJoinPool getPool() {
+        ForkJoinPool pool = sPool;
+        if (pool == null) {
+            synchronized (PixelUtils.class) {
+                pool = sPool;
+                if (pool == null) {
+                    pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+                    sPool = pool;
+                }
+            }
+        }
+        return pool;
+    }
+
+    private static final class RangeAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final RangeKernel mKernel;
+        private final int mFrom;
+        private final int mTo;
+        private final int mGrain;
+
+        RangeAction(RangeKernel kernel, int from, int to, int grain) {
+            mKernel = kernel;
+            mFrom = from;
+            mTo = to;
+            mGrain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom <= mGrain) {
+                mKernel.run(mFrom, mTo);
+                return;
+            }
+            int mid = (mFrom + mTo) >>> 1;
+            invokeAll(new RangeAction(mKernel, mFrom, mid, mGrain), new RangeAction(mKernel, mid, mTo, mGrain));
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.richie.multimedialearning.utils.aac;
+
+import java.nio.ByteBuffer;
+
+/**
+ * ADTS 帧头，固定头和可变头共 7 字节，带 CRC 时为 9 字节
+ * <p>
+ * 解析和写入都使用绝对位置，不改变 ByteBuffer 的 position，同一个实例可以反复解析，不分配内存。
+ * see ISO/IEC 14496-3 1.A.2.2
+ */
+public final class AdtsHeader {
+    public static final int HEADER_SIZE = 7;
+    public static final int HEADER_SIZE_WITH_CRC = 9;
+    public static final int MAX_FRAME_LENGTH = 0x1FFF;
+    public static final int SAMPLES_PER_BLOCK = 1024;
+    public static final int PROFILE_AAC_MAIN = 1;
+    public static final int PROFILE_AAC_LC = 2;
+    public static final int PROFILE_AAC_SSR = 3;
+    public static final int PROFILE_AAC_LTP = 4;
+    public static final int MPEG_VERSION_4 = 0;
+    public static final int MPEG_VERSION_2 = 1;
+    // 可变码率时 adts_buffer_fullness 的取值
+    public static final int BUFFER_FULLNESS_VBR = 0x7FF;
+
+    private static final int[] SAMPLE_RATES = {96000, 88200, 64000, 48000, 44100, 32000,
+            24000, 22050, 16000, 12000, 11025, 8000, 7350};
+
+    private int mMpegVersion = MPEG_VERSION_2;
+    private boolean mProtectionAbsent = true;
+    // audio object type，1 为 AAC Main，2 为 AAC LC
+    private int mProfile = PROFILE_AAC_LC;
+    private int mSampleRateIndex;
+    private int mChannelConfig;
+    private int mFrameLength;
+    private int mBufferFullness = BUFFER_FULLNESS_VBR;
+    private int mRawDataBlocks = 1;
+
+    public AdtsHeader() {
+    }
+
+    /**
+     * @param profile       audio object type，例如 PROFILE_AAC_LC
+     * @param sampleRate    采样率，必须是 ADTS 支持的值
+     * @param channelConfig 声道配置，1 到 7
+     */
+    public AdtsHeader(int profile, int sampleRate, int channelConfig) {
+        int sampleRateIndex = getSampleRateIndex(sampleRate);
+        if (profile < PROFILE_AAC_MAIN || profile > PROFILE_AAC_LTP || sampleRateIndex < 0
+                || channelConfig < 0 || channelConfig > 7) {
+            throw new IllegalArgumentException("profile: " + profile + ", sampleRate: " + sampleRate
+                    + ", channelConfig: " + channelConfig);
+        }
+        mProfile = profile;
+        mSampleRateIndex = sampleRateIndex;
+        mChannelConfig = channelConfig;
+    }
+
+    /**
+     * @param sampleRate 采样率
+     * @return ADTS 采样率序号，不支持时返回 -1
+     */
+    public static int getSampleRateIndex(int sampleRate) {
+        for (int i = 0; i < SAMPLE_RATES.length; i++) {
+            if (SAMPLE_RATES[i] == sampleRate) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 检查同步字和各字段的取值范围，通过后解析到当前实例
+     *
+     * @param buffer 数据，使用绝对位置读取
+     * @param offset 帧起始位置
+     * @return 是否为合法的 ADTS 帧头，不合法时当前实例不变
+     */
+    public boolean parse(ByteBuffer buffer, int offset) {
+        if (offset < 0 || offset + HEADER_SIZE > buffer.limit()) {
+            return false;
+        }
+        int b0 = buffer.get(offset) & 0xFF;
+        int b1 = buffer.get(offset + 1) & 0xFF;
+        // syncword 0xFFF，layer 必须为 0
+        if (b0 != 0xFF || (b1 & 0xF6) != 0xF0) {
+            return false;
+        }
+        int b2 = buffer.get(offset + 2) & 0xFF;
+        int b3 = buffer.get(offset + 3) & 0xFF;
+        int b4 = buffer.get(offset + 4) & 0xFF;
+        int b5 = buffer.get(offset + 5) & 0xFF;
+        int b6 = buffer.get(offset + 6) & 0xFF;
+        int sampleRateIndex = (b2 >> 2) & 0x0F;
+        if (sampleRateIndex >= SAMPLE_RATES.length) {
+            return false;
+        }
+        boolean protectionAbsent = (b1 & 0x01) != 0;
+        int frameLength = ((b3 & 0x03) << 11) | (b4 << 3) | (b5 >> 5);
+        if (frameLength < (protectionAbsent ? HEADER_SIZE : HEADER_SIZE_WITH_CRC)) {
+            return false;
+        }
+        mMpegVersion = (b1 >> 3) & 0x01;
+        mProtectionAbsent = protectionAbsent;
+        mProfile = ((b2 >> 6) & 0x03) + 1;
+        mSampleRateIndex = sampleRateIndex;
+        mChannelConfig = ((b2 & 0x01) << 2) | (b3 >> 6);
+        mFrameLength = frameLength;
+        mBufferFullness = ((b5 & 0x1F) << 6) | (b6 >> 2);
+        mRawDataBlocks = (b6 & 0x03) + 1;
+        return true;
+    }
+
+    /**
+     * 在指定位置写入 7 字节的帧头，不带 CRC
+     *
+     * @param buffer      目标，使用绝对位置写入
+     * @param offset      写入位置
+     * @param payloadSize 原始 AAC 数据长度，不含帧头
+     */
+    public void write(ByteBuffer buffer, int offset, int payloadSize) {
+        int frameLength = payloadSize + HEADER_SIZE;
+        if (payloadSize < 0 || frameLength > MAX_FRAME_LENGTH) {
+            throw new IllegalArgumentException("Invalid payload size: " + payloadSize);
+        }
+        mProtectionAbsent = true;
+        mFrameLength = frameLength;
+        buffer.put(offset, (byte) 0xFF);
+        buffer.put(offset + 1, (byte) (0xF1 | (mMpegVersion << 3)));
+        buffer.put(offset + 2, (byte) (((mProfile - 1) << 6) | (mSampleRateIndex << 2) | (mChannelConfig >> 2)));
+        buffer.put(offset + 3, (byte) (((mChannelConfig & 0x03) << 6) | (frameLength >> 11)));
+        buffer.put(offset + 4, (byte) ((frameLength >> 3) & 0xFF));
+        buffer.put(offset + 5, (byte) (((frameLength & 0x07) << 5) | (mBufferFullness >> 6)));
+        buffer.put(offset + 6, (byte) (((mBufferFullness & 0x3F) << 2) | (mRawDataBlocks - 1)));
+    }
+
+    /**
+     * 在数组开头写入 7 字节的帧头
+     *
+     * @param packet      目标数组，长度不小于 7
+     * @param payloadSize 原始 AAC 数据长度，不含帧头
+     */
+    public void write(byte[] packet, int payloadSize) {
+        write(ByteBuffer.wrap(packet), 0, payloadSize);
+    }
+
+    /**
+     * @return 与另一个帧头的流参数是否一致，一致时两个文件可以直接拼接
+     */
+    public boolean isCompatible(AdtsHeader other) {
+        return mProfile == other.mProfile && mSampleRateIndex == other.mSampleRateIndex
+                && mChannelConfig == other.mChannelConfig;
+    }
+
+    public void copyFrom(AdtsHeader other) {
+        mMpegVersion = other.mMpegVersion;
+        mProtectionAbsent = other.mProtectionAbsent;
+        mProfile = other.mProfile;
+        mSampleRateIndex = other.mSampleRateIndex;
+        mChannelConfig = other.mChannelConfig;
+        mFrameLength = other.mFrameLength;
+        mBufferFullness = other.mBufferFullness;
+        mRawDataBlocks = other.mRawDataBlocks;
+    }
+
+    public int getMpegVersion() {
+        return mMpegVersion;
+    }
+
+    public void setMpegVersion(int mpegVersion) {
+        mMpegVersion = mpegVersion & 0x01;
+    }
+
+    public boolean isProtectionAbsent() {
+        return mProtectionAbsent;
+    }
+
+    public int getProfile() {
+        return mProfile;
+    }
+
+    public int getSampleRateIndex() {
+        return mSampleRateIndex;
+    }
+
+    public int getSampleRate() {
+        return SAMPLE_RATES[mSampleRateIndex];
+    }
+
+    public int getChannelConfig() {
+        return mChannelConfig;
+    }
+
+    /**
+     * @return 整个帧的长度，包含帧头
+     */
+    public int getFrameLength() {
+        return mFrameLength;
+    }
+
+    /**
+     * @return 帧头长度，7 或 9
+     */
+    public int getHeaderLength() {
+        return mProtectionAbsent ? HEADER_SIZE : HEADER_SIZE_WITH_CRC;
+    }
+
+    public int getBufferFullness() {
+        return mBufferFullness;
+    }
+
+    /**
+     * @return 帧内的原始数据块数，1 到 4
+     */
+    public int getRawDataBlocks() {
+        return mRawDataBlocks;
+    }
+
+    /**
+     * @return 每帧每声道的采样点数
+     */
+    public int getSamplesPerFrame() {
+        return mRawDataBlocks * SAMPLES_PER_BLOCK;
+    }
+
+    @Override
+    public String toString() {
+        return "AdtsHeader{" +
+                "mpegVersion=" + (mMpegVersion == MPEG_VERSION_4 ? 4 : 2) +
+                ", profile=" + mProfile +
+                ", sampleRate=" + getSampleRate() +
+                ", channelConfig=" + mChannelConfig +
+                ", frameLength=" + mFrameLength +
+                ", rawDataBlocks=" + mRawDataBlocks +
+                '}';
+    }
+}
@@ -0,0 +1,417 @@
+package com.richie.multimedialearning.utils.aac;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * ADTS 格式 AAC 文件的帧索引，纯 Java 实现
+ * <p>
+ * 分段内存映射文件，逐帧校验同步字和帧长度，失步时逐字节重新同步，并要求下一帧同样合法以排除误判。
+ * 索引记录每帧的偏移、长度和起始采样位置，按时间定位为 O(log n)。
+ * 索引可以保存在 AAC 文件旁边，源文件长度和修改时间不变时直接加载，不用重新扫描。
+ */
+public final class AdtsIndex {
+    public static final String INDEX_SUFFIX = ".adtsidx";
+    // "AIDX"
+    private static final int MAGIC = 0x58444941;
+    private static final int VERSION = 1;
+    private static final int FIXED_SIZE = 44;
+    private static final long MAP_WINDOW = 32 << 20;
+
+    private final AdtsHeader mHeader;
+    private final int mFrameCount;
+    // 每帧在文件中的偏移
+    private final long[] mOffsets;
+    // 每帧的长度，包含帧头，最大 8191
+    private final short[] mSizes;
+    // 每帧的起始采样位置，共 frameCount + 1 个，每帧采样数相同时为 null
+    private final long[] mSamplePositions;
+    private final int mSamplesPerFrame;
+    private final long mSourceLength;
+    private final long mSourceLastModified;
+    private final long mSkippedBytes;
+
+    private AdtsIndex(AdtsHeader header, int frameCount, long[] offsets, short[] sizes, long[] samplePositions,
+                      int samplesPerFrame, long sourceLength, long sourceLastModified, long skippedBytes) {
+        mHeader = header;
+        mFrameCount = frameCount;
+        mOffsets = offsets;
+        mSizes = sizes;
+        mSamplePositions = samplePositions;
+        mSamplesPerFrame = samplesPerFrame;
+        mSourceLength = sourceLength;
+        mSourceLastModified = sourceLastModified;
+        mSkippedBytes = skippedBytes;
+    }
+
+    /**
+     * @param aacFile AAC 文件
+     * @return 索引文件，和 AAC 文件在同一目录
+     */
+    public static File getIndexFile(File aacFile) {
+        return new File(aacFile.getParentFile(), aacFile.getName() + INDEX_SUFFIX);
+    }
+
+    /**
+     * 优先加载已保存的索引，不存在或者已经过期时重新扫描并保存
+     *
+     * @param aacFile AAC 文件
+     * @return 索引
+     * @throws IOException 文件中没有合法的 ADTS 帧
+     */
+    public static AdtsIndex loadOrBuild(File aacFile) throws IOException {
+        AdtsIndex index = load(aacFile);
+        if (index == null) {
+            index = build(aacFile);
+            try {
+                index.save(getIndexFile(aacFile));
+            } catch (IOException e) {
+                // 目录不可写时只在内存中使用
+                getIndexFile(aacFile).delete();
+            }
+        }
+        return index;
+    }
+
+    /**
+     * 扫描文件建立索引
+     *
+     * @param aacFile AAC 文件
+     * @return 索引
+     * @throws IOException 文件中没有合法的 ADTS 帧
+     */
+    public static AdtsIndex build(File aacFile) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(aacFile, "r");
+             FileChannel channel = raf.getChannel()) {
+            long fileSize = channel.size();
+            // 按平均 64kbps、44.1kHz 估算初始容量
+            int capacity = (int) Math.max(64, Math.min(fileSize / 180, Integer.MAX_VALUE - 8));
+            long[] offsets = new long[capacity];
+            short[] sizes = new short[capacity];
+            byte[] blocks = new byte[capacity];
+            int frameCount = 0;
+            boolean variableBlocks = false;
+            long skippedBytes = 0;
+
+            AdtsHeader first = null;
+            AdtsHeader header = new AdtsHeader();
+            AdtsHeader next = new AdtsHeader();
+            boolean synced = false;
+            MappedByteBuffer window = null;
+            long windowStart = 0;
+            long windowEnd = 0;
+            long position = 0;
+            while (position + AdtsHeader.HEADER_SIZE <= fileSize) {
+                // 保证当前帧和下一帧的帧头都在映射窗口内
+                if (window == null || (position + AdtsHeader.MAX_FRAME_LENGTH + AdtsHeader.HEADER_SIZE_WITH_CRC > windowEnd
+                        && windowEnd < fileSize)) {
+                    windowStart = position;
+                    windowEnd = Math.min(fileSize, position + MAP_WINDOW);
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+                }
+                int relative = (int) (position - windowStart);
+                boolean valid = header.parse(window, relative)
+                        && (first == null || header.isCompatible(first));
+                if (valid && position + header.getFrameLength() > fileSize) {
+                    // 最后一帧不完整，录音中断时常见
+                    break;
+                }
+                if (valid && !synced) {
+                    // 重新同步时下一帧也必须合法，除非已经到达文件末尾
+                    long nextPosition = position + header.getFrameLength();
+                    valid = nextPosition + AdtsHeader.HEADER_SIZE > fileSize
+                            || (next.parse(window, relative + header.getFrameLength()) && next.isCompatible(header));
+                }
+                if (!valid) {
+                    synced = false;
+                    skippedBytes++;
+                    position++;
+                    continue;
+                }
+                synced = true;
+                if (first == null) {
+                    first = new AdtsHeader();
+                    first.copyFrom(header);
+                }
+                if (frameCount == offsets.length) {
+                    int newCapacity = offsets.length + (offsets.length >> 1);
+                    offsets = Arrays.copyOf(offsets, newCapacity);
+                    sizes = Arrays.copyOf(sizes, newCapacity);
+                    blocks = Arrays.copyOf(blocks, newCapacity);
+                }
+                offsets[frameCount] = position;
+                sizes[frameCount] = (short) header.getFrameLength();
+                blocks[frameCount] = (byte) header.getRawDataBlocks();
+                variableBlocks |= header.getRawDataBlocks() != first.getRawDataBlocks();
+                frameCount++;
+                position += header.getFrameLength();
+            }
+            if (first == null) {
+                throw new IOException("No adts frame found in " + aacFile);
+            }
+            skippedBytes += fileSize - position;
+            long[] samplePositions = variableBlocks ? toSamplePositions(blocks, frameCount) : null;
+            return new AdtsIndex(first, frameCount, Arrays.copyOf(offsets, frameCount), Arrays.copyOf(sizes, frameCount),
+                    samplePositions, first.getSamplesPerFrame(), fileSize, aacFile.lastModified(), skippedBytes);
+        }
+    }
+
+    private static long[] toSamplePositions(byte[] blocks, int frameCount) {
+        long[] samplePositions = new long[frameCount + 1];
+        for (int i = 0; i < frameCount; i++) {
+            samplePositions[i + 1] = samplePositions[i] + blocks[i] * AdtsHeader.SAMPLES_PER_BLOCK;
+        }
+        return samplePositions;
+    }
+
+    /**
+     * 加载已保存的索引
+     *
+     * @param aacFile AAC 文件
+     * @return 索引，不存在、格式错误或者源文件已经改变时返回 null
+     */
+    public static AdtsIndex load(File aacFile) {
+        File indexFile = getIndexFile(aacFile);
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r");
+             FileChannel channel = raf.getChannel()) {
+            if (channel.size() < FIXED_SIZE) {
+                return null;
+            }
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            long sourceLength = buffer.getLong();
+            long sourceLastModified = buffer.getLong();
+            if (sourceLength != aacFile.length() || sourceLastModified != aacFile.lastModified()) {
+                return null;
+            }
+            AdtsHeader header = new AdtsHeader();
+            if (!header.parse(buffer, buffer.position())) {
+                return null;
+            }
+            buffer.position(buffer.position() + AdtsHeader.HEADER_SIZE);
+            boolean variableBlocks = buffer.get() != 0;
+            int frameCount = buffer.getInt();
+            long skippedBytes = buffer.getLong();
+            if (frameCount <= 0) {
+                return null;
+            }
+
+            long[] offsets = new long[frameCount];
+            short[] sizes = new short[frameCount];
+            byte[] blocks = variableBlocks ? new byte[frameCount] : null;
+            long end = 0;
+            for (int i = 0; i < frameCount; i++) {
+                offsets[i] = end + readVarLong(buffer);
+                sizes[i] = buffer.getShort();
+                if (blocks != null) {
+                    blocks[i] = buffer.get();
+                }
+                end = offsets[i] + (sizes[i] & 0xFFFF);
+            }
+            if (end > sourceLength) {
+                return null;
+            }
+            long[] samplePositions = variableBlocks ? toSamplePositions(blocks, frameCount) : null;
+            return new AdtsIndex(header, frameCount, offsets, sizes, samplePositions, header.getSamplesPerFrame(),
+                    sourceLength, sourceLastModified, skippedBytes);
+        } catch (IOException | RuntimeException e) {
+            // 索引损坏时当作不存在，重新扫描
+            return null;
+        }
+    }
+
+    /**
+     * 保存索引，先写临时文件再重命名，不会留下写了一半的索引
+     *
+     * @param indexFile 索引文件
+     * @throws IOException
+     */
+    public void save(File indexFile) throws IOException {
+        boolean variableBlocks = mSamplePositions != null;
+        int perFrame = 10 + 2 + (variableBlocks ? 1 : 0);
+        ByteBuffer buffer = ByteBuffer.allocate(FIXED_SIZE + mFrameCount * perFrame).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putLong(mSourceLength);
+        buffer.putLong(mSourceLastModified);
+        // 第一帧的帧头，只用到其中的流参数
+        getHeader().write(buffer, buffer.position(), 0);
+        buffer.position(buffer.position() + AdtsHeader.HEADER_SIZE);
+        buffer.put((byte) (variableBlocks ? 1 : 0));
+        buffer.putInt(mFrameCount);
+        buffer.putLong(mSkippedBytes);
+        long end = 0;
+        for (int i = 0; i < mFrameCount; i++) {
+            // 帧通常首尾相接，偏移只记录与上一帧结尾的间隔，一般为 1 个字节
+            writeVarLong(buffer, mOffsets[i] - end);
+            buffer.putShort(mSizes[i]);
+            if (variableBlocks) {
+                buffer.put((byte) ((mSamplePositions[i + 1] - mSamplePositions[i]) / AdtsHeader.SAMPLES_PER_BLOCK));
+            }
+            end = mOffsets[i] + getFrameSize(i);
+        }
+        buffer.flip();
+
+        File tempFile = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(tempFile, "rw");
+             FileChannel channel = raf.getChannel()) {
+            channel.truncate(0);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        if (!tempFile.renameTo(indexFile)) {
+            indexFile.delete();
+            if (!tempFile.renameTo(indexFile)) {
+                tempFile.delete();
+                throw new IOException("Failed to save index " + indexFile);
+            }
+        }
+    }
+
+    private static void writeVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long readVarLong(ByteBuffer buffer) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed index");
+    }
+
+    /**
+     * @return 第一帧的帧头副本
+     */
+    public AdtsHeader getHeader() {
+        AdtsHeader header = new AdtsHeader();
+        header.copyFrom(mHeader);
+        return header;
+    }
+
+    public int getSampleRate() {
+        return mHeader.getSampleRate();
+    }
+
+    public int getChannelConfig() {
+        return mHeader.getChannelConfig();
+    }
+
+    public int getProfile() {
+        return mHeader.getProfile();
+    }
+
+    public int getFrameCount() {
+        return mFrameCount;
+    }
+
+    /**
+     * @return 扫描时跳过的无效字节数，例如 ID3 标签、损坏的数据和末尾不完整的帧
+     */
+    public long getSkippedBytes() {
+        return mSkippedBytes;
+    }
+
+    /**
+     * @return 每声道的总采样点数
+     */
+    public long getSampleCount() {
+        return getSamplePosition(mFrameCount);
+    }
+
+    /**
+     * @return 时长，单位微秒
+     */
+    public long getDurationUs() {
+        return samplesToUs(getSampleCount());
+    }
+
+    public long getFrameOffset(int frameIndex) {
+        checkFrameIndex(frameIndex);
+        return mOffsets[frameIndex];
+    }
+
+    /**
+     * @return 帧长度，包含帧头
+     */
+    public int getFrameSize(int frameIndex) {
+        checkFrameIndex(frameIndex);
+        return mSizes[frameIndex] & 0xFFFF;
+    }
+
+    /**
+     * @return 帧的显示时间，单位微秒
+     */
+    public long getFrameTimeUs(int frameIndex) {
+        checkFrameIndex(frameIndex);
+        return samplesToUs(getSamplePosition(frameIndex));
+    }
+
+    /**
+     * 查找包含指定时间的帧
+     *
+     * @param timeUs 时间，单位微秒
+     * @return 帧序号，超出范围时返回第一帧或最后一帧
+     */
+    public int getFrameIndex(long timeUs) {
+        long sample = Math.max(0, timeUs) * getSampleRate() / 1_000_000L;
+        int frameIndex;
+        if (mSamplePositions == null) {
+            frameIndex = (int) Math.min(sample / mSamplesPerFrame, Integer.MAX_VALUE);
+        } else {
+            int found = Arrays.binarySearch(mSamplePositions, sample);
+            frameIndex = found >= 0 ? found : -found - 2;
+        }
+        frameIndex = Math.max(0, Math.min(frameIndex, mFrameCount - 1));
+        // 微秒和采样点互相换算有截断误差，和 getFrameTimeUs 保持一致
+        if (frameIndex + 1 < mFrameCount && samplesToUs(getSamplePosition(frameIndex + 1)) <= timeUs) {
+            frameIndex++;
+        }
+        return frameIndex;
+    }
+
+    private long getSamplePosition(int frameIndex) {
+        return mSamplePositions == null ? (long) frameIndex * mSamplesPerFrame : mSamplePositions[frameIndex];
+    }
+
+    private long samplesToUs(long samples) {
+        return samples * 1_000_000L / getSampleRate();
+    }
+
+    private void checkFrameIndex(int frameIndex) {
+        if (frameIndex < 0 || frameIndex >= mFrameCount) {
+            throw new IndexOutOfBoundsException("frameIndex: " + frameIndex + ", frameCount: " + mFrameCount);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AdtsIndex{" +
+                "header=" + mHeader +
+                ", frameCount=" + mFrameCount +
+                ", durationUs=" + getDurationUs() +
+                ", skippedBytes=" + mSkippedBytes +
+                '}';
+    }
+}
@@ -0,0 +1,118 @@
+package com.richie.multimedialearning.utils.aac;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * ADTS 格式 AAC 文件的剪切和拼接，按帧边界直接拷贝字节，不需要解码
+ * <p>
+ * 每个 ADTS 帧都是自包含的，帧头中有完整的流参数，所以截取任意连续的帧或者拼接参数相同的文件都能直接播放。
+ */
+public final class AdtsUtils {
+
+    private AdtsUtils() {
+    }
+
+    /**
+     * 截取时间范围内的帧，起止时间落在帧中间时包含该帧
+     *
+     * @param srcFile 源文件
+     * @param startUs 开始时间，单位微秒
+     * @param endUs   结束时间，单位微秒，小于 0 表示到文件末尾
+     * @param dstFile 输出文件
+     * @return 输出的帧数
+     * @throws IOException
+     */
+    public static int split(File srcFile, long startUs, long endUs, File dstFile) throws IOException {
+        AdtsIndex index = AdtsIndex.loadOrBuild(srcFile);
+        int startFrame = index.getFrameIndex(startUs);
+        int endFrame = index.getFrameCount();
+        if (endUs >= 0) {
+            endFrame = index.getFrameIndex(endUs);
+            if (index.getFrameTimeUs(endFrame) < endUs) {
+                endFrame++;
+            }
+        }
+        if (endFrame <= startFrame) {
+            throw new IllegalArgumentException("Empty range, startUs: " + startUs + ", endUs: " + endUs);
+        }
+        try (RandomAccessFile src = new RandomAccessFile(srcFile, "r");
+             RandomAccessFile dst = new RandomAccessFile(dstFile, "rw");
+             FileChannel srcChannel = src.getChannel();
+             FileChannel dstChannel = dst.getChannel()) {
+            dstChannel.truncate(0);
+            copyFrames(index, startFrame, endFrame, srcChannel, dstChannel);
+        }
+        return endFrame - startFrame;
+    }
+
+    /**
+     * 按顺序拼接多个文件，所有文件的 profile、采样率和声道配置必须一致
+     *
+     * @param srcFiles 源文件
+     * @param dstFile  输出文件
+     * @return 输出的帧数
+     * @throws IOException 源文件的流参数不一致
+     */
+    public static int join(List<File> srcFiles, File dstFile) throws IOException {
+        if (srcFiles.isEmpty()) {
+            throw new IllegalArgumentException("srcFiles is empty");
+        }
+        AdtsIndex[] indexes = new AdtsIndex[srcFiles.size()];
+        AdtsHeader first = null;
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = AdtsIndex.loadOrBuild(srcFiles.get(i));
+            AdtsHeader header = indexes[i].getHeader();
+            if (first == null) {
+                first = header;
+            } else if (!header.isCompatible(first)) {
+                throw new IOException("Incompatible stream " + srcFiles.get(i) + ": " + header + ", expected: " + first);
+            }
+        }
+        int frameCount = 0;
+        try (RandomAccessFile dst = new RandomAccessFile(dstFile, "rw");
+             FileChannel dstChannel = dst.getChannel()) {
+            dstChannel.truncate(0);
+            for (int i = 0; i < indexes.length; i++) {
+                try (RandomAccessFile src = new RandomAccessFile(srcFiles.get(i), "r");
+                     FileChannel srcChannel = src.getChannel()) {
+                    copyFrames(indexes[i], 0, indexes[i].getFrameCount(), srcChannel, dstChannel);
+                }
+                frameCount += indexes[i].getFrameCount();
+            }
+        }
+        return frameCount;
+    }
+
+    /**
+     * 相邻的帧合并成一次 transferTo，帧之间的无效数据不拷贝
+     */
+    private static void copyFrames(AdtsIndex index, int startFrame, int endFrame,
+                                   FileChannel srcChannel, FileChannel dstChannel) throws IOException {
+        long runStart = index.getFrameOffset(startFrame);
+        long runEnd = runStart;
+        for (int i = startFrame; i < endFrame; i++) {
+            long offset = index.getFrameOffset(i);
+            if (offset != runEnd) {
+                transferFully(srcChannel, runStart, runEnd - runStart, dstChannel);
+                runStart = offset;
+            }
+            runEnd = offset + index.getFrameSize(i);
+        }
+        transferFully(srcChannel, runStart, runEnd - runStart, dstChannel);
+    }
+
+    private static void transferFully(FileChannel src, long position, long count, FileChannel dst) throws IOException {
+        long transferred = 0;
+        while (transferred < count) {
+            long n = src.transferTo(position + transferred, count - transferred, dst);
+            if (n <= 0) {
+                throw new IOException("Unexpected end of file at " + (position + transferred));
+            }
+            transferred += n;
+        }
+    }
+}
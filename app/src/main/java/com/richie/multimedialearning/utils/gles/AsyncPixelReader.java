@@ -0,0 +1,360 @@
+package com.richie.multimedialearning.utils.gles;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * 流水线式的像素读取，绘制、读取和使用数据互相重叠
+ * <p>
+ * 几个 FBO 渲染目标轮流使用。GLES3 上 glReadPixels 读到每个目标自己的 PBO 并插入 fence，
+ * 立即返回，GPU 完成后再映射复制到 RGBA 缓冲区；GLES2 上直接读到轮换的 RGBA 缓冲区。
+ * RGBA 缓冲区的数量是固定的，读好的帧放入队列交给使用者，使用者处理完调用 {@link #recycle(Frame)} 归还，
+ * 使用者太慢时读取会等待，形成背压。
+ * <p>
+ * beginFrame、endFrame、poll、finish 和 release 在 GL 线程调用，take 和 recycle 可以在任意线程调用。
+ */
+public final class AsyncPixelReader {
+    private static final String TAG = "AsyncPixelReader";
+    private static final long FENCE_TIMEOUT_NS = 100_000_000;
+    private static final Frame END = new Frame(null, 0, 0, -1);
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mFrameSize;
+    private final boolean mUsePbo;
+    private final Slot[] mSlots;
+    private int mCurrentSlot;
+    private final BlockingQueue<ByteBuffer> mFreeBuffers;
+    private final BlockingQueue<Frame> mReadyFrames = new LinkedBlockingQueue<>();
+    private final int[] mOriginalViewport = new int[4];
+    private long mReadCount;
+    private long mFenceWaitCount;
+    private long mFenceWaitNs;
+    private long mBufferWaitCount;
+    private long mBufferWaitNs;
+    private long mErrorCount;
+
+    /**
+     * 创建渲染目标和缓冲区，在 GL 线程调用
+     *
+     * @param width       宽
+     * @param height      高
+     * @param depth       渲染目标的个数，最多这么多帧在 GPU 上等待读取
+     * @param bufferCount RGBA 缓冲区的个数，最多这么多帧等待使用者处理
+     * @param gles3       当前上下文是否是 GLES3，是的话使用 PBO
+     */
+    public AsyncPixelReader(int width, int height, int depth, int bufferCount, boolean gles3) {
+        mWidth = width;
+        mHeight = height;
+        mFrameSize = width * height * 4;
+        mUsePbo = gles3;
+        mSlots = new Slot[depth];
+        int[] fboTex = new int[1];
+        int[] fboId = new int[1];
+        int[] pboId = new int[1];
+        for (int i = 0; i < depth; i++) {
+            GlUtil.createFrameBuffers(fboTex, fboId, width, height);
+            Slot slot = new Slot(fboTex[0], fboId[0]);
+            if (gles3) {
+                GLES30.glGenBuffers(1, pboId, 0);
+                GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, pboId[0]);
+                GLES30.glBufferData(GLES30.GL_PIXEL_PACK_BUFFER, mFrameSize, null, GLES30.GL_STREAM_READ);
+                slot.mPboId = pboId[0];
+            }
+            mSlots[i] = slot;
+        }
+        if (gles3) {
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        }
+        mFreeBuffers = new ArrayBlockingQueue<>(bufferCount);
+        for (int i = 0; i < bufferCount; i++) {
+            mFreeBuffers.add(ByteBuffer.allocateDirect(mFrameSize).order(ByteOrder.LITTLE_ENDIAN));
+        }
+        Log.d(TAG, "AsyncPixelReader: " + width + "x" + height + ", depth " + depth + ", buffers " + bufferCount
+                + ", pbo " + gles3);
+    }
+
+    /**
+     * 绑定下一个渲染目标并设置视口，之后绘制要读取的内容。目标还在等待读取时先完成读取
+     */
+    public void beginFrame() {
+        Slot slot = mSlots[mCurrentSlot];
+        if (slot.mPending) {
+            completeSlot(slot, true);
+        }
+        GLES20.glGetIntegerv(GLES20.GL_VIEWPORT, mOriginalViewport, 0);
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, slot.mFboId);
+        GLES20.glViewport(0, 0, mWidth, mHeight);
+    }
+
+    /**
+     * 开始读取当前渲染目标，恢复默认的帧缓冲和视口
+     *
+     * @param tag 帧的标记，比如序号或者时间戳，原样交给使用者
+     */
+    public void endFrame(long tag) {
+        Slot slot = mSlots[mCurrentSlot];
+        mCurrentSlot = (mCurrentSlot + 1) % mSlots.length;
+        if (mUsePbo) {
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, slot.mPboId);
+            GLES30.glReadPixels(0, 0, mWidth, mHeight, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, 0);
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+            slot.mFence = GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+            slot.mTag = tag;
+            slot.mPending = true;
+            // 提交命令，fence 才会在之后触发
+            GLES20.glFlush();
+        } else {
+            ByteBuffer buffer = obtainBuffer();
+            if (buffer != null) {
+                GLES20.glReadPixels(0, 0, mWidth, mHeight, GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, buffer);
+                deliver(buffer, tag);
+            } else {
+                mErrorCount++;
+                Log.e(TAG, "endFrame: interrupted, drop frame " + tag);
+            }
+        }
+        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        GLES20.glViewport(mOriginalViewport[0], mOriginalViewport[1], mOriginalViewport[2], mOriginalViewport[3]);
+    }
+
+    /**
+     * 按顺序交付 GPU 已经完成的帧，不等待
+     */
+    public void poll() {
+        for (int i = 0; i < mSlots.length; i++) {
+            Slot slot = mSlots[(mCurrentSlot + i) % mSlots.length];
+            if (slot.mPending && !completeSlot(slot, false)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * 等所有帧读完并交付，之后 {@link #take()} 在队列取空后返回 null
+     */
+    public void finish() {
+        for (int i = 0; i < mSlots.length; i++) {
+            Slot slot = mSlots[(mCurrentSlot + i) % mSlots.length];
+            if (slot.mPending) {
+                completeSlot(slot, true);
+            }
+        }
+        mReadyFrames.offer(END);
+        Log.d(TAG, "finish: read " + mReadCount + ", errors " + mErrorCount + ", fence wait " + mFenceWaitCount
+                + " times " + mFenceWaitNs / 1000 + "us, buffer wait " + mBufferWaitCount + " times "
+                + mBufferWaitNs / 1000 + "us");
+    }
+
+    /**
+     * 取出下一帧，没有时等待
+     *
+     * @return 读好的帧，结束之后返回 null
+     * @throws InterruptedException
+     */
+    public Frame take() throws InterruptedException {
+        Frame frame = mReadyFrames.take();
+        if (frame == END) {
+            // 放回去，其他使用者也能结束
+            mReadyFrames.offer(END);
+            return null;
+        }
+        return frame;
+    }
+
+    /**
+     * 归还处理完的帧
+     *
+     * @param frame
+     */
+    public void recycle(Frame frame) {
+        mFreeBuffers.offer(frame.mData);
+    }
+
+    /**
+     * 释放 GL 资源，没有读完的帧丢弃
+     */
+    public void release() {
+        int[] ids = new int[1];
+        for (Slot slot : mSlots) {
+            if (slot.mPending) {
+                GLES30.glDeleteSync(slot.mFence);
+                slot.mPending = false;
+            }
+            if (slot.mPboId != 0) {
+                ids[0] = slot.mPboId;
+                GLES30.glDeleteBuffers(1, ids, 0);
+            }
+            ids[0] = slot.mFboId;
+            GlUtil.deleteFrameBuffers(ids);
+            ids[0] = slot.mFboTex;
+            GlUtil.deleteTextures(ids);
+        }
+    }
+
+    public boolean isUsingPbo() {
+        return mUsePbo;
+    }
+
+    /**
+     * @return 读取完成的帧数
+     */
+    public long getReadCount() {
+        return mReadCount;
+    }
+
+    /**
+     * @return 等待 GPU 完成读取的总时间，越小说明读取和绘制重叠得越好
+     */
+    public long getFenceWaitNs() {
+        return mFenceWaitNs;
+    }
+
+    /**
+     * @return 等待使用者归还缓冲区的总时间，越大说明使用者越慢
+     */
+    public long getBufferWaitNs() {
+        return mBufferWaitNs;
+    }
+
+    /**
+     * @return 读取失败丢弃的帧数
+     */
+    public long getErrorCount() {
+        return mErrorCount;
+    }
+
+    /**
+     * 完成一个渲染目标的读取
+     *
+     * @param block 是否等待 GPU 完成
+     * @return 是否完成
+     */
+    private boolean completeSlot(Slot slot, boolean block) {
+        int result = GLES30.glClientWaitSync(slot.mFence, 0, 0);
+        if (result == GLES30.GL_TIMEOUT_EXPIRED) {
+            if (!block) {
+                return false;
+            }
+            long start = System.nanoTime();
+            do {
+                result = GLES30.glClientWaitSync(slot.mFence, GLES30.GL_SYNC_FLUSH_COMMANDS_BIT, FENCE_TIMEOUT_NS);
+            } while (result == GLES30.GL_TIMEOUT_EXPIRED);
+            mFenceWaitCount++;
+            mFenceWaitNs += System.nanoTime() - start;
+        }
+        if (result == GLES30.GL_WAIT_FAILED) {
+            Log.w(TAG, "completeSlot: wait failed, error " + GLES20.glGetError());
+        }
+        GLES30.glDeleteSync(slot.mFence);
+        slot.mPending = false;
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, slot.mPboId);
+        ByteBuffer mapped = (ByteBuffer) GLES30.glMapBufferRange(GLES30.GL_PIXEL_PACK_BUFFER, 0, mFrameSize,
+                GLES30.GL_MAP_READ_BIT);
+        if (mapped == null) {
+            // 没有数据，不能当作正常的帧交付
+            mErrorCount++;
+            Log.e(TAG, "completeSlot: map failed, drop frame " + slot.mTag + ", error " + GLES20.glGetError());
+            GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+            return true;
+        }
+        ByteBuffer buffer = obtainBuffer();
+        if (buffer != null) {
+            buffer.put(mapped);
+            buffer.flip();
+        }
+        GLES30.glUnmapBuffer(GLES30.GL_PIXEL_PACK_BUFFER);
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_PACK_BUFFER, 0);
+        if (buffer != null) {
+            deliver(buffer, slot.mTag);
+        } else {
+            mErrorCount++;
+            Log.e(TAG, "completeSlot: interrupted, drop frame " + slot.mTag);
+        }
+        return true;
+    }
+
+    /**
+     * 取一个空闲的 RGBA 缓冲区，没有时等使用者归还
+     *
+     * @return 等待时线程被中断返回 null，中断标记保留给调用者
+     */
+    private ByteBuffer obtainBuffer() {
+        ByteBuffer buffer = mFreeBuffers.poll();
+        if (buffer == null) {
+            long start = System.nanoTime();
+            try {
+                buffer = mFreeBuffers.take();
+            } catch (InterruptedException e) {
+                Log.w(TAG, "obtainBuffer: ", e);
+                Thread.currentThread().interrupt();
+                return null;
+            } finally {
+                mBufferWaitCount++;
+                mBufferWaitNs += System.nanoTime() - start;
+            }
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    private void deliver(ByteBuffer buffer, long tag) {
+        buffer.rewind();
+        mReadCount++;
+        mReadyFrames.offer(new Frame(buffer, mWidth, mHeight, tag));
+    }
+
+    /**
+     * 读好的一帧，数据是从下到上的 RGBA，和 glReadPixels 的结果一样
+     */
+    public static final class Frame {
+        private final ByteBuffer mData;
+        private final int mWidth;
+        private final int mHeight;
+        private final long mTag;
+
+        Frame(ByteBuffer data, int width, int height, long tag) {
+            mData = data;
+            mWidth = width;
+            mHeight = height;
+            mTag = tag;
+        }
+
+        public ByteBuffer getData() {
+            return mData;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        public long getTag() {
+            return mTag;
+        }
+    }
+
+    private static final class Slot {
+        final int mFboTex;
+        final int mFboId;
+        int mPboId;
+        long mFence;
+        long mTag;
+        boolean mPending;
+
+        Slot(int fboTex, int fboId) {
+            mFboTex = fboTex;
+            mFboId = fboId;
+        }
+    }
+}
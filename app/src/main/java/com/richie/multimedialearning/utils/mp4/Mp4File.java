@@ -0,0 +1,233 @@
+package com.richie.multimedialearning.utils.mp4;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 纯 Java 的 MP4 读取，不依赖 MediaExtractor，可以在 JVM 上运行
+ * <p>
+ * 打开时只读取 moov，把样本表展开成基本类型数组。样本数据通过内存映射读取，
+ * 映射窗口 32MB，样本落在当前窗口之外时重新映射，顺序读取时每 32MB 才重新映射一次。
+ * 不是线程安全的，每个线程应该打开自己的实例。
+ */
+public final class Mp4File implements Closeable {
+    // 32 位进程的地址空间有限，大窗口经常映射失败
+    private static final long MAP_WINDOW_SIZE = 32 << 20;
+    private static final int NAL_START_CODE_SIZE = 4;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final long mFileSize;
+    private final List<Mp4Track> mTracks;
+    private final long mParseTimeNs;
+    private MappedByteBuffer mWindow;
+    // 当前窗口的复制视图，读取时修改它的 position 和 limit，不影响 mWindow
+    private ByteBuffer mWindowView;
+    private long mWindowStart;
+    private long mWindowEnd;
+
+    private Mp4File(RandomAccessFile file, List<Mp4Track> tracks, long parseTimeNs) throws IOException {
+        mFile = file;
+        mChannel = file.getChannel();
+        mFileSize = mChannel.size();
+        mTracks = Collections.unmodifiableList(tracks);
+        mParseTimeNs = parseTimeNs;
+    }
+
+    /**
+     * 打开文件并解析样本表
+     *
+     * @param file MP4 文件
+     * @return
+     * @throws IOException 文件无法读取或者没有 moov
+     */
+    public static Mp4File open(File file) throws IOException {
+        long start = System.nanoTime();
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer moov = mapMoov(channel);
+            List<Mp4Track> tracks = Mp4Parser.parseMoov(moov);
+            return new Mp4File(raf, tracks, System.nanoTime() - start);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        } catch (RuntimeException e) {
+            raf.close();
+            throw new IOException("Failed to open " + file + ": " + e, e);
+        }
+    }
+
+    /**
+     * 逐个读取顶层盒子头找到 moov，moov 在文件末尾时也只需要少量读取
+     */
+    private static ByteBuffer mapMoov(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(16);
+        long position = 0;
+        while (position + 8 <= fileSize) {
+            header.clear();
+            int read = channel.read(header, position);
+            if (read < 8) {
+                break;
+            }
+            long size = header.getInt(0) & 0xFFFFFFFFL;
+            int headerSize = 8;
+            if (size == 1) {
+                if (read < 16) {
+                    break;
+                }
+                size = header.getLong(8);
+                headerSize = 16;
+            } else if (size == 0) {
+                size = fileSize - position;
+            }
+            if (size < headerSize || position + size > fileSize) {
+                throw new IOException("Invalid top level box at " + position + ", size " + size);
+            }
+            if (header.getInt(4) == Mp4Parser.TYPE_MOOV) {
+                if (size - headerSize > Integer.MAX_VALUE) {
+                    throw new IOException("moov too large: " + size);
+                }
+                return channel.map(FileChannel.MapMode.READ_ONLY, position + headerSize, size - headerSize);
+            }
+            position += size;
+        }
+        throw new IOException("No moov box found");
+    }
+
+    public List<Mp4Track> getTracks() {
+        return mTracks;
+    }
+
+    /**
+     * @return 第一条支持的视频轨道，没有时返回 null
+     */
+    public Mp4Track getVideoTrack() {
+        return findTrack(Mp4Track.HANDLER_VIDEO);
+    }
+
+    /**
+     * @return 第一条支持的音频轨道，没有时返回 null
+     */
+    public Mp4Track getAudioTrack() {
+        return findTrack(Mp4Track.HANDLER_AUDIO);
+    }
+
+    private Mp4Track findTrack(String handlerType) {
+        for (Mp4Track track : mTracks) {
+            if (handlerType.equals(track.mHandlerType) && track.mMime != null) {
+                return track;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return 打开文件和解析样本表的耗时
+     */
+    public long getParseTimeNs() {
+        return mParseTimeNs;
+    }
+
+    public long getFileSize() {
+        return mFileSize;
+    }
+
+    /**
+     * 零拷贝读取样本，返回映射内存的只读切片
+     * <p>
+     * 切片在重新映射之后仍然有效，但是每次调用都会创建一个对象，逐帧读取时用 {@link #readSample} 更好。
+     *
+     * @param track 轨道
+     * @param index 样本序号
+     * @return 样本数据，position 为 0，limit 为样本大小
+     * @throws IOException
+     */
+    public ByteBuffer getSampleData(Mp4Track track, int index) throws IOException {
+        Mp4SampleTable table = track.mSampleTable;
+        int size = table.getSize(index);
+        ByteBuffer view = mapSample(table.getOffset(index), size);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * 把样本复制到目标缓冲区的当前位置
+     *
+     * @param track  轨道
+     * @param index  样本序号
+     * @param dst    目标，剩余空间不够时抛出 BufferOverflowException
+     * @param annexB H.264/H.265 是否把长度前缀替换为起始码，解码器需要起始码格式
+     * @return 写入的字节数
+     * @throws IOException 文件读取失败或者 NAL 长度错误
+     */
+    public int readSample(Mp4Track track, int index, ByteBuffer dst, boolean annexB) throws IOException {
+        Mp4SampleTable table = track.mSampleTable;
+        int size = table.getSize(index);
+        ByteBuffer view = mapSample(table.getOffset(index), size);
+        int lengthSize = track.mNalLengthSize;
+        if (!annexB || lengthSize == 0) {
+            dst.put(view);
+            return size;
+        }
+        int p = view.position();
+        int end = view.limit();
+        int written = 0;
+        while (p + lengthSize <= end) {
+            int nalLength = 0;
+            for (int i = 0; i < lengthSize; i++) {
+                nalLength = nalLength << 8 | (view.get(p + i) & 0xFF);
+            }
+            p += lengthSize;
+            if (nalLength < 0 || nalLength > end - p) {
+                throw new IOException("Invalid NAL length " + nalLength + " in sample " + index);
+            }
+            dst.put((byte) 0).put((byte) 0).put((byte) 0).put((byte) 1);
+            view.limit(p + nalLength);
+            view.position(p);
+            dst.put(view);
+            view.limit(end);
+            p += nalLength;
+            written += NAL_START_CODE_SIZE + nalLength;
+        }
+        return written;
+    }
+
+    /**
+     * 确保样本在映射窗口内
+     *
+     * @return 窗口视图，position 和 limit 是样本的范围
+     */
+    private ByteBuffer mapSample(long offset, int size) throws IOException {
+        if (offset < 0 || offset + size > mFileSize) {
+            throw new IOException("Sample out of file, offset: " + offset + ", size: " + size);
+        }
+        if (mWindow == null || offset < mWindowStart || offset + size > mWindowEnd) {
+            long length = Math.min(mFileSize - offset, Math.max(MAP_WINDOW_SIZE, size));
+            mWindow = mChannel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+            mWindowView = mWindow.duplicate();
+            mWindowStart = offset;
+            mWindowEnd = offset + length;
+        }
+        int position = (int) (offset - mWindowStart);
+        ByteBuffer view = mWindowView;
+        view.clear();
+        view.position(position);
+        view.limit(position + size);
+        return view;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mWindow = null;
+        mWindowView = null;
+        mFile.close();
+    }
+}
@@ -0,0 +1,516 @@
+package com.richie.multimedialearning.utils.mp4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ISO-BMFF 的 moov 解析，只读取播放需要的盒子，不支持分片 MP4（moof）和编辑列表（elst）
+ * <p>
+ * 所有读取都是对 moov 缓冲区的绝对位置读取，不改变缓冲区的 position。
+ * 盒子内容越界等格式错误都以 IOException 抛出。
+ */
+final class Mp4Parser {
+    static final int TYPE_FTYP = fourcc("ftyp");
+    static final int TYPE_MOOV = fourcc("moov");
+    private static final int TYPE_TRAK = fourcc("trak");
+    private static final int TYPE_TKHD = fourcc("tkhd");
+    private static final int TYPE_MDIA = fourcc("mdia");
+    private static final int TYPE_MDHD = fourcc("mdhd");
+    private static final int TYPE_HDLR = fourcc("hdlr");
+    private static final int TYPE_MINF = fourcc("minf");
+    private static final int TYPE_STBL = fourcc("stbl");
+    private static final int TYPE_STSD = fourcc("stsd");
+    private static final int TYPE_STTS = fourcc("stts");
+    private static final int TYPE_CTTS = fourcc("ctts");
+    private static final int TYPE_STSZ = fourcc("stsz");
+    private static final int TYPE_STZ2 = fourcc("stz2");
+    private static final int TYPE_STSC = fourcc("stsc");
+    private static final int TYPE_STCO = fourcc("stco");
+    private static final int TYPE_CO64 = fourcc("co64");
+    private static final int TYPE_STSS = fourcc("stss");
+    private static final int TYPE_AVCC = fourcc("avcC");
+    private static final int TYPE_HVCC = fourcc("hvcC");
+    private static final int TYPE_ESDS = fourcc("esds");
+    private static final byte[] START_CODE = {0, 0, 0, 1};
+
+    private Mp4Parser() {
+    }
+
+    static int fourcc(String type) {
+        return type.charAt(0) << 24 | type.charAt(1) << 16 | type.charAt(2) << 8 | type.charAt(3);
+    }
+
+    static String fourccToString(int type) {
+        return new String(new char[]{(char) (type >>> 24), (char) (type >>> 16 & 0xFF),
+                (char) (type >>> 8 & 0xFF), (char) (type & 0xFF)});
+    }
+
+    /**
+     * @param moov moov 盒子的内容，不含盒子头
+     * @return 所有有样本的轨道
+     * @throws IOException 格式错误
+     */
+    static List<Mp4Track> parseMoov(ByteBuffer moov) throws IOException {
+        try {
+            return parseTracks(moov);
+        } catch (RuntimeException e) {
+            // 盒子里的长度和个数不可信，越界读取和数组长度错误都当作格式错误
+            throw new IOException("Invalid moov: " + e, e);
+        }
+    }
+
+    private static List<Mp4Track> parseTracks(ByteBuffer moov) throws IOException {
+        List<Mp4Track> tracks = new ArrayList<>();
+        int end = moov.limit();
+        int p = 0;
+        while (p + 8 <= end) {
+            long size = boxSize(moov, p, end);
+            int header = moov.getInt(p) == 1 ? 16 : 8;
+            if (moov.getInt(p + 4) == TYPE_TRAK) {
+                Mp4Track track = new Mp4Track();
+                SampleBoxes boxes = new SampleBoxes();
+                parseContainer(moov, p + header, (int) (p + size), track, boxes);
+                track.mSampleTable = buildSampleTable(moov, boxes);
+                if (track.mDurationUs <= 0) {
+                    track.mDurationUs = boxes.mMaxTimeUs;
+                }
+                if (track.mSampleTable.getSampleCount() > 0) {
+                    tracks.add(track);
+                }
+            }
+            p += size;
+        }
+        return tracks;
+    }
+
+    /**
+     * @return 盒子的总长度，包含盒子头
+     */
+    static long boxSize(ByteBuffer buffer, int p, int end) throws IOException {
+        long size = buffer.getInt(p) & 0xFFFFFFFFL;
+        int header = 8;
+        if (size == 1) {
+            size = buffer.getLong(p + 8);
+            header = 16;
+        } else if (size == 0) {
+            size = end - p;
+        }
+        if (size < header || p + size > end) {
+            throw new IOException("Invalid box " + fourccToString(buffer.getInt(p + 4)) + " at " + p + ", size " + size);
+        }
+        return size;
+    }
+
+    private static void parseContainer(ByteBuffer buf, int start, int end, Mp4Track track, SampleBoxes boxes) throws IOException {
+        int p = start;
+        while (p + 8 <= end) {
+            long size = boxSize(buf, p, end);
+            int header = buf.getInt(p) == 1 ? 16 : 8;
+            int type = buf.getInt(p + 4);
+            int body = p + header;
+            int boxEnd = (int) (p + size);
+            if (type == TYPE_MDIA || type == TYPE_MINF || type == TYPE_STBL) {
+                parseContainer(buf, body, boxEnd, track, boxes);
+            } else if (type == TYPE_TKHD) {
+                parseTkhd(buf, body, track);
+            } else if (type == TYPE_MDHD) {
+                parseMdhd(buf, body, track);
+            } else if (type == TYPE_HDLR) {
+                track.mHandlerType = fourccToString(buf.getInt(body + 8));
+            } else if (type == TYPE_STSD) {
+                parseStsd(buf, body, boxEnd, track);
+            } else if (type == TYPE_STTS) {
+                boxes.mStts = body;
+            } else if (type == TYPE_CTTS) {
+                boxes.mCtts = body;
+            } else if (type == TYPE_STSZ || type == TYPE_STZ2) {
+                boxes.mStsz = body;
+                boxes.mCompactSizes = type == TYPE_STZ2;
+            } else if (type == TYPE_STSC) {
+                boxes.mStsc = body;
+            } else if (type == TYPE_STCO || type == TYPE_CO64) {
+                boxes.mStco = body;
+                boxes.mLargeOffsets = type == TYPE_CO64;
+            } else if (type == TYPE_STSS) {
+                boxes.mStss = body;
+            }
+            p = boxEnd;
+        }
+        boxes.mTimescale = track.mTimescale;
+    }
+
+    private static void parseTkhd(ByteBuffer buf, int body, Mp4Track track) {
+        int version = buf.get(body) & 0xFF;
+        track.mTrackId = buf.getInt(body + (version == 1 ? 20 : 12));
+        int matrix = body + (version == 1 ? 52 : 40);
+        int a = buf.getInt(matrix);
+        int b = buf.getInt(matrix + 4);
+        int c = buf.getInt(matrix + 12);
+        int d = buf.getInt(matrix + 16);
+        if (a == 0 && b == 0x10000 && c == -0x10000 && d == 0) {
+            track.mRotation = 90;
+        } else if (a == -0x10000 && b == 0 && c == 0 && d == -0x10000) {
+            track.mRotation = 180;
+        } else if (a == 0 && b == -0x10000 && c == 0x10000 && d == 0) {
+            track.mRotation = 270;
+        }
+    }
+
+    private static void parseMdhd(ByteBuffer buf, int body, Mp4Track track) {
+        int version = buf.get(body) & 0xFF;
+        long duration;
+        if (version == 1) {
+            track.mTimescale = buf.getInt(body + 20) & 0xFFFFFFFFL;
+            duration = buf.getLong(body + 24);
+        } else {
+            track.mTimescale = buf.getInt(body + 12) & 0xFFFFFFFFL;
+            duration = buf.getInt(body + 16) & 0xFFFFFFFFL;
+            if (duration == 0xFFFFFFFFL) {
+                duration = -1;
+            }
+        }
+        track.mDurationUs = duration > 0 && track.mTimescale > 0 ? scaleToUs(duration, track.mTimescale) : 0;
+    }
+
+    /**
+     * 只解析第一个样本描述
+     */
+    private static void parseStsd(ByteBuffer buf, int body, int end, Mp4Track track) throws IOException {
+        if (buf.getInt(body + 4) <= 0) {
+            return;
+        }
+        int entry = body + 8;
+        long entrySize = boxSize(buf, entry, end);
+        int entryEnd = (int) (entry + entrySize);
+        int type = buf.getInt(entry + 4);
+        track.mSampleEntryType = fourccToString(type);
+        int children;
+        if (Mp4Track.HANDLER_VIDEO.equals(track.mHandlerType)) {
+            track.mWidth = buf.getShort(entry + 32) & 0xFFFF;
+            track.mHeight = buf.getShort(entry + 34) & 0xFFFF;
+            children = entry + 86;
+        } else if (Mp4Track.HANDLER_AUDIO.equals(track.mHandlerType)) {
+            int version = buf.getShort(entry + 16) & 0xFFFF;
+            if (version == 2) {
+                track.mSampleRate = (int) Double.longBitsToDouble(buf.getLong(entry + 40));
+                track.mChannelCount = buf.getInt(entry + 48);
+                children = entry + 72;
+            } else {
+                track.mChannelCount = buf.getShort(entry + 24) & 0xFFFF;
+                track.mSampleRate = buf.getInt(entry + 32) >>> 16;
+                children = entry + (version == 1 ? 52 : 36);
+            }
+        } else {
+            return;
+        }
+        track.mMime = getMime(track.mSampleEntryType);
+        int p = children;
+        while (p + 8 <= entryEnd) {
+            long size = boxSize(buf, p, entryEnd);
+            int childType = buf.getInt(p + 4);
+            if (childType == TYPE_AVCC) {
+                parseAvcC(buf, p + 8, (int) (p + size), track);
+            } else if (childType == TYPE_HVCC) {
+                parseHvcC(buf, p + 8, (int) (p + size), track);
+            } else if (childType == TYPE_ESDS) {
+                parseEsds(buf, p + 12, (int) (p + size), track);
+            }
+            p += size;
+        }
+    }
+
+    private static String getMime(String sampleEntryType) {
+        switch (sampleEntryType) {
+            case "avc1":
+            case "avc3":
+                return "video/avc";
+            case "hvc1":
+            case "hev1":
+                return "video/hevc";
+            case "mp4v":
+                return "video/mp4v-es";
+            case "s263":
+            case "h263":
+                return "video/3gpp";
+            case "vp09":
+                return "video/x-vnd.on2.vp9";
+            case "mp4a":
+                return "audio/mp4a-latm";
+            case "samr":
+                return "audio/3gpp";
+            case "sawb":
+                return "audio/amr-wb";
+            case "Opus":
+                return "audio/opus";
+            case "ac-3":
+                return "audio/ac3";
+            default:
+                return null;
+        }
+    }
+
+    private static void parseAvcC(ByteBuffer buf, int p, int end, Mp4Track track) throws IOException {
+        track.mNalLengthSize = (buf.get(p + 4) & 0x3) + 1;
+        int spsCount = buf.get(p + 5) & 0x1F;
+        int spsStart = p + 6;
+        int spsEnd = skipNals(buf, spsStart, spsCount, end);
+        if (spsEnd >= end) {
+            throw new IOException("avcC without pps count");
+        }
+        int ppsCount = buf.get(spsEnd) & 0xFF;
+        int ppsStart = spsEnd + 1;
+        int ppsEnd = skipNals(buf, ppsStart, ppsCount, end);
+        // 每个 2 字节的长度前缀替换为 4 字节的起始码
+        track.mCsd0 = new byte[spsEnd - spsStart + spsCount * 2];
+        copyNals(buf, spsStart, spsCount, track.mCsd0, 0);
+        track.mCsd1 = new byte[ppsEnd - ppsStart + ppsCount * 2];
+        copyNals(buf, ppsStart, ppsCount, track.mCsd1, 0);
+    }
+
+    private static void parseHvcC(ByteBuffer buf, int p, int end, Mp4Track track) throws IOException {
+        track.mNalLengthSize = (buf.get(p + 21) & 0x3) + 1;
+        int arrayCount = buf.get(p + 22) & 0xFF;
+        // 先检查所有 NAL 都在盒子内并计算总长度，再一次复制
+        int size = 0;
+        int q = p + 23;
+        for (int i = 0; i < arrayCount; i++) {
+            if (q + 3 > end) {
+                throw new IOException("hvcC array out of box");
+            }
+            int nalCount = buf.getShort(q + 1) & 0xFFFF;
+            int nalEnd = skipNals(buf, q + 3, nalCount, end);
+            size += nalEnd - q - 3 + nalCount * 2;
+            q = nalEnd;
+        }
+        byte[] csd = new byte[size];
+        int offset = 0;
+        q = p + 23;
+        for (int i = 0; i < arrayCount; i++) {
+            int nalCount = buf.getShort(q + 1) & 0xFFFF;
+            q += 3;
+            offset = copyNals(buf, q, nalCount, csd, offset);
+            q = skipNals(buf, q, nalCount, end);
+        }
+        track.mCsd0 = csd;
+    }
+
+    /**
+     * 跳过连续的 16 位长度前缀的 NAL，检查它们都在盒子内
+     *
+     * @return 最后一个 NAL 之后的位置
+     */
+    private static int skipNals(ByteBuffer buf, int p, int count, int end) throws IOException {
+        for (int i = 0; i < count; i++) {
+            if (p + 2 > end) {
+                throw new IOException("NAL length out of box at " + p);
+            }
+            int length = buf.getShort(p) & 0xFFFF;
+            p += 2 + length;
+            if (p > end) {
+                throw new IOException("NAL out of box, length " + length);
+            }
+        }
+        return p;
+    }
+
+    /**
+     * 复制已经用 {@link #skipNals} 检查过的 NAL，长度前缀替换为起始码
+     *
+     * @return dst 中写到的位置
+     */
+    private static int copyNals(ByteBuffer buf, int p, int count, byte[] dst, int offset) {
+        ByteBuffer src = buf.duplicate();
+        for (int i = 0; i < count; i++) {
+            int length = buf.getShort(p) & 0xFFFF;
+            p += 2;
+            System.arraycopy(START_CODE, 0, dst, offset, START_CODE.length);
+            offset += START_CODE.length;
+            src.limit(p + length);
+            src.position(p);
+            src.get(dst, offset, length);
+            offset += length;
+            p += length;
+        }
+        return offset;
+    }
+
+    /**
+     * 从 ES_Descriptor 中找到 DecoderSpecificInfo，AAC 是 AudioSpecificConfig
+     */
+    private static void parseEsds(ByteBuffer buf, int p, int end, Mp4Track track) {
+        while (p + 2 <= end) {
+            int tag = buf.get(p++) & 0xFF;
+            int length = 0;
+            for (int i = 0; i < 4; i++) {
+                int b = buf.get(p++) & 0xFF;
+                length = length << 7 | (b & 0x7F);
+                if ((b & 0x80) == 0) {
+                    break;
+                }
+            }
+            if (tag == 0x03) {
+                // ES_Descriptor：ES_ID 和标志之后是子描述符
+                int flags = buf.get(p + 2) & 0xFF;
+                p += 3;
+                if ((flags & 0x80) != 0) {
+                    p += 2;
+                }
+                if ((flags & 0x40) != 0) {
+                    p += 1 + (buf.get(p) & 0xFF);
+                }
+                if ((flags & 0x20) != 0) {
+                    p += 2;
+                }
+            } else if (tag == 0x04) {
+                // DecoderConfigDescriptor：objectTypeIndication 之后 13 字节是子描述符
+                int objectType = buf.get(p) & 0xFF;
+                if (objectType == 0x6B || objectType == 0x69) {
+                    track.mMime = "audio/mpeg";
+                }
+                p += 13;
+            } else if (tag == 0x05) {
+                byte[] csd = new byte[Math.min(length, end - p)];
+                for (int i = 0; i < csd.length; i++) {
+                    csd[i] = buf.get(p + i);
+                }
+                track.mCsd0 = csd;
+                return;
+            } else {
+                p += length;
+            }
+        }
+    }
+
+    private static Mp4SampleTable buildSampleTable(ByteBuffer buf, SampleBoxes boxes) throws IOException {
+        if (boxes.mStsz < 0 || boxes.mStsc < 0 || boxes.mStco < 0 || boxes.mStts < 0 || boxes.mTimescale <= 0) {
+            return new Mp4SampleTable(new long[0], new int[0], new long[0], null);
+        }
+        int[] sizes = readSizes(buf, boxes);
+        int count = sizes.length;
+        long[] offsets = new long[count];
+        long[] timesUs = new long[count];
+
+        // stsc 把样本分配到块，块的起始位置来自 stco/co64
+        int chunkCount = buf.getInt(boxes.mStco + 4);
+        int stscCount = buf.getInt(boxes.mStsc + 4);
+        int sample = 0;
+        for (int e = 0; e < stscCount && sample < count; e++) {
+            int entry = boxes.mStsc + 8 + e * 12;
+            int firstChunk = buf.getInt(entry) - 1;
+            int samplesPerChunk = buf.getInt(entry + 4);
+            int lastChunk = e + 1 < stscCount ? buf.getInt(entry + 12) - 1 : chunkCount;
+            for (int chunk = firstChunk; chunk < lastChunk && chunk < chunkCount && sample < count; chunk++) {
+                long offset = boxes.mLargeOffsets ? buf.getLong(boxes.mStco + 8 + chunk * 8)
+                        : buf.getInt(boxes.mStco + 8 + chunk * 4) & 0xFFFFFFFFL;
+                for (int k = 0; k < samplesPerChunk && sample < count; k++) {
+                    offsets[sample] = offset;
+                    offset += sizes[sample];
+                    sample++;
+                }
+            }
+        }
+        if (sample < count) {
+            throw new IOException("Sample to chunk table covers " + sample + " of " + count + " samples");
+        }
+
+        // stts 是解码时间增量，ctts 是显示时间相对解码时间的偏移
+        int sttsCount = buf.getInt(boxes.mStts + 4);
+        long dts = 0;
+        sample = 0;
+        for (int e = 0; e < sttsCount && sample < count; e++) {
+            int entry = boxes.mStts + 8 + e * 8;
+            int sampleCount = buf.getInt(entry);
+            long delta = buf.getInt(entry + 4) & 0xFFFFFFFFL;
+            for (int k = 0; k < sampleCount && sample < count; k++) {
+                timesUs[sample++] = dts;
+                dts += delta;
+            }
+        }
+        while (sample < count) {
+            timesUs[sample++] = dts;
+        }
+        if (boxes.mCtts >= 0) {
+            int cttsCount = buf.getInt(boxes.mCtts + 4);
+            sample = 0;
+            for (int e = 0; e < cttsCount && sample < count; e++) {
+                int entry = boxes.mCtts + 8 + e * 8;
+                int sampleCount = buf.getInt(entry);
+                // version 0 按规范是无符号数，实际上负数偏移也常见，统一按有符号处理
+                int offset = buf.getInt(entry + 4);
+                for (int k = 0; k < sampleCount && sample < count; k++) {
+                    timesUs[sample++] += offset;
+                }
+            }
+        }
+        long timescale = boxes.mTimescale;
+        long maxTimeUs = 0;
+        for (int i = 0; i < count; i++) {
+            timesUs[i] = scaleToUs(Math.max(timesUs[i], 0), timescale);
+            maxTimeUs = Math.max(maxTimeUs, timesUs[i]);
+        }
+        boxes.mMaxTimeUs = maxTimeUs;
+
+        int[] syncSamples = null;
+        if (boxes.mStss >= 0) {
+            int syncCount = buf.getInt(boxes.mStss + 4);
+            syncSamples = new int[syncCount];
+            for (int i = 0; i < syncCount; i++) {
+                syncSamples[i] = buf.getInt(boxes.mStss + 8 + i * 4) - 1;
+            }
+        }
+        return new Mp4SampleTable(offsets, sizes, timesUs, syncSamples);
+    }
+
+    private static int[] readSizes(ByteBuffer buf, SampleBoxes boxes) {
+        int p = boxes.mStsz;
+        if (boxes.mCompactSizes) {
+            int fieldSize = buf.get(p + 7) & 0xFF;
+            int count = buf.getInt(p + 8);
+            int[] sizes = new int[count];
+            for (int i = 0; i < count; i++) {
+                if (fieldSize == 4) {
+                    int b = buf.get(p + 12 + i / 2) & 0xFF;
+                    sizes[i] = (i & 1) == 0 ? b >>> 4 : b & 0xF;
+                } else if (fieldSize == 8) {
+                    sizes[i] = buf.get(p + 12 + i) & 0xFF;
+                } else {
+                    sizes[i] = buf.getShort(p + 12 + i * 2) & 0xFFFF;
+                }
+            }
+            return sizes;
+        }
+        int sampleSize = buf.getInt(p + 4);
+        int count = buf.getInt(p + 8);
+        int[] sizes = new int[count];
+        for (int i = 0; i < count; i++) {
+            sizes[i] = sampleSize != 0 ? sampleSize : buf.getInt(p + 12 + i * 4);
+        }
+        return sizes;
+    }
+
+    static long scaleToUs(long time, long timescale) {
+        if (timescale == 1_000_000) {
+            return time;
+        }
+        // 避免 time * 1000000 溢出
+        return time / timescale * 1_000_000 + time % timescale * 1_000_000 / timescale;
+    }
+
+    /**
+     * stbl 中各个表的内容位置，-1 表示没有
+     */
+    private static final class SampleBoxes {
+        int mStts = -1;
+        int mCtts = -1;
+        int mStsz = -1;
+        int mStsc = -1;
+        int mStco = -1;
+        int mStss = -1;
+        boolean mCompactSizes;
+        boolean mLargeOffsets;
+        long mTimescale;
+        long mMaxTimeUs;
+    }
+}
@@ -0,0 +1,99 @@
+package com.richie.multimedialearning.utils.mp4;
+
+import java.util.Arrays;
+
+/**
+ * 一条轨道的样本索引，由 stbl 中的 stts、ctts、stsz、stsc、stco/co64、stss 展开得到
+ * <p>
+ * 样本按解码顺序排列，每个样本占 20 字节：文件偏移、大小和显示时间。关键帧只记录序号，没有 stss 时所有样本都是关键帧。
+ */
+public final class Mp4SampleTable {
+    private final long[] mOffsets;
+    private final int[] mSizes;
+    private final long[] mTimesUs;
+    // 关键帧的序号，从 0 开始递增，为 null 表示所有样本都是关键帧
+    private final int[] mSyncSamples;
+    private final int mMaxSampleSize;
+
+    Mp4SampleTable(long[] offsets, int[] sizes, long[] timesUs, int[] syncSamples) {
+        mOffsets = offsets;
+        mSizes = sizes;
+        mTimesUs = timesUs;
+        mSyncSamples = syncSamples;
+        int maxSize = 0;
+        for (int size : sizes) {
+            maxSize = Math.max(maxSize, size);
+        }
+        mMaxSampleSize = maxSize;
+    }
+
+    public int getSampleCount() {
+        return mSizes.length;
+    }
+
+    public long getOffset(int index) {
+        return mOffsets[index];
+    }
+
+    public int getSize(int index) {
+        return mSizes[index];
+    }
+
+    /**
+     * @param index 样本序号
+     * @return 显示时间
+     */
+    public long getTimeUs(int index) {
+        return mTimesUs[index];
+    }
+
+    public boolean isSync(int index) {
+        return mSyncSamples == null || Arrays.binarySearch(mSyncSamples, index) >= 0;
+    }
+
+    public int getMaxSampleSize() {
+        return mMaxSampleSize;
+    }
+
+    /**
+     * 跳转用的关键帧
+     *
+     * @param timeUs 目标时间
+     * @return 显示时间不晚于目标的最后一个关键帧的序号，目标在第一个关键帧之前时返回第一个关键帧，没有样本时返回 -1
+     */
+    public int getSyncSampleIndex(long timeUs) {
+        int count = getSampleCount();
+        if (count == 0) {
+            return -1;
+        }
+        if (mSyncSamples == null) {
+            // 所有样本都是关键帧时显示顺序和解码顺序一致
+            int low = 0;
+            int high = count - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (mTimesUs[mid] <= timeUs) {
+                    low = mid;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return low;
+        }
+        if (mSyncSamples.length == 0) {
+            return 0;
+        }
+        // 关键帧的显示时间是递增的
+        int low = 0;
+        int high = mSyncSamples.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mTimesUs[mSyncSamples[mid]] <= timeUs) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return mSyncSamples[low];
+    }
+}
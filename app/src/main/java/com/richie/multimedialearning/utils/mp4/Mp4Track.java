@@ -0,0 +1,119 @@
+package com.richie.multimedialearning.utils.mp4;
+
+/**
+ * MP4 文件中的一条轨道，包含解码需要的格式信息和样本索引
+ */
+public final class Mp4Track {
+    public static final String HANDLER_VIDEO = "vide";
+    public static final String HANDLER_AUDIO = "soun";
+
+    int mTrackId;
+    String mHandlerType;
+    long mTimescale;
+    long mDurationUs;
+    String mSampleEntryType;
+    String mMime;
+    int mWidth;
+    int mHeight;
+    int mRotation;
+    int mChannelCount;
+    int mSampleRate;
+    // H.264/H.265 样本中 NAL 长度字段的字节数，其他格式为 0
+    int mNalLengthSize;
+    // 解码器配置，H.264 是带起始码的 SPS 和 PPS，H.265 只有 csd-0，AAC 是 AudioSpecificConfig
+    byte[] mCsd0;
+    byte[] mCsd1;
+    Mp4SampleTable mSampleTable;
+
+    public int getTrackId() {
+        return mTrackId;
+    }
+
+    public String getHandlerType() {
+        return mHandlerType;
+    }
+
+    public boolean isVideo() {
+        return HANDLER_VIDEO.equals(mHandlerType);
+    }
+
+    public boolean isAudio() {
+        return HANDLER_AUDIO.equals(mHandlerType);
+    }
+
+    public long getTimescale() {
+        return mTimescale;
+    }
+
+    public long getDurationUs() {
+        return mDurationUs;
+    }
+
+    /**
+     * @return stsd 中的样本描述类型，例如 avc1、mp4a
+     */
+    public String getSampleEntryType() {
+        return mSampleEntryType;
+    }
+
+    /**
+     * @return 和 MediaFormat 一致的 MIME 类型，不支持的格式为 null
+     */
+    public String getMime() {
+        return mMime;
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * @return tkhd 矩阵中的顺时针旋转角度
+     */
+    public int getRotation() {
+        return mRotation;
+    }
+
+    public int getChannelCount() {
+        return mChannelCount;
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public int getNalLengthSize() {
+        return mNalLengthSize;
+    }
+
+    public byte[] getCsd0() {
+        return mCsd0;
+    }
+
+    public byte[] getCsd1() {
+        return mCsd1;
+    }
+
+    public Mp4SampleTable getSampleTable() {
+        return mSampleTable;
+    }
+
+    @Override
+    public String toString() {
+        return "Mp4Track{" +
+                "trackId=" + mTrackId +
+                ", handlerType='" + mHandlerType + '\'' +
+                ", mime='" + mMime + '\'' +
+                ", durationUs=" + mDurationUs +
+                ", width=" + mWidth +
+                ", height=" + mHeight +
+                ", channelCount=" + mChannelCount +
+                ", sampleRate=" + mSampleRate +
+                ", sampleCount=" + (mSampleTable == null ? 0 : mSampleTable.getSampleCount()) +
+                '}';
+    }
+}
@@ -0,0 +1,101 @@
+package com.richie.multimedialearning.utils.mp4;
+
+import com.richie.multimedialearning.utils.aac.AdtsHeader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 不依赖 MediaExtractor 和 MediaMuxer 的分离，把 MP4 中的轨道导出为裸流
+ */
+public final class Mp4Utils {
+
+    private Mp4Utils() {
+    }
+
+    /**
+     * 分离 AAC 音频轨道，每个样本加上 ADTS 帧头
+     *
+     * @param srcFile MP4 文件
+     * @param dstFile 输出的 ADTS 文件
+     * @return 输出的帧数
+     * @throws IOException 没有 AAC 轨道或者配置不支持
+     */
+    public static int extractAac(File srcFile, File dstFile) throws IOException {
+        try (Mp4File mp4File = Mp4File.open(srcFile);
+             RandomAccessFile dst = new RandomAccessFile(dstFile, "rw");
+             FileChannel dstChannel = dst.getChannel()) {
+            Mp4Track track = mp4File.getAudioTrack();
+            if (track == null || !"audio/mp4a-latm".equals(track.mMime) || track.mCsd0 == null || track.mCsd0.length < 2) {
+                throw new IOException("No AAC track in " + srcFile);
+            }
+            // AudioSpecificConfig 的前 5 位是 audioObjectType，接着 4 位采样率序号和 4 位声道配置
+            byte[] csd = track.mCsd0;
+            int objectType = (csd[0] & 0xFF) >> 3;
+            int channelConfig = (csd[1] >> 3) & 0xF;
+            if (objectType < AdtsHeader.PROFILE_AAC_MAIN || objectType > AdtsHeader.PROFILE_AAC_LTP) {
+                throw new IOException("Unsupported audio object type for ADTS: " + objectType);
+            }
+            AdtsHeader header = new AdtsHeader(objectType, track.mSampleRate, channelConfig);
+            Mp4SampleTable table = track.mSampleTable;
+            ByteBuffer buffer = ByteBuffer.allocateDirect(AdtsHeader.HEADER_SIZE + table.getMaxSampleSize());
+            dstChannel.truncate(0);
+            int count = table.getSampleCount();
+            for (int i = 0; i < count; i++) {
+                buffer.clear();
+                buffer.position(AdtsHeader.HEADER_SIZE);
+                int size = mp4File.readSample(track, i, buffer, false);
+                header.write(buffer, 0, size);
+                buffer.flip();
+                writeFully(dstChannel, buffer);
+            }
+            return count;
+        }
+    }
+
+    /**
+     * 分离 H.264/H.265 视频轨道，输出带起始码的裸流，开头是参数集
+     *
+     * @param srcFile MP4 文件
+     * @param dstFile 输出的 .h264 或 .h265 文件
+     * @return 输出的帧数
+     * @throws IOException 没有 H.264/H.265 轨道
+     */
+    public static int extractAnnexB(File srcFile, File dstFile) throws IOException {
+        try (Mp4File mp4File = Mp4File.open(srcFile);
+             RandomAccessFile dst = new RandomAccessFile(dstFile, "rw");
+             FileChannel dstChannel = dst.getChannel()) {
+            Mp4Track track = mp4File.getVideoTrack();
+            if (track == null || track.mNalLengthSize == 0) {
+                throw new IOException("No H.264/H.265 track in " + srcFile);
+            }
+            dstChannel.truncate(0);
+            if (track.mCsd0 != null) {
+                writeFully(dstChannel, ByteBuffer.wrap(track.mCsd0));
+            }
+            if (track.mCsd1 != null) {
+                writeFully(dstChannel, ByteBuffer.wrap(track.mCsd1));
+            }
+            Mp4SampleTable table = track.mSampleTable;
+            // 长度前缀最短 1 字节，替换为 4 字节起始码后最多变为 4 倍
+            ByteBuffer buffer = ByteBuffer.allocateDirect(table.getMaxSampleSize() * 4);
+            int count = table.getSampleCount();
+            for (int i = 0; i < count; i++) {
+                buffer.clear();
+                mp4File.readSample(track, i, buffer, true);
+                buffer.flip();
+                writeFully(dstChannel, buffer);
+            }
+            return count;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
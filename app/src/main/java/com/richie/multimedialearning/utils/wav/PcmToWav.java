@@ -1,14 +1,11 @@
 package com.richie.multimedialearning.utils.wav;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * 将pcm文件转化为wav文件
@@ -35,7 +32,12 @@ public final class PcmToWav {
             return false;
         }
 
-        int totalSize = (int) file.length();
+        long fileLength = file.length();
+        // 超过 4GB 的数据无法用 RIFF 表示，请使用 WavWriter 写为 RF64
+        if (fileLength + 36 > 0xFFFFFFFFL) {
+            return false;
+        }
+        int totalSize = (int) fileLength;
         WaveHeader header = new WaveHeader();
         header.ChunkSize = totalSize + 36; // 该区块数据的长度（不包含ID和Size的长度）
         header.AudioFormat = 1; // pcm 音频数据
@@ -44,14 +46,9 @@ public final class PcmToWav {
         header.BitsPerSample = bitPerSample; // 位宽 16 位
         header.Subchunk2Size = totalSize; // 音频数据的长度
 
-        byte[] h;
-        try {
-            h = header.getHeader();
-        } catch (IOException e) {
-            return false;
-        }
+        byte[] h = header.getHeader();
 
-        if (h.length != 44) { // WAV标准，头部应该是44字节,如果不是44个字节则不进行转换文件
+        if (h.length != WaveHeader.PCM_HEADER_SIZE) { // WAV标准，头部应该是44字节,如果不是44个字节则不进行转换文件
             return false;
         }
 
@@ -60,35 +57,23 @@ public final class PcmToWav {
             destFile.delete();
         }
 
-        InputStream inStream = null;
-        OutputStream outStream = null;
-        byte[] buffer = new byte[8196];
-        try {
-            outStream = new BufferedOutputStream(new FileOutputStream(destWavPath));
-            outStream.write(h);
-            inStream = new BufferedInputStream(new FileInputStream(file));
-            int size = inStream.read(buffer);
-            while (size != -1) {
-                outStream.write(buffer, 0, size);
-                size = inStream.read(buffer);
-            }
-        } catch (IOException ioe) {
-            return false;
-        } finally {
-            if (outStream != null) {
-                try {
-                    outStream.close();
-                } catch (IOException e) {
-                    // ignored
-                }
+        // 写完文件头后通过 transferTo 搬运数据，由内核完成拷贝，不经过堆内缓冲区
+        try (FileChannel inChannel = new FileInputStream(file).getChannel();
+             FileChannel outChannel = new FileOutputStream(destFile).getChannel()) {
+            ByteBuffer headerBuffer = ByteBuffer.wrap(h);
+            while (headerBuffer.hasRemaining()) {
+                outChannel.write(headerBuffer);
             }
-            if (inStream != null) {
-                try {
-                    inStream.close();
-                } catch (IOException e) {
-                    // ignored
+            long position = 0;
+            while (position < fileLength) {
+                long transferred = inChannel.transferTo(position, fileLength - position, outChannel);
+                if (transferred <= 0) {
+                    return false;
                 }
+                position += transferred;
             }
+        } catch (IOException ioe) {
+            return false;
         }
         if (deletePcmFile) {
             file.delete();
@@ -118,14 +103,9 @@ public final class PcmToWav {
         header.BitsPerSample = bitPerSample; // 位宽 16 位
         header.Subchunk2Size = totalSize; // 音频数据的长度
 
-        byte[] h;
-        try {
-            h = header.getHeader();
-        } catch (IOException e) {
-            return false;
-        }
+        byte[] h = header.getHeader();
 
-        if (h.length != 44) { // WAV标准，头部应该是44字节,如果不是44个字节则不进行转换文件
+        if (h.length != WaveHeader.PCM_HEADER_SIZE) { // WAV标准，头部应该是44字节,如果不是44个字节则不进行转换文件
             return false;
         }
 
@@ -134,35 +114,15 @@ public final class PcmToWav {
             destFile.delete();
         }
 
-        InputStream inStream = null;
-        OutputStream ouStream = null;
-        byte[] buffer = new byte[8196];
-        try {
-            ouStream = new BufferedOutputStream(new FileOutputStream(destWavPath));
-            ouStream.write(h);
-            inStream = new BufferedInputStream(new ByteArrayInputStream(pcmBytes));
-            int size = inStream.read(buffer);
-            while (size != -1) {
-                ouStream.write(buffer, 0, size);
-                size = inStream.read(buffer);
+        // 文件头和数据一起聚集写入，不再经过中间缓冲区
+        try (FileChannel outChannel = new FileOutputStream(destFile).getChannel()) {
+            ByteBuffer[] buffers = {ByteBuffer.wrap(h), ByteBuffer.wrap(pcmBytes)};
+            long remaining = h.length + (long) totalSize;
+            while (remaining > 0) {
+                remaining -= outChannel.write(buffers);
             }
         } catch (IOException ioe) {
             return false;
-        } finally {
-            if (ouStream != null) {
-                try {
-                    ouStream.close();
-                } catch (IOException e) {
-                    // ignored
-                }
-            }
-            if (inStream != null) {
-                try {
-                    inStream.close();
-                } catch (IOException e) {
-                    // ignored
-                }
-            }
         }
         return true;
     }
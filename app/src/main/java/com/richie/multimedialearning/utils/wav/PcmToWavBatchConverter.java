@@ -0,0 +1,174 @@
+package com.richie.multimedialearning.utils.wav;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 批量将目录下的 pcm 文件转化为 wav 文件
+ * <p>
+ * 使用有界线程池并发转换，任务队列满时由提交线程自己执行，每个文件转换完成后回调耗时和吞吐量。
+ */
+public final class PcmToWavBatchConverter {
+    private static final String PCM_SUFFIX = ".pcm";
+    private static final String WAV_SUFFIX = ".wav";
+
+    private final int mNumChannels;
+    private final int mSampleRate;
+    private final int mBitPerSample;
+    private final int mMaxThreads;
+
+    public PcmToWavBatchConverter(int numChannels, int sampleRate, int bitPerSample) {
+        this(numChannels, sampleRate, bitPerSample, Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())));
+    }
+
+    /**
+     * @param numChannels  声道数
+     * @param sampleRate   采样率
+     * @param bitPerSample 位宽
+     * @param maxThreads   最大并发线程数
+     */
+    public PcmToWavBatchConverter(int numChannels, int sampleRate, int bitPerSample, int maxThreads) {
+        if (maxThreads <= 0) {
+            throw new IllegalArgumentException("maxThreads must be positive: " + maxThreads);
+        }
+        mNumChannels = numChannels;
+        mSampleRate = sampleRate;
+        mBitPerSample = bitPerSample;
+        mMaxThreads = maxThreads;
+    }
+
+    /**
+     * 转换目录下所有的 pcm 文件，阻塞直到全部完成
+     *
+     * @param srcDir         pcm 文件所在目录
+     * @param destDir        wav 文件输出目录
+     * @param deletePcmFiles 是否删除源文件
+     * @param listener       单个文件转换完成的回调，在工作线程调用，可以为 null
+     * @return 每个文件的转换结果
+     */
+    public List<Result> convertDirectory(File srcDir, File destDir, final boolean deletePcmFiles,
+                                         final OnFileConvertedListener listener) throws InterruptedException {
+        File[] pcmFiles = srcDir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(PCM_SUFFIX);
+            }
+        });
+        if (pcmFiles == null || pcmFiles.length == 0) {
+            return new ArrayList<>();
+        }
+        if (!destDir.exists()) {
+            destDir.mkdirs();
+        }
+
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "PcmToWav #".concat(String.valueOf(mCount.getAndIncrement())));
+            }
+        };
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(mMaxThreads, mMaxThreads, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(mMaxThreads * 2), threadFactory, new ThreadPoolExecutor.CallerRunsPolicy());
+        List<Future<Result>> futures = new ArrayList<>(pcmFiles.length);
+        try {
+            for (final File pcmFile : pcmFiles) {
+                String name = pcmFile.getName();
+                final File wavFile = new File(destDir, name.substring(0, name.length() - PCM_SUFFIX.length()) + WAV_SUFFIX);
+                futures.add(executor.submit(new Callable<Result>() {
+                    @Override
+                    public Result call() {
+                        Result result = convert(pcmFile, wavFile, deletePcmFiles);
+                        if (listener != null) {
+                            listener.onFileConverted(result);
+                        }
+                        return result;
+                    }
+                }));
+            }
+            List<Result> results = new ArrayList<>(futures.size());
+            for (Future<Result> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    // convert 不会抛出受检异常，这里只可能是运行时异常
+                    throw new IllegalStateException(e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Result convert(File pcmFile, File wavFile, boolean deletePcmFile) {
+        long bytes = pcmFile.length();
+        long start = System.nanoTime();
+        boolean success = PcmToWav.makePcmFileToWavFile(pcmFile.getAbsolutePath(), wavFile.getAbsolutePath(),
+                deletePcmFile, mNumChannels, mSampleRate, mBitPerSample);
+        long costNanos = System.nanoTime() - start;
+        return new Result(pcmFile, wavFile, success, bytes, costNanos);
+    }
+
+    /**
+     * 单个文件转换完成的回调
+     */
+    public interface OnFileConvertedListener {
+        /**
+         * invoked on work thread
+         *
+         * @param result
+         */
+        void onFileConverted(Result result);
+    }
+
+    /**
+     * 单个文件的转换结果
+     */
+    public static final class Result {
+        public final File srcFile;
+        public final File destFile;
+        public final boolean success;
+        public final long bytes;
+        public final long costNanos;
+
+        Result(File srcFile, File destFile, boolean success, long bytes, long costNanos) {
+            this.srcFile = srcFile;
+            this.destFile = destFile;
+            this.success = success;
+            this.bytes = bytes;
+            this.costNanos = costNanos;
+        }
+
+        /**
+         * @return 每秒转换的字节数
+         */
+        public double getBytesPerSecond() {
+            return costNanos > 0 ? bytes * 1_000_000_000.0 / costNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" +
+                    "srcFile=" + srcFile +
+                    ", destFile=" + destFile +
+                    ", success=" + success +
+                    ", bytes=" + bytes +
+                    ", costNanos=" + costNanos +
+                    ", bytesPerSecond=" + getBytesPerSecond() +
+                    '}';
+        }
+    }
+
+}
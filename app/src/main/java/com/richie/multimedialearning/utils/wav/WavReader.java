@@ -0,0 +1,367 @@
+package com.richie.multimedialearning.utils.wav;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 基于内存映射的 WAV 文件读取
+ * <p>
+ * 逐个遍历 RIFF 区块，跳过 LIST、fact、JUNK 等无关区块，支持 WAVE_FORMAT_EXTENSIBLE 和 RF64。
+ * 只把 data 区块映射到内存，通过 ShortBuffer/FloatBuffer 视图零拷贝访问采样数据，按帧序号 O(1) 定位。
+ * 32 位进程的地址空间有限，data 区块按 32MB 的窗口映射，帧落在当前窗口之外时重新映射，
+ * 视图的 limit 是窗口的末尾，读完后用下一帧的序号重新获取。
+ * 不是线程安全的，用完后需要 {@link #close()}。
+ */
+public final class WavReader implements Closeable {
+    // 映射窗口的大小，实际窗口向下取整到整帧
+    private static final int MAP_WINDOW_SIZE = 32 << 20;
+    private static final int CHUNK_HEADER_SIZE = 8;
+    private static final int FMT_EXTENSIBLE_SIZE = 40;
+    private static final long UNKNOWN_SIZE = 0xFFFFFFFFL;
+
+    private final File mFile;
+    private int mAudioFormat;
+    private int mNumChannels;
+    private int mSampleRate;
+    private int mByteRate;
+    private int mBlockAlign;
+    private int mBitsPerSample;
+    private int mValidBitsPerSample;
+    private int mChannelMask;
+    private long mDataOffset = -1;
+    private long mDataSize;
+    private RandomAccessFile mRandomAccessFile;
+    private FileChannel mChannel;
+    private MappedByteBuffer mWindow;
+    // 当前窗口在 data 区块中的范围，单位是帧
+    private int mWindowStartFrame;
+    private int mWindowEndFrame;
+
+    /**
+     * 解析文件头，数据在第一次访问时按窗口映射
+     *
+     * @param wavFile
+     * @throws IOException 格式错误或者帧数超过 int 的范围
+     */
+    public WavReader(File wavFile) throws IOException {
+        this(wavFile, true);
+    }
+
+    private WavReader(File wavFile, boolean mapData) throws IOException {
+        mFile = wavFile;
+        RandomAccessFile raf = new RandomAccessFile(wavFile, "r");
+        FileChannel channel = raf.getChannel();
+        try {
+            parseChunks(channel);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        if (!mapData) {
+            raf.close();
+            return;
+        }
+        mRandomAccessFile = raf;
+        mChannel = channel;
+    }
+
+    /**
+     * 只解析文件头，不映射数据
+     *
+     * @param wavFile
+     * @return
+     * @throws IOException
+     */
+    static WavReader parseHeader(File wavFile) throws IOException {
+        return new WavReader(wavFile, false);
+    }
+
+    private void parseChunks(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate(FMT_EXTENSIBLE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, buffer, 0, 12);
+        int riffId = buffer.getInt(0);
+        boolean rf64 = riffId == WaveHeader.ID_RF64;
+        if ((riffId != WaveHeader.ID_RIFF && !rf64) || buffer.getInt(8) != WaveHeader.ID_WAVE) {
+            throw new IOException("Wrong wav format!");
+        }
+
+        long rf64DataSize = -1;
+        boolean hasFmt = false;
+        long position = 12;
+        while (position + CHUNK_HEADER_SIZE <= fileSize) {
+            readFully(channel, buffer, position, CHUNK_HEADER_SIZE);
+            int chunkId = buffer.getInt(0);
+            long chunkSize = buffer.getInt(4) & UNKNOWN_SIZE;
+            long payload = position + CHUNK_HEADER_SIZE;
+            if (chunkId == WaveHeader.ID_DS64) {
+                readFully(channel, buffer, payload, 24);
+                rf64DataSize = buffer.getLong(8);
+            } else if (chunkId == WaveHeader.ID_FMT) {
+                parseFmt(channel, buffer, payload, chunkSize);
+                hasFmt = true;
+            } else if (chunkId == WaveHeader.ID_DATA) {
+                mDataOffset = payload;
+                mDataSize = rf64 && chunkSize == UNKNOWN_SIZE && rf64DataSize >= 0 ? rf64DataSize : chunkSize;
+                // 录音中断等情况下长度可能没有回填，以实际文件长度为准
+                mDataSize = Math.min(mDataSize, fileSize - payload);
+                break;
+            }
+            // 区块长度为奇数时有一个填充字节
+            position = payload + chunkSize + (chunkSize & 1);
+        }
+        if (!hasFmt || mDataOffset < 0) {
+            throw new IOException("Wrong wav format! fmt or data chunk not found");
+        }
+        if (mBlockAlign <= 0) {
+            throw new IOException("Wrong wav format! blockAlign: " + mBlockAlign);
+        }
+        // 去掉末尾不完整的帧
+        mDataSize -= mDataSize % mBlockAlign;
+        if (mDataSize / mBlockAlign > Integer.MAX_VALUE) {
+            throw new IOException("Too many frames: " + mDataSize / mBlockAlign);
+        }
+    }
+
+    private void parseFmt(FileChannel channel, ByteBuffer buffer, long payload, long chunkSize) throws IOException {
+        int size = (int) Math.min(chunkSize, FMT_EXTENSIBLE_SIZE);
+        readFully(channel, buffer, payload, size);
+        WaveHeader header = new WaveHeader();
+        header.readFmtChunk(buffer, (int) chunkSize);
+        mAudioFormat = header.getFormatCode();
+        mNumChannels = header.NumChannels & 0xFFFF;
+        mSampleRate = header.SampleRate;
+        mByteRate = header.BitsRate;
+        mBlockAlign = header.BlockAlign & 0xFFFF;
+        mBitsPerSample = header.BitsPerSample;
+        mValidBitsPerSample = header.ValidBitsPerSample;
+        mChannelMask = header.ChannelMask;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position, int length) throws IOException {
+        buffer.clear();
+        buffer.limit(length);
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Wrong wav format! unexpected end of file");
+            }
+        }
+        buffer.flip();
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * @return 音频格式，WAVE_FORMAT_EXTENSIBLE 已经解析为 SubFormat 中的实际格式
+     */
+    public int getAudioFormat() {
+        return mAudioFormat;
+    }
+
+    public boolean isPcm() {
+        return mAudioFormat == WaveHeader.FORMAT_PCM;
+    }
+
+    public boolean isFloat() {
+        return mAudioFormat == WaveHeader.FORMAT_IEEE_FLOAT;
+    }
+
+    public int getNumChannels() {
+        return mNumChannels;
+    }
+
+    public int getSampleRate() {
+        return mSampleRate;
+    }
+
+    public int getByteRate() {
+        return mByteRate;
+    }
+
+    public int getBlockAlign() {
+        return mBlockAlign;
+    }
+
+    public int getBitsPerSample() {
+        return mBitsPerSample;
+    }
+
+    public int getValidBitsPerSample() {
+        return mValidBitsPerSample;
+    }
+
+    public int getChannelMask() {
+        return mChannelMask;
+    }
+
+    /**
+     * @return data 区块在文件中的偏移
+     */
+    public long getDataOffset() {
+        return mDataOffset;
+    }
+
+    /**
+     * @return data 区块的长度
+     */
+    public long getDataSize() {
+        return mDataSize;
+    }
+
+    /**
+     * @return 总帧数，每帧包含所有声道的一个采样点
+     */
+    public int getFrameCount() {
+        return (int) (mDataSize / mBlockAlign);
+    }
+
+    /**
+     * @return 时长，单位微秒
+     */
+    public long getDurationUs() {
+        return getFrameCount() * 1_000_000L / mSampleRate;
+    }
+
+    /**
+     * @param frameIndex 帧序号
+     * @return 帧在 data 区块中的字节偏移
+     */
+    public long getFrameOffset(int frameIndex) {
+        checkFrameIndex(frameIndex);
+        return (long) frameIndex * mBlockAlign;
+    }
+
+    /**
+     * @param timeUs 时间，单位微秒
+     * @return 对应的帧序号
+     */
+    public int getFrameIndex(long timeUs) {
+        long frameIndex = timeUs * mSampleRate / 1_000_000L;
+        return (int) Math.max(0, Math.min(frameIndex, getFrameCount()));
+    }
+
+    /**
+     * 包含指定帧的映射窗口的只读视图，小端序，position 指向这一帧，limit 是窗口末尾
+     *
+     * @param frameIndex 帧序号，等于帧数时返回空的视图
+     * @return
+     * @throws IOException 映射失败
+     */
+    public ByteBuffer getDataBuffer(int frameIndex) throws IOException {
+        checkFrameIndex(frameIndex);
+        mapWindow(frameIndex);
+        ByteBuffer buffer = mWindow.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        buffer.position((frameIndex - mWindowStartFrame) * mBlockAlign);
+        return buffer;
+    }
+
+    /**
+     * 16 位 PCM 数据的视图，position 指向指定帧的第一个采样点，limit 是映射窗口末尾
+     *
+     * @param frameIndex 帧序号
+     * @return
+     * @throws IOException 映射失败
+     */
+    public ShortBuffer getShortBuffer(int frameIndex) throws IOException {
+        if (!isPcm() || mBitsPerSample != 16) {
+            throw new IllegalStateException("Not 16 bit pcm, format: " + mAudioFormat + ", bitsPerSample: " + mBitsPerSample);
+        }
+        return getDataBuffer(frameIndex).slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+    }
+
+    /**
+     * 32 位浮点数据的视图，position 指向指定帧的第一个采样点，limit 是映射窗口末尾
+     *
+     * @param frameIndex 帧序号
+     * @return
+     * @throws IOException 映射失败
+     */
+    public FloatBuffer getFloatBuffer(int frameIndex) throws IOException {
+        if (!isFloat() || mBitsPerSample != 32) {
+            throw new IllegalStateException("Not 32 bit float, format: " + mAudioFormat + ", bitsPerSample: " + mBitsPerSample);
+        }
+        return getDataBuffer(frameIndex).slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+    }
+
+    /**
+     * 确保帧在映射窗口内，窗口从整窗口的边界开始，顺序读取时每个窗口只映射一次
+     */
+    private void mapWindow(int frameIndex) throws IOException {
+        if (mChannel == null) {
+            throw new IllegalStateException("Data chunk is not mapped");
+        }
+        if (mWindow != null && frameIndex >= mWindowStartFrame
+                && (frameIndex < mWindowEndFrame || frameIndex == getFrameCount())) {
+            return;
+        }
+        int windowFrames = Math.max(1, MAP_WINDOW_SIZE / mBlockAlign);
+        int startFrame = Math.min(frameIndex, Math.max(0, getFrameCount() - 1)) / windowFrames * windowFrames;
+        int endFrame = (int) Math.min((long) startFrame + windowFrames, getFrameCount());
+        mWindow = mChannel.map(FileChannel.MapMode.READ_ONLY, mDataOffset + (long) startFrame * mBlockAlign,
+                (long) (endFrame - startFrame) * mBlockAlign);
+        mWindowStartFrame = startFrame;
+        mWindowEndFrame = endFrame;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mWindow = null;
+        mChannel = null;
+        if (mRandomAccessFile != null) {
+            mRandomAccessFile.close();
+            mRandomAccessFile = null;
+        }
+    }
+
+    private void checkFrameIndex(int frameIndex) {
+        if (frameIndex < 0 || frameIndex > getFrameCount()) {
+            throw new IndexOutOfBoundsException("frameIndex: " + frameIndex + ", frameCount: " + getFrameCount());
+        }
+    }
+
+    /**
+     * @return 与 WavUtils.retrieveHeader 兼容的文件头信息
+     * @throws IOException 文件超过 2GB，长度无法用 int 表示
+     */
+    WaveHeader toWaveHeader() throws IOException {
+        if (mDataOffset - 8 + mDataSize > Integer.MAX_VALUE) {
+            throw new IOException("Wav file is too large for WaveHeader, data size: " + mDataSize);
+        }
+        WaveHeader waveHeader = new WaveHeader();
+        waveHeader.ChunkSize = (int) (mDataOffset - 8 + mDataSize);
+        waveHeader.AudioFormat = (short) mAudioFormat;
+        waveHeader.NumChannels = (short) mNumChannels;
+        waveHeader.SampleRate = mSampleRate;
+        waveHeader.BitsRate = mByteRate;
+        waveHeader.BlockAlign = (short) mBlockAlign;
+        waveHeader.BitsPerSample = mBitsPerSample;
+        waveHeader.Subchunk2Size = (int) mDataSize;
+        return waveHeader;
+    }
+
+    @Override
+    public String toString() {
+        return "WavReader{" +
+                "file=" + mFile +
+                ", audioFormat=" + mAudioFormat +
+                ", numChannels=" + mNumChannels +
+                ", sampleRate=" + mSampleRate +
+                ", bitsPerSample=" + mBitsPerSample +
+                ", channelMask=" + mChannelMask +
+                ", dataOffset=" + mDataOffset +
+                ", dataSize=" + mDataSize +
+                '}';
+    }
+
+}
@@ -0,0 +1,179 @@
+package com.richie.multimedialearning.utils.wav;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * 流式写 WAV 文件，PCM 数据直接写入目标文件，不需要中间的 pcm 临时文件。
+ * <p>
+ * 打开时先预留文件头，关闭时通过 FileChannel 回填 ChunkSize 和 Subchunk2Size。
+ * 文件头中预留了一个 28 字节的 JUNK 区块，数据超过 4GB 时就地改写为 ds64 区块，文件自动升级为 RF64 格式。
+ * 参考 EBU Tech 3306。
+ * <p>
+ * 支持整型 PCM 和 IEEE 浮点，24/32 位的采集数据可以直接写入，不需要先转换为 16 位。
+ */
+public final class WavWriter implements Closeable {
+    // JUNK 区块的长度，包括 ID 和 Size
+    private static final int JUNK_CHUNK_SIZE = 36;
+    private static final int JUNK_PAYLOAD_SIZE = 28;
+    private static final long MAX_RIFF_SIZE = 0xFFFFFFFFL;
+
+    private final RandomAccessFile mRandomAccessFile;
+    private final FileChannel mFileChannel;
+    private final WaveHeader mWaveHeader;
+    private final int mBlockAlign;
+    // 标准文件头再加上 JUNK 区块
+    private final int mHeaderSize;
+    private final ByteBuffer mHeaderBuffer;
+    // RIFF 区块长度的上限，超过时升级为 RF64
+    private final long mMaxRiffSize;
+    private long mDataSize;
+    private boolean mClosed;
+
+    public WavWriter(String destWavPath, int numChannels, int sampleRate, int bitsPerSample) throws IOException {
+        this(new File(destWavPath), WaveHeader.FORMAT_PCM, numChannels, sampleRate, bitsPerSample);
+    }
+
+    public WavWriter(File destWavFile, int numChannels, int sampleRate, int bitsPerSample) throws IOException {
+        this(destWavFile, WaveHeader.FORMAT_PCM, numChannels, sampleRate, bitsPerSample);
+    }
+
+    /**
+     * 创建 WAV 文件并预留文件头，已存在的文件会被覆盖
+     *
+     * @param destWavFile   目标 wav 文件
+     * @param audioFormat   WaveHeader.FORMAT_PCM 或 WaveHeader.FORMAT_IEEE_FLOAT
+     * @param numChannels   声道数
+     * @param sampleRate    采样率
+     * @param bitsPerSample 位宽
+     * @throws IOException
+     */
+    public WavWriter(File destWavFile, int audioFormat, int numChannels, int sampleRate, int bitsPerSample) throws IOException {
+        this(destWavFile, audioFormat, numChannels, sampleRate, bitsPerSample, MAX_RIFF_SIZE);
+    }
+
+    /**
+     * 可以调低升级为 RF64 的阈值，测试时不需要真的写入 4GB 数据
+     *
+     * @param maxRiffSize RIFF 区块长度的上限
+     */
+    WavWriter(File destWavFile, int audioFormat, int numChannels, int sampleRate, int bitsPerSample,
+              long maxRiffSize) throws IOException {
+        if (numChannels <= 0 || sampleRate <= 0 || bitsPerSample <= 0 || bitsPerSample % 8 != 0
+                || (audioFormat != WaveHeader.FORMAT_PCM && audioFormat != WaveHeader.FORMAT_IEEE_FLOAT)
+                || (audioFormat == WaveHeader.FORMAT_IEEE_FLOAT && bitsPerSample != 32 && bitsPerSample != 64)) {
+            throw new IllegalArgumentException("Unsupported format: " + audioFormat + ", channels: " + numChannels
+                    + ", sampleRate: " + sampleRate + ", bitsPerSample: " + bitsPerSample);
+        }
+        mMaxRiffSize = maxRiffSize;
+        mWaveHeader = WaveHeader.create(audioFormat, numChannels, sampleRate, bitsPerSample);
+        mBlockAlign = numChannels * bitsPerSample / 8;
+        mHeaderSize = mWaveHeader.getHeaderSize() + JUNK_CHUNK_SIZE;
+        mHeaderBuffer = ByteBuffer.allocate(mHeaderSize).order(ByteOrder.LITTLE_ENDIAN);
+        mRandomAccessFile = new RandomAccessFile(destWavFile, "rw");
+        mRandomAccessFile.setLength(0);
+        mFileChannel = mRandomAccessFile.getChannel();
+        writeHeader(false);
+        mFileChannel.position(mHeaderSize);
+    }
+
+    /**
+     * 写入 PCM 数据
+     *
+     * @param data
+     * @param offset
+     * @param length
+     * @throws IOException
+     */
+    public void write(byte[] data, int offset, int length) throws IOException {
+        write(ByteBuffer.wrap(data, offset, length));
+    }
+
+    /**
+     * 写入 PCM 数据，写入 buffer 的 position 到 limit 之间的数据
+     *
+     * @param data
+     * @throws IOException
+     */
+    public void write(ByteBuffer data) throws IOException {
+        if (mClosed) {
+            throw new IOException("WavWriter is closed");
+        }
+        while (data.hasRemaining()) {
+            mDataSize += mFileChannel.write(data);
+        }
+    }
+
+    /**
+     * @return 已写入的 PCM 数据长度
+     */
+    public long getDataSize() {
+        return mDataSize;
+    }
+
+    /**
+     * 回填文件头并关闭文件，超过 4GB 时写为 RF64 格式
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        try {
+            // 区块长度为奇数时需要补齐一个字节
+            if ((mDataSize & 1) != 0) {
+                mFileChannel.write(ByteBuffer.allocate(1), mHeaderSize + mDataSize);
+            }
+            long riffSize = mHeaderSize - 8 + mDataSize + (mDataSize & 1);
+            writeHeader(riffSize > mMaxRiffSize);
+            mFileChannel.force(false);
+        } finally {
+            mRandomAccessFile.close();
+        }
+    }
+
+    private void writeHeader(boolean rf64) throws IOException {
+        long riffSize = mHeaderSize - 8 + mDataSize + (mDataSize & 1);
+        WaveHeader waveHeader = mWaveHeader;
+        waveHeader.setDataSize(rf64 ? -1 : (int) mDataSize);
+        waveHeader.SampleLength = rf64 ? -1 : (int) (mDataSize / mBlockAlign);
+        ByteBuffer header = mHeaderBuffer;
+        header.clear();
+        header.putInt(rf64 ? WaveHeader.ID_RF64 : WaveHeader.ID_RIFF);
+        header.putInt(rf64 ? -1 : (int) riffSize);
+        header.putInt(WaveHeader.ID_WAVE);
+        // JUNK 区块，RF64 时改写为 ds64
+        header.putInt(rf64 ? WaveHeader.ID_DS64 : WaveHeader.ID_JUNK);
+        header.putInt(JUNK_PAYLOAD_SIZE);
+        if (rf64) {
+            header.putLong(riffSize);
+            header.putLong(mDataSize);
+            header.putLong(mDataSize / mBlockAlign);
+            header.putInt(0); // table length
+        } else {
+            for (int i = 0; i < JUNK_PAYLOAD_SIZE; i++) {
+                header.put((byte) 0);
+            }
+        }
+        waveHeader.writeFmtChunk(header);
+        if (waveHeader.hasFactChunk()) {
+            waveHeader.writeFactChunk(header);
+        }
+        header.putInt(WaveHeader.ID_DATA);
+        header.putInt(waveHeader.Subchunk2Size);
+        header.flip();
+        int position = 0;
+        while (header.hasRemaining()) {
+            position += mFileChannel.write(header, position);
+        }
+    }
+
+}
@@ -1,69 +1,298 @@
 package com.richie.multimedialearning.utils.wav;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * wav文件头
  * https://blog.csdn.net/imxiangzi/article/details/80265978
+ * <p>
+ * 直接读写调用方提供的 ByteBuffer，不产生额外的内存分配。
+ * 支持整型 PCM（8/16/24/32 位）、IEEE 浮点和 WAVE_FORMAT_EXTENSIBLE。
  */
-final class WaveHeader {
-    private static final char ChunkID[] = {'R', 'I', 'F', 'F'};
-    private static final char Format[] = {'W', 'A', 'V', 'E'};
-    private static final char Subchunk1ID[] = {'f', 'm', 't', ' '};
-    private static final char Subchunk2ID[] = {'d', 'a', 't', 'a'};
+public final class WaveHeader {
+    // 区块 ID，按小端序读取的 int 值
+    public static final int ID_RIFF = 0x46464952;
+    public static final int ID_RF64 = 0x34364652;
+    public static final int ID_WAVE = 0x45564157;
+    public static final int ID_FMT = 0x20746d66;
+    public static final int ID_FACT = 0x74636166;
+    public static final int ID_DATA = 0x61746164;
+    public static final int ID_DS64 = 0x34367364;
+    public static final int ID_JUNK = 0x4b4e554a;
+    // 音频格式
+    public static final int FORMAT_PCM = 1;
+    public static final int FORMAT_IEEE_FLOAT = 3;
+    public static final int FORMAT_EXTENSIBLE = 0xFFFE;
+    // 声道掩码
+    public static final int SPEAKER_FRONT_LEFT = 0x1;
+    public static final int SPEAKER_FRONT_RIGHT = 0x2;
+    public static final int SPEAKER_FRONT_CENTER = 0x4;
+    public static final int SPEAKER_LOW_FREQUENCY = 0x8;
+    public static final int SPEAKER_BACK_LEFT = 0x10;
+    public static final int SPEAKER_BACK_RIGHT = 0x20;
+    // 标准 PCM 文件头的长度
+    public static final int PCM_HEADER_SIZE = 44;
+    // KSDATAFORMAT_SUBTYPE GUID 中格式码之后的部分
+    private static final byte[] SUB_FORMAT_GUID_TAIL = {
+            0x00, 0x00, 0x00, 0x00, 0x10, 0x00, (byte) 0x80, 0x00, 0x00, (byte) 0xAA, 0x00, 0x38, (byte) 0x9B, 0x71};
+
     public int ChunkSize; // 文件的长度减去RIFF区块ChunkID和ChunkSize的长度
-    public int Subchunk1Size = 16; // Format区块数据的长度（不包含ID和Size的长度）
-    public short AudioFormat; // Data区块的音频数据的格式，PCM音频数据的值为1
+    public int Subchunk1Size = 16; // Format区块数据的长度（不包含ID和Size的长度），写入时根据格式计算
+    public short AudioFormat; // Data区块的音频数据的格式，PCM音频数据的值为1，浮点为3，扩展格式为0xFFFE
     public short NumChannels; // 音频数据的声道数，1：单声道，2：双声道
     public int SampleRate; // 音频数据的采样率
-    public int BitsPerSample; // 每个采样点存储的bit数，8，16
+    public int BitsPerSample; // 每个采样点存储的bit数，8，16，24，32
     public int BitsRate; // 每秒数据字节数 = SampleRate * NumChannels * BitsPerSample / 8
     public short BlockAlign; // 每个采样点所需的字节数 = NumChannels * BitsPerSample / 8
+    public int ValidBitsPerSample; // 扩展格式中每个采样点的有效位数，0 表示与 BitsPerSample 相同
+    public int ChannelMask; // 扩展格式中的声道掩码
+    public short SubFormat; // 扩展格式中的实际格式，PCM 或者浮点
+    public int SampleLength; // fact 区块中每个声道的采样点数，非 PCM 格式需要
     public int Subchunk2Size; // 音频数据的长度，N = ByteRate * seconds
 
-    byte[] getHeader() throws IOException {
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        writeChar(baos, ChunkID);
-        writeInt(baos, ChunkSize);
-        writeChar(baos, Format);
-        writeChar(baos, Subchunk1ID);
-        writeInt(baos, Subchunk1Size);
-        writeShort(baos, AudioFormat);
-        writeShort(baos, NumChannels);
-        writeInt(baos, SampleRate);
+    /**
+     * 根据格式创建文件头，位宽超过 16 位或者声道数超过 2 的整型 PCM 使用扩展格式
+     *
+     * @param audioFormat   FORMAT_PCM 或 FORMAT_IEEE_FLOAT
+     * @param numChannels   声道数
+     * @param sampleRate    采样率
+     * @param bitsPerSample 位宽
+     * @return
+     */
+    public static WaveHeader create(int audioFormat, int numChannels, int sampleRate, int bitsPerSample) {
+        WaveHeader header = new WaveHeader();
+        header.NumChannels = (short) numChannels;
+        header.SampleRate = sampleRate;
+        header.BitsPerSample = bitsPerSample;
+        if (audioFormat == FORMAT_PCM && (bitsPerSample > 16 || numChannels > 2)) {
+            header.AudioFormat = (short) FORMAT_EXTENSIBLE;
+            header.SubFormat = (short) FORMAT_PCM;
+            header.ValidBitsPerSample = bitsPerSample;
+            header.ChannelMask = defaultChannelMask(numChannels);
+        } else {
+            header.AudioFormat = (short) audioFormat;
+        }
+        header.setDataSize(0);
+        return header;
+    }
+
+    /**
+     * 常见声道数对应的声道掩码
+     *
+     * @param numChannels
+     * @return
+     */
+    public static int defaultChannelMask(int numChannels) {
+        switch (numChannels) {
+            case 1:
+                return SPEAKER_FRONT_CENTER;
+            case 2:
+                return SPEAKER_FRONT_LEFT | SPEAKER_FRONT_RIGHT;
+            case 6:
+                return SPEAKER_FRONT_LEFT | SPEAKER_FRONT_RIGHT | SPEAKER_FRONT_CENTER
+                        | SPEAKER_LOW_FREQUENCY | SPEAKER_BACK_LEFT | SPEAKER_BACK_RIGHT;
+            default:
+                return numChannels >= 32 ? -1 : (1 << numChannels) - 1;
+        }
+    }
+
+    /**
+     * @return 实际的音频格式，扩展格式返回 SubFormat
+     */
+    public int getFormatCode() {
+        return (AudioFormat & 0xFFFF) == FORMAT_EXTENSIBLE ? SubFormat & 0xFFFF : AudioFormat & 0xFFFF;
+    }
+
+    /**
+     * @return fmt 区块数据的长度
+     */
+    public int getFmtChunkSize() {
+        int audioFormat = AudioFormat & 0xFFFF;
+        if (audioFormat == FORMAT_EXTENSIBLE) {
+            return 40;
+        }
+        return audioFormat == FORMAT_PCM ? 16 : 18;
+    }
+
+    /**
+     * @return 非 PCM 格式需要 fact 区块
+     */
+    public boolean hasFactChunk() {
+        return getFormatCode() != FORMAT_PCM;
+    }
+
+    /**
+     * @return 整个文件头的长度，包括 data 区块的 ID 和 Size
+     */
+    public int getHeaderSize() {
+        return 12 + 8 + getFmtChunkSize() + (hasFactChunk() ? 12 : 0) + 8;
+    }
+
+    /**
+     * 设置音频数据的长度，同时更新 ChunkSize 和 SampleLength
+     *
+     * @param dataSize
+     */
+    public void setDataSize(int dataSize) {
+        long size = dataSize & 0xFFFFFFFFL;
+        Subchunk2Size = dataSize;
+        ChunkSize = (int) (getHeaderSize() - 8 + size + (size & 1));
+        int blockAlign = NumChannels * BitsPerSample / 8;
+        SampleLength = blockAlign > 0 ? (int) (size / blockAlign) : 0;
+    }
+
+    byte[] getHeader() {
+        byte[] bytesHeader = new byte[getHeaderSize()];
+        write(ByteBuffer.wrap(bytesHeader));
+        return bytesHeader;
+    }
+
+    /**
+     * 写入完整的文件头，从 buffer 的 position 开始，写完后 position 指向音频数据的开始
+     *
+     * @param dst 剩余空间不小于 getHeaderSize()
+     */
+    public void write(ByteBuffer dst) {
+        ByteOrder order = dst.order();
+        dst.order(ByteOrder.LITTLE_ENDIAN);
+        dst.putInt(ID_RIFF);
+        dst.putInt(ChunkSize);
+        dst.putInt(ID_WAVE);
+        writeFmtChunk(dst);
+        if (hasFactChunk()) {
+            writeFactChunk(dst);
+        }
+        dst.putInt(ID_DATA);
+        dst.putInt(Subchunk2Size);
+        dst.order(order);
+    }
+
+    /**
+     * 写入 fmt 区块，包括 ID 和 Size，同时计算 Subchunk1Size、BitsRate 和 BlockAlign
+     *
+     * @param dst
+     */
+    public void writeFmtChunk(ByteBuffer dst) {
+        ByteOrder order = dst.order();
+        dst.order(ByteOrder.LITTLE_ENDIAN);
+        Subchunk1Size = getFmtChunkSize();
         BitsRate = NumChannels * BitsPerSample * SampleRate / 8;
         BlockAlign = (short) (NumChannels * BitsPerSample / 8);
-        writeInt(baos, BitsRate);
-        writeShort(baos, BlockAlign);
-        writeShort(baos, BitsPerSample);
-        writeChar(baos, Subchunk2ID);
-        writeInt(baos, Subchunk2Size);
-        baos.flush();
-        byte[] bytesHeader = baos.toByteArray();
-        baos.close();
-        return bytesHeader;
+        dst.putInt(ID_FMT);
+        dst.putInt(Subchunk1Size);
+        dst.putShort(AudioFormat);
+        dst.putShort(NumChannels);
+        dst.putInt(SampleRate);
+        dst.putInt(BitsRate);
+        dst.putShort(BlockAlign);
+        dst.putShort((short) BitsPerSample);
+        if (Subchunk1Size == 18) {
+            dst.putShort((short) 0);
+        } else if (Subchunk1Size == 40) {
+            dst.putShort((short) 22);
+            dst.putShort((short) (ValidBitsPerSample > 0 ? ValidBitsPerSample : BitsPerSample));
+            dst.putInt(ChannelMask);
+            dst.putShort(SubFormat);
+            dst.put(SUB_FORMAT_GUID_TAIL);
+        }
+        dst.order(order);
     }
 
-    private void writeShort(ByteArrayOutputStream bos, int s) throws IOException {
-        byte[] buf = new byte[2];
-        buf[1] = (byte) ((s << 16) >> 24);
-        buf[0] = (byte) ((s << 24) >> 24);
-        bos.write(buf);
+    /**
+     * 写入 fact 区块，包括 ID 和 Size
+     *
+     * @param dst
+     */
+    public void writeFactChunk(ByteBuffer dst) {
+        ByteOrder order = dst.order();
+        dst.order(ByteOrder.LITTLE_ENDIAN);
+        dst.putInt(ID_FACT);
+        dst.putInt(4);
+        dst.putInt(SampleLength);
+        dst.order(order);
     }
 
-    private void writeInt(ByteArrayOutputStream bos, int i) throws IOException {
-        byte[] buf = new byte[4];
-        buf[3] = (byte) (i >> 24);
-        buf[2] = (byte) ((i << 8) >> 24);
-        buf[1] = (byte) ((i << 16) >> 24);
-        buf[0] = (byte) ((i << 24) >> 24);
-        bos.write(buf);
+    /**
+     * 从 buffer 的 position 开始解析文件头，逐个遍历区块，跳过无关区块。
+     * 解析完成后 position 指向音频数据的开始
+     *
+     * @param src 至少包含从文件开始到 data 区块头的所有数据
+     * @throws IOException 格式错误或者数据不完整
+     */
+    public void read(ByteBuffer src) throws IOException {
+        ByteOrder order = src.order();
+        src.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (src.remaining() < 12) {
+                throw new IOException("Wrong wav format!");
+            }
+            int riffId = src.getInt();
+            ChunkSize = src.getInt();
+            if ((riffId != ID_RIFF && riffId != ID_RF64) || src.getInt() != ID_WAVE) {
+                throw new IOException("Wrong wav format!");
+            }
+            boolean hasFmt = false;
+            while (src.remaining() >= 8) {
+                int chunkId = src.getInt();
+                int chunkSize = src.getInt();
+                if (chunkId == ID_DATA) {
+                    if (!hasFmt) {
+                        throw new IOException("Wrong wav format! fmt chunk not found");
+                    }
+                    Subchunk2Size = chunkSize;
+                    return;
+                }
+                long paddedSize = (chunkSize & 0xFFFFFFFFL) + (chunkSize & 1);
+                if (paddedSize > src.remaining()) {
+                    break;
+                }
+                int next = src.position() + (int) paddedSize;
+                if (chunkId == ID_FMT) {
+                    readFmtChunk(src, chunkSize);
+                    hasFmt = true;
+                } else if (chunkId == ID_FACT && chunkSize >= 4) {
+                    SampleLength = src.getInt();
+                }
+                src.position(next);
+            }
+            throw new IOException("Wrong wav format! data chunk not found");
+        } finally {
+            src.order(order);
+        }
     }
 
-    private void writeChar(ByteArrayOutputStream bos, char[] chars) {
-        for (char c : chars) {
-            bos.write(c);
+    /**
+     * 解析 fmt 区块的数据部分，从 buffer 的 position 开始，不包括 ID 和 Size
+     *
+     * @param src
+     * @param chunkSize fmt 区块数据的长度
+     * @throws IOException
+     */
+    public void readFmtChunk(ByteBuffer src, int chunkSize) throws IOException {
+        if (chunkSize < 16 || src.remaining() < 16) {
+            throw new IOException("Wrong wav format! fmt chunk size: " + chunkSize);
+        }
+        ByteOrder order = src.order();
+        src.order(ByteOrder.LITTLE_ENDIAN);
+        Subchunk1Size = chunkSize;
+        AudioFormat = src.getShort();
+        NumChannels = src.getShort();
+        SampleRate = src.getInt();
+        BitsRate = src.getInt();
+        BlockAlign = src.getShort();
+        BitsPerSample = src.getShort() & 0xFFFF;
+        ValidBitsPerSample = BitsPerSample;
+        if ((AudioFormat & 0xFFFF) == FORMAT_EXTENSIBLE && chunkSize >= 40 && src.remaining() >= 24) {
+            src.getShort(); // cbSize
+            ValidBitsPerSample = src.getShort() & 0xFFFF;
+            ChannelMask = src.getInt();
+            // SubFormat GUID 的前两个字节就是实际的格式
+            SubFormat = src.getShort();
+            src.position(src.position() + SUB_FORMAT_GUID_TAIL.length);
         }
+        src.order(order);
     }
+
 }
@@ -0,0 +1,173 @@
+package com.richie.multimedialearning.media;
+
+import com.richie.multimedialearning.media.codec.ICodec;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 验证帧的引用计数、缓冲区归还和 flush 之后的失效
+ */
+public class FramePoolTest {
+    private final List<Integer> mRecycled = new ArrayList<>();
+    private final List<Long> mRecycledPts = new ArrayList<>();
+    private final List<Boolean> mRecycledRendered = new ArrayList<>();
+    private final FramePool.Recycler mRecycler = new FramePool.Recycler() {
+        @Override
+        public void recycle(int bufferIndex, ICodec.BufferInfo bufferInfo, boolean rendered) {
+            mRecycled.add(bufferIndex);
+            mRecycledPts.add(bufferInfo.presentationTimeUs);
+            mRecycledRendered.add(rendered);
+        }
+    };
+
+    @Test
+    public void obtain_setsBufferWindow() {
+        FramePool pool = new FramePool(2, mRecycler);
+        ByteBuffer buffer = ByteBuffer.allocate(100);
+        Frame frame = pool.obtain(3, buffer, info(10, 50, 1234));
+        assertSame(buffer, frame.getByteBuffer());
+        assertEquals(10, buffer.position());
+        assertEquals(60, buffer.limit());
+        assertEquals(1234, frame.getPresentationTimeUs());
+        assertEquals(50, frame.getBufferInfo().size);
+        assertEquals(1, pool.getActiveCount());
+    }
+
+    @Test
+    public void release_recyclesOnLastReference() {
+        FramePool pool = new FramePool(2, mRecycler);
+        Frame frame = pool.obtain(5, ByteBuffer.allocate(16), info(0, 16, 0));
+        assertSame(frame, frame.retain());
+        frame.retain();
+        frame.release();
+        frame.release();
+        assertTrue(mRecycled.isEmpty());
+        assertEquals(1, pool.getActiveCount());
+
+        frame.release();
+        assertEquals(1, mRecycled.size());
+        assertEquals(5, (int) mRecycled.get(0));
+        assertEquals(0, pool.getActiveCount());
+        assertNull(frame.getByteBuffer());
+    }
+
+    @Test
+    public void release_twiceThrows() {
+        FramePool pool = new FramePool(1, mRecycler);
+        Frame frame = pool.obtain(0, ByteBuffer.allocate(16), info(0, 16, 0));
+        frame.release();
+        assertIllegalState(frame, true);
+        assertIllegalState(frame, false);
+        // 多余的 release 不会重复归还
+        assertEquals(1, mRecycled.size());
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    @Test
+    public void obtain_returnsNullWhenExhausted() {
+        FramePool pool = new FramePool(2, mRecycler);
+        Frame first = pool.obtain(0, ByteBuffer.allocate(16), info(0, 16, 0));
+        Frame second = pool.obtain(1, ByteBuffer.allocate(16), info(0, 16, 0));
+        assertNotNull(first);
+        assertNotNull(second);
+        assertNull(pool.obtain(2, ByteBuffer.allocate(16), info(0, 16, 0)));
+
+        second.release();
+        // 帧对象循环使用
+        Frame third = pool.obtain(2, ByteBuffer.allocate(16), info(0, 16, 0));
+        assertSame(second, third);
+        assertEquals(2, pool.getActiveCount());
+    }
+
+    @Test
+    public void invalidate_skipsStaleBuffers() {
+        FramePool pool = new FramePool(3, mRecycler);
+        Frame stale = pool.obtain(7, ByteBuffer.allocate(16), info(0, 16, 0));
+        stale.retain();
+        pool.invalidate();
+        Frame fresh = pool.obtain(7, ByteBuffer.allocate(16), info(0, 16, 0));
+
+        stale.release();
+        stale.release();
+        // flush 之前的缓冲区已经失效，不能归还，但帧对象要回到缓冲池
+        assertTrue(mRecycled.isEmpty());
+        assertEquals(1, pool.getActiveCount());
+
+        fresh.release();
+        assertEquals(1, mRecycled.size());
+        assertEquals(7, (int) mRecycled.get(0));
+        assertEquals(0, pool.getActiveCount());
+    }
+
+    @Test
+    public void recycle_passesInfoAndRendered() {
+        FramePool pool = new FramePool(2, mRecycler);
+        ICodec.BufferInfo info = info(0, 16, 40_000);
+        Frame rendered = pool.obtain(1, ByteBuffer.allocate(16), info, true);
+        // 解码器复用自己的 BufferInfo，帧要保留获取时的值
+        info.set(0, 16, 80_000, 0);
+        Frame timed = pool.obtain(2, ByteBuffer.allocate(16), info);
+        timed.release();
+        rendered.release();
+        assertEquals(2, mRecycled.size());
+        assertEquals(80_000, (long) mRecycledPts.get(0));
+        assertFalse(mRecycledRendered.get(0));
+        assertEquals(40_000, (long) mRecycledPts.get(1));
+        assertTrue(mRecycledRendered.get(1));
+    }
+
+    @Test
+    public void retain_isThreadSafe() throws Exception {
+        FramePool pool = new FramePool(1, mRecycler);
+        final Frame frame = pool.obtain(9, ByteBuffer.allocate(16), info(0, 16, 0));
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        frame.retain();
+                        frame.release();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(mRecycled.isEmpty());
+        frame.release();
+        assertEquals(1, mRecycled.size());
+    }
+
+    private static ICodec.BufferInfo info(int offset, int size, long ptsUs) {
+        ICodec.BufferInfo info = new ICodec.BufferInfo();
+        info.set(offset, size, ptsUs, 0);
+        return info;
+    }
+
+    private static void assertIllegalState(Frame frame, boolean retain) {
+        try {
+            if (retain) {
+                frame.retain();
+            } else {
+                frame.release();
+            }
+        } catch (IllegalStateException e) {
+            return;
+        }
+        throw new AssertionError("Expected IllegalStateException");
+    }
+}
@@ -0,0 +1,170 @@
+package com.richie.multimedialearning.media;
+
+import android.media.AudioFormat;
+import android.media.AudioManager;
+import android.media.AudioTimestamp;
+import android.media.AudioTrack;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 用假的 AudioTrack 验证音频时钟、写入量的上限、墙上时钟和两者之间的切换
+ */
+public class MediaClockTest {
+    private static final int SAMPLE_RATE = 48000;
+
+    @Test
+    public void wallClock_runsOnlyWhenStarted() throws Exception {
+        MediaClock clock = new MediaClock();
+        clock.setTimeUs(1_000_000);
+        Thread.sleep(20);
+        assertFalse(clock.isRunning());
+        assertEquals(1_000_000, clock.getTimeUs());
+
+        long startNanos = System.nanoTime();
+        clock.start();
+        Thread.sleep(50);
+        long timeUs = clock.getTimeUs();
+        long elapsedUs = (System.nanoTime() - startNanos) / 1000;
+        assertTrue("time " + timeUs, timeUs >= 1_050_000 && timeUs <= 1_000_000 + elapsedUs);
+
+        clock.pause();
+        long pausedUs = clock.getTimeUs();
+        Thread.sleep(20);
+        assertEquals(pausedUs, clock.getTimeUs());
+    }
+
+    @Test
+    public void audioClock_followsPlaybackHead() {
+        MediaClock clock = new MediaClock();
+        FakeAudioTrack track = new FakeAudioTrack();
+        clock.setAudioTrack(track, SAMPLE_RATE);
+        clock.onAudioWritten(2_000_000, 4800);
+        // 第二次写入不改变锚点
+        clock.onAudioWritten(2_100_000, 4800);
+
+        track.mHeadPosition = 2400;
+        assertEquals(2_050_000, clock.getTimeUs());
+        track.mHeadPosition = 9600;
+        assertEquals(2_200_000, clock.getTimeUs());
+        // 欠载时不超过已经写入的数据
+        track.mHeadPosition = 20000;
+        assertEquals(2_200_000, clock.getTimeUs());
+    }
+
+    @Test
+    public void audioClock_skipsFramesOfPreviousItem() {
+        MediaClock clock = new MediaClock();
+        FakeAudioTrack track = new FakeAudioTrack();
+        // 播放列表接着上一个文件播放，AudioTrack 中已经有一秒的数据
+        clock.setAudioTrack(track, SAMPLE_RATE, SAMPLE_RATE);
+        clock.onAudioWritten(0, 4800);
+        track.mHeadPosition = SAMPLE_RATE + 2400;
+        assertEquals(50_000, clock.getTimeUs());
+    }
+
+    @Test
+    public void audioClock_extrapolatesTimestamp() {
+        MediaClock clock = new MediaClock();
+        FakeAudioTrack track = new FakeAudioTrack();
+        clock.setAudioTrack(track, SAMPLE_RATE);
+        clock.onAudioWritten(0, SAMPLE_RATE * 10);
+        track.mTimestampValid = true;
+        track.mPlayState = AudioTrack.PLAYSTATE_PLAYING;
+        track.mFramePosition = 4800;
+        track.mTimestampNanos = System.nanoTime() - 10_000_000L;
+        long timeUs = clock.getTimeUs();
+        // 100 毫秒的播放位置加上 10 毫秒以上的外推
+        assertTrue("time " + timeUs, timeUs >= 110_000 && timeUs < 200_000);
+
+        // 暂停时不外推，使用播放头位置
+        track.mPlayState = AudioTrack.PLAYSTATE_PAUSED;
+        track.mHeadPosition = 4800;
+        assertEquals(100_000, clock.getTimeUs());
+    }
+
+    @Test
+    public void switchToWallClock_continuesFromAudioTime() {
+        MediaClock clock = new MediaClock();
+        FakeAudioTrack track = new FakeAudioTrack();
+        clock.setAudioTrack(track, SAMPLE_RATE);
+        clock.onAudioWritten(3_000_000, 4800);
+        track.mHeadPosition = 4800;
+        assertEquals(3_100_000, clock.getTimeUs());
+
+        clock.setAudioTrack(null, 0);
+        assertEquals(3_100_000, clock.getTimeUs());
+        // 没有音频时写入被忽略
+        clock.onAudioWritten(0, 4800);
+        assertEquals(3_100_000, clock.getTimeUs());
+
+        long nanoTime = clock.getNanoTime(3_110_000);
+        long deltaUs = (nanoTime - System.nanoTime()) / 1000;
+        assertTrue("delta " + deltaUs, deltaUs > 5_000 && deltaUs <= 10_000);
+    }
+
+    @Test
+    public void audioClock_waitsForFirstWrite() {
+        MediaClock clock = new MediaClock();
+        clock.setTimeUs(500_000);
+        FakeAudioTrack track = new FakeAudioTrack();
+        clock.setAudioTrack(track, SAMPLE_RATE);
+        track.mHeadPosition = 4800;
+        // 还没有写入音频，沿用墙上时钟
+        assertEquals(500_000, clock.getTimeUs());
+    }
+
+    @Test
+    public void audioClock_reanchorsAfterForwardSeek() {
+        MediaClock clock = new MediaClock();
+        FakeAudioTrack track = new FakeAudioTrack();
+        clock.setAudioTrack(track, SAMPLE_RATE);
+        clock.onAudioWritten(0, 4800);
+        track.mHeadPosition = 2400;
+        assertEquals(50_000, clock.getTimeUs());
+
+        // 向前跳转不 flush，也不重新设置 AudioTrack
+        clock.setTimeUs(5_000_000);
+        assertEquals(5_000_000, clock.getTimeUs());
+        clock.onAudioWritten(5_000_000, 4800);
+        // 跳转之前写入的数据播放完，才开始播放新的位置
+        track.mHeadPosition = 4800;
+        assertEquals(5_000_000, clock.getTimeUs());
+        track.mHeadPosition = 7200;
+        assertEquals(5_050_000, clock.getTimeUs());
+    }
+
+    private static final class FakeAudioTrack extends AudioTrack {
+        int mHeadPosition;
+        int mPlayState = AudioTrack.PLAYSTATE_PAUSED;
+        boolean mTimestampValid;
+        long mFramePosition;
+        long mTimestampNanos;
+
+        FakeAudioTrack() {
+            super(AudioManager.STREAM_MUSIC, SAMPLE_RATE, AudioFormat.CHANNEL_OUT_STEREO,
+                    AudioFormat.ENCODING_PCM_16BIT, 4096, AudioTrack.MODE_STREAM);
+        }
+
+        @Override
+        public int getPlaybackHeadPosition() {
+            return mHeadPosition;
+        }
+
+        @Override
+        public int getPlayState() {
+            return mPlayState;
+        }
+
+        @Override
+        public boolean getTimestamp(AudioTimestamp timestamp) {
+            timestamp.framePosition = mFramePosition;
+            timestamp.nanoTime = mTimestampNanos;
+            return mTimestampValid;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.richie.multimedialearning.media.audio;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 验证重采样的输出长度、直流增益、分块处理的一致性和 reset
+ */
+public class ResamplerTest {
+    private static final int CHANNELS = 2;
+    private static final int MAX_INPUT_FRAMES = 1024;
+
+    @Test
+    public void outputLength_followsRatio() {
+        int[][] rates = {{44100, 48000}, {48000, 44100}, {48000, 16000}, {8000, 48000}, {22050, 22050}};
+        for (Resampler.Quality quality : Resampler.Quality.values()) {
+            for (int[] rate : rates) {
+                Resampler resampler = new Resampler(rate[0], rate[1], CHANNELS, quality, MAX_INPUT_FRAMES);
+                // 一秒的输入，每块大小不同
+                int total = 0;
+                int fed = 0;
+                short[] in = new short[MAX_INPUT_FRAMES * CHANNELS];
+                short[] out = new short[resampler.getMaxOutputFrames(MAX_INPUT_FRAMES) * CHANNELS];
+                for (int block = 1; fed < rate[0]; block = block * 7 % MAX_INPUT_FRAMES + 1) {
+                    int frames = Math.min(block, rate[0] - fed);
+                    int produced = resampler.process(in, 0, frames, out, 0, out.length / CHANNELS);
+                    assertTrue(produced <= resampler.getMaxOutputFrames(frames));
+                    total += produced;
+                    fed += frames;
+                }
+                // 滤波器延迟半个窗口，最后这部分输入要等后续数据才能输出
+                int latency = quality.taps * Math.max(1, (rate[0] + rate[1] - 1) / rate[1]) / 2;
+                int maxLag = (int) ((long) (latency + 1) * rate[1] / rate[0]) + 1;
+                String message = quality + " " + rate[0] + " -> " + rate[1];
+                assertTrue(message + ": " + total, total <= rate[1]);
+                assertTrue(message + ": " + total, total >= rate[1] - maxLag);
+            }
+        }
+    }
+
+    @Test
+    public void dcGain_isUnity() {
+        int[][] rates = {{44100, 48000}, {48000, 44100}, {48000, 16000}, {8000, 48000}};
+        for (int[] rate : rates) {
+            Resampler resampler = new Resampler(rate[0], rate[1], CHANNELS, Resampler.Quality.HIGH, MAX_INPUT_FRAMES);
+            short[] in = new short[MAX_INPUT_FRAMES * CHANNELS];
+            for (int i = 0; i < in.length; i += CHANNELS) {
+                in[i] = 10000;
+                in[i + 1] = -20000;
+            }
+            short[] out = new short[resampler.getMaxOutputFrames(MAX_INPUT_FRAMES) * CHANNELS];
+            // 第一块包含从静音开始的过渡，之后是稳定的直流
+            resampler.process(in, 0, MAX_INPUT_FRAMES, out, 0, out.length / CHANNELS);
+            for (int block = 0; block < 4; block++) {
+                int produced = resampler.process(in, 0, MAX_INPUT_FRAMES, out, 0, out.length / CHANNELS);
+                assertTrue(produced > 0);
+                for (int i = 0; i < produced * CHANNELS; i += CHANNELS) {
+                    assertEquals(rate[0] + " -> " + rate[1], 10000, out[i], 2);
+                    assertEquals(rate[0] + " -> " + rate[1], -20000, out[i + 1], 2);
+                }
+            }
+
+            Resampler floatResampler = new Resampler(rate[0], rate[1], 1, Resampler.Quality.HIGH, MAX_INPUT_FRAMES);
+            float[] floatIn = new float[MAX_INPUT_FRAMES];
+            Arrays.fill(floatIn, 0.5f);
+            float[] floatOut = new float[floatResampler.getMaxOutputFrames(MAX_INPUT_FRAMES)];
+            floatResampler.process(floatIn, 0, MAX_INPUT_FRAMES, floatOut, 0, floatOut.length);
+            int produced = floatResampler.process(floatIn, 0, MAX_INPUT_FRAMES, floatOut, 0, floatOut.length);
+            for (int i = 0; i < produced; i++) {
+                assertEquals(0.5f, floatOut[i], 1e-4);
+            }
+        }
+    }
+
+    @Test
+    public void blockSize_doesNotChangeOutput() {
+        int frames = 3000;
+        float[] in = new float[frames * CHANNELS];
+        for (int i = 0; i < frames; i++) {
+            in[i * CHANNELS] = (float) Math.sin(i * 0.05);
+            in[i * CHANNELS + 1] = (float) Math.cos(i * 0.11);
+        }
+        float[] whole = resample(in, frames, 1000);
+        float[] small = resample(in, frames, 37);
+        assertArrayEquals(whole, small, 0);
+    }
+
+    @Test
+    public void reset_restartsFromSilence() {
+        Resampler resampler = new Resampler(44100, 48000, CHANNELS, Resampler.Quality.MEDIUM, MAX_INPUT_FRAMES);
+        short[] in = new short[MAX_INPUT_FRAMES * CHANNELS];
+        for (int i = 0; i < in.length; i++) {
+            in[i] = (short) (i * 37);
+        }
+        short[] first = new short[resampler.getMaxOutputFrames(MAX_INPUT_FRAMES) * CHANNELS];
+        int firstCount = resampler.process(in, 0, MAX_INPUT_FRAMES, first, 0, first.length / CHANNELS);
+        short[] scratch = new short[first.length];
+        resampler.process(in, 0, 100, scratch, 0, scratch.length / CHANNELS);
+
+        resampler.reset();
+        short[] second = new short[first.length];
+        int secondCount = resampler.process(in, 0, MAX_INPUT_FRAMES, second, 0, second.length / CHANNELS);
+        assertEquals(firstCount, secondCount);
+        assertArrayEquals(first, second);
+    }
+
+    @Test
+    public void flush_emitsTail() {
+        int[][] rates = {{44100, 48000}, {48000, 44100}, {48000, 16000}, {8000, 48000}, {22050, 22050}};
+        int frames = 1000;
+        for (int[] rate : rates) {
+            Resampler resampler = new Resampler(rate[0], rate[1], CHANNELS, Resampler.Quality.HIGH, 300);
+            short[] in = new short[300 * CHANNELS];
+            for (int i = 0; i < in.length; i += CHANNELS) {
+                in[i] = 10000;
+                in[i + 1] = -20000;
+            }
+            short[] out = new short[resampler.getMaxOutputFrames(300) * CHANNELS];
+            int total = 0;
+            for (int fed = 0; fed < frames; fed += 300) {
+                total += resampler.process(in, 0, Math.min(300, frames - fed), out, 0, out.length / CHANNELS);
+            }
+            int tail = resampler.flush(out, 0, resampler.getMaxOutputFrames(0));
+            String message = rate[0] + " -> " + rate[1];
+            // 输入的每一段都有对应的输出
+            int expected = (int) (((long) frames * rate[1] + rate[0] - 1) / rate[0]);
+            assertEquals(message, expected, total + tail);
+            assertTrue(message, tail > 0);
+            // 尾部的前半段仍然是直流，越靠近结尾越接近静音
+            assertEquals(message, 10000, out[0], 2);
+            assertEquals(message, -20000, out[1], 4);
+
+            // flush 之后和新建的一样
+            int again = resampler.process(in, 0, 300, out, 0, out.length / CHANNELS);
+            Resampler fresh = new Resampler(rate[0], rate[1], CHANNELS, Resampler.Quality.HIGH, 300);
+            short[] freshOut = new short[out.length];
+            assertEquals(message, fresh.process(in, 0, 300, freshOut, 0, freshOut.length / CHANNELS), again);
+            assertArrayEquals(Arrays.copyOf(freshOut, again * CHANNELS), Arrays.copyOf(out, again * CHANNELS));
+        }
+    }
+
+    @Test
+    public void flush_withoutInputIsEmpty() {
+        Resampler resampler = new Resampler(44100, 48000, CHANNELS, Resampler.Quality.LOW, MAX_INPUT_FRAMES);
+        float[] out = new float[resampler.getMaxOutputFrames(0) * CHANNELS];
+        assertEquals(0, resampler.flush(out, 0, out.length / CHANNELS));
+    }
+
+    @Test
+    public void process_rejectsBadArguments() {
+        Resampler resampler = new Resampler(44100, 48000, CHANNELS, Resampler.Quality.LOW, MAX_INPUT_FRAMES);
+        short[] in = new short[(MAX_INPUT_FRAMES + 1) * CHANNELS];
+        short[] out = new short[resampler.getMaxOutputFrames(MAX_INPUT_FRAMES + 1) * CHANNELS];
+        assertThrows(resampler, in, MAX_INPUT_FRAMES + 1, out, out.length / CHANNELS);
+        assertThrows(resampler, in, 100, out, resampler.getMaxOutputFrames(100) - 1);
+        boolean thrown = false;
+        try {
+            new Resampler(44100, 48001, CHANNELS, Resampler.Quality.LOW, MAX_INPUT_FRAMES);
+        } catch (IllegalArgumentException e) {
+            thrown = true;
+        }
+        assertTrue(thrown);
+    }
+
+    private static float[] resample(float[] in, int frames, int blockSize) {
+        Resampler resampler = new Resampler(48000, 44100, CHANNELS, Resampler.Quality.MEDIUM, blockSize);
+        float[] out = new float[resampler.getMaxOutputFrames(frames) * CHANNELS];
+        float[] block = new float[resampler.getMaxOutputFrames(blockSize) * CHANNELS];
+        int total = 0;
+        for (int fed = 0; fed < frames; fed += blockSize) {
+            int count = Math.min(blockSize, frames - fed);
+            int produced = resampler.process(in, fed * CHANNELS, count, block, 0, block.length / CHANNELS);
+            System.arraycopy(block, 0, out, total * CHANNELS, produced * CHANNELS);
+            total += produced;
+        }
+        return Arrays.copyOf(out, total * CHANNELS);
+    }
+
+    private static void assertThrows(Resampler resampler, short[] in, int inFrames, short[] out, int outCapacity) {
+        try {
+            resampler.process(in, 0, inFrames, out, 0, outCapacity);
+        } catch (IllegalArgumentException e) {
+            return;
+        }
+        throw new AssertionError("Expected IllegalArgumentException");
+    }
+}
@@ -0,0 +1,176 @@
+package com.richie.multimedialearning.media.codec;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 在 JVM 上运行 CodecPump 和 SoftwareCodec，验证缓冲区处理和 EOS
+ */
+public class SoftwareCodecTest {
+    private static final int FRAME_COUNT = 1000;
+    private static final int FRAME_SIZE = 512;
+
+    @Test
+    public void passThrough_outputEqualsInput() throws Exception {
+        SoftwareCodec codec = SoftwareCodec.createPassThrough(CodecFormat.createAudioFormat("audio/raw", 44100, 2), 4, FRAME_SIZE);
+        codec.start();
+        CountingSink sink = new CountingSink();
+        CodecPump pump = new CodecPump(codec, 0);
+        pump.run(new PatternSource(), sink);
+        codec.release();
+
+        assertEquals(1, sink.mFormatChangedCount);
+        assertEquals(FRAME_COUNT, pump.getInputCount());
+        assertEquals(FRAME_COUNT, pump.getOutputCount());
+        assertEquals((long) FRAME_COUNT * FRAME_SIZE, pump.getOutputBytes());
+        assertEquals(expectedChecksum(), sink.mChecksum);
+    }
+
+    @Test
+    public void synthetic_withDelay_drainsAllFramesOnEos() throws Exception {
+        int outputSize = 4096;
+        SoftwareCodec codec = SoftwareCodec.createSynthetic(CodecFormat.createAudioFormat("audio/raw", 48000, 2),
+                8, FRAME_SIZE, outputSize, 3);
+        codec.start();
+        CountingSink sink = new CountingSink();
+        CodecPump pump = new CodecPump(codec, 0);
+        pump.run(new PatternSource(), sink);
+        codec.release();
+
+        assertEquals(FRAME_COUNT, pump.getOutputCount());
+        assertEquals((long) FRAME_COUNT * outputSize, pump.getOutputBytes());
+        assertTrue(sink.mMonotonic);
+    }
+
+    @Test
+    public void callbackMode_outputEqualsInput() throws Exception {
+        SoftwareCodec codec = SoftwareCodec.createPassThrough(CodecFormat.createAudioFormat("audio/raw", 44100, 2), 4, FRAME_SIZE);
+        final CountingSink sink = new CountingSink();
+        final PatternSource source = new PatternSource();
+        final CountDownLatch eos = new CountDownLatch(1);
+        final ICodec.BufferInfo inputInfo = new ICodec.BufferInfo();
+        codec.setCallback(new ICodec.Callback() {
+            @Override
+            public void onInputBufferAvailable(ICodec codec, int index) {
+                ByteBuffer buffer = codec.getInputBuffer(index);
+                int size = source.read(buffer, inputInfo);
+                if (size < 0) {
+                    codec.queueInputBuffer(index, 0, 0, 0, ICodec.BUFFER_FLAG_END_OF_STREAM);
+                } else {
+                    codec.queueInputBuffer(index, 0, size, inputInfo.presentationTimeUs, 0);
+                }
+            }
+
+            @Override
+            public void onOutputBufferAvailable(ICodec codec, int index, ICodec.BufferInfo info) {
+                if (info.size > 0) {
+                    sink.write(codec.getOutputBuffer(index), info);
+                }
+                codec.releaseOutputBuffer(index, false);
+                if ((info.flags & ICodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                    eos.countDown();
+                }
+            }
+
+            @Override
+            public void onOutputFormatChanged(ICodec codec, CodecFormat format) {
+                sink.onOutputFormatChanged(format);
+            }
+
+            @Override
+            public void onError(ICodec codec, Exception e) {
+            }
+        });
+        codec.start();
+        assertTrue(eos.await(10, TimeUnit.SECONDS));
+        codec.release();
+
+        assertEquals(1, sink.mFormatChangedCount);
+        assertEquals(expectedChecksum(), sink.mChecksum);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void callbackMode_dequeueThrows() {
+        SoftwareCodec codec = SoftwareCodec.createPassThrough(new CodecFormat(), 2, FRAME_SIZE);
+        codec.setCallback(new ICodec.Callback() {
+            @Override
+            public void onInputBufferAvailable(ICodec codec, int index) {
+            }
+
+            @Override
+            public void onOutputBufferAvailable(ICodec codec, int index, ICodec.BufferInfo info) {
+            }
+
+            @Override
+            public void onOutputFormatChanged(ICodec codec, CodecFormat format) {
+            }
+
+            @Override
+            public void onError(ICodec codec, Exception e) {
+            }
+        });
+        codec.start();
+        codec.dequeueInputBuffer(0);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void queueWithoutDequeue_throws() {
+        SoftwareCodec codec = SoftwareCodec.createPassThrough(new CodecFormat(), 2, FRAME_SIZE);
+        codec.start();
+        codec.queueInputBuffer(0, 0, 0, 0, 0);
+    }
+
+    private static long expectedChecksum() {
+        long checksum = 0;
+        for (int i = 0; i < FRAME_COUNT; i++) {
+            for (int j = 0; j < FRAME_SIZE; j++) {
+                checksum = checksum * 31 + (byte) (i + j);
+            }
+        }
+        return checksum;
+    }
+
+    private static final class PatternSource implements CodecPump.Source {
+        private int mFrameIndex;
+
+        @Override
+        public int read(ByteBuffer buffer, ICodec.BufferInfo info) {
+            if (mFrameIndex == FRAME_COUNT) {
+                return -1;
+            }
+            for (int j = 0; j < FRAME_SIZE; j++) {
+                buffer.put((byte) (mFrameIndex + j));
+            }
+            info.presentationTimeUs = mFrameIndex * 10_000L;
+            mFrameIndex++;
+            return FRAME_SIZE;
+        }
+    }
+
+    private static final class CountingSink implements CodecPump.Sink {
+        int mFormatChangedCount;
+        long mChecksum;
+        long mLastTimeUs = -1;
+        boolean mMonotonic = true;
+
+        @Override
+        public void onOutputFormatChanged(CodecFormat format) {
+            mFormatChangedCount++;
+        }
+
+        @Override
+        public void write(ByteBuffer buffer, ICodec.BufferInfo info) {
+            while (buffer.hasRemaining()) {
+                mChecksum = mChecksum * 31 + buffer.get();
+            }
+            mMonotonic &= info.presentationTimeUs > mLastTimeUs;
+            mLastTimeUs = info.presentationTimeUs;
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.richie.multimedialearning.media.decoder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 验证丢帧的延迟阈值和连续丢帧的上限
+ */
+public class FrameDropPolicyTest {
+
+    @Test
+    public void default_dropsOnlyLateFrames() {
+        FrameDropPolicy policy = FrameDropPolicy.DEFAULT;
+        assertFalse(policy.shouldDrop(-10_000, 0));
+        assertFalse(policy.shouldDrop(0, 0));
+        assertFalse(policy.shouldDrop(40_000, 0));
+        assertTrue(policy.shouldDrop(40_001, 0));
+        assertTrue(policy.shouldDrop(1_000_000, 4));
+    }
+
+    @Test
+    public void default_showsFrameAfterConsecutiveDrops() {
+        FrameDropPolicy policy = FrameDropPolicy.DEFAULT;
+        int consecutiveDrops = 0;
+        int shown = 0;
+        // 一直落后时每 6 帧显示一帧
+        for (int i = 0; i < 18; i++) {
+            if (policy.shouldDrop(100_000, consecutiveDrops)) {
+                consecutiveDrops++;
+            } else {
+                consecutiveDrops = 0;
+                shown++;
+                assertEquals(5, i % 6);
+            }
+        }
+        assertEquals(3, shown);
+    }
+
+    @Test
+    public void never_neverDrops() {
+        assertFalse(FrameDropPolicy.NEVER.shouldDrop(Long.MAX_VALUE - 1, 0));
+        assertFalse(FrameDropPolicy.NEVER.shouldDrop(10_000_000, 0));
+    }
+
+    @Test
+    public void custom_respectsLimits() {
+        FrameDropPolicy policy = new FrameDropPolicy(0, 1);
+        assertTrue(policy.shouldDrop(1, 0));
+        assertFalse(policy.shouldDrop(1, 1));
+        // 不限制连续丢帧
+        FrameDropPolicy unlimited = new FrameDropPolicy(20_000, Integer.MAX_VALUE);
+        assertTrue(unlimited.shouldDrop(30_000, 1000));
+        assertFalse(unlimited.shouldDrop(20_000, 1000));
+    }
+}
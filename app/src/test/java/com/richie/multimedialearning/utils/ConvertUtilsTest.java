@@ -0,0 +1,175 @@
+package com.richie.multimedialearning.utils;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 验证 PCM 批量转换的往返、偏移、截断和抖动，长度覆盖展开部分和剩余部分
+ */
+public class ConvertUtilsTest {
+    // 不是 4 的倍数，剩余的采样点走尾部循环
+    private static final int COUNT = 1027;
+    private static final int OFFSET = 3;
+
+    @Test
+    public void pcm16_roundTrip() {
+        short[] src = randomShorts(COUNT + OFFSET, 1);
+        src[OFFSET] = Short.MIN_VALUE;
+        src[OFFSET + 1] = Short.MAX_VALUE;
+        src[OFFSET + 2] = -1;
+        byte[] bytes = new byte[COUNT * 2 + 1];
+        ConvertUtils.shortsToPcm16(src, OFFSET, bytes, 1, COUNT);
+        // 小端序
+        assertEquals(0x00, bytes[1] & 0xFF);
+        assertEquals(0x80, bytes[2] & 0xFF);
+        assertEquals(0xFF, bytes[3] & 0xFF);
+        assertEquals(0x7F, bytes[4] & 0xFF);
+
+        short[] dst = new short[COUNT];
+        ConvertUtils.pcm16ToShorts(bytes, 1, dst, 0, COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals(src[OFFSET + i], dst[i]);
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.BIG_ENDIAN);
+        buffer.position(1);
+        short[] fromBuffer = new short[COUNT];
+        ConvertUtils.pcm16ToShorts(buffer, fromBuffer, 0, COUNT);
+        assertArrayEquals(dst, fromBuffer);
+        assertEquals(1 + COUNT * 2, buffer.position());
+        assertSame(ByteOrder.BIG_ENDIAN, buffer.order());
+    }
+
+    @Test
+    public void pcm16_floatRoundTrip() {
+        short[] src = randomShorts(COUNT, 2);
+        src[0] = Short.MIN_VALUE;
+        src[1] = Short.MAX_VALUE;
+        float[] floats = new float[COUNT];
+        ConvertUtils.shortsToFloats(src, 0, floats, 0, COUNT);
+        assertEquals(-1f, floats[0], 0);
+        assertEquals(32767f / 32768f, floats[1], 0);
+        short[] shorts = new short[COUNT];
+        ConvertUtils.floatsToShorts(floats, 0, shorts, 0, COUNT, null);
+        assertArrayEquals(src, shorts);
+
+        byte[] bytes = new byte[COUNT * 2];
+        ConvertUtils.shortsToPcm16(src, 0, bytes, 0, COUNT);
+        float[] fromBytes = new float[COUNT];
+        ConvertUtils.pcm16ToFloats(bytes, 0, fromBytes, 0, COUNT);
+        assertArrayEquals(floats, fromBytes, 0);
+        byte[] back = new byte[COUNT * 2];
+        ConvertUtils.floatsToPcm16(fromBytes, 0, back, 0, COUNT, null);
+        assertArrayEquals(bytes, back);
+    }
+
+    @Test
+    public void floatsToPcm16_clipsAndRounds() {
+        float[] src = {2f, -2f, 1f, -1f, 0.5f / 32768, -0.4f / 32768, 100.6f / 32768};
+        short[] shorts = new short[src.length];
+        ConvertUtils.floatsToShorts(src, 0, shorts, 0, src.length, null);
+        assertArrayEquals(new short[]{32767, -32768, 32767, -32768, 1, 0, 101}, shorts);
+
+        byte[] bytes = new byte[src.length * 2];
+        ConvertUtils.floatsToPcm16(src, 0, bytes, 0, src.length, null);
+        short[] fromBytes = new short[src.length];
+        ConvertUtils.pcm16ToShorts(bytes, 0, fromBytes, 0, src.length);
+        assertArrayEquals(shorts, fromBytes);
+    }
+
+    @Test
+    public void dither_isBoundedAndUnbiased() {
+        float[] src = new float[COUNT];
+        for (int i = 0; i < COUNT; i++) {
+            src[i] = (i - COUNT / 2) * 20.25f / 32768;
+        }
+        short[] plain = new short[COUNT];
+        ConvertUtils.floatsToShorts(src, 0, plain, 0, COUNT, null);
+        short[] dithered = new short[COUNT];
+        ConvertUtils.floatsToShorts(src, 0, dithered, 0, COUNT, new ConvertUtils.Dither(7));
+        byte[] bytes = new byte[COUNT * 2];
+        ConvertUtils.floatsToPcm16(src, 0, bytes, 0, COUNT, new ConvertUtils.Dither(7));
+        short[] ditheredBytes = new short[COUNT];
+        ConvertUtils.pcm16ToShorts(bytes, 0, ditheredBytes, 0, COUNT);
+        // 相同的种子得到相同的结果
+        assertArrayEquals(dithered, ditheredBytes);
+
+        double error = 0;
+        int changed = 0;
+        for (int i = 0; i < COUNT; i++) {
+            int diff = dithered[i] - plain[i];
+            assertTrue("diff " + diff + " at " + i, Math.abs(diff) <= 2);
+            error += dithered[i] - src[i] * 32768;
+            if (diff != 0) {
+                changed++;
+            }
+        }
+        assertTrue(changed > 0);
+        // TPDF 抖动的均值为 0，量化误差没有偏向
+        assertTrue("error " + error, Math.abs(error) < COUNT / 20);
+    }
+
+    @Test
+    public void pcm24_roundTrip() {
+        int[] src = new int[COUNT + OFFSET];
+        Random random = new Random(3);
+        for (int i = 0; i < src.length; i++) {
+            src[i] = random.nextInt(1 << 24) - (1 << 23);
+        }
+        src[OFFSET] = -8388608;
+        src[OFFSET + 1] = 8388607;
+        byte[] bytes = new byte[COUNT * 3 + 2];
+        ConvertUtils.intsToPcm24(src, OFFSET, bytes, 2, COUNT);
+        assertEquals(0x00, bytes[2] & 0xFF);
+        assertEquals(0x00, bytes[3] & 0xFF);
+        assertEquals(0x80, bytes[4] & 0xFF);
+
+        int[] dst = new int[COUNT + 1];
+        ConvertUtils.pcm24ToInts(bytes, 2, dst, 1, COUNT);
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals(src[OFFSET + i], dst[i + 1]);
+        }
+
+        float[] floats = new float[COUNT];
+        ConvertUtils.pcm24ToFloats(bytes, 2, floats, 0, COUNT);
+        assertEquals(-1f, floats[0], 0);
+        for (int i = 0; i < COUNT; i++) {
+            assertEquals(src[OFFSET + i] / 8388608.0, floats[i], 1e-9);
+        }
+        byte[] back = new byte[COUNT * 3 + 2];
+        ConvertUtils.floatsToPcm24(floats, 0, back, 2, COUNT);
+        assertArrayEquals(bytes, back);
+    }
+
+    @Test
+    public void pcm24_clips() {
+        int[] ints = {9000000, -9000000, 8388607, -8388608, 0};
+        byte[] bytes = new byte[ints.length * 3];
+        ConvertUtils.intsToPcm24(ints, 0, bytes, 0, ints.length);
+        int[] fromInts = new int[ints.length];
+        ConvertUtils.pcm24ToInts(bytes, 0, fromInts, 0, ints.length);
+        assertArrayEquals(new int[]{8388607, -8388608, 8388607, -8388608, 0}, fromInts);
+
+        float[] floats = {1.5f, -1.5f, 1f, -1f, 0.25f};
+        ConvertUtils.floatsToPcm24(floats, 0, bytes, 0, floats.length);
+        ConvertUtils.pcm24ToInts(bytes, 0, fromInts, 0, floats.length);
+        assertArrayEquals(new int[]{8388607, -8388608, 8388607, -8388608, 2097152}, fromInts);
+    }
+
+    private static short[] randomShorts(int length, long seed) {
+        short[] data = new short[length];
+        Random random = new Random(seed);
+        for (int i = 0; i < length; i++) {
+            data[i] = (short) random.nextInt();
+        }
+        return data;
+    }
+}
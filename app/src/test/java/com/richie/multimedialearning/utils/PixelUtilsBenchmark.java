@@ -0,0 +1,102 @@
+package com.richie.multimedialearning.utils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PixelUtils 的 JMH 基准测试，比较 720p、1080p、4K 帧单线程和并行的耗时
+ * <p>
+ * 在 JVM 上运行 main，或者用 JMH 的命令行运行。结果是每帧的平均耗时。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PixelUtilsBenchmark {
+    @Param({"1280x720", "1920x1080", "3840x2160"})
+    public String size;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private int mWidth;
+    private int mHeight;
+    private int[] mSrc;
+    private int[] mDst;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        String[] wh = size.split("x");
+        mWidth = Integer.parseInt(wh[0]);
+        mHeight = Integer.parseInt(wh[1]);
+        mSrc = new int[mWidth * mHeight];
+        Random random = new Random(mWidth);
+        for (int i = 0; i < mSrc.length; i++) {
+            mSrc[i] = random.nextInt();
+        }
+        mDst = new int[mSrc.length];
+        PixelUtils.setParallelThreshold(parallel ? 1 : Integer.MAX_VALUE);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        PixelUtils.setParallelThreshold(PixelUtils.DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    @Benchmark
+    public int[] swapRedBlue() {
+        PixelUtils.swapRedBlue(mSrc, 0, mDst, 0, mSrc.length);
+        return mDst;
+    }
+
+    @Benchmark
+    public int[] flipVertical() {
+        PixelUtils.flipVertical(mSrc, mDst, mWidth, mHeight);
+        return mDst;
+    }
+
+    @Benchmark
+    public int[] flipHorizontal() {
+        PixelUtils.flipHorizontal(mSrc, mDst, mWidth, mHeight);
+        return mDst;
+    }
+
+    @Benchmark
+    public int[] rotate90() {
+        PixelUtils.rotate90(mSrc, mDst, mWidth, mHeight, true);
+        return mDst;
+    }
+
+    @Benchmark
+    public int[] premultiply() {
+        PixelUtils.premultiply(mSrc, 0, mDst, 0, mSrc.length);
+        return mDst;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(PixelUtilsBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
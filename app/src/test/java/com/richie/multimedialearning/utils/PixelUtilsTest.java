@@ -0,0 +1,158 @@
+package com.richie.multimedialearning.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 和逐像素的朴素实现对比，并行和单线程的结果必须一致
+ */
+public class PixelUtilsTest {
+    private static final int WIDTH = 37;
+    private static final int HEIGHT = 23;
+
+    @Test
+    public void swapRedBlue_convertsRgbaToColor() {
+        int[] pixels = {0x80332211, 0xFF0000FF};
+        PixelUtils.rgbaToColor(pixels, 0, pixels, 0, pixels.length);
+        assertEquals(0x80112233, pixels[0]);
+        assertEquals(0xFFFF0000, pixels[1]);
+    }
+
+    @Test
+    public void rgbaToArgb_roundTrip() {
+        int[] src = randomPixels(WIDTH * HEIGHT, 1);
+        int[] argb = new int[src.length];
+        PixelUtils.rgbaToArgb(src, 0, argb, 0, src.length);
+        // 字节 R,G,B,A 变成 A,R,G,B
+        assertEquals(0x33221144, toArgb(0x44332211));
+        assertEquals(Integer.rotateLeft(src[5], 8), argb[5]);
+        PixelUtils.argbToRgba(argb, 0, argb, 0, argb.length);
+        assertArrayEquals(src, argb);
+    }
+
+    @Test
+    public void flips_matchNaive() {
+        int[] src = randomPixels(WIDTH * HEIGHT, 2);
+        int[] vertical = new int[src.length];
+        int[] horizontal = new int[src.length];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                vertical[(HEIGHT - 1 - y) * WIDTH + x] = src[y * WIDTH + x];
+                horizontal[y * WIDTH + WIDTH - 1 - x] = src[y * WIDTH + x];
+            }
+        }
+        int[] dst = new int[src.length];
+        PixelUtils.flipVertical(src, dst, WIDTH, HEIGHT);
+        assertArrayEquals(vertical, dst);
+        PixelUtils.flipHorizontal(src, dst, WIDTH, HEIGHT);
+        assertArrayEquals(horizontal, dst);
+
+        int[] inPlace = src.clone();
+        PixelUtils.flipVertical(inPlace, WIDTH, HEIGHT);
+        assertArrayEquals(vertical, inPlace);
+        inPlace = src.clone();
+        PixelUtils.flipHorizontal(inPlace, WIDTH, HEIGHT);
+        assertArrayEquals(horizontal, inPlace);
+    }
+
+    @Test
+    public void rotations_matchNaive() {
+        int[] src = randomPixels(WIDTH * HEIGHT, 3);
+        int[] clockwise = new int[src.length];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                // 源的 (x, y) 顺时针转到目标的 (HEIGHT-1-y, x)，目标宽为 HEIGHT
+                clockwise[x * HEIGHT + HEIGHT - 1 - y] = src[y * WIDTH + x];
+            }
+        }
+        int[] dst = new int[src.length];
+        PixelUtils.rotate90(src, dst, WIDTH, HEIGHT, true);
+        assertArrayEquals(clockwise, dst);
+
+        int[] back = new int[src.length];
+        PixelUtils.rotate90(dst, back, HEIGHT, WIDTH, false);
+        assertArrayEquals(src, back);
+
+        int[] rotated = src.clone();
+        PixelUtils.rotate180(rotated, WIDTH, HEIGHT);
+        int[] flipped = src.clone();
+        PixelUtils.flipVertical(flipped, WIDTH, HEIGHT);
+        PixelUtils.flipHorizontal(flipped, WIDTH, HEIGHT);
+        assertArrayEquals(flipped, rotated);
+    }
+
+    @Test
+    public void premultiply_roundsExactly() {
+        int[] src = new int[256 * 256];
+        for (int a = 0; a < 256; a++) {
+            for (int c = 0; c < 256; c++) {
+                src[a * 256 + c] = a << 24 | c << 16 | c << 8 | (255 - c);
+            }
+        }
+        int[] premultiplied = new int[src.length];
+        PixelUtils.premultiply(src, 0, premultiplied, 0, src.length);
+        for (int a = 0; a < 256; a++) {
+            for (int c = 0; c < 256; c++) {
+                int p = premultiplied[a * 256 + c];
+                int expected = a == 0 ? 0 : (int) Math.round(c * a / 255.0);
+                assertEquals(a == 0 ? 0 : a, p >>> 24);
+                assertEquals(expected, p >>> 16 & 0xFF);
+                assertEquals(a == 0 ? 0 : (int) Math.round((255 - c) * a / 255.0), p & 0xFF);
+            }
+        }
+        int[] restored = new int[src.length];
+        PixelUtils.unpremultiply(premultiplied, 0, restored, 0, src.length);
+        for (int a = 1; a < 256; a++) {
+            for (int c = 0; c < 256; c++) {
+                int error = Math.abs((restored[a * 256 + c] >>> 16 & 0xFF) - c);
+                // 预乘丢失的精度和 alpha 成反比
+                assertTrue("a " + a + ", c " + c + ", error " + error, error <= 128 / a + 1);
+            }
+        }
+    }
+
+    @Test
+    public void parallel_matchesSequential() {
+        int width = 1280;
+        int height = 720;
+        int[] src = randomPixels(width * height, 4);
+        int[] sequential = new int[src.length];
+        int[] parallel = new int[src.length];
+        try {
+            PixelUtils.setParallelThreshold(Integer.MAX_VALUE);
+            PixelUtils.rotate90(src, sequential, width, height, true);
+            PixelUtils.swapRedBlue(sequential, 0, sequential, 0, sequential.length);
+            PixelUtils.flipVertical(sequential, height, width);
+            PixelUtils.premultiply(sequential, 0, sequential, 0, sequential.length);
+
+            PixelUtils.setParallelThreshold(1);
+            PixelUtils.rotate90(src, parallel, width, height, true);
+            PixelUtils.swapRedBlue(parallel, 0, parallel, 0, parallel.length);
+            PixelUtils.flipVertical(parallel, height, width);
+            PixelUtils.premultiply(parallel, 0, parallel, 0, parallel.length);
+        } finally {
+            PixelUtils.setParallelThreshold(PixelUtils.DEFAULT_PARALLEL_THRESHOLD);
+        }
+        assertArrayEquals(sequential, parallel);
+    }
+
+    private static int toArgb(int rgba) {
+        int[] pixel = {rgba};
+        PixelUtils.rgbaToArgb(pixel, 0, pixel, 0, 1);
+        return pixel[0];
+    }
+
+    private static int[] randomPixels(int count, long seed) {
+        Random random = new Random(seed);
+        int[] pixels = new int[count];
+        for (int i = 0; i < count; i++) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+}
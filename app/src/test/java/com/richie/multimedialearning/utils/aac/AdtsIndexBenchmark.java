@@ -0,0 +1,86 @@
+package com.richie.multimedialearning.utils.aac;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * AdtsIndex 的 JMH 基准测试，3 小时 44.1kHz 的 ADTS 文件（约 46 万帧）扫描建索引和加载已保存索引的耗时
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AdtsIndexBenchmark {
+    private static final int SAMPLE_RATE = 44100;
+    private static final long DURATION_S = 3 * 3600;
+    // 约 64kbps
+    private static final int AVERAGE_PAYLOAD = 180;
+
+    private File mAacFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        mAacFile = File.createTempFile("adtsbench", ".aac");
+        AdtsHeader header = new AdtsHeader(AdtsHeader.PROFILE_AAC_LC, SAMPLE_RATE, 2);
+        byte[] frame = new byte[AdtsHeader.HEADER_SIZE + AVERAGE_PAYLOAD * 2];
+        Arrays.fill(frame, (byte) 0x5A);
+        Random random = new Random(0);
+        long frameCount = DURATION_S * SAMPLE_RATE / AdtsHeader.SAMPLES_PER_BLOCK;
+        try (OutputStream os = new BufferedOutputStream(new FileOutputStream(mAacFile), 1 << 16)) {
+            for (long i = 0; i < frameCount; i++) {
+                int payloadSize = AVERAGE_PAYLOAD / 2 + random.nextInt(AVERAGE_PAYLOAD);
+                header.write(frame, payloadSize);
+                os.write(frame, 0, AdtsHeader.HEADER_SIZE + payloadSize);
+            }
+        }
+        AdtsIndex.build(mAacFile).save(AdtsIndex.getIndexFile(mAacFile));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        AdtsIndex.getIndexFile(mAacFile).delete();
+        mAacFile.delete();
+    }
+
+    @Benchmark
+    public AdtsIndex build() throws IOException {
+        return AdtsIndex.build(mAacFile);
+    }
+
+    @Benchmark
+    public AdtsIndex load() {
+        return AdtsIndex.load(mAacFile);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(AdtsIndexBenchmark.class.getSimpleName())
+                .build();
+        new Runner(options).run();
+    }
+}
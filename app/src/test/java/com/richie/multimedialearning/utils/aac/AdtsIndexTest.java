@@ -0,0 +1,210 @@
+package com.richie.multimedialearning.utils.aac;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 在 JVM 上构造带垃圾数据的 ADTS 文件，验证帧头、重新同步、索引的保存加载和过期判断
+ */
+public class AdtsIndexTest {
+    private static final int SAMPLE_RATE = 44100;
+    private static final int CHANNELS = 2;
+    // 文件开头的 ID3 标签，不含 0xFF
+    private static final byte[] ID3 = {'I', 'D', '3', 4, 0, 0, 0, 0, 0, 3, 1, 2, 3};
+
+    private final List<Long> mOffsets = new ArrayList<>();
+    private final List<Integer> mSizes = new ArrayList<>();
+
+    @Test
+    public void header_writeParseRoundTrip() {
+        AdtsHeader header = new AdtsHeader(AdtsHeader.PROFILE_AAC_LC, SAMPLE_RATE, CHANNELS);
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        header.write(buffer, 3, 200);
+        assertEquals(0, buffer.position());
+
+        AdtsHeader parsed = new AdtsHeader();
+        assertTrue(parsed.parse(buffer, 3));
+        assertEquals(AdtsHeader.PROFILE_AAC_LC, parsed.getProfile());
+        assertEquals(SAMPLE_RATE, parsed.getSampleRate());
+        assertEquals(CHANNELS, parsed.getChannelConfig());
+        assertEquals(207, parsed.getFrameLength());
+        assertEquals(AdtsHeader.HEADER_SIZE, parsed.getHeaderLength());
+        assertEquals(AdtsHeader.BUFFER_FULLNESS_VBR, parsed.getBufferFullness());
+        assertEquals(1, parsed.getRawDataBlocks());
+        assertTrue(parsed.isCompatible(header));
+        // 偏移一个字节就不是合法的帧头
+        assertFalse(parsed.parse(buffer, 4));
+        assertFalse(parsed.parse(buffer, 12));
+    }
+
+    @Test
+    public void build_resyncsAfterGarbage() throws Exception {
+        File file = createAac(false);
+        try {
+            AdtsIndex index = AdtsIndex.build(file);
+            assertEquals(mOffsets.size(), index.getFrameCount());
+            for (int i = 0; i < index.getFrameCount(); i++) {
+                assertEquals((long) mOffsets.get(i), index.getFrameOffset(i));
+                assertEquals((int) mSizes.get(i), index.getFrameSize(i));
+            }
+            long frameBytes = 0;
+            for (int size : mSizes) {
+                frameBytes += size;
+            }
+            // ID3、中间的垃圾数据和末尾不完整的帧都被跳过
+            assertEquals(file.length() - frameBytes, index.getSkippedBytes());
+            assertEquals(SAMPLE_RATE, index.getSampleRate());
+            assertEquals(CHANNELS, index.getChannelConfig());
+            assertEquals(mOffsets.size() * 1024L, index.getSampleCount());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void getFrameIndex_matchesFrameTime() throws Exception {
+        File file = createAac(true);
+        try {
+            AdtsIndex index = AdtsIndex.build(file);
+            // 每隔一帧有两个 raw data block
+            assertEquals(mOffsets.size() / 2 * 3 * 1024L + (mOffsets.size() % 2) * 1024L, index.getSampleCount());
+            for (int i = 0; i < index.getFrameCount(); i++) {
+                long timeUs = index.getFrameTimeUs(i);
+                assertEquals(i, index.getFrameIndex(timeUs));
+                if (i + 1 < index.getFrameCount()) {
+                    assertEquals(i, index.getFrameIndex(index.getFrameTimeUs(i + 1) - 1));
+                }
+            }
+            assertEquals(0, index.getFrameIndex(-1));
+            assertEquals(index.getFrameCount() - 1, index.getFrameIndex(Long.MAX_VALUE / SAMPLE_RATE));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void saveAndLoad_roundTrip() throws Exception {
+        for (boolean variableBlocks : new boolean[]{false, true}) {
+            File file = createAac(variableBlocks);
+            File indexFile = AdtsIndex.getIndexFile(file);
+            try {
+                AdtsIndex built = AdtsIndex.build(file);
+                built.save(indexFile);
+                AdtsIndex loaded = AdtsIndex.load(file);
+                assertNotNull(loaded);
+                assertEquals(built.getFrameCount(), loaded.getFrameCount());
+                assertEquals(built.getSkippedBytes(), loaded.getSkippedBytes());
+                assertEquals(built.getDurationUs(), loaded.getDurationUs());
+                assertEquals(built.getProfile(), loaded.getProfile());
+                for (int i = 0; i < built.getFrameCount(); i++) {
+                    assertEquals(built.getFrameOffset(i), loaded.getFrameOffset(i));
+                    assertEquals(built.getFrameSize(i), loaded.getFrameSize(i));
+                    assertEquals(built.getFrameTimeUs(i), loaded.getFrameTimeUs(i));
+                }
+            } finally {
+                file.delete();
+                indexFile.delete();
+            }
+        }
+    }
+
+    @Test
+    public void load_invalidatedWhenSourceChanges() throws Exception {
+        File file = createAac(false);
+        File indexFile = AdtsIndex.getIndexFile(file);
+        try {
+            AdtsIndex.loadOrBuild(file);
+            assertTrue(indexFile.isFile());
+            assertNotNull(AdtsIndex.load(file));
+
+            // 修改时间变化
+            assertTrue(file.setLastModified(file.lastModified() - 10_000));
+            assertNull(AdtsIndex.load(file));
+            AdtsIndex.loadOrBuild(file);
+            assertNotNull(AdtsIndex.load(file));
+
+            // 长度变化
+            long lastModified = file.lastModified();
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(raf.length() + 1);
+            }
+            assertTrue(file.setLastModified(lastModified));
+            assertNull(AdtsIndex.load(file));
+
+            // 索引损坏时当作不存在
+            AdtsIndex.loadOrBuild(file);
+            try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+                raf.setLength(raf.length() / 2);
+            }
+            assertNull(AdtsIndex.load(file));
+        } finally {
+            file.delete();
+            indexFile.delete();
+        }
+    }
+
+    /**
+     * ID3 标签 + 5 帧 + 垃圾数据（包含一个假的帧头）+ 5 帧 + 不完整的一帧
+     *
+     * @param variableBlocks 奇数帧是否有两个 raw data block
+     */
+    private File createAac(boolean variableBlocks) throws IOException {
+        mOffsets.clear();
+        mSizes.clear();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(ID3);
+        AdtsHeader header = new AdtsHeader(AdtsHeader.PROFILE_AAC_LC, SAMPLE_RATE, CHANNELS);
+        int frame = 0;
+        for (; frame < 5; frame++) {
+            writeFrame(out, header, frame, variableBlocks);
+        }
+        byte[] garbage = new byte[40];
+        // 帧头合法但下一帧不合法，重新同步时不能接受
+        header.write(ByteBuffer.wrap(garbage), 20, 3);
+        out.write(garbage);
+        for (; frame < 10; frame++) {
+            writeFrame(out, header, frame, variableBlocks);
+        }
+        byte[] truncated = frameBytes(header, 100, false);
+        out.write(truncated, 0, 50);
+
+        File file = File.createTempFile("adtstest", ".aac");
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            out.writeTo(fos);
+        }
+        return file;
+    }
+
+    private void writeFrame(ByteArrayOutputStream out, AdtsHeader header, int frame, boolean variableBlocks) {
+        byte[] bytes = frameBytes(header, 50 + frame * 7, variableBlocks && frame % 2 == 1);
+        mOffsets.add((long) out.size());
+        mSizes.add(bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static byte[] frameBytes(AdtsHeader header, int payloadSize, boolean twoBlocks) {
+        byte[] bytes = new byte[AdtsHeader.HEADER_SIZE + payloadSize];
+        // 数据中没有 0xFF，不会出现假的同步字
+        Arrays.fill(bytes, (byte) 0x5A);
+        header.write(bytes, payloadSize);
+        if (twoBlocks) {
+            bytes[6] |= 1;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,397 @@
+package com.richie.multimedialearning.utils.mp4;
+
+import com.richie.multimedialearning.utils.aac.AdtsHeader;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 在 JVM 上构造一个 moov 在末尾、音视频交错的 MP4，验证样本表、跳转和样本读取
+ */
+public class Mp4FileTest {
+    private static final int VIDEO_SAMPLES = 10;
+    private static final int AUDIO_SAMPLES = 6;
+    private static final int AUDIO_SAMPLE_SIZE = 20;
+    private static final int VIDEO_TIMESCALE = 90000;
+    private static final int AUDIO_TIMESCALE = 44100;
+    // 每个视频样本有两个 NAL，第二个是 2 字节
+    private static final byte[] SEI = {0x06, 0x05};
+    private static final byte[] SPS = {0x67, 0x42, 0x00, 0x1E};
+    private static final byte[] PPS = {0x68, (byte) 0xCE, 0x38, (byte) 0x80};
+    private static final byte[] AUDIO_CONFIG = {0x12, 0x10};
+
+    private final long[] mVideoOffsets = new long[VIDEO_SAMPLES];
+    private final long[] mAudioOffsets = new long[AUDIO_SAMPLES];
+    // 不为 null 时替换默认的 avcC 盒子
+    private byte[] mAvcC;
+    private int mStszCount = VIDEO_SAMPLES;
+
+    @Test
+    public void open_parsesTracks() throws Exception {
+        File file = createMp4();
+        try (Mp4File mp4File = Mp4File.open(file)) {
+            assertEquals(2, mp4File.getTracks().size());
+            Mp4Track video = mp4File.getVideoTrack();
+            assertNotNull(video);
+            assertEquals(1, video.getTrackId());
+            assertEquals("video/avc", video.getMime());
+            assertEquals(320, video.getWidth());
+            assertEquals(240, video.getHeight());
+            assertEquals(90, video.getRotation());
+            assertEquals(4, video.getNalLengthSize());
+            assertArrayEquals(new byte[]{0, 0, 0, 1, 0x67, 0x42, 0x00, 0x1E}, video.getCsd0());
+            assertArrayEquals(new byte[]{0, 0, 0, 1, 0x68, (byte) 0xCE, 0x38, (byte) 0x80}, video.getCsd1());
+            assertEquals(VIDEO_SAMPLES * 3000L * 1_000_000 / VIDEO_TIMESCALE, video.getDurationUs());
+
+            Mp4Track audio = mp4File.getAudioTrack();
+            assertNotNull(audio);
+            assertEquals("audio/mp4a-latm", audio.getMime());
+            assertEquals(AUDIO_TIMESCALE, audio.getSampleRate());
+            assertEquals(2, audio.getChannelCount());
+            assertArrayEquals(AUDIO_CONFIG, audio.getCsd0());
+            assertEquals(AUDIO_SAMPLES, audio.getSampleTable().getSampleCount());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void sampleTable_matchesWrittenLayout() throws Exception {
+        File file = createMp4();
+        try (Mp4File mp4File = Mp4File.open(file)) {
+            Mp4SampleTable video = mp4File.getVideoTrack().getSampleTable();
+            assertEquals(VIDEO_SAMPLES, video.getSampleCount());
+            for (int i = 0; i < VIDEO_SAMPLES; i++) {
+                assertEquals(mVideoOffsets[i], video.getOffset(i));
+                assertEquals(sampleSize(i), video.getSize(i));
+                // ctts 给每个样本加了一帧的偏移
+                assertEquals((i + 1) * 3000L * 1_000_000 / VIDEO_TIMESCALE, video.getTimeUs(i));
+                assertEquals(i == 0 || i == 5, video.isSync(i));
+            }
+            assertEquals(sampleSize(VIDEO_SAMPLES - 1), video.getMaxSampleSize());
+
+            Mp4SampleTable audio = mp4File.getAudioTrack().getSampleTable();
+            for (int i = 0; i < AUDIO_SAMPLES; i++) {
+                assertEquals(mAudioOffsets[i], audio.getOffset(i));
+                assertEquals(AUDIO_SAMPLE_SIZE, audio.getSize(i));
+                assertEquals(i * 1024L * 1_000_000 / AUDIO_TIMESCALE, audio.getTimeUs(i));
+                assertTrue(audio.isSync(i));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void getSyncSampleIndex_returnsPreviousKeyframe() throws Exception {
+        File file = createMp4();
+        try (Mp4File mp4File = Mp4File.open(file)) {
+            Mp4SampleTable video = mp4File.getVideoTrack().getSampleTable();
+            assertEquals(0, video.getSyncSampleIndex(0));
+            assertEquals(0, video.getSyncSampleIndex(video.getTimeUs(4)));
+            assertEquals(5, video.getSyncSampleIndex(video.getTimeUs(5)));
+            assertEquals(5, video.getSyncSampleIndex(Long.MAX_VALUE));
+
+            Mp4SampleTable audio = mp4File.getAudioTrack().getSampleTable();
+            assertEquals(3, audio.getSyncSampleIndex(audio.getTimeUs(3) + 1));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void readSample_convertsToAnnexB() throws Exception {
+        File file = createMp4();
+        try (Mp4File mp4File = Mp4File.open(file)) {
+            Mp4Track video = mp4File.getVideoTrack();
+            ByteBuffer raw = mp4File.getSampleData(video, 3);
+            assertEquals(sampleSize(3), raw.remaining());
+            assertEquals(nalLength(3), raw.getInt(0));
+            assertFalse(raw.hasArray());
+
+            ByteBuffer buffer = ByteBuffer.allocate(64);
+            int size = mp4File.readSample(video, 3, buffer, true);
+            assertEquals(sampleSize(3), size);
+            assertEquals(size, buffer.position());
+            assertEquals(1, buffer.getInt(0));
+            for (int k = 0; k < nalLength(3); k++) {
+                assertEquals(nalByte(3, k), buffer.get(4 + k));
+            }
+            int second = 4 + nalLength(3);
+            assertEquals(1, buffer.getInt(second));
+            assertEquals(SEI[0], buffer.get(second + 4));
+            assertEquals(SEI[1], buffer.get(second + 5));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void extractAac_writesAdtsFrames() throws Exception {
+        File file = createMp4();
+        File aacFile = File.createTempFile("mp4test", ".aac");
+        try {
+            assertEquals(AUDIO_SAMPLES, Mp4Utils.extractAac(file, aacFile));
+            byte[] data = Files.readAllBytes(aacFile.toPath());
+            int frameSize = AdtsHeader.HEADER_SIZE + AUDIO_SAMPLE_SIZE;
+            assertEquals(AUDIO_SAMPLES * frameSize, data.length);
+            AdtsHeader header = new AdtsHeader();
+            assertTrue(header.parse(ByteBuffer.wrap(data), frameSize * 2));
+            assertEquals(AdtsHeader.PROFILE_AAC_LC, header.getProfile());
+            assertEquals(AUDIO_TIMESCALE, header.getSampleRate());
+            assertEquals(2, header.getChannelConfig());
+            assertEquals(frameSize, header.getFrameLength());
+            assertEquals(audioByte(2, 0), data[frameSize * 2 + AdtsHeader.HEADER_SIZE]);
+        } finally {
+            file.delete();
+            aacFile.delete();
+        }
+    }
+
+    @Test
+    public void extractAnnexB_startsWithParameterSets() throws Exception {
+        File file = createMp4();
+        File h264File = File.createTempFile("mp4test", ".h264");
+        try {
+            assertEquals(VIDEO_SAMPLES, Mp4Utils.extractAnnexB(file, h264File));
+            byte[] data = Files.readAllBytes(h264File.toPath());
+            int expected = 2 * (4 + SPS.length);
+            for (int i = 0; i < VIDEO_SAMPLES; i++) {
+                expected += sampleSize(i);
+            }
+            assertEquals(expected, data.length);
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            assertEquals(1, buffer.getInt(0));
+            assertEquals(SPS[0], data[4]);
+            assertEquals(1, buffer.getInt(4 + SPS.length));
+            assertEquals(1, buffer.getInt(2 * (4 + SPS.length)));
+        } finally {
+            file.delete();
+            h264File.delete();
+        }
+    }
+
+    @Test
+    public void open_sizesParameterSetsFromBox() throws Exception {
+        // 超过原来固定的 1024 字节缓冲区
+        byte[] sps = new byte[3000];
+        byte[] pps = new byte[700];
+        for (int i = 0; i < sps.length; i++) {
+            sps[i] = (byte) i;
+        }
+        pps[0] = 0x68;
+        mAvcC = box("avcC", new byte[]{1, 0x42, 0, 0x1E, (byte) 0xFF, (byte) 0xE1}, int16(sps.length), sps,
+                new byte[]{2}, int16(pps.length), pps, int16(PPS.length), PPS);
+        File file = createMp4();
+        try (Mp4File mp4File = Mp4File.open(file)) {
+            Mp4Track video = mp4File.getVideoTrack();
+            byte[] csd0 = video.getCsd0();
+            assertEquals(4 + sps.length, csd0.length);
+            assertEquals(1, ByteBuffer.wrap(csd0).getInt(0));
+            for (int i = 0; i < sps.length; i++) {
+                assertEquals(sps[i], csd0[4 + i]);
+            }
+            byte[] csd1 = video.getCsd1();
+            assertEquals(4 + pps.length + 4 + PPS.length, csd1.length);
+            assertEquals(1, ByteBuffer.wrap(csd1).getInt(4 + pps.length));
+            assertEquals(PPS[0], csd1[8 + pps.length]);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void open_rejectsNalOutOfAvcC() throws Exception {
+        // SPS 的长度超出 avcC 盒子
+        mAvcC = box("avcC", new byte[]{1, 0x42, 0, 0x1E, (byte) 0xFF, (byte) 0xE1}, int16(500), SPS,
+                new byte[]{1}, int16(PPS.length), PPS);
+        assertOpenFails();
+    }
+
+    @Test
+    public void open_wrapsRuntimeExceptions() throws Exception {
+        mStszCount = -1;
+        assertOpenFails();
+    }
+
+    private void assertOpenFails() throws IOException {
+        File file = createMp4();
+        try {
+            Mp4File.open(file).close();
+            throw new AssertionError("Expected IOException");
+        } catch (IOException e) {
+            // 格式错误
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static int nalLength(int sample) {
+        return 5 + sample;
+    }
+
+    private static int sampleSize(int sample) {
+        return 4 + nalLength(sample) + 4 + SEI.length;
+    }
+
+    private static byte nalByte(int sample, int k) {
+        return (byte) (sample * 10 + k);
+    }
+
+    private static byte audioByte(int sample, int k) {
+        return (byte) (0x80 + sample * 7 + k);
+    }
+
+    /**
+     * 视频 3 个块：[0, 3)、[3, 6)、[6, 10)，音频 2 个块，各 3 个样本，在 mdat 中交错排列
+     */
+    private File createMp4() throws IOException {
+        byte[] ftyp = box("ftyp", bytes("isom"), int32(0), bytes("isom"));
+        ByteArrayOutputStream mdat = new ByteArrayOutputStream();
+        long base = ftyp.length + 8;
+        long[] videoChunks = new long[3];
+        long[] audioChunks = new long[2];
+        videoChunks[0] = base + mdat.size();
+        writeVideoSamples(mdat, base, 0, 3);
+        audioChunks[0] = base + mdat.size();
+        writeAudioSamples(mdat, base, 0, 3);
+        videoChunks[1] = base + mdat.size();
+        writeVideoSamples(mdat, base, 3, 6);
+        videoChunks[2] = base + mdat.size();
+        writeVideoSamples(mdat, base, 6, 10);
+        audioChunks[1] = base + mdat.size();
+        writeAudioSamples(mdat, base, 3, 6);
+
+        File file = File.createTempFile("mp4test", ".mp4");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(ftyp);
+            out.write(box("mdat", mdat.toByteArray()));
+            out.write(box("moov", videoTrak(videoChunks), audioTrak(audioChunks)));
+        }
+        return file;
+    }
+
+    private void writeVideoSamples(ByteArrayOutputStream out, long base, int from, int to) throws IOException {
+        for (int i = from; i < to; i++) {
+            mVideoOffsets[i] = base + out.size();
+            out.write(int32(nalLength(i)));
+            for (int k = 0; k < nalLength(i); k++) {
+                out.write(nalByte(i, k));
+            }
+            out.write(int32(SEI.length));
+            out.write(SEI);
+        }
+    }
+
+    private void writeAudioSamples(ByteArrayOutputStream out, long base, int from, int to) {
+        for (int i = from; i < to; i++) {
+            mAudioOffsets[i] = base + out.size();
+            for (int k = 0; k < AUDIO_SAMPLE_SIZE; k++) {
+                out.write(audioByte(i, k));
+            }
+        }
+    }
+
+    private byte[] videoTrak(long[] chunks) throws IOException {
+        byte[] tkhd = fullBox("tkhd", 0, int32(0), int32(0), int32(1), int32(0), int32(0), new byte[16],
+                int32(0), int32(0x10000), int32(0), int32(-0x10000), int32(0), int32(0), int32(0), int32(0), int32(0x40000000),
+                int32(320 << 16), int32(240 << 16));
+        byte[] avcC = mAvcC != null ? mAvcC : box("avcC", new byte[]{1, 0x42, 0, 0x1E, (byte) 0xFF, (byte) 0xE1},
+                int16(SPS.length), SPS, new byte[]{1}, int16(PPS.length), PPS);
+        byte[] avc1 = box("avc1", new byte[6], int16(1), new byte[16], int16(320), int16(240),
+                int32(0x480000), int32(0x480000), int32(0), int16(1), new byte[32], int16(0x18), int16(-1), avcC);
+        ByteArrayOutputStream stsz = new ByteArrayOutputStream();
+        for (int i = 0; i < VIDEO_SAMPLES; i++) {
+            stsz.write(int32(sampleSize(i)));
+        }
+        byte[] stbl = box("stbl",
+                fullBox("stsd", 0, int32(1), avc1),
+                fullBox("stts", 0, int32(1), int32(VIDEO_SAMPLES), int32(3000)),
+                fullBox("ctts", 0, int32(1), int32(VIDEO_SAMPLES), int32(3000)),
+                fullBox("stss", 0, int32(2), int32(1), int32(6)),
+                fullBox("stsz", 0, int32(0), int32(mStszCount), stsz.toByteArray()),
+                fullBox("stsc", 0, int32(2), int32(1), int32(3), int32(1), int32(3), int32(4), int32(1)),
+                fullBox("stco", 0, int32(3), int32((int) chunks[0]), int32((int) chunks[1]), int32((int) chunks[2])));
+        return box("trak", tkhd, mdia(VIDEO_TIMESCALE, VIDEO_SAMPLES * 3000, "vide", stbl));
+    }
+
+    private static byte[] audioTrak(long[] chunks) throws IOException {
+        byte[] tkhd = fullBox("tkhd", 0, int32(0), int32(0), int32(2), int32(0), int32(0), new byte[16],
+                int32(0x10000), int32(0), int32(0), int32(0), int32(0x10000), int32(0), int32(0), int32(0), int32(0x40000000),
+                int32(0), int32(0));
+        byte[] esds = fullBox("esds", 0,
+                new byte[]{3, 25, 0, 2, 0},
+                new byte[]{4, 17, 0x40, 0x15, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0},
+                new byte[]{5, 2}, AUDIO_CONFIG,
+                new byte[]{6, 1, 2});
+        byte[] mp4a = box("mp4a", new byte[6], int16(1), int16(0), int16(0), int32(0), int16(2), int16(16),
+                int16(0), int16(0), int32(AUDIO_TIMESCALE << 16), esds);
+        byte[] stbl = box("stbl",
+                fullBox("stsd", 0, int32(1), mp4a),
+                fullBox("stts", 0, int32(1), int32(AUDIO_SAMPLES), int32(1024)),
+                fullBox("stsz", 0, int32(AUDIO_SAMPLE_SIZE), int32(AUDIO_SAMPLES)),
+                fullBox("stsc", 0, int32(1), int32(1), int32(3), int32(1)),
+                fullBox("co64", 0, int32(2), int64(chunks[0]), int64(chunks[1])));
+        return box("trak", tkhd, mdia(AUDIO_TIMESCALE, AUDIO_SAMPLES * 1024, "soun", stbl));
+    }
+
+    private static byte[] mdia(int timescale, int duration, String handler, byte[] stbl) throws IOException {
+        return box("mdia",
+                fullBox("mdhd", 0, int32(0), int32(0), int32(timescale), int32(duration), int16(0x55C4), int16(0)),
+                fullBox("hdlr", 0, int32(0), bytes(handler), new byte[12], new byte[1]),
+                box("minf", stbl));
+    }
+
+    private static byte[] box(String type, byte[]... payloads) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        for (byte[] payload : payloads) {
+            body.write(payload);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(body.size() + 8);
+        data.writeBytes(type);
+        body.writeTo(data);
+        return out.toByteArray();
+    }
+
+    private static byte[] fullBox(String type, int version, byte[]... payloads) throws IOException {
+        byte[][] all = new byte[payloads.length + 1][];
+        all[0] = int32(version << 24);
+        System.arraycopy(payloads, 0, all, 1, payloads.length);
+        return box(type, all);
+    }
+
+    private static byte[] bytes(String s) {
+        byte[] b = new byte[s.length()];
+        for (int i = 0; i < b.length; i++) {
+            b[i] = (byte) s.charAt(i);
+        }
+        return b;
+    }
+
+    private static byte[] int16(int v) {
+        return new byte[]{(byte) (v >> 8), (byte) v};
+    }
+
+    private static byte[] int32(int v) {
+        return ByteBuffer.allocate(4).putInt(v).array();
+    }
+
+    private static byte[] int64(long v) {
+        return ByteBuffer.allocate(8).putLong(v).array();
+    }
+}
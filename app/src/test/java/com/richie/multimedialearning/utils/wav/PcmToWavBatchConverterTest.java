@@ -0,0 +1,119 @@
+package com.richie.multimedialearning.utils.wav;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 验证批量转换只处理 pcm 文件，每个文件的结果、回调和输出都正确
+ */
+public class PcmToWavBatchConverterTest {
+    private static final int FILE_COUNT = 9;
+
+    @Test
+    public void convertDirectory_convertsEveryPcmFile() throws Exception {
+        File srcDir = Files.createTempDirectory("pcmsrc").toFile();
+        File destDir = new File(Files.createTempDirectory("wavdest").toFile(), "out");
+        byte[][] pcms = new byte[FILE_COUNT][];
+        try {
+            for (int i = 0; i < FILE_COUNT; i++) {
+                // 长度各不相同，包括空文件
+                pcms[i] = PcmToWavTest.randomBytes(i * 4099, i);
+                write(new File(srcDir, "clip" + i + ".pcm"), pcms[i]);
+            }
+            write(new File(srcDir, "notes.txt"), new byte[10]);
+
+            final List<String> converted = Collections.synchronizedList(new ArrayList<String>());
+            // 线程数少于文件数，队列满时由提交线程执行
+            PcmToWavBatchConverter converter = new PcmToWavBatchConverter(2, 44100, 16, 2);
+            List<PcmToWavBatchConverter.Result> results = converter.convertDirectory(srcDir, destDir, false,
+                    new PcmToWavBatchConverter.OnFileConvertedListener() {
+                        @Override
+                        public void onFileConverted(PcmToWavBatchConverter.Result result) {
+                            converted.add(result.srcFile.getName());
+                        }
+                    });
+
+            assertEquals(FILE_COUNT, results.size());
+            assertEquals(FILE_COUNT, converted.size());
+            for (PcmToWavBatchConverter.Result result : results) {
+                assertTrue(result.toString(), result.success);
+                String name = result.srcFile.getName();
+                int index = Integer.parseInt(name.substring("clip".length(), name.length() - ".pcm".length()));
+                assertEquals(new File(destDir, "clip" + index + ".wav"), result.destFile);
+                assertEquals(pcms[index].length, result.bytes);
+                assertTrue(result.srcFile.exists());
+
+                byte[] wav = Files.readAllBytes(result.destFile.toPath());
+                PcmToWavTest.assertHeader(wav, 2, 44100, 16, pcms[index].length);
+                assertArrayEquals(pcms[index], Arrays.copyOfRange(wav, WaveHeader.PCM_HEADER_SIZE, wav.length));
+            }
+            assertEquals(FILE_COUNT, destDir.list().length);
+        } finally {
+            deleteRecursively(srcDir);
+            deleteRecursively(destDir.getParentFile());
+        }
+    }
+
+    @Test
+    public void convertDirectory_deletesSources() throws Exception {
+        File srcDir = Files.createTempDirectory("pcmsrc").toFile();
+        File destDir = Files.createTempDirectory("wavdest").toFile();
+        try {
+            for (int i = 0; i < 3; i++) {
+                write(new File(srcDir, i + ".pcm"), PcmToWavTest.randomBytes(100, i));
+            }
+            List<PcmToWavBatchConverter.Result> results = new PcmToWavBatchConverter(1, 16000, 16)
+                    .convertDirectory(srcDir, destDir, true, null);
+            assertEquals(3, results.size());
+            for (PcmToWavBatchConverter.Result result : results) {
+                assertTrue(result.success);
+                assertFalse(result.srcFile.exists());
+                assertEquals(WaveHeader.PCM_HEADER_SIZE + 100, result.destFile.length());
+            }
+        } finally {
+            deleteRecursively(srcDir);
+            deleteRecursively(destDir);
+        }
+    }
+
+    @Test
+    public void convertDirectory_emptyDirectory() throws Exception {
+        File srcDir = Files.createTempDirectory("pcmsrc").toFile();
+        File destDir = new File(srcDir, "out");
+        try {
+            assertTrue(new PcmToWavBatchConverter(1, 16000, 16).convertDirectory(srcDir, destDir, false, null).isEmpty());
+            assertFalse(destDir.exists());
+        } finally {
+            deleteRecursively(srcDir);
+        }
+    }
+
+    private static void write(File file, byte[] data) throws IOException {
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            fos.write(data);
+        }
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
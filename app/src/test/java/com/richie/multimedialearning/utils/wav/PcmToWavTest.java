@@ -0,0 +1,118 @@
+package com.richie.multimedialearning.utils.wav;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 验证 pcm 文件和 pcm 流转换出的文件头，以及数据原样搬运
+ */
+public class PcmToWavTest {
+
+    @Test
+    public void pcmFile_writesHeaderAndCopiesData() throws Exception {
+        // 数据比一次 transferTo 常见的块大，长度不是 2 的幂
+        byte[] pcm = randomBytes(100_004, 1);
+        File pcmFile = writeTemp(pcm);
+        File wavFile = File.createTempFile("pcmtowav", ".wav");
+        try {
+            assertTrue(PcmToWav.makePcmFileToWavFile(pcmFile.getAbsolutePath(), wavFile.getAbsolutePath(),
+                    false, 2, 48000, 16));
+            assertTrue(pcmFile.exists());
+            byte[] wav = Files.readAllBytes(wavFile.toPath());
+            assertHeader(wav, 2, 48000, 16, pcm.length);
+            assertArrayEquals(pcm, Arrays.copyOfRange(wav, WaveHeader.PCM_HEADER_SIZE, wav.length));
+        } finally {
+            pcmFile.delete();
+            wavFile.delete();
+        }
+    }
+
+    @Test
+    public void pcmFile_replacesDestAndDeletesSource() throws Exception {
+        byte[] pcm = randomBytes(1000, 2);
+        File pcmFile = writeTemp(pcm);
+        // 目标文件已经存在并且更长，不能留下旧数据
+        File wavFile = writeTemp(new byte[5000]);
+        try {
+            assertTrue(PcmToWav.makePcmFileToWavFile(pcmFile.getAbsolutePath(), wavFile.getAbsolutePath(), true));
+            assertFalse(pcmFile.exists());
+            byte[] wav = Files.readAllBytes(wavFile.toPath());
+            assertHeader(wav, 1, 44100, 16, pcm.length);
+            assertArrayEquals(pcm, Arrays.copyOfRange(wav, WaveHeader.PCM_HEADER_SIZE, wav.length));
+        } finally {
+            pcmFile.delete();
+            wavFile.delete();
+        }
+    }
+
+    @Test
+    public void pcmFile_missingSourceFails() throws Exception {
+        File wavFile = File.createTempFile("pcmtowav", ".wav");
+        try {
+            assertFalse(PcmToWav.makePcmFileToWavFile(wavFile.getAbsolutePath() + ".missing",
+                    wavFile.getAbsolutePath(), false));
+        } finally {
+            wavFile.delete();
+        }
+    }
+
+    @Test
+    public void pcmStream_writesHeaderAndData() throws Exception {
+        byte[] pcm = randomBytes(3 * 1001, 3);
+        File wavFile = File.createTempFile("pcmtowav", ".wav");
+        try {
+            assertTrue(PcmToWav.makePcmStreamToWavFile(pcm, wavFile.getAbsolutePath(), 1, 8000, 24));
+            byte[] wav = Files.readAllBytes(wavFile.toPath());
+            assertHeader(wav, 1, 8000, 24, pcm.length);
+            assertArrayEquals(pcm, Arrays.copyOfRange(wav, WaveHeader.PCM_HEADER_SIZE, wav.length));
+        } finally {
+            wavFile.delete();
+        }
+    }
+
+    static void assertHeader(byte[] wav, int channels, int sampleRate, int bits, int dataSize) {
+        assertEquals(WaveHeader.PCM_HEADER_SIZE + dataSize, wav.length);
+        ByteBuffer header = ByteBuffer.wrap(wav).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(WaveHeader.ID_RIFF, header.getInt());
+        assertEquals(dataSize + 36, header.getInt());
+        assertEquals(WaveHeader.ID_WAVE, header.getInt());
+        assertEquals(WaveHeader.ID_FMT, header.getInt());
+        assertEquals(16, header.getInt());
+        assertEquals(WaveHeader.FORMAT_PCM, header.getShort());
+        assertEquals(channels, header.getShort());
+        assertEquals(sampleRate, header.getInt());
+        assertEquals(sampleRate * channels * bits / 8, header.getInt());
+        assertEquals(channels * bits / 8, header.getShort());
+        assertEquals(bits, header.getShort());
+        assertEquals(WaveHeader.ID_DATA, header.getInt());
+        assertEquals(dataSize, header.getInt());
+        assertEquals(WaveHeader.PCM_HEADER_SIZE, header.position());
+    }
+
+    static byte[] randomBytes(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static File writeTemp(byte[] data) throws IOException {
+        File file = File.createTempFile("pcmtowav", ".pcm");
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            fos.write(data);
+        }
+        return file;
+    }
+}
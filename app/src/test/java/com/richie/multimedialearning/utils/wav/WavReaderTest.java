@@ -0,0 +1,240 @@
+package com.richie.multimedialearning.utils.wav;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 在 JVM 上构造带无关区块的 WAV 文件，验证区块遍历、ds64、扩展格式和按帧定位
+ */
+public class WavReaderTest {
+    private static final int ID_LIST = 0x5453494c;
+
+    @Test
+    public void open_skipsUnknownChunks() throws Exception {
+        short[] samples = new short[200];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (short) (i * 300 - 30000);
+        }
+        ByteBuffer file = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+        file.putInt(WaveHeader.ID_RIFF).putInt(0).putInt(WaveHeader.ID_WAVE);
+        // 奇数长度的 LIST 区块后面有一个填充字节
+        file.putInt(ID_LIST).putInt(5).put(new byte[]{'I', 'N', 'F', 'O', 'x', 0});
+        WaveHeader header = WaveHeader.create(WaveHeader.FORMAT_PCM, 2, 44100, 16);
+        header.writeFmtChunk(file);
+        file.putInt(WaveHeader.ID_JUNK).putInt(12).put(new byte[12]);
+        file.putInt(WaveHeader.ID_DATA).putInt(samples.length * 2);
+        int dataOffset = file.position();
+        for (short sample : samples) {
+            file.putShort(sample);
+        }
+        // data 之后的区块不影响解析
+        file.putInt(ID_LIST).putInt(4).putInt(0);
+        file.putInt(4, file.position() - 8);
+
+        File wav = writeTemp(file);
+        try (WavReader reader = new WavReader(wav)) {
+            assertTrue(reader.isPcm());
+            assertEquals(2, reader.getNumChannels());
+            assertEquals(44100, reader.getSampleRate());
+            assertEquals(16, reader.getBitsPerSample());
+            assertEquals(4, reader.getBlockAlign());
+            assertEquals(dataOffset, reader.getDataOffset());
+            assertEquals(samples.length * 2, reader.getDataSize());
+            assertEquals(100, reader.getFrameCount());
+            assertEquals(100 * 1_000_000L / 44100, reader.getDurationUs());
+
+            ShortBuffer shorts = reader.getShortBuffer(0);
+            assertEquals(samples.length, shorts.remaining());
+            for (short sample : samples) {
+                assertEquals(sample, shorts.get());
+            }
+            // 按帧定位
+            ShortBuffer tail = reader.getShortBuffer(60);
+            assertEquals(80, tail.remaining());
+            assertEquals(samples[120], tail.get(0));
+            assertEquals(60 * 4, reader.getFrameOffset(60));
+            assertEquals(0, reader.getShortBuffer(100).remaining());
+        } finally {
+            wav.delete();
+        }
+    }
+
+    @Test
+    public void open_usesDs64DataSize() throws Exception {
+        ByteBuffer file = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+        file.putInt(WaveHeader.ID_RF64).putInt(-1).putInt(WaveHeader.ID_WAVE);
+        file.putInt(WaveHeader.ID_DS64).putInt(28);
+        int ds64 = file.position();
+        file.putLong(0).putLong(0).putLong(0).putInt(0);
+        WaveHeader header = WaveHeader.create(WaveHeader.FORMAT_PCM, 1, 8000, 16);
+        header.writeFmtChunk(file);
+        file.putInt(WaveHeader.ID_DATA).putInt(-1);
+        for (int i = 0; i < 50; i++) {
+            file.putShort((short) i);
+        }
+        // 数据后面还有一个区块，data 的长度只能从 ds64 得到
+        file.putInt(ID_LIST).putInt(4).putInt(0);
+        file.putLong(ds64, file.position() - 8);
+        file.putLong(ds64 + 8, 100);
+        file.putLong(ds64 + 16, 50);
+
+        File wav = writeTemp(file);
+        try (WavReader reader = new WavReader(wav)) {
+            assertEquals(100, reader.getDataSize());
+            assertEquals(50, reader.getFrameCount());
+            assertEquals(49, reader.getShortBuffer(49).get());
+        } finally {
+            wav.delete();
+        }
+    }
+
+    @Test
+    public void open_clampsTruncatedData() throws Exception {
+        ByteBuffer file = ByteBuffer.allocate(256).order(ByteOrder.LITTLE_ENDIAN);
+        file.putInt(WaveHeader.ID_RIFF).putInt(-1).putInt(WaveHeader.ID_WAVE);
+        WaveHeader header = WaveHeader.create(WaveHeader.FORMAT_PCM, 2, 8000, 16);
+        header.writeFmtChunk(file);
+        // 录音中断，长度没有回填，最后一帧不完整
+        file.putInt(WaveHeader.ID_DATA).putInt(0x7FFFFFF0);
+        file.put(new byte[4 * 10 + 3]);
+
+        File wav = writeTemp(file);
+        try (WavReader reader = new WavReader(wav)) {
+            assertEquals(40, reader.getDataSize());
+            assertEquals(10, reader.getFrameCount());
+        } finally {
+            wav.delete();
+        }
+    }
+
+    @Test
+    public void open_readsExtensibleFloat() throws Exception {
+        File wav = File.createTempFile("wavreader", ".wav");
+        try {
+            float[] samples = new float[6 * 16];
+            for (int i = 0; i < samples.length; i++) {
+                samples[i] = (i - 48) / 64f;
+            }
+            ByteBuffer data = ByteBuffer.allocate(samples.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+            data.asFloatBuffer().put(samples);
+            try (WavWriter writer = new WavWriter(wav, WaveHeader.FORMAT_IEEE_FLOAT, 6, 48000, 32)) {
+                writer.write(data);
+            }
+            try (WavReader reader = new WavReader(wav)) {
+                assertTrue(reader.isFloat());
+                assertEquals(6, reader.getNumChannels());
+                assertEquals(16, reader.getFrameCount());
+                FloatBuffer floats = reader.getFloatBuffer(2);
+                assertEquals(samples.length - 12, floats.remaining());
+                assertEquals(samples[12], floats.get(0), 0);
+            }
+
+            try (WavWriter writer = new WavWriter(wav, 2, 96000, 24)) {
+                writer.write(new byte[6 * 5], 0, 6 * 5);
+            }
+            try (WavReader reader = new WavReader(wav)) {
+                // 24 位整型 PCM 写为扩展格式，读出实际格式
+                assertTrue(reader.isPcm());
+                assertEquals(24, reader.getBitsPerSample());
+                assertEquals(24, reader.getValidBitsPerSample());
+                assertEquals(WaveHeader.SPEAKER_FRONT_LEFT | WaveHeader.SPEAKER_FRONT_RIGHT, reader.getChannelMask());
+                assertEquals(5, reader.getFrameCount());
+            }
+        } finally {
+            wav.delete();
+        }
+    }
+
+    @Test
+    public void open_rejectsMissingChunks() throws Exception {
+        ByteBuffer noFmt = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+        noFmt.putInt(WaveHeader.ID_RIFF).putInt(56).putInt(WaveHeader.ID_WAVE);
+        noFmt.putInt(WaveHeader.ID_DATA).putInt(44).put(new byte[44]);
+        assertOpenFails(noFmt);
+
+        ByteBuffer noData = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+        noData.putInt(WaveHeader.ID_RIFF).putInt(56).putInt(WaveHeader.ID_WAVE);
+        WaveHeader.create(WaveHeader.FORMAT_PCM, 1, 8000, 16).writeFmtChunk(noData);
+        assertOpenFails(noData);
+
+        ByteBuffer notWav = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+        notWav.putInt(ID_LIST);
+        assertOpenFails(notWav);
+    }
+
+    @Test
+    public void getDataBuffer_remapsAcrossWindows() throws Exception {
+        File wav = File.createTempFile("wavreader", ".wav");
+        try {
+            // 比一个 32MB 的窗口大，3 字节一帧，窗口边界不是 4 的倍数
+            int frameCount = (48 << 20) / 3;
+            byte[] chunk = new byte[3 * 4096];
+            try (WavWriter writer = new WavWriter(wav, 1, 48000, 24)) {
+                for (int frame = 0; frame < frameCount; frame += 4096) {
+                    for (int i = 0; i < 4096; i++) {
+                        int value = frame + i;
+                        chunk[i * 3] = (byte) value;
+                        chunk[i * 3 + 1] = (byte) (value >> 8);
+                        chunk[i * 3 + 2] = (byte) (value >> 16);
+                    }
+                    writer.write(chunk, 0, Math.min(4096, frameCount - frame) * 3);
+                }
+            }
+            try (WavReader reader = new WavReader(wav)) {
+                assertEquals(frameCount, reader.getFrameCount());
+                int frame = 0;
+                int windows = 0;
+                while (frame < frameCount) {
+                    ByteBuffer buffer = reader.getDataBuffer(frame);
+                    assertEquals(0, buffer.remaining() % 3);
+                    assertEquals(frame, readInt24(buffer, buffer.position()));
+                    int frames = buffer.remaining() / 3;
+                    assertEquals(frame + frames - 1, readInt24(buffer, buffer.limit() - 3));
+                    frame += frames;
+                    windows++;
+                }
+                assertEquals(2, windows);
+                // 往回跳转时重新映射
+                ByteBuffer buffer = reader.getDataBuffer(12345);
+                assertEquals(12345, readInt24(buffer, buffer.position()));
+            }
+        } finally {
+            wav.delete();
+        }
+    }
+
+    private static int readInt24(ByteBuffer buffer, int index) {
+        return (buffer.get(index) & 0xFF) | (buffer.get(index + 1) & 0xFF) << 8 | (buffer.get(index + 2) & 0xFF) << 16;
+    }
+
+    private static void assertOpenFails(ByteBuffer content) throws IOException {
+        File wav = writeTemp(content);
+        try {
+            new WavReader(wav).close();
+        } catch (IOException e) {
+            return;
+        } finally {
+            wav.delete();
+        }
+        throw new AssertionError("Expected IOException");
+    }
+
+    private static File writeTemp(ByteBuffer content) throws IOException {
+        File file = File.createTempFile("wavreader", ".wav");
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            fos.write(content.array(), 0, content.position());
+        }
+        return file;
+    }
+}
@@ -0,0 +1,166 @@
+package com.richie.multimedialearning.utils.wav;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 验证流式写入的文件头回填、奇数长度的填充字节和超过阈值时升级为 RF64
+ */
+public class WavWriterTest {
+    // 标准 PCM 文件头加上 36 字节的 JUNK 区块
+    private static final int PCM_HEADER_SIZE = WaveHeader.PCM_HEADER_SIZE + 36;
+
+    @Test
+    public void close_backfillsRiffHeader() throws Exception {
+        File file = File.createTempFile("wavwriter", ".wav");
+        try {
+            byte[] data = pattern(1000);
+            WavWriter writer = new WavWriter(file, 2, 44100, 16);
+            writer.write(data, 0, 600);
+            writer.write(ByteBuffer.wrap(data, 600, 400));
+            assertEquals(1000, writer.getDataSize());
+            writer.close();
+
+            ByteBuffer buffer = readFile(file);
+            assertEquals(PCM_HEADER_SIZE + 1000, buffer.limit());
+            assertEquals(WaveHeader.ID_RIFF, buffer.getInt(0));
+            assertEquals(buffer.limit() - 8, buffer.getInt(4));
+            assertEquals(WaveHeader.ID_JUNK, buffer.getInt(12));
+
+            WaveHeader header = new WaveHeader();
+            header.read(buffer);
+            assertEquals(PCM_HEADER_SIZE, buffer.position());
+            assertEquals(WaveHeader.FORMAT_PCM, header.AudioFormat);
+            assertEquals(2, header.NumChannels);
+            assertEquals(44100, header.SampleRate);
+            assertEquals(16, header.BitsPerSample);
+            assertEquals(4, header.BlockAlign);
+            assertEquals(44100 * 4, header.BitsRate);
+            assertEquals(1000, header.Subchunk2Size);
+            assertArrayEquals(data, remaining(buffer));
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void close_padsOddDataSize() throws Exception {
+        File file = File.createTempFile("wavwriter", ".wav");
+        try {
+            WavWriter writer = new WavWriter(file, 1, 8000, 8);
+            writer.write(pattern(3), 0, 3);
+            writer.close();
+
+            ByteBuffer buffer = readFile(file);
+            assertEquals(PCM_HEADER_SIZE + 4, buffer.limit());
+            assertEquals(buffer.limit() - 8, buffer.getInt(4));
+            WaveHeader header = new WaveHeader();
+            header.read(buffer);
+            // data 区块的长度不包括填充字节
+            assertEquals(3, header.Subchunk2Size);
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void close_upgradesToRf64() throws Exception {
+        File file = File.createTempFile("wavwriter", ".wav");
+        try {
+            byte[] data = pattern(1000);
+            WavWriter writer = new WavWriter(file, WaveHeader.FORMAT_PCM, 2, 48000, 16, 100);
+            writer.write(data, 0, data.length);
+            writer.close();
+
+            ByteBuffer buffer = readFile(file);
+            assertEquals(PCM_HEADER_SIZE + 1000, buffer.limit());
+            assertEquals(WaveHeader.ID_RF64, buffer.getInt(0));
+            assertEquals(-1, buffer.getInt(4));
+            // JUNK 区块就地改写为 ds64
+            assertEquals(WaveHeader.ID_DS64, buffer.getInt(12));
+            assertEquals(28, buffer.getInt(16));
+            assertEquals(buffer.limit() - 8, buffer.getLong(20));
+            assertEquals(1000, buffer.getLong(28));
+            assertEquals(250, buffer.getLong(36));
+            assertEquals(WaveHeader.ID_DATA, buffer.getInt(PCM_HEADER_SIZE - 8));
+            assertEquals(-1, buffer.getInt(PCM_HEADER_SIZE - 4));
+
+            try (WavReader reader = new WavReader(file)) {
+                assertEquals(PCM_HEADER_SIZE, reader.getDataOffset());
+                assertEquals(1000, reader.getDataSize());
+                assertEquals(250, reader.getFrameCount());
+                assertArrayEquals(data, remaining(reader.getDataBuffer(0)));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void floatFormat_writesFactChunk() throws Exception {
+        File file = File.createTempFile("wavwriter", ".wav");
+        try {
+            WavWriter writer = new WavWriter(file, WaveHeader.FORMAT_IEEE_FLOAT, 2, 48000, 32);
+            writer.write(pattern(80), 0, 80);
+            writer.close();
+
+            ByteBuffer buffer = readFile(file);
+            WaveHeader header = new WaveHeader();
+            header.read(buffer);
+            assertEquals(WaveHeader.FORMAT_IEEE_FLOAT, header.getFormatCode());
+            assertEquals(18, header.Subchunk1Size);
+            assertEquals(10, header.SampleLength);
+            assertEquals(80, header.Subchunk2Size);
+            assertEquals(WaveHeader.PCM_HEADER_SIZE + 2 + 12 + 36, buffer.position());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void write_afterCloseThrows() throws Exception {
+        File file = File.createTempFile("wavwriter", ".wav");
+        try {
+            WavWriter writer = new WavWriter(file, 1, 8000, 16);
+            writer.close();
+            // 重复关闭不会改写文件
+            writer.close();
+            boolean thrown = false;
+            try {
+                writer.write(new byte[2], 0, 2);
+            } catch (IOException e) {
+                thrown = true;
+            }
+            assertTrue(thrown);
+        } finally {
+            file.delete();
+        }
+    }
+
+    static byte[] pattern(int length) {
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) (i * 7 + 3);
+        }
+        return data;
+    }
+
+    static ByteBuffer readFile(File file) throws IOException {
+        return ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    static byte[] remaining(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
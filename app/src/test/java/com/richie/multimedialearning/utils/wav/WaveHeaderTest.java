@@ -0,0 +1,161 @@
+package com.richie.multimedialearning.utils.wav;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 验证标准 PCM、扩展格式和浮点格式文件头的布局和读写往返
+ */
+public class WaveHeaderTest {
+
+    @Test
+    public void pcm16_standardLayout() throws Exception {
+        WaveHeader header = WaveHeader.create(WaveHeader.FORMAT_PCM, 2, 44100, 16);
+        header.setDataSize(1000);
+        assertEquals(WaveHeader.FORMAT_PCM, header.AudioFormat);
+        assertEquals(16, header.getFmtChunkSize());
+        assertFalse(header.hasFactChunk());
+        assertEquals(WaveHeader.PCM_HEADER_SIZE, header.getHeaderSize());
+        assertEquals(36 + 1000, header.ChunkSize);
+        assertEquals(250, header.SampleLength);
+
+        WaveHeader parsed = roundTrip(header);
+        assertEquals(WaveHeader.FORMAT_PCM, parsed.getFormatCode());
+        assertEquals(16, parsed.Subchunk1Size);
+        assertEquals(2, parsed.NumChannels);
+        assertEquals(44100, parsed.SampleRate);
+        assertEquals(16, parsed.BitsPerSample);
+        assertEquals(4, parsed.BlockAlign);
+        assertEquals(44100 * 4, parsed.BitsRate);
+        assertEquals(1000, parsed.Subchunk2Size);
+        assertEquals(header.ChunkSize, parsed.ChunkSize);
+    }
+
+    @Test
+    public void pcm24_usesExtensible() throws Exception {
+        WaveHeader header = WaveHeader.create(WaveHeader.FORMAT_PCM, 2, 96000, 24);
+        header.setDataSize(6 * 7);
+        assertEquals(WaveHeader.FORMAT_EXTENSIBLE, header.AudioFormat & 0xFFFF);
+        assertEquals(WaveHeader.FORMAT_PCM, header.getFormatCode());
+        assertEquals(40, header.getFmtChunkSize());
+        assertFalse(header.hasFactChunk());
+        assertEquals(WaveHeader.PCM_HEADER_SIZE + 24, header.getHeaderSize());
+
+        WaveHeader parsed = roundTrip(header);
+        assertEquals(WaveHeader.FORMAT_EXTENSIBLE, parsed.AudioFormat & 0xFFFF);
+        assertEquals(WaveHeader.FORMAT_PCM, parsed.getFormatCode());
+        assertEquals(40, parsed.Subchunk1Size);
+        assertEquals(24, parsed.BitsPerSample);
+        assertEquals(24, parsed.ValidBitsPerSample);
+        assertEquals(6, parsed.BlockAlign);
+        assertEquals(WaveHeader.SPEAKER_FRONT_LEFT | WaveHeader.SPEAKER_FRONT_RIGHT, parsed.ChannelMask);
+        assertEquals(42, parsed.Subchunk2Size);
+    }
+
+    @Test
+    public void multiChannel16_usesExtensible() throws Exception {
+        WaveHeader header = WaveHeader.create(WaveHeader.FORMAT_PCM, 6, 48000, 16);
+        assertEquals(40, header.getFmtChunkSize());
+        WaveHeader parsed = roundTrip(header);
+        assertEquals(WaveHeader.FORMAT_PCM, parsed.getFormatCode());
+        assertEquals(6, parsed.NumChannels);
+        assertEquals(WaveHeader.defaultChannelMask(6), parsed.ChannelMask);
+        assertEquals(0x3F, parsed.ChannelMask);
+        assertEquals(0x7, WaveHeader.defaultChannelMask(3));
+    }
+
+    @Test
+    public void float32_writesFactChunk() throws Exception {
+        WaveHeader header = WaveHeader.create(WaveHeader.FORMAT_IEEE_FLOAT, 2, 48000, 32);
+        header.setDataSize(8 * 30);
+        assertEquals(WaveHeader.FORMAT_IEEE_FLOAT, header.AudioFormat);
+        assertEquals(18, header.getFmtChunkSize());
+        assertTrue(header.hasFactChunk());
+        // fmt 多 2 字节的 cbSize，再加 12 字节的 fact 区块
+        assertEquals(WaveHeader.PCM_HEADER_SIZE + 2 + 12, header.getHeaderSize());
+        assertEquals(30, header.SampleLength);
+
+        ByteBuffer buffer = ByteBuffer.allocate(header.getHeaderSize()).order(ByteOrder.LITTLE_ENDIAN);
+        header.write(buffer);
+        assertEquals(WaveHeader.ID_FACT, buffer.getInt(12 + 8 + 18));
+        assertEquals(30, buffer.getInt(12 + 8 + 18 + 8));
+
+        WaveHeader parsed = roundTrip(header);
+        assertEquals(WaveHeader.FORMAT_IEEE_FLOAT, parsed.getFormatCode());
+        assertEquals(18, parsed.Subchunk1Size);
+        assertEquals(30, parsed.SampleLength);
+        assertEquals(240, parsed.Subchunk2Size);
+    }
+
+    @Test
+    public void read_skipsUnknownChunksAndKeepsByteOrder() throws Exception {
+        WaveHeader header = WaveHeader.create(WaveHeader.FORMAT_PCM, 1, 16000, 16);
+        ByteBuffer buffer = ByteBuffer.allocate(128).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(WaveHeader.ID_RIFF).putInt(0).putInt(WaveHeader.ID_WAVE);
+        // 奇数长度的区块后面有一个填充字节
+        buffer.putInt(0x5453494c).putInt(3).put(new byte[4]);
+        header.writeFmtChunk(buffer);
+        buffer.putInt(WaveHeader.ID_JUNK).putInt(8).putLong(0);
+        buffer.putInt(WaveHeader.ID_DATA).putInt(20);
+        int dataOffset = buffer.position();
+        buffer.flip();
+        buffer.order(ByteOrder.BIG_ENDIAN);
+
+        WaveHeader parsed = new WaveHeader();
+        parsed.read(buffer);
+        assertEquals(dataOffset, buffer.position());
+        assertSame(ByteOrder.BIG_ENDIAN, buffer.order());
+        assertEquals(16000, parsed.SampleRate);
+        assertEquals(20, parsed.Subchunk2Size);
+    }
+
+    @Test
+    public void read_rejectsBrokenHeaders() {
+        ByteBuffer notRiff = ByteBuffer.allocate(44);
+        notRiff.putInt(0, 0x12345678);
+        assertReadFails(notRiff);
+
+        WaveHeader header = WaveHeader.create(WaveHeader.FORMAT_PCM, 1, 16000, 16);
+        ByteBuffer truncated = ByteBuffer.allocate(header.getHeaderSize());
+        header.write(truncated);
+        truncated.flip();
+        truncated.limit(truncated.limit() - 8);
+        assertReadFails(truncated);
+
+        ByteBuffer noFmt = ByteBuffer.allocate(20).order(ByteOrder.LITTLE_ENDIAN);
+        noFmt.putInt(WaveHeader.ID_RIFF).putInt(12).putInt(WaveHeader.ID_WAVE).putInt(WaveHeader.ID_DATA).putInt(0);
+        noFmt.flip();
+        assertReadFails(noFmt);
+    }
+
+    private static WaveHeader roundTrip(WaveHeader header) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(header.getHeaderSize() + 4);
+        buffer.put((byte) 0x55);
+        header.write(buffer);
+        assertEquals(1 + header.getHeaderSize(), buffer.position());
+        assertSame(ByteOrder.BIG_ENDIAN, buffer.order());
+        buffer.flip();
+        buffer.position(1);
+        WaveHeader parsed = new WaveHeader();
+        parsed.read(buffer);
+        assertEquals(1 + header.getHeaderSize(), buffer.position());
+        return parsed;
+    }
+
+    private static void assertReadFails(ByteBuffer buffer) {
+        try {
+            new WaveHeader().read(buffer);
+        } catch (IOException e) {
+            return;
+        }
+        throw new AssertionError("Expected IOException");
+    }
+}